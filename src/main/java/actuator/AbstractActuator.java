@@ -110,6 +110,14 @@ public abstract class AbstractActuator implements Pokable, InterfaceScenarioElem
         ison = true;
     }
 
+    // Called instead of initialize when the scenario is initialized again. The targets are already
+    // registered; this returns the actuator to its initial state and schedules its first poke.
+    public void restart(Dispatcher dispatcher, float timestamp) throws OTMException {
+        ison = true;
+        if(dt!=null)
+            dispatcher.register_event(new EventPoke(dispatcher,3,timestamp,this));
+    }
+
     protected void set_dt_for_target(){
 
         if(passive){
@@ -5,6 +5,7 @@ import control.command.InterfaceCommand;
 import core.AbstractLaneGroup;
 import core.LaneGroupSet;
 import core.ScenarioElementType;
+import dispatch.Dispatcher;
 import error.OTMErrorLog;
 import error.OTMException;
 import jaxb.Actuator;
@@ -59,6 +60,13 @@ public class ActuatorLaneGroupCapacity extends AbstractActuatorLaneGroup  {
 
     }
 
+    @Override
+    public void restart(Dispatcher dispatcher, float timestamp) throws OTMException {
+        for(AbstractLaneGroup lg : lanegroups)
+            lg.set_to_nominal_capacity();
+        super.restart(dispatcher,timestamp);
+    }
+
     @Override
     public void process_command(InterfaceCommand command, float timestamp) throws OTMException {
         if(command==null)
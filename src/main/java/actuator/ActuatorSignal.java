@@ -3,6 +3,7 @@ package actuator;
 import control.command.CommandSignal;
 import control.command.InterfaceCommand;
 import core.ScenarioElementType;
+import dispatch.Dispatcher;
 import error.OTMErrorLog;
 import error.OTMException;
 import core.Scenario;
@@ -77,6 +78,13 @@ public class ActuatorSignal extends AbstractActuator {
         target.register_actuator(commids,this,override_targets);
     }
 
+    @Override
+    public void restart(Dispatcher dispatcher, float timestamp) throws OTMException {
+        for(SignalPhase p : signal_phases.values())
+            p.set_bulb_color(SignalPhase.BulbColor.DARK);
+        super.restart(dispatcher,timestamp);
+    }
+
     @Override
     public void process_command(InterfaceCommand command, float timestamp) throws OTMException {
 
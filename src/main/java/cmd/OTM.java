@@ -1,14 +1,21 @@
 package cmd;
 
 import error.OTMException;
+import output.EnsembleStatistics;
 import py4j.GatewayServer;
 
+import java.io.File;
+import java.util.List;
+
 public class OTM {
 
+    private static final double [] ENSEMBLE_QUANTILES = {0.05,0.5,0.95};
+
     // 0:  -help      Display usage message.
     //     -version   Display version information.
     //     -load      Load and validate a config file. arguments: <configfile>
     //     -run       Run a config file with default paramters. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration>
+    //     -ensemble  Run stochastic replications and write statistics of the outputs. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration> <replications> [<seed>] [<threads>]
     //     -gateway
     // 1: configfile: absolute location and name of the configuration file.
     // 2: prefix: string to be pre-pended to all output files.
@@ -16,6 +23,9 @@ public class OTM {
     // 4: output folder: folder where the output files should go.
     // 5: start_time: [integer] start time for the simrultion in seconds after midnight.
     // 6: duration: [integer] simulation duration in seconds.
+    // 7: replications: [integer] number of replications (-ensemble only).
+    // 8: seed: [integer] seed of the first replication, default 0 (-ensemble only).
+    // 9: threads: [integer] number of worker threads, default number of processors (-ensemble only).
     public static void main(String[] args) {
 
         GatewayServer gatewayServer=null;
@@ -71,6 +81,54 @@ public class OTM {
             }
         }
 
+        else if (cmd.equals("-ensemble")){
+            //    0 configfile
+            //    1 prefix
+            //    2 output_request
+            //    3 output folder
+            //    4 start_time
+            //    5 duration
+            //    6 replications
+            //    7 seed (optional)
+            //    8 threads (optional)
+            try {
+
+                if(arguments.length<7) {
+                    System.err.println("Not enough input arguments.");
+                    return;
+                }
+
+                String configfile = arguments[0];
+                String prefix = arguments[1];
+                String output_requests_file = arguments[2].equalsIgnoreCase("null") ? null : arguments[2];
+                String output_folder = arguments[3];
+                int start_time = Integer.parseInt(arguments[4]);
+                int duration = Integer.parseInt(arguments[5]);
+                int replications = Integer.parseInt(arguments[6]);
+                long seed = arguments.length>7 ? Long.parseLong(arguments[7]) : 0L;
+                int threads = arguments.length>8 ? Integer.parseInt(arguments[8]) : Runtime.getRuntime().availableProcessors();
+
+                // replications are built from the configuration, so keep it
+                core.ScenarioContext context = new core.ScenarioContext();
+                context.keep_source = true;
+                core.OTM otm = new core.OTM(configfile,true,context);
+                long start = System.nanoTime();
+                List<EnsembleStatistics> statistics = otm.run_ensemble(output_requests_file,replications,seed,start_time,duration,threads);
+                double minutes = (System.nanoTime()-start)/6e10;
+
+                for(int j=0;j<statistics.size();j++){
+                    EnsembleStatistics stats = statistics.get(j);
+                    String filename = String.format("%s%s%s_ensemble_%d_%s.txt",output_folder,File.separator,prefix,j,stats.get_type());
+                    stats.write(filename,ENSEMBLE_QUANTILES);
+                }
+
+                System.out.println(String.format("%d replications in %.1f seconds (%.1f replications per minute).",replications,minutes*60d,replications/minutes));
+
+            } catch (OTMException e) {
+                e.printStackTrace();
+            }
+        }
+
         // specified port
         else if (cmd.equals("-gateway")) {
             try{
@@ -120,12 +178,16 @@ public class OTM {
                         "\t-version\tDisplay version information.\n" +
                         "\t-load\t\tLoad and validate a config file. arguments: <configfile>\n" +
                         "\t-run\t\tRun a config file with default paramters. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration>\n" +
+                        "\t-ensemble\tRun stochastic replications on a pool of threads and write the mean, variance and quantiles of each output. arguments: <configfile> <prefix> <output request file> <output folder> <start_time> <duration> <replications> [<seed>] [<threads>]\n" +
                         "\t\tconfigfile: absolute location and name of the configuration file.\n" +
                         "\t\tprefix: string to be pre-pended to all output files.\n" +
                         "\t\toutput request file: absolute location and name of the output request file.\n" +
                         "\t\toutput folder: folder where the output files should go.\n" +
                         "\t\tstart_time: [integer] start time for the simrultion in seconds after midnight.\n" +
-                        "\t\tduration: [integer] simulation duration in seconds.\n";
+                        "\t\tduration: [integer] simulation duration in seconds.\n" +
+                        "\t\treplications: [integer] number of replications.\n" +
+                        "\t\tseed: [integer] seed of the first replication, replication i uses seed+i. Default 0.\n" +
+                        "\t\tthreads: [integer] number of worker threads. Default is the number of processors.\n";
         return str;
     }
 
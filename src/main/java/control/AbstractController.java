@@ -2,6 +2,7 @@ package control;
 
 import actuator.AbstractActuator;
 import core.InterfaceEventWriter;
+import control.command.CommandNumber;
 import control.command.InterfaceCommand;
 import dispatch.AbstractEvent;
 import dispatch.Dispatcher;
@@ -18,6 +19,9 @@ import output.events.EventWrapperController;
 import sensor.AbstractSensor;
 import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 public abstract class AbstractController implements Pokable, InterfaceScenarioElement, InterfaceEventWriter {
@@ -153,7 +157,10 @@ public abstract class AbstractController implements Pokable, InterfaceScenarioEl
 
         for(AbstractActuator x : actuators.values()) {
             x.myController = this;
-            x.initialize(scenario, now ,override_targets);
+            if(x.initialized)
+                x.restart(scenario.dispatcher, now);
+            else
+                x.initialize(scenario, now ,override_targets);
         }
 
         // validate
@@ -264,6 +271,39 @@ public abstract class AbstractController implements Pokable, InterfaceScenarioEl
         event_output = (OutputController) e;
     }
 
+    ///////////////////////////////////////////////////
+    // checkpoint
+    ///////////////////////////////////////////////////
+
+    // Only numeric commands are saved (ramp metering rates, fixed flows). Other commands are
+    // functions of time and are recomputed when the controller is initialized.
+    public void write_checkpoint(DataOutputStream out) throws IOException {
+        List<Long> act_ids = new ArrayList<>();
+        for(Map.Entry<Long,InterfaceCommand> e : command.entrySet())
+            if(e.getValue() instanceof CommandNumber && ((CommandNumber)e.getValue()).value!=null)
+                act_ids.add(e.getKey());
+        Collections.sort(act_ids);
+        out.writeInt(act_ids.size());
+        for(Long act_id : act_ids){
+            out.writeLong(act_id);
+            out.writeFloat(((CommandNumber)command.get(act_id)).value);
+        }
+    }
+
+    public void read_checkpoint(DataInputStream in) throws IOException, OTMException {
+        int n = in.readInt();
+        for(int i=0;i<n;i++){
+            long act_id = in.readLong();
+            float value = in.readFloat();
+            if(!command.containsKey(act_id))
+                throw new OTMException("Checkpoint does not match the actuators of controller " + id);
+            command.put(act_id,new CommandNumber(value));
+            AbstractActuator act = actuators.get(act_id);
+            if(act.dt==null && act.myController==this)
+                act.process_command(command.get(act_id),scenario.dispatcher.current_time);
+        }
+    }
+
     ///////////////////////////////////////////////////
     // getters
     ///////////////////////////////////////////////////
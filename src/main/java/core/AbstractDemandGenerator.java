@@ -11,6 +11,10 @@ import models.vehicle.VehicleDemandGenerator;
 import profiles.Profile1D;
 import profiles.TimeValue;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public abstract class AbstractDemandGenerator {
 
     // TODO: The child classes for this class are Fluid vs. Vehicle, but could also be
@@ -25,6 +29,9 @@ public abstract class AbstractDemandGenerator {
     // demand value
     protected double source_demand_vps;    // vps
 
+    // scales the profile values, set with Scenario.set_demand_multipliers
+    protected double demand_multiplier = 1d;
+
     public AbstractDemandGenerator(Link link, Profile1D profile, Commodity commodity, Path path){
         this.link = link;
         this.profile = profile;
@@ -110,7 +117,7 @@ public abstract class AbstractDemandGenerator {
     }
 
     public void register_with_dispatcher(Dispatcher dispatcher) {
-        double value = profile.get_value_for_time(dispatcher.current_time);
+        double value = profile.get_value_for_time(dispatcher.current_time) * demand_multiplier;
         dispatcher.register_event(new EventDemandChange(dispatcher,dispatcher.current_time,this,value));
     }
 
@@ -125,7 +132,7 @@ public abstract class AbstractDemandGenerator {
     public void register_next_change(Dispatcher dispatcher,float timestamp) {
         TimeValue time_value = profile.get_change_following(timestamp);
         if (time_value != null) {
-            dispatcher.register_event(new EventDemandChange(dispatcher, time_value.time, this, time_value.value));
+            dispatcher.register_event(new EventDemandChange(dispatcher, time_value.time, this, time_value.value * demand_multiplier));
 
             // schedule next vehicle
             if(this instanceof VehicleDemandGenerator)
@@ -133,6 +140,13 @@ public abstract class AbstractDemandGenerator {
         }
     }
 
+    // the demand value is recomputed at restore time, only pending events need to be saved
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+    }
+
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException {
+    }
+
     public DemandType get_type(){
         if(link!=null)
             return DemandType.pathless;
@@ -5,7 +5,6 @@ import commodity.Path;
 import core.geometry.Side;
 import dispatch.Dispatcher;
 import error.OTMException;
-import jaxb.Lanechanges;
 import models.fluid.*;
 import models.fluid.nodemodel.NodeModel;
 import models.fluid.nodemodel.RoadConnection;
@@ -31,13 +30,14 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
         this.max_cell_length = params.getMaxCellLength()==null ? -1 : params.getMaxCellLength();
     }
 
-    @Override
-    public void configure(Scenario scenario, Lanechanges lcs) throws OTMException {
-        super.configure(scenario, lcs);
+    // Called once the lane groups of all models exist: node models read the lane groups of downstream links,
+    // which may belong to a model configured after this one.
+    public void build_cells_and_node_models() throws OTMException {
 
+        source_links.clear();
+        sink_links.clear();
         Set<Node> all_nodes = new HashSet<>();
 
-        // create cells
         for(Link link : links) {
 
             if(link.is_source())
@@ -51,6 +51,10 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
 
             if(!link.get_end_node().is_sink)
                 all_nodes.add(link.get_end_node());
+        }
+
+        // create cells
+        scenario.context.parallel_for_each(links, link -> {
 
             // compute cell length .............
             float r = link.get_full_length()/max_cell_length;
@@ -76,14 +80,13 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
             barriers_to_cells(link,link.get_in_barriers(),cell_length_meters,link.get_num_dn_in_lanes());
             barriers_to_cells(link,link.get_out_barriers(),cell_length_meters,link.get_num_dn_in_lanes()+link.get_full_lanes());
 
-        }
+        });
 
+        // node models only read the lane groups, so they are built in parallel and collected afterwards
         node_models = new HashMap<>();
-        for(Node node : all_nodes) {
-            NodeModel nm = new NodeModel(node);
-            node_models.put(node.getId(),nm);
-            nm.build();
-        }
+        for(Node node : all_nodes)
+            node_models.put(node.getId(),new NodeModel(node,scenario.context));
+        scenario.context.parallel_for_each(node_models.values(), NodeModel::build);
 
     }
 
@@ -174,6 +177,9 @@ public abstract class AbstractFluidModel extends AbstractModel implements Interf
             for(AbstractLaneGroup alg : link.get_lgs()){
                 FluidLaneGroup lg = (FluidLaneGroup)alg;
                 lg.cells.get(0).add_vehicles(lg.source_flow,null,null);
+                if(link.perf!=null && lg.source_flow!=null)
+                    for(Map.Entry<State,Double> e : lg.source_flow.entrySet())
+                        link.perf.enter(e.getKey().commodity_id,e.getValue(),timestamp);
             }
         }
 
@@ -8,8 +8,10 @@ import error.OTMException;
 import core.packet.StateContainer;
 import models.Maneuver;
 import traveltime.AbstractLaneGroupTimer;
-import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -67,6 +69,9 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
 
     public AbstractLaneGroupTimer travel_timer;
 
+    // link states for which allocate_state was last called
+    private Set<State> allocated_states;
+
     ///////////////////////////////////////////////////
     // construction / destruction
     ///////////////////////////////////////////////////
@@ -76,7 +81,7 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
         this.side = side;
         this.length = length;
         this.num_lanes = num_lanes;
-        this.id = OTMUtils.get_lanegroup_id();
+        this.id = link.get_scenario().context.next_lanegroup_id();
         this.start_lane_dn = start_lane;
         this.state2roadconnection = new HashMap<>();
         this.state2lanechangeprob = new HashMap<>();
@@ -211,6 +216,12 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
 
     public abstract jaxb.Roadparam get_road_params();
 
+    // used by Scenario.set_road_params to check a batch of parameters before any of them is applied
+    public void validate_road_params(jaxb.Roadparam r, OTMErrorLog errorLog){
+        if(r.getCapacity()<=0 || r.getSpeed()<=0 || r.getJamDensity()<=0)
+            errorLog.addError("Road parameters must be positive (link " + link.getId() + ")");
+    }
+
     public final void reset_road_params() throws OTMException {
         set_road_params(roadparam_orig);
     }
@@ -219,6 +230,22 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
 
     }
 
+    // Allocates the model state the first time and whenever the link states have changed since the last
+    // allocation. Otherwise the existing state containers are emptied in place.
+    public final void prepare_state(){
+        if(allocated_states!=null && allocated_states.equals(link.states))
+            clear_state();
+        else {
+            allocate_state();
+            allocated_states = new HashSet<>(link.states);
+        }
+    }
+
+    // empty the state allocated by allocate_state. Models that allocate containers should override this
+    public void clear_state(){
+        allocate_state();
+    }
+
     public void initialize(Scenario scenario, float start_time) throws OTMException {
         if(link.is_model_source_link)
             this.buffer = new StateContainer();
@@ -227,6 +254,15 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
             flw_acc.reset();
     }
 
+    // model specific state is added by overriding these two together
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        Checkpoint.write_state_map(out, buffer==null ? null : buffer.amount);
+    }
+
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException, OTMException {
+        Checkpoint.read_state_map(in, buffer==null ? null : buffer.amount);
+    }
+
     public final FlowAccumulatorState request_flow_accumulator(Set<Long> comm_ids){
         if(flw_acc==null)
             flw_acc = new FlowAccumulatorState();
@@ -289,6 +325,8 @@ public abstract class AbstractLaneGroup implements Comparable<AbstractLaneGroup>
     public final void update_flow_accummulators(State state, double num_vehicles){
         if(flw_acc!=null)
             flw_acc.increment(state,num_vehicles);
+        if(link.perf!=null)
+            link.perf.exit(state.commodity_id,num_vehicles,link.get_scenario().dispatcher.current_time);
     }
 
 //    public final RoadConnection get_target_road_connection_for_state(State state){
@@ -11,6 +11,7 @@ import error.OTMException;
 import core.packet.PacketLaneGroup;
 import core.packet.PacketLink;
 import lanechange.*;
+import utils.SplitMixRandom;
 import utils.StochasticProcess;
 
 import java.util.*;
@@ -33,6 +34,12 @@ public abstract class AbstractModel implements InterfaceModel {
     public final String name;
     public final StochasticProcess stochastic_process;
     public Set<Link> links;
+    protected Scenario scenario;
+
+    // Generator for the random draws of this model (split sampling, vehicle arrivals). It is split from the
+    // scenario generator by the scenario at each initialization, so the draws of one model do not depend on
+    // those of the others.
+    SplitMixRandom random;
 
     //////////////////////////////////////////////////
     // construction
@@ -47,6 +54,8 @@ public abstract class AbstractModel implements InterfaceModel {
 
     public void configure(Scenario scenario, jaxb.Lanechanges lcs) throws OTMException {
 
+        this.scenario = scenario;
+
         if(links==null || links.isEmpty())
             return;
 
@@ -64,8 +73,14 @@ public abstract class AbstractModel implements InterfaceModel {
             }
         }
 
+        // Links are visited in id order, so that lane group ids do not depend on the iteration order of the set.
+        List<Link> ordered_links = new ArrayList<>(links);
+        ordered_links.sort(Comparator.comparing(Link::getId));
+
         // set link models (links will choose new over default, so this determines the link list for each model)
-        for (Link link : links) {
+        // and create the lane groups. This writes to road connections and models shared with other links,
+        // and draws lane group ids from the scenario context, so it runs sequentially.
+        for (Link link : ordered_links) {
 
             // remove this link from its current model
             if(link.model!=null)
@@ -101,6 +116,11 @@ public abstract class AbstractModel implements InterfaceModel {
                 }
             }
 
+        }
+
+        // the remaining per-link construction only touches the link itself
+        scenario.context.parallel_for_each(ordered_links, link -> {
+
             // populate link.outlink2lanegroups
             if(!link.is_sink()) {
                 link.outlink2lanegroups = new HashMap<>();
@@ -129,7 +149,7 @@ public abstract class AbstractModel implements InterfaceModel {
                 }
             }
 
-        }
+        });
 
         // allocate the state
         for(Commodity commodity : scenario.commodities.values()) {
@@ -164,12 +184,16 @@ public abstract class AbstractModel implements InterfaceModel {
     public void initialize(Scenario scenario, float start_time) throws OTMException {
         for(Link link : links){
             for(AbstractLaneGroup lg : link.lgs)
-                lg.allocate_state();
+                lg.prepare_state();
         }
 
         register_with_dispatcher(scenario, scenario.dispatcher, start_time);
     }
 
+    public SplitMixRandom get_random(){
+        return random;
+    }
+
     //////////////////////////////////////////////////
     // final
     //////////////////////////////////////////////////
@@ -180,6 +204,16 @@ public abstract class AbstractModel implements InterfaceModel {
         if(vp.isEmpty())
             return;
 
+        // 0. register the arrival with the performance accumulator
+        if(link.perf!=null){
+            if(vp.vehicles!=null)
+                for(AbstractVehicle vehicle : vp.vehicles)
+                    link.perf.enter(vehicle.get_commodity_id(),1d,timestamp);
+            if(vp.state2vehicles!=null)
+                for(Map.Entry<State,Double> e : vp.state2vehicles.entrySet())
+                    link.perf.enter(e.getKey().commodity_id,e.getValue(),timestamp);
+        }
+
         // 1. split arriving core.packet into subpackets per downstream link.
         // This assigns states to the packets, but
         // This does not set AbstractPacketLaneGroup.target_road_connection
@@ -2,8 +2,10 @@ package core;
 
 import commodity.Path;
 import output.InterfaceVehicleListener;
-import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -16,6 +18,12 @@ public abstract class AbstractVehicle {
     public AbstractLaneGroup lg;
     public Path path;
 
+    // time at which the vehicle entered its current lane group, NaN if that lane group has no travel timer
+    public float lg_entry_time = Float.NaN;
+
+    // destination of vehicles routed en route (see routing.EnrouteRouter), null for vehicles that follow the splits
+    public Long destination_link_id;
+
     // dispatch listeners
     private Set<InterfaceVehicleListener> event_listeners;
 
@@ -29,8 +37,8 @@ public abstract class AbstractVehicle {
         this.event_listeners = that.event_listeners;
     }
 
-    public AbstractVehicle(Long comm_id,Set<InterfaceVehicleListener> event_listeners){
-        this.id = OTMUtils.get_vehicle_id();
+    public AbstractVehicle(long id,Long comm_id,Set<InterfaceVehicleListener> event_listeners){
+        this.id = id;
         this.comm_id = comm_id;
         this.event_listeners = new HashSet<>();
         if(event_listeners!=null)
@@ -105,6 +113,37 @@ public abstract class AbstractVehicle {
 //            key = new KeyCommPathOrLink(key.commodity_id,next_link_id,false);
 //    }
 
+    ////////////////////////////////////////////
+    // checkpoint
+    ////////////////////////////////////////////
+
+    // The commodity id goes first so that Checkpoint.read_vehicle can create the vehicle
+    // before handing the rest of the record to read_checkpoint.
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        out.writeLong(comm_id);
+        out.writeLong(id);
+        out.writeBoolean(state!=null);
+        if(state!=null)
+            Checkpoint.write_state(out,state);
+        out.writeBoolean(next_link_id!=null);
+        if(next_link_id!=null)
+            out.writeLong(next_link_id);
+        out.writeBoolean(path!=null);
+        if(path!=null)
+            out.writeLong(path.getId());
+        out.writeBoolean(destination_link_id!=null);
+        if(destination_link_id!=null)
+            out.writeLong(destination_link_id);
+    }
+
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException {
+        id = in.readLong();
+        state = in.readBoolean() ? Checkpoint.read_state(in) : null;
+        next_link_id = in.readBoolean() ? in.readLong() : null;
+        path = in.readBoolean() ? (Path) ckpt.scenario.subnetworks.get(in.readLong()) : null;
+        destination_link_id = in.readBoolean() ? in.readLong() : null;
+    }
+
     ///////////////////////////////////////
     // toString
     ///////////////////////////////////////
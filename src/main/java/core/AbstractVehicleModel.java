@@ -44,7 +44,7 @@ public abstract class AbstractVehicleModel extends AbstractModel implements Inte
     }
 
     final public Float get_waiting_time_sec(double rate_vps){
-        return OTMUtils.get_waiting_time(rate_vps,stochastic_process);
+        return OTMUtils.get_waiting_time(rate_vps,stochastic_process,random);
     }
 
 }
@@ -0,0 +1,315 @@
+package core;
+
+import commodity.Commodity;
+import control.AbstractController;
+import demand.ODDemand;
+import dispatch.AbstractEvent;
+import dispatch.Dispatcher;
+import error.OTMException;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Binary snapshot of the dynamic state of a running scenario. A checkpoint holds the simulation clock, the
+ * contents of every lane group (cell states, vehicle queues and positions, buffers), the pending vehicle events
+ * of the demand generators, OD demands and vehicle models, the performance accumulators, the numeric controller
+ * commands, the vehicle id counter, the random number generator of the scenario context and those of the models.
+ *
+ * A checkpoint is restored into a scenario built from the same configuration and initialized at the checkpoint
+ * time. Events that only depend on time (model updates, demand and split changes, controller and actuator
+ * pokes) are rebuilt by the initialization; events that carry state are replaced with the saved ones.
+ * Outputs are not part of the checkpoint.
+ */
+public class Checkpoint {
+
+    public static final int MAGIC = 0x4F544D43;   // "OTMC"
+    public static final int FORMAT_VERSION = 5;
+
+    // events below this dispatch order are setup events that the original run processed at the checkpoint time
+    private static final int SETUP_DISPATCH_ORDER = 40;
+
+    public final Scenario scenario;
+    private final Map<Class<? extends AbstractEvent>,IdentityHashMap<Object,Float>> pending;
+    private final Map<Long,AbstractVehicle> vehicles;
+    private final List<Runnable> deferred;
+
+    private Checkpoint(Scenario scenario){
+        this.scenario = scenario;
+        this.pending = new HashMap<>();
+        this.vehicles = new HashMap<>();
+        this.deferred = new ArrayList<>();
+    }
+
+    ////////////////////////////////////////////
+    // save
+    ////////////////////////////////////////////
+
+    public static void save(Scenario scenario,String filename) throws OTMException {
+        try (OutputStream out = new FileOutputStream(filename)) {
+            save(scenario,out);
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    public static void save(Scenario scenario,OutputStream stream) throws OTMException {
+
+        if(scenario.dispatcher==null)
+            throw new OTMException("The scenario has not been initialized.");
+
+        Checkpoint ckpt = new Checkpoint(scenario);
+        for(AbstractEvent e : scenario.dispatcher.events)
+            ckpt.pending.computeIfAbsent(e.getClass(),c->new IdentityHashMap<>())
+                    .merge(e.recipient,e.timestamp,Math::min);
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeFloat(scenario.dispatcher.current_time);
+            out.writeLong(fingerprint(scenario));
+
+            for(Link link : sorted_links(scenario)){
+                for(AbstractLaneGroup lg : sorted_lanegroups(link))
+                    lg.write_checkpoint(ckpt,out);
+                out.writeBoolean(link.perf!=null);
+                if(link.perf!=null)
+                    link.perf.write_checkpoint(out);
+                for(AbstractDemandGenerator gen : sorted_generators(link))
+                    gen.write_checkpoint(ckpt,out);
+            }
+            for(ODDemand od : scenario.od_demands)
+                od.write_checkpoint(ckpt,out);
+
+            for(AbstractController ctrl : sorted_controllers(scenario))
+                ctrl.write_checkpoint(out);
+
+            out.writeLong(scenario.context.get_vehicle_id_count());
+            byte [] rng = scenario.context.get_random_state();
+            out.writeInt(rng.length);
+            out.write(rng);
+            for(AbstractModel model : sorted_models(scenario))
+                out.writeLong(model.random.get_state());
+            out.flush();
+
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    ////////////////////////////////////////////
+    // restore
+    ////////////////////////////////////////////
+
+    public static float read_time(String filename) throws OTMException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            read_header(in);
+            return in.readFloat();
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    public static void restore(Scenario scenario,String filename) throws OTMException {
+        try (InputStream in = new FileInputStream(filename)) {
+            restore(scenario,in);
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    public static void restore(Scenario scenario,InputStream stream) throws OTMException {
+
+        Dispatcher dispatcher = scenario.dispatcher;
+        if(dispatcher==null)
+            throw new OTMException("The scenario must be initialized before restoring a checkpoint.");
+
+        Checkpoint ckpt = new Checkpoint(scenario);
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+            read_header(in);
+            float time = in.readFloat();
+            if(time!=dispatcher.current_time)
+                throw new OTMException(String.format("Checkpoint time %f does not match the initialization time %f.",time,dispatcher.current_time));
+            if(in.readLong()!=fingerprint(scenario))
+                throw new OTMException("The checkpoint was taken on a different scenario.");
+
+            for(Link link : sorted_links(scenario)){
+                for(AbstractLaneGroup lg : sorted_lanegroups(link)) {
+                    lg.read_checkpoint(ckpt, in);
+                    lg.update_long_supply();
+                }
+                if(in.readBoolean()) {
+                    if(link.perf==null)
+                        throw new OTMException("Checkpoint does not match the scenario models.");
+                    link.perf.read_checkpoint(in);
+                }
+                for(AbstractDemandGenerator gen : sorted_generators(link))
+                    gen.read_checkpoint(ckpt,in);
+            }
+            for(ODDemand od : scenario.od_demands)
+                od.read_checkpoint(ckpt,in);
+            for(Runnable r : ckpt.deferred)
+                r.run();
+
+            // process the setup events that the original run processed at this time
+            while(!dispatcher.events.isEmpty()
+                    && dispatcher.events.peek().timestamp==time
+                    && dispatcher.events.peek().dispatch_order<SETUP_DISPATCH_ORDER)
+                dispatcher.events.poll().action();
+
+            for(AbstractController ctrl : sorted_controllers(scenario))
+                ctrl.read_checkpoint(in);
+
+            scenario.context.set_vehicle_id_count(in.readLong());
+            byte [] rng = new byte[in.readInt()];
+            in.readFully(rng);
+            scenario.context.set_random_state(rng);
+            for(AbstractModel model : sorted_models(scenario))
+                model.random.set_state(in.readLong());
+
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    ////////////////////////////////////////////
+    // used by write_checkpoint / read_checkpoint
+    ////////////////////////////////////////////
+
+    // time of the earliest pending event of this class for this recipient, NaN if none
+    public float get_pending_time(Class<? extends AbstractEvent> clazz,Object recipient){
+        IdentityHashMap<Object,Float> x = pending.get(clazz);
+        Float t = x==null ? null : x.get(recipient);
+        return t==null ? Float.NaN : t;
+    }
+
+    // create a vehicle with the model of the lane group and fill it from the checkpoint
+    public AbstractVehicle read_vehicle(AbstractLaneGroup lg,DataInputStream in) throws IOException, OTMException {
+        long comm_id = in.readLong();
+        Commodity commodity = scenario.commodities.get(comm_id);
+        if(commodity==null)
+            throw new OTMException("Unknown commodity in checkpoint: " + comm_id);
+        AbstractVehicleModel model = (AbstractVehicleModel) lg.get_link().get_model();
+        AbstractVehicle vehicle = model.create_vehicle(comm_id,commodity.vehicle_event_listeners);
+        vehicle.read_checkpoint(this,in);
+        vehicle.lg = lg;
+        vehicles.put(vehicle.getId(),vehicle);
+        return vehicle;
+    }
+
+    public AbstractVehicle get_vehicle(long id){
+        return vehicles.get(id);
+    }
+
+    // run after all lane groups have been read
+    public void defer(Runnable r){
+        deferred.add(r);
+    }
+
+    public static void write_state(DataOutputStream out,State state) throws IOException {
+        out.writeLong(state.commodity_id);
+        out.writeLong(state.pathOrlink_id);
+        out.writeBoolean(state.isPath);
+    }
+
+    public static State read_state(DataInputStream in) throws IOException {
+        return new State(in.readLong(),in.readLong(),in.readBoolean());
+    }
+
+    public static void write_state_map(DataOutputStream out,Map<State,Double> x) throws IOException {
+        if(x==null){
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(x.size());
+        for(Map.Entry<State,Double> e : new TreeMap<>(x).entrySet()){
+            write_state(out,e.getKey());
+            out.writeDouble(e.getValue());
+        }
+    }
+
+    // returns the sum of the values
+    public static double read_state_map(DataInputStream in,Map<State,Double> x) throws IOException {
+        int n = in.readInt();
+        double sum = 0d;
+        if(x!=null)
+            x.clear();
+        for(int i=0;i<n;i++){
+            State state = read_state(in);
+            double value = in.readDouble();
+            if(x!=null)
+                x.put(state,value);
+            sum += value;
+        }
+        return sum;
+    }
+
+    // pending event times are written with writeFloat(get_pending_time(...))
+    public static Float read_timestamp(DataInputStream in) throws IOException {
+        float x = in.readFloat();
+        return Float.isNaN(x) ? null : x;
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    private static void read_header(DataInputStream in) throws IOException, OTMException {
+        if(in.readInt()!=MAGIC)
+            throw new OTMException("Not a checkpoint file.");
+        int version = in.readInt();
+        if(version!=FORMAT_VERSION)
+            throw new OTMException(String.format("Checkpoint format %d is not supported (expected %d).",version,FORMAT_VERSION));
+    }
+
+    // lane group ids depend on the order in which scenarios were loaded, so only the
+    // link ids and lane layout are used here
+    private static long fingerprint(Scenario scenario){
+        long x = scenario.network.links.size();
+        for(Link link : sorted_links(scenario)) {
+            x = 31*x + link.getId();
+            for(AbstractLaneGroup lg : sorted_lanegroups(link))
+                x = 31*x + 7919*lg.get_start_lane_dn() + lg.get_num_lanes();
+        }
+        return x;
+    }
+
+    private static List<Link> sorted_links(Scenario scenario){
+        List<Link> x = new ArrayList<>(scenario.network.links.values());
+        x.sort(Comparator.comparing(Link::getId));
+        return x;
+    }
+
+    private static List<AbstractLaneGroup> sorted_lanegroups(Link link){
+        List<AbstractLaneGroup> x = new ArrayList<>(link.get_lgs());
+        x.sort(Comparator.comparing(AbstractLaneGroup::getId));
+        return x;
+    }
+
+    private static List<AbstractDemandGenerator> sorted_generators(Link link){
+        if(link.get_demandGenerators()==null)
+            return new ArrayList<>();
+        List<AbstractDemandGenerator> x = new ArrayList<>(link.get_demandGenerators());
+        x.sort(Comparator.comparing((AbstractDemandGenerator g)->g.commodity.getId())
+                .thenComparing(g->g.path==null ? -1L : g.path.getId()));
+        return x;
+    }
+
+    private static List<AbstractModel> sorted_models(Scenario scenario){
+        List<AbstractModel> x = new ArrayList<>(scenario.models.values());
+        x.sort(Comparator.comparing(m->m.name));
+        return x;
+    }
+
+    private static List<AbstractController> sorted_controllers(Scenario scenario){
+        List<AbstractController> x = new ArrayList<>(scenario.controllers.values());
+        x.sort(Comparator.comparing(c->c.id));
+        return x;
+    }
+
+}
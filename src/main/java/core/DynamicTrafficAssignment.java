@@ -0,0 +1,415 @@
+package core;
+
+import commodity.Path;
+import error.OTMException;
+import profiles.Profile1D;
+import routing.ShortestPathEngine;
+import routing.ShortestPathTree;
+import traveltime.LinkTravelTimeManager;
+import xml.JaxbLoader;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Dynamic traffic assignment of the pathfull demands of a scenario by the method of successive averages.
+ *
+ * The demands of each pathfull commodity are grouped into origin-destination pairs (origin link, destination
+ * link). The assignment horizon is divided into departure intervals of length dt, and the demand of a pair
+ * in an interval is split among its paths. Each iteration simulates the scenario, measures the
+ * time-dependent travel time of every path with link travel timers, and moves a fraction 1/(n+1) of the
+ * demand of each interval onto its fastest path. The path demand profiles of the demand generators are
+ * rewritten in place and the simulation is reset without rebuilding the scenario.
+ *
+ * Paths are generated incrementally: the fastest path of each pair is also computed with a time-dependent
+ * shortest path search over the whole network, and when it is faster than every known path it is added to
+ * the path set. Adding paths requires new simulation states, so the scenario is rebuilt from its
+ * configuration in those iterations only. Outputs requested before the assignment, and changes made through
+ * the API after loading, do not survive a rebuild; the settings and random generator of the scenario context
+ * do. Paths are only added to scenarios built from a jaxb configuration with keep_source set in their context
+ * (ScenarioContext.keep_source); the others, including those loaded from binary files or with the streaming
+ * loader, keep their initial path set.
+ *
+ * The relative gap of an iteration is (sum of path flow times path travel time) / (sum of demand times
+ * fastest travel time) - 1, over all pairs and intervals.
+ */
+public class DynamicTrafficAssignment {
+
+    public final OTM otm;
+    public final float start_time;
+    public final float duration;
+    public final float dt;
+    public final int num_intervals;
+
+    // configuration used to rebuild the scenario when paths are added, null if paths cannot be added
+    private jaxb.Scenario jaxb_scenario;
+
+    private final List<OD> ods = new ArrayList<>();
+    private final List<Double> relative_gaps = new ArrayList<>();
+    private int num_paths_added;
+    private boolean initialized;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public DynamicTrafficAssignment(OTM otm,float start_time,float duration,float dt) throws OTMException {
+
+        if(dt<=0 || duration<=0)
+            throw new OTMException("The duration and the assignment interval must be positive.");
+
+        this.otm = otm;
+        this.start_time = start_time;
+        this.duration = duration;
+        this.dt = dt;
+        this.num_intervals = (int) Math.ceil(duration/dt);
+
+        Scenario scenario = otm.scenario;
+        if(scenario.jaxb_source!=null && scenario.binary_source==null)
+            jaxb_scenario = copy(scenario.jaxb_source);
+
+        // group the pathfull demands into origin-destination pairs
+        Map<List<Long>,OD> key2od = new HashMap<>();
+        for(AbstractDemandGenerator gen : get_generators(scenario)){
+            if(!gen.commodity.pathfull)
+                continue;
+            Path path = gen.path;
+            List<Long> key = Arrays.asList(gen.commodity.getId(),path.get_origin().getId(),path.get_destination().getId());
+            OD od = key2od.get(key);
+            if(od==null){
+                od = new OD(key.get(0),key.get(1),key.get(2),num_intervals);
+                key2od.put(key,od);
+                ods.add(od);
+            }
+            PathFlow pf = new PathFlow(path.getId(),link_ids(path),num_intervals);
+            for(int k=0;k<num_intervals;k++){
+                pf.flow[k] = gen.profile.get_value_for_time(start_time + k*dt);
+                od.demand[k] += pf.flow[k];
+            }
+            od.paths.add(pf);
+        }
+
+        if(ods.isEmpty())
+            throw new OTMException("The scenario has no pathfull demands to assign.");
+
+        prepare_scenario(scenario);
+    }
+
+    ///////////////////////////////////////////////////
+    // run
+    ///////////////////////////////////////////////////
+
+    /**
+     * Run the assignment. Stops when the relative gap falls below max_gap or after max_iterations
+     * simulations. When it returns, the demand profiles hold the path flows of the last simulation, and the
+     * scenario can be reset and run again with those flows.
+     * @param max_iterations Maximum number of simulations.
+     * @param max_gap Relative gap at which the assignment has converged.
+     * @return The relative gap of the last iteration.
+     * @throws OTMException Undocumented
+     */
+    public double run(int max_iterations,double max_gap) throws OTMException {
+
+        if(max_iterations<1)
+            throw new OTMException("The number of iterations must be positive.");
+
+        double gap = Double.NaN;
+        for(int it=0;it<max_iterations;it++){
+
+            // simulate with the current path flows
+            write_flows();
+            if(initialized)
+                otm.reset();
+            else {
+                otm.initialize(start_time);
+                initialized = true;
+            }
+            otm.advance(duration);
+
+            // path travel times, fastest paths and gap
+            List<PathFlow> new_paths = new ArrayList<>();
+            gap = evaluate(new_paths);
+            relative_gaps.add(gap);
+            if(gap<=max_gap || it==max_iterations-1) {
+                ods.forEach(od->od.paths.removeAll(new_paths));
+                break;
+            }
+
+            // move demand onto the fastest paths, with step 1/(n+1) after the n-th simulation
+            double step = 1d/(relative_gaps.size()+1);
+            for(OD od : ods)
+                for(int k=0;k<num_intervals;k++){
+                    PathFlow best = od.best[k];
+                    for(PathFlow pf : od.paths)
+                        pf.flow[k] = (1d-step)*pf.flow[k] + (pf==best ? step*od.demand[k] : 0d);
+                }
+
+            if(!new_paths.isEmpty())
+                rebuild();
+        }
+
+        write_flows();
+        return gap;
+    }
+
+    ///////////////////////////////////////////////////
+    // get
+    ///////////////////////////////////////////////////
+
+    // relative gap of each iteration
+    public List<Double> get_relative_gaps(){
+        return new ArrayList<>(relative_gaps);
+    }
+
+    public int get_num_paths_added(){
+        return num_paths_added;
+    }
+
+    // ids of the paths of all pairs, including the ones added by the assignment
+    public List<Long> get_path_ids(){
+        return ods.stream().flatMap(od->od.paths.stream()).map(pf->pf.path_id).collect(Collectors.toList());
+    }
+
+    // path demand in vehicles per hour, one value per departure interval
+    public Profile1D get_path_flow(long path_id) throws OTMException {
+        for(OD od : ods)
+            for(PathFlow pf : od.paths)
+                if(pf.path_id!=null && pf.path_id==path_id){
+                    Profile1D profile = new Profile1D(start_time,dt);
+                    for(double x : pf.flow)
+                        profile.add_entry(x*3600d);
+                    return profile;
+                }
+        throw new OTMException("Bad path id: " + path_id);
+    }
+
+    // path travel time in seconds of the last simulation, for departures in the middle of each interval
+    public Profile1D get_path_travel_time(long path_id) throws OTMException {
+        for(OD od : ods)
+            for(PathFlow pf : od.paths)
+                if(pf.path_id!=null && pf.path_id==path_id){
+                    Profile1D profile = new Profile1D(start_time,dt);
+                    for(double x : pf.cost)
+                        profile.add_entry(x);
+                    return profile;
+                }
+        throw new OTMException("Bad path id: " + path_id);
+    }
+
+    ///////////////////////////////////////////////////
+    // private
+    ///////////////////////////////////////////////////
+
+    // Path travel times of the last simulation, fastest path of every pair and interval, and relative gap.
+    // Fastest paths that are not in the path set are added to it and to new_paths.
+    private double evaluate(List<PathFlow> new_paths) throws OTMException {
+
+        Scenario scenario = otm.scenario;
+        ShortestPathEngine engine = jaxb_scenario==null ? null : scenario.get_shortest_path_engine(true);
+
+        double total = 0d;
+        double shortest = 0d;
+        for(int k=0;k<num_intervals;k++){
+            float departure = start_time + (k+0.5f)*dt;
+            Map<Long,ShortestPathTree> trees = new HashMap<>();
+
+            for(OD od : ods){
+
+                // known paths
+                PathFlow best = null;
+                for(PathFlow pf : od.paths){
+                    pf.cost[k] = LinkTravelTimeManager.get_path_travel_time(links(pf),departure);
+                    total += pf.flow[k]*pf.cost[k];
+                    if(best==null || pf.cost[k]<best.cost[k])
+                        best = pf;
+                }
+
+                // network shortest path
+                if(engine!=null){
+                    ShortestPathTree tree = trees.get(od.origin_link_id);
+                    if(tree==null){
+                        tree = engine.one_to_all(od.origin_link_id,departure);
+                        trees.put(od.origin_link_id,tree);
+                    }
+                    double tt = tree.get_travel_time(od.destination_link_id);
+                    if(!Double.isNaN(tt) && tt<best.cost[k]-1e-3){
+                        List<Long> ids = tree.get_path(od.destination_link_id);
+                        PathFlow pf = od.get_path(ids);
+                        if(pf==null && is_simple(ids)){
+                            pf = new PathFlow(null,ids,num_intervals);
+                            od.paths.add(pf);
+                            new_paths.add(pf);
+                            for(int j=0;j<=k;j++)
+                                pf.cost[j] = LinkTravelTimeManager.get_path_travel_time(links(pf),start_time + (j+0.5f)*dt);
+                        }
+                        if(pf!=null && pf.cost[k]<best.cost[k])
+                            best = pf;
+                    }
+                }
+
+                od.best[k] = best;
+                shortest += od.demand[k]*best.cost[k];
+            }
+        }
+
+        return shortest>0 ? total/shortest - 1d : 0d;
+    }
+
+    // add the new paths to the configuration, with the current flows, and build the scenario again
+    private void rebuild() throws OTMException {
+
+        Scenario old_scenario = otm.scenario;
+        old_scenario.terminate();
+
+        if(jaxb_scenario.getSubnetworks()==null)
+            jaxb_scenario.setSubnetworks(new jaxb.Subnetworks());
+        long max_id = jaxb_scenario.getSubnetworks().getSubnetwork().stream().mapToLong(jaxb.Subnetwork::getId).max().orElse(0L);
+        Map<Long,jaxb.Commodity> jcomms = jaxb_scenario.getCommodities().getCommodity().stream()
+                .collect(Collectors.toMap(jaxb.Commodity::getId,c->c));
+
+        for(OD od : ods)
+            for(PathFlow pf : od.paths){
+                if(pf.path_id!=null)
+                    continue;
+                pf.path_id = ++max_id;
+                jaxb.Subnetwork jsubnet = new jaxb.Subnetwork();
+                jsubnet.setId(pf.path_id);
+                jsubnet.setIsroute(true);
+                jsubnet.setContent(pf.link_ids.stream().map(x->x.toString()).collect(Collectors.joining(",")));
+                jaxb_scenario.getSubnetworks().getSubnetwork().add(jsubnet);
+                jaxb.Commodity jcomm = jcomms.get(od.commodity_id);
+                String subnets = jcomm.getSubnetworks();
+                jcomm.setSubnetworks(subnets==null || subnets.isEmpty() ? pf.path_id.toString() : subnets + "," + pf.path_id);
+                num_paths_added++;
+            }
+
+        // replace the pathfull demands with the current flows
+        Set<Long> comm_ids = ods.stream().map(od->od.commodity_id).collect(Collectors.toSet());
+        List<jaxb.Demand> jdemands = jaxb_scenario.getDemands().getDemand();
+        jdemands.removeIf(jd->comm_ids.contains(jd.getCommodityId()));
+        for(OD od : ods)
+            for(PathFlow pf : od.paths){
+                jaxb.Demand jd = new jaxb.Demand();
+                jd.setCommodityId(od.commodity_id);
+                jd.setSubnetwork(pf.path_id);
+                jd.setStartTime(start_time);
+                jd.setDt(dt);
+                jd.setContent(Arrays.stream(pf.flow).mapToObj(x->Double.toString(x*3600d)).collect(Collectors.joining(",")));
+                jdemands.add(jd);
+            }
+
+        ScenarioContext context = new ScenarioContext(old_scenario.context);
+        try {
+            context.set_random_state(old_scenario.context.get_random_state());
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+        Scenario scenario = ScenarioFactory.create_scenario(jaxb_scenario,null,false,context);
+        otm.scenario = scenario;
+        prepare_scenario(scenario);
+        initialized = false;
+    }
+
+    // time every link, keeping one value per interval of the run
+    private void prepare_scenario(Scenario scenario) throws OTMException {
+        scenario.add_link_travel_times(scenario.network.links.keySet(),dt);
+        scenario.path_tt_manager.history_size = Math.max(scenario.path_tt_manager.history_size,num_intervals+2);
+    }
+
+    // write the path flows into the profiles of the demand generators
+    private void write_flows() throws OTMException {
+        Map<Long,AbstractDemandGenerator> path2gen = new HashMap<>();
+        for(AbstractDemandGenerator gen : get_generators(otm.scenario))
+            if(gen.commodity.pathfull)
+                path2gen.put(gen.path.getId(),gen);
+        for(OD od : ods)
+            for(PathFlow pf : od.paths){
+                AbstractDemandGenerator gen = path2gen.get(pf.path_id);
+                if(gen==null)
+                    throw new OTMException("No demand for path " + pf.path_id);
+                gen.profile.start_time = start_time;
+                gen.profile.dt = dt;
+                gen.profile.values = Arrays.stream(pf.flow).boxed().collect(Collectors.toList());
+            }
+    }
+
+    private List<Link> links(PathFlow pf){
+        return pf.link_ids.stream().map(x->otm.scenario.network.links.get(x)).collect(Collectors.toList());
+    }
+
+    // a path that does not visit a node twice, as required by Path
+    private boolean is_simple(List<Long> ids){
+        Network network = otm.scenario.network;
+        Set<Long> nodes = new HashSet<>();
+        for(Long id : ids)
+            if(!nodes.add(network.links.get(id).get_start_node().getId()))
+                return false;
+        return true;
+    }
+
+    private static List<AbstractDemandGenerator> get_generators(Scenario scenario){
+        return scenario.network.links.values().stream()
+                .filter(link->link.demandGenerators!=null)
+                .flatMap(link->link.demandGenerators.stream())
+                .sorted(Comparator.comparing((AbstractDemandGenerator gen)->gen.path==null ? -1L : gen.path.getId()))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> link_ids(Path path){
+        return path.get_ordered_links().stream().map(Link::getId).collect(Collectors.toList());
+    }
+
+    private static jaxb.Scenario copy(jaxb.Scenario js) throws OTMException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JAXBContext.newInstance(jaxb.Scenario.class).createMarshaller().marshal(js,out);
+            return JaxbLoader.load_scenario(new ByteArrayInputStream(out.toByteArray()));
+        } catch (JAXBException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    private static class OD {
+        final long commodity_id;
+        final long origin_link_id;
+        final long destination_link_id;
+        final double [] demand;         // vps per interval
+        final PathFlow [] best;         // fastest path per interval in the last evaluation
+        final List<PathFlow> paths = new ArrayList<>();
+
+        OD(long commodity_id,long origin_link_id,long destination_link_id,int n){
+            this.commodity_id = commodity_id;
+            this.origin_link_id = origin_link_id;
+            this.destination_link_id = destination_link_id;
+            this.demand = new double[n];
+            this.best = new PathFlow[n];
+        }
+
+        PathFlow get_path(List<Long> link_ids){
+            for(PathFlow pf : paths)
+                if(pf.link_ids.equals(link_ids))
+                    return pf;
+            return null;
+        }
+    }
+
+    private static class PathFlow {
+        Long path_id;                   // null until the path is added to the scenario
+        final List<Long> link_ids;
+        final double [] flow;           // vps per interval
+        final double [] cost;           // travel time per interval, seconds
+
+        PathFlow(Long path_id,List<Long> link_ids,int n){
+            this.path_id = path_id;
+            this.link_ids = link_ids;
+            this.flow = new double[n];
+            this.cost = new double[n];
+        }
+    }
+
+}
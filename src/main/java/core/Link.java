@@ -9,6 +9,7 @@ import core.geometry.RoadGeometry;
 import jaxb.Points;
 import jaxb.Roadparam;
 import lanechange.AbstractLaneSelector;
+import models.none.ModelNone;
 import profiles.SplitMatrixProfile;
 import traveltime.LinkTravelTimer;
 import core.packet.PacketLaneGroup;
@@ -87,6 +88,9 @@ public class Link implements InterfaceScenarioElement, InterfaceTarget {
     // travel timer
     public LinkTravelTimer link_tt;
 
+    // vht, vkt, delay
+    public PerformanceAccumulator perf;
+
     ///////////////////////////////////////////
     // construction
     ///////////////////////////////////////////
@@ -290,6 +294,18 @@ public class Link implements InterfaceScenarioElement, InterfaceTarget {
         for(AbstractLaneGroup lg : lgs)
             lg.initialize(scenario,start_time);
 
+        // performance accumulator (links without a model hold no vehicles, and fluid source links only hold
+        // them for one step, so no free flow time is credited there)
+        if(model!=null && !(model instanceof ModelNone)) {
+            long [] comm_ids = states.stream().mapToLong(s -> s.commodity_id).distinct().sorted().toArray();
+            float ffspeed_kph = road_param_full==null || (is_source && model instanceof AbstractFluidModel) ? Float.NaN : road_param_full.getSpeed();
+            if(perf!=null && Arrays.equals(perf.comm_ids,comm_ids) && Double.compare(perf.ffspeed_kph,ffspeed_kph)==0)
+                perf.reset();
+            else
+                perf = new PerformanceAccumulator(comm_ids, length, ffspeed_kph);
+        } else
+            perf = null;
+
         // links_without_splits_or_actuators
         Set<Long> pathless_comms = states.stream().filter(s->!s.isPath).map(s->s.commodity_id).collect(toSet());
         for(Long commid : pathless_comms){
@@ -553,7 +569,10 @@ public class Link implements InterfaceScenarioElement, InterfaceTarget {
                                 vehicle);
 
                     } else {
-                        Long next_link_id = sample_next_link(key.commodity_id);
+                        Long next_link_id = vehicle.destination_link_id==null || network.scenario.enroute_router==null ?
+                                null : network.scenario.enroute_router.get_next_link(this,vehicle.destination_link_id);
+                        if(next_link_id==null)
+                            next_link_id = sample_next_link(key.commodity_id);
                         vehicle.set_next_link_id(next_link_id);
                         add_to_lanegroup_packets(split_packets,next_link_id ,
                                 new State(key.commodity_id, next_link_id, false),
@@ -581,7 +600,7 @@ public class Link implements InterfaceScenarioElement, InterfaceTarget {
 
     // return outlink to split
     public Map<Long,Double> get_splits_for_commodity(Long comm_id){
-        if(!split_profile.containsKey(comm_id))
+        if(split_profile==null || !split_profile.containsKey(comm_id))
             return null;
         return split_profile.get(comm_id).outlink2split;
     }
@@ -698,6 +717,16 @@ public class Link implements InterfaceScenarioElement, InterfaceTarget {
         return length;
     }
 
+    // free flow travel time in seconds, from the road parameters of the lane groups (or of the link if it
+    // has no lane groups yet)
+    public double get_ff_travel_time(){
+        if(lgs!=null && !lgs.isEmpty())
+            return lgs.stream()
+                    .mapToDouble(lg->lg.get_length()*3.6d/lg.get_road_params().getSpeed())
+                    .average().getAsDouble();
+        return road_param_full==null ? 0d : length*3.6d/road_param_full.getSpeed();
+    }
+
     public Node get_start_node(){
         return start_node;
     }
@@ -13,8 +13,6 @@ import static java.util.stream.Collectors.toSet;
  */
 public class Network {
 
-    protected static Long max_rcid;
-
     protected Scenario scenario;
     protected boolean node_positions_in_meters;    // true->meters, false->gps
 
@@ -211,6 +209,8 @@ public class Network {
     // private static
     /////////////////////////////////////////////////
 
+    // Sequential, unlike the model construction steps that use ScenarioContext.parallel_for_each: each link
+    // registers itself with its start and end nodes, and building a link is only a few field assignments.
     private static HashMap<Long,Link> create_links(List<jaxb.Link> jaxb_links,Network network,Map<Long,Node> nodes) throws OTMException {
         HashMap<Long,Link> links = new HashMap<>();
         for( jaxb.Link jl : jaxb_links ) {
@@ -271,7 +271,7 @@ public class Network {
 
         // read jaxb road connections
         HashMap<Long,RoadConnection> rcs = new HashMap<>();
-        Set<Long> no_rc = new HashSet<>();
+        Set<Long> no_rc = new TreeSet<>();
         no_rc.addAll(links.values().stream().filter(x->!x.is_sink).map(y->y.getId()).collect(toSet()));
         if (jrcs != null && jrcs.getRoadconnection() != null) {
             for (jaxb.Roadconnection jrc : jrcs.getRoadconnection()) {
@@ -283,12 +283,15 @@ public class Network {
             }
         }
 
-        // create road connections for non-sink links with no road connections
-        max_rcid = rcs.isEmpty() ? 0L : rcs.keySet().stream().max(Long::compareTo).get();
+        // create road connections for non-sink links with no road connections. Ids are assigned in link id
+        // order, so every build of the scenario gets the same ones.
+        long max_rcid = rcs.isEmpty() ? 0L : rcs.keySet().stream().max(Long::compareTo).get();
         for(Long link_id : no_rc){
             Link link = links.get(link_id);
             Map<Long,RoadConnection> new_rcs = new HashMap<>();
-            for(Link end_link : link.end_node.out_links){
+            List<Link> end_links = new ArrayList<>(link.end_node.out_links);
+            end_links.sort(Comparator.comparing(Link::getId));
+            for(Link end_link : end_links){
                 RoadConnection rc_stay = new RoadConnection(
                         ++max_rcid,
                         link,
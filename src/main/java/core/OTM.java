@@ -6,8 +6,10 @@ import error.OTMException;
 import jaxb.OutputRequests;
 import models.vehicle.spatialq.OutputLinkQueues;
 import output.*;
-import cmd.RunParameters;
 import utils.OTMUtils;
+import utils.QuantileSketch;
+import cmd.RunParameters;
+import xml.BinaryScenario;
 import xml.JaxbLoader;
 import xml.JaxbWriter;
 
@@ -22,6 +24,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Public API. The methods in the API are of three types. Basic scenario loading and running
@@ -40,6 +46,10 @@ public class OTM {
      */
     public core.Output output;
 
+    // outputs created from the output request file of the last initialization, and the arguments used
+    private Set<AbstractOutput> file_outputs = new HashSet<>();
+    private List<String> file_outputs_args;
+
     ////////////////////////////////////////////////////////
     // construction
     ////////////////////////////////////////////////////////
@@ -57,11 +67,28 @@ public class OTM {
      * @param validate_pre_init Validate
      */
     public OTM(String configfile, boolean validate_pre_init) throws OTMException {
-        this( ScenarioFactory.create_scenario(JaxbLoader.load_scenario(configfile),validate_pre_init) , new Output() );
+        this(configfile,validate_pre_init,new ScenarioContext());
+    }
+
+    /**
+     * Constructor with construction settings.
+     * @throws OTMException Undocumented
+     * @param configfile Configuration file.
+     * @param validate_pre_init Validate
+     * @param context Context with the construction threads and node model settings. It is owned by the new scenario.
+     */
+    public OTM(String configfile, boolean validate_pre_init, ScenarioContext context) throws OTMException {
+        this( BinaryScenario.is_binary(configfile) ?
+                ScenarioFactory.create_scenario(BinaryScenario.load(configfile),validate_pre_init,context) :
+                ScenarioFactory.create_scenario(JaxbLoader.load_scenario(configfile),validate_pre_init,context) , new Output() );
     }
 
     public OTM(jaxb.Scenario jscenario, boolean validate) throws OTMException {
-        this(ScenarioFactory.create_scenario(jscenario,validate), new Output());
+        this(jscenario,validate,new ScenarioContext());
+    }
+
+    public OTM(jaxb.Scenario jscenario, boolean validate, ScenarioContext context) throws OTMException {
+        this(ScenarioFactory.create_scenario(jscenario,validate,context), new Output());
     }
 
     /** Load a scenario from the standard tests.
@@ -70,7 +97,41 @@ public class OTM {
      * @return An OTM instance
      * **/
     public static OTM load_test(String testname) throws OTMException  {
-        return new OTM(JaxbLoader.load_test_scenario(testname),true);
+        return load_test(testname,new ScenarioContext());
+    }
+
+    /** Load a scenario from the standard tests with construction settings.
+     * @throws OTMException Undocumented
+     * @param testname Name of the test.
+     * @param context Context with the construction threads and node model settings. It is owned by the new scenario.
+     * @return An OTM instance
+     * **/
+    public static OTM load_test(String testname, ScenarioContext context) throws OTMException  {
+        return new OTM(JaxbLoader.load_test_scenario(testname),true,context);
+    }
+
+    /** Load a scenario with the streaming loader. Demands and splits are converted to profiles as they are
+     * read, without building the full jaxb tree. Use this for large scenario files.
+     * @throws OTMException Undocumented
+     * @param configfile Configuration file.
+     * @param validate_schema Validate each element against otm.xsd while reading.
+     * @param validate_pre_init Validate
+     * @return An OTM instance
+     * **/
+    public static OTM load_streaming(String configfile, boolean validate_schema, boolean validate_pre_init) throws OTMException  {
+        return load_streaming(configfile,validate_schema,validate_pre_init,new ScenarioContext());
+    }
+
+    /** Load a scenario with the streaming loader and construction settings.
+     * @throws OTMException Undocumented
+     * @param configfile Configuration file.
+     * @param validate_schema Validate each element against otm.xsd while reading.
+     * @param validate_pre_init Validate
+     * @param context Context with the construction threads and node model settings. It is owned by the new scenario.
+     * @return An OTM instance
+     * **/
+    public static OTM load_streaming(String configfile, boolean validate_schema, boolean validate_pre_init, ScenarioContext context) throws OTMException  {
+        return new OTM(ScenarioFactory.create_scenario_streaming(configfile,validate_schema,validate_pre_init,context), new Output());
     }
 
     /** Get the output object
@@ -105,6 +166,29 @@ public class OTM {
         }
     }
 
+    /** Save the scenario to a compiled binary file. The OTM constructor recognizes these files and loads them
+     * without parsing xml.
+     * @param file Output file name
+     * **/
+    public void save_binary(String file)  {
+        try {
+            BinaryScenario.save(scenario.to_jaxb(),file);
+        } catch (OTMException e) {
+            System.err.println("ERROR");
+            System.err.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /** Compile an xml configuration file to a binary file.
+     * @throws OTMException Undocumented
+     * @param configfile Configuration file.
+     * @param binfile Output file name
+     * **/
+    public static void compile_binary(String configfile, String binfile) throws OTMException {
+        BinaryScenario.compile(configfile,binfile);
+    }
+
     ////////////////////////////////////////////////////////
     // run
     ////////////////////////////////////////////////////////
@@ -156,9 +240,16 @@ public class OTM {
         Dispatcher dispatcher = new Dispatcher();
 
         // append outputs from output request file ..................
+        // The file is not read again if it was loaded by the previous initialization and its outputs are still
+        // in the scenario.
         if(output_requests_file!=null && !output_requests_file.isEmpty()) {
-            jaxb.OutputRequests jaxb_or = load_output_request(output_requests_file, true);
-            scenario.outputs.addAll(create_outputs_from_jaxb(scenario,prefix,output_folder, jaxb_or));
+            List<String> args = Arrays.asList(output_requests_file,prefix,output_folder);
+            if(!args.equals(file_outputs_args) || !scenario.outputs.containsAll(file_outputs)) {
+                jaxb.OutputRequests jaxb_or = load_output_request(output_requests_file, true);
+                file_outputs = create_outputs_from_jaxb(scenario, prefix, output_folder, jaxb_or);
+                file_outputs_args = args;
+                scenario.outputs.addAll(file_outputs);
+            }
         }
 
         // initialize
@@ -175,6 +266,36 @@ public class OTM {
         initialize(start_time,null,null,null,true);
     }
 
+    /**
+     *  Return the simulation to the start time of the last call to "initialize", without rebuilding the
+     *  scenario. Vehicles and cell states are cleared in place, outputs are emptied, and controllers, actuators
+     *  and demand generators go back to their initial state. The random number generator is not reset; call
+     *  set_random_seed before reset to repeat a stochastic run.
+     * @throws OTMException Undocumented
+     */
+    public void reset() throws OTMException {
+        scenario.reset();
+    }
+
+    /**
+     *  Assign the pathfull demands to paths with an iterative dynamic traffic assignment (method of successive
+     *  averages). The scenario is simulated repeatedly from start_time, faster paths are found with a time
+     *  dependent shortest path search, and the path demand profiles are updated in place. The scenario is
+     *  only rebuilt when a new path is added. See DynamicTrafficAssignment.
+     * @param start_time Initial time in seconds.
+     * @param duration Duration of each simulation in seconds.
+     * @param dt Length of the departure time intervals in seconds.
+     * @param max_iterations Maximum number of simulations.
+     * @param max_gap Relative gap at which the assignment stops.
+     * @return The assignment, with the path flows and the relative gap of each iteration.
+     * @throws OTMException Undocumented
+     */
+    public DynamicTrafficAssignment run_dta(float start_time,float duration,float dt,int max_iterations,double max_gap) throws OTMException {
+        DynamicTrafficAssignment dta = new DynamicTrafficAssignment(this,start_time,duration,dt);
+        dta.run(max_iterations,max_gap);
+        return dta;
+    }
+
     ////////////////////////////////////////////////////////
     // advance, terminate
     ////////////////////////////////////////////////////////
@@ -212,6 +333,180 @@ public class OTM {
         scenario.terminate();
     }
 
+    ////////////////////////////////////////////////////////
+    // checkpoint
+    ////////////////////////////////////////////////////////
+
+    /**
+     *  Save the dynamic state of the simulation (vehicles, cell states, pending vehicle events, random generator)
+     *  to a binary checkpoint file. The scenario must be initialized. Checkpoints should be taken at multiples
+     *  of the model time steps.
+     * @param filename Absolute location and name of the checkpoint file.
+     * @throws OTMException Undocumented
+     */
+    public void checkpoint(String filename) throws OTMException {
+        Checkpoint.save(scenario,filename);
+    }
+
+    /**
+     *  Initialize the scenario at the time of a checkpoint and load its state. The scenario must have been
+     *  built from the same configuration as the one that produced the checkpoint. Outputs and travel time
+     *  estimates start fresh at the checkpoint time.
+     * @param filename Absolute location and name of the checkpoint file.
+     * @param output_requests_file Absolute location and name of file with output requests.
+     * @param prefix Prefix for the output.
+     * @param output_folder Folder for the output.
+     * @throws OTMException Undocumented
+     */
+    public void restore(String filename,String output_requests_file,String prefix,String output_folder) throws OTMException {
+        float time = Checkpoint.read_time(filename);
+        initialize(time,output_requests_file,prefix,output_folder,true);
+        Checkpoint.restore(scenario,filename);
+    }
+
+    /**
+     *  Initialize the scenario at the time of a checkpoint and load its state.
+     * @param filename Absolute location and name of the checkpoint file.
+     * @throws OTMException Undocumented
+     */
+    public void restore(String filename) throws OTMException {
+        restore(filename,null,null,null);
+    }
+
+    ////////////////////////////////////////////////////////
+    // fork
+    ////////////////////////////////////////////////////////
+
+    /**
+     *  Create an independent copy of this simulation at its current time. See Scenario.fork.
+     * @return An OTM instance with the forked scenario and no outputs.
+     * @throws OTMException Undocumented
+     */
+    public OTM fork() throws OTMException {
+        return new OTM(scenario.fork(),new Output());
+    }
+
+    /**
+     *  Advance several simulations by the same duration on a pool of threads. Each simulation must be
+     *  initialized, and no two may share a scenario.
+     * @param otms Simulations to advance.
+     * @param duration Seconds to advance.
+     * @param num_threads Number of threads in the pool.
+     * @throws OTMException The first error raised by any of the simulations.
+     */
+    public static void advance_concurrent(Collection<OTM> otms,float duration,int num_threads) throws OTMException {
+        ExecutorService pool = Executors.newFixedThreadPool(num_threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for(OTM otm : otms)
+                futures.add(pool.submit(() -> {
+                    otm.advance(duration);
+                    return null;
+                }));
+            for(Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
+            throw new OTMException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    ////////////////////////////////////////////////////////
+    // ensemble
+    ////////////////////////////////////////////////////////
+
+    /**
+     *  Run several replications of the scenario with different random seeds on a pool of threads, and
+     *  aggregate each requested output over the replications. Replication i is built from the configuration
+     *  that this scenario was loaded from (changes made through the API are not carried over) and uses seed
+     *  base_seed+i. The outputs of the replications are not written or kept; their values are added, as they
+     *  are produced, to the returned statistics (mean, variance and quantile sketch per time and element).
+     *  Only link and lane group outputs can be requested. Replications are built on one thread each, with the
+     *  construction and node model settings of this scenario. The scenario must be built with keep_source set in
+     *  its context (ScenarioContext.keep_source), and not with the streaming loader.
+     * @param output_requests_file Absolute location and name of file with output requests.
+     * @param num_replications Number of replications.
+     * @param base_seed Seed of the first replication.
+     * @param start_time Initial time in seconds.
+     * @param duration Duration of each replication in seconds.
+     * @param num_threads Number of threads in the pool.
+     * @return One EnsembleStatistics per output request, in the order of the file.
+     * @throws OTMException The first error raised by any of the replications.
+     */
+    public List<EnsembleStatistics> run_ensemble(String output_requests_file,int num_replications,long base_seed,float start_time,float duration,int num_threads) throws OTMException {
+        jaxb.OutputRequests jaxb_ors = output_requests_file==null ? null : load_output_request(output_requests_file,true);
+        return run_ensemble(jaxb_ors,num_replications,base_seed,start_time,duration,num_threads);
+    }
+
+    /**
+     *  Run several replications of the scenario with different random seeds on a pool of threads. See
+     *  run_ensemble(String,int,long,float,float,int).
+     * @param jaxb_ors Output requests.
+     * @param num_replications Number of replications.
+     * @param base_seed Seed of the first replication.
+     * @param start_time Initial time in seconds.
+     * @param duration Duration of each replication in seconds.
+     * @param num_threads Number of threads in the pool.
+     * @return One EnsembleStatistics per output request.
+     * @throws OTMException The first error raised by any of the replications.
+     */
+    public List<EnsembleStatistics> run_ensemble(jaxb.OutputRequests jaxb_ors,int num_replications,long base_seed,float start_time,float duration,int num_threads) throws OTMException {
+
+        if(scenario.jaxb_source==null)
+            throw new OTMException("Only scenarios built with keep_source set in their context, and not with the streaming loader, can be replicated.");
+        if(num_replications<1)
+            throw new OTMException("The number of replications must be positive.");
+        if(num_threads<1)
+            throw new OTMException("The number of threads must be positive.");
+
+        List<jaxb.OutputRequest> requests = jaxb_ors==null ? new ArrayList<>() : jaxb_ors.getOutputRequest();
+        List<EnsembleStatistics> statistics = new ArrayList<>();
+        for(int j=0;j<requests.size();j++)
+            statistics.add(new EnsembleStatistics(start_time,QuantileSketch.DEFAULT_K));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(num_threads,num_replications));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for(int i=0;i<num_replications;i++) {
+                long seed = base_seed + i;
+                futures.add(pool.submit(() -> {
+                    // replications already run in parallel, so each one is built on its own thread
+                    ScenarioContext context = new ScenarioContext(scenario.context);
+                    context.construction_threads = 1;
+                    context.set_random_seed(seed);
+                    Scenario replication = ScenarioFactory.create_scenario(scenario.jaxb_source,scenario.binary_source,false,context);
+                    for(int j=0;j<requests.size();j++) {
+                        AbstractOutput source = create_output_from_jaxb(replication,null,null,requests.get(j));
+                        replication.outputs.add(new OutputEnsemble(replication,source,statistics.get(j)));
+                    }
+                    OTM otm = new OTM(replication,new Output());
+                    otm.initialize(start_time);
+                    otm.advance(duration);
+                    otm.terminate();
+                    return null;
+                }));
+            }
+            for(Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
+            throw new OTMException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return statistics;
+    }
+
     ////////////////////////////////////////////////////////
     // plot
     ////////////////////////////////////////////////////////
@@ -249,6 +544,9 @@ public class OTM {
             if (output instanceof OutputLinkVehicles)
                 ((OutputLinkVehicles) output).plot_for_links(null, String.format("%s/%s_link_veh.png", out_folder, commid));
 
+            if (output instanceof OutputLinkState)
+                ((OutputLinkState) output).plot_channel(OutputLinkState.Channel.speed, String.format("%s/%s_link_speed.png", out_folder, commid));
+
             if (output instanceof OutputLinkSumVehicles)
                 ((OutputLinkSumVehicles) output).plot_for_links(null, String.format("%s/%s_link_sumveh.png", out_folder, commid));
 
@@ -346,11 +644,11 @@ public class OTM {
     }
 
     /**
-     * Set the seed for the simulator's random number generator.
+     * Set the seed for the scenario's random number generator.
      * @param seed Any number
      */
-    public static void set_random_seed(long seed){
-        OTMUtils.set_random_seed(seed);
+    public void set_random_seed(long seed){
+        scenario.context.set_random_seed(seed);
     }
 
     ////////////////////////////////////////////////////////
@@ -383,69 +681,113 @@ public class OTM {
         Set<AbstractOutput> outputs = new HashSet<>();
         if(jaxb_ors==null)
             return outputs;
-        AbstractOutput output;
         for(jaxb.OutputRequest jaxb_or : jaxb_ors.getOutputRequest()){
+            AbstractOutput output = create_output_from_jaxb(scenario, prefix, output_folder, jaxb_or);
+            if(output!=null)
+                outputs.add(output);
+        }
+        return outputs;
+    }
 
-            Long commodity_id = jaxb_or.getCommodity();
-            Float outDt = jaxb_or.getDt();
+    private static AbstractOutput create_output_from_jaxb(core.Scenario scenario, String prefix, String output_folder, jaxb.OutputRequest jaxb_or) throws OTMException{
 
-            if(jaxb_or.getModel()!=null){
-                if(!scenario.models.containsKey(jaxb_or.getModel()))
-                    throw new OTMException("Bad model name in output : " + jaxb_or.getModel());
-                AbstractModel model = scenario.models.get(jaxb_or.getModel());
-                output = model.create_output(scenario,prefix,output_folder,jaxb_or);
-            }
+        AbstractOutput output;
+        Long commodity_id = jaxb_or.getCommodity();
+        Float outDt = jaxb_or.getDt();
+
+        // aggregated outputs evaluate their source in memory
+        boolean aggregate = jaxb_or.getAggregation()!=null;
+        String src_prefix = aggregate ? null : prefix;
+        String src_folder = aggregate ? null : output_folder;
+
+        if(jaxb_or.getModel()!=null){
+            if(!scenario.models.containsKey(jaxb_or.getModel()))
+                throw new OTMException("Bad model name in output : " + jaxb_or.getModel());
+            AbstractModel model = scenario.models.get(jaxb_or.getModel());
+            output = model.create_output(scenario,src_prefix,src_folder,jaxb_or);
+        }
 
-            else {
-
-                switch (jaxb_or.getQuantity()) {
-                    case "lanegroups":
-                        output = new OutputLaneGroups(scenario, prefix, output_folder);
-                        break;
-                    case "link_flw":
-                        output = new OutputLinkFlow(scenario, prefix, output_folder, commodity_id, null, outDt);
-                        break;
-                    case "link_veh":
-                        output = new OutputLinkVehicles(scenario, prefix, output_folder, commodity_id, null, outDt);
-                        break;
-                    case "lanegroup_flw":
-                        output = new OutputLaneGroupFlow(scenario, prefix, output_folder, commodity_id, null, outDt);
-                        break;
-                    case "lanegroup_veh":
-                        output = new OutputLaneGroupVehicles(scenario, prefix, output_folder, commodity_id, null, outDt);
-                        break;
-                    case "subnetwork_vht":
-                        output = new OutputSubnetworkVHT(scenario, prefix, output_folder, commodity_id, null, outDt);
-                        break;
-                    case "vehicle_events":
-                        output = new OutputVehicleEvents(scenario, prefix, output_folder, commodity_id);
-                        break;
-                    case "vehicle_class":
-                        output = new OutputVehicleClass(scenario, prefix, output_folder);
-                        break;
-                    case "vehicle_travel_time":
-                        output = new OutputTravelTime(scenario, prefix, output_folder);
-                        break;
-                    case "controller":
-                        output = new OutputController(scenario, prefix, output_folder, jaxb_or.getController());
-                        break;
+        else {
+
+            switch (jaxb_or.getQuantity()) {
+                case "lanegroups":
+                    output = new OutputLaneGroups(scenario, src_prefix, src_folder);
+                    break;
+                case "link_flw":
+                    output = new OutputLinkFlow(scenario, src_prefix, src_folder, commodity_id, null, outDt);
+                    break;
+                case "link_veh":
+                    output = new OutputLinkVehicles(scenario, src_prefix, src_folder, commodity_id, null, outDt);
+                    break;
+                case "link_state":
+                    output = new OutputLinkState(scenario, src_prefix, src_folder, commodity_id, null, outDt);
+                    break;
+                case "live_state":
+                    output = new OutputLiveState(scenario, src_prefix, src_folder, null, outDt, OutputLiveState.DEFAULT_NUM_SLOTS);
+                    break;
+                case "lanegroup_flw":
+                    output = new OutputLaneGroupFlow(scenario, src_prefix, src_folder, commodity_id, null, outDt);
+                    break;
+                case "lanegroup_veh":
+                    output = new OutputLaneGroupVehicles(scenario, src_prefix, src_folder, commodity_id, null, outDt);
+                    break;
+                case "subnetwork_vht":
+                    output = new OutputSubnetworkVHT(scenario, src_prefix, src_folder, commodity_id, null, outDt);
+                    break;
+                case "vehicle_events":
+                    output = new OutputVehicleEvents(scenario, src_prefix, src_folder, commodity_id);
+                    break;
+                case "vehicle_class":
+                    output = new OutputVehicleClass(scenario, src_prefix, src_folder);
+                    break;
+                case "vehicle_travel_time":
+                    output = new OutputTravelTime(scenario, src_prefix, src_folder);
+                    break;
+                case "controller":
+                    output = new OutputController(scenario, src_prefix, src_folder, jaxb_or.getController());
+                    break;
 //                    case "actuator":
-//                        output = new OutputActuator(scenario, prefix, output_folder, jaxb_or.getActuator());
+//                        output = new OutputActuator(scenario, src_prefix, src_folder, jaxb_or.getActuator());
 //                        break;
-                    case "path_travel_time":
-                        output = new OutputPathTravelTime(scenario, prefix, output_folder, null, outDt);
-                        scenario.path_tt_manager.add_path_travel_time_writer((OutputPathTravelTime) output);
-                        break;
-                    default:
-                        throw new OTMException("Bad output identifier : " + jaxb_or.getQuantity());
-                }
-
+                case "path_travel_time":
+                    output = new OutputPathTravelTime(scenario, src_prefix, src_folder, jaxb_or.getSubnetwork(), outDt, read_travel_time_mode(jaxb_or.getTravelTime()));
+                    scenario.add_path_travel_time((OutputPathTravelTime) output);
+                    break;
+                case "link_tt_quantile":
+                    output = new OutputLinkTravelTimeQuantile(scenario, src_prefix, src_folder, null, outDt, jaxb_or.getQuantile()==null ? 0.5 : jaxb_or.getQuantile());
+                    break;
+                case "skims":
+                    output = new OutputSkims(scenario, src_prefix, src_folder, jaxb_or.getNodes()==null ? null : OTMUtils.csv2longlist(jaxb_or.getNodes()), outDt, scenario.context.construction_threads);
+                    break;
+                default:
+                    throw new OTMException("Bad output identifier : " + jaxb_or.getQuantity());
             }
 
-            if(output!=null)
-                outputs.add(output);
         }
-        return outputs;
+
+        if(aggregate && output!=null){
+            if(!(output instanceof AbstractOutputTimed))
+                throw new OTMException("Aggregation requested for an output that is not timed : " + jaxb_or.getQuantity());
+            output = new OutputAggregated(scenario, prefix, output_folder, (AbstractOutputTimed) output, OutputAggregated.read_reductions(jaxb_or.getAggregation()), jaxb_or.getSampleDt(), outDt);
+        }
+
+        if(jaxb_or.getSparseThreshold()!=null && output!=null){
+            if(!(output instanceof AbstractOutputTimed))
+                throw new OTMException("Sparse encoding requested for an output that is not timed : " + jaxb_or.getQuantity());
+            ((AbstractOutputTimed) output).set_sparse(jaxb_or.getSparseThreshold(), jaxb_or.getKeyframePeriod()==null ? SparseEncoder.DEFAULT_KEYFRAME_PERIOD : jaxb_or.getKeyframePeriod());
+        }
+
+        return output;
+    }
+
+    private static OutputPathTravelTime.Mode read_travel_time_mode(String str) throws OTMException {
+        if(str==null)
+            return OutputPathTravelTime.Mode.instantaneous;
+        try {
+            return OutputPathTravelTime.Mode.valueOf(str.trim());
+        } catch (IllegalArgumentException e){
+            throw new OTMException("Bad travel time mode: " + str);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -115,6 +115,23 @@ public class Output {
         }
     }
 
+    /**
+     * Request link flow [veh/hr], vehicles [veh], density [veh/km], speed [km/hr] and instantaneous travel time [sec],
+     * computed together in a single pass over the lane groups. The travel time of a stopped link is NaN.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param commodity_id Id for the requested vehicle type. null means aggregate over commodities.
+     * @param link_ids Collection of requested link ids. null means all links.
+     * @param outDt Output sampling time in seconds.
+     */
+    public void request_links_state(String prefix,String output_folder,Number commodity_id,Collection<? extends Number> link_ids,Float outDt){
+        try {
+            this.myapi.scenario.outputs.add(new OutputLinkState(myapi.scenario,prefix,output_folder,to_long(commodity_id),to_long(link_ids),outDt));
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Request vehicles in a mesoscopic queue.
      * @param prefix Prefix for the output files. null means do not write to file.
@@ -131,6 +148,22 @@ public class Output {
         }
     }
 
+    /**
+     * Request a quantile of the link travel times, over all trips completed since the start of the run.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param link_ids Collection of requested link ids. null means all links.
+     * @param outDt Output sampling time in seconds. Must equal the dt of any path travel time request.
+     * @param quantile Quantile between 0 and 1, e.g. 0.95.
+     */
+    public void request_links_travel_time_quantile(String prefix,String output_folder,Collection<? extends Number> link_ids,Float outDt,double quantile){
+        try {
+            this.myapi.scenario.outputs.add(new OutputLinkTravelTimeQuantile(myapi.scenario,prefix,output_folder,to_long(link_ids),outDt,quantile));
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
     // ----------------------------------------------
     // lane groups
     // ----------------------------------------------
@@ -316,8 +349,24 @@ public class Output {
      * @param outDt Output sampling time in seconds.
      */
     public void request_path_travel_time(String prefix,String output_folder,Number subnetwork_id,Float outDt){
+        request_path_travel_time(prefix,output_folder,subnetwork_id,outDt,"instantaneous");
+    }
+
+    /**
+     * Request the travel times on a given path.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param subnetwork_id Id of the requested subnetwork. null means the entire network.
+     * @param outDt Output sampling time in seconds.
+     * @param mode "instantaneous" (sum of current link travel times), "predictive" (travel time of a trip
+     *             departing at each output time, from the link travel times known at that time and, for the
+     *             links it would reach later, the link travel times of the previous run), or
+     *             "experienced" (travel time of a trip departing at each output time, walking through the
+     *             link travel times measured while the trip was underway).
+     */
+    public void request_path_travel_time(String prefix,String output_folder,Number subnetwork_id,Float outDt,String mode){
         try {
-            OutputPathTravelTime path_tt = new OutputPathTravelTime(myapi.scenario,prefix,output_folder,to_long(subnetwork_id),outDt);
+            OutputPathTravelTime path_tt = new OutputPathTravelTime(myapi.scenario,prefix,output_folder,to_long(subnetwork_id),outDt,OutputPathTravelTime.Mode.valueOf(mode));
             this.myapi.scenario.outputs.add(path_tt);
             this.myapi.scenario.add_path_travel_time(path_tt);
         } catch (OTMException e) {
@@ -341,6 +390,153 @@ public class Output {
         }
     }
 
+    // ----------------------------------------------
+    // live state
+    // ----------------------------------------------
+
+    /**
+     * Request a live state export. Link and lane group vehicles, flows and speeds are written every outDt seconds
+     * into a ring of snapshots in the memory-mapped file [output_folder]/[prefix]_live.bin. See OutputLiveState for the layout.
+     * @param prefix Prefix for the output file.
+     * @param output_folder Output folder.
+     * @param link_ids Collection of requested link ids. null means all links.
+     * @param outDt Time between snapshots in seconds.
+     * @param num_slots Number of snapshots kept in the ring.
+     */
+    public void request_live_state(String prefix,String output_folder,Collection<? extends Number> link_ids,Float outDt,int num_slots){
+        try {
+            this.myapi.scenario.outputs.add(new OutputLiveState(myapi.scenario,prefix,output_folder,to_long(link_ids),outDt,num_slots));
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ----------------------------------------------
+    // skims
+    // ----------------------------------------------
+
+    /**
+     * Request travel time and distance skims between centroid nodes, computed every outDt seconds from the current
+     * link travel times. The latest matrices are kept in memory, and every interval is appended to the binary file
+     * [output_folder]/[prefix]_skims.bin. See OutputSkims for the layout.
+     * @param prefix Prefix for the output file. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param node_ids Collection of centroid node ids. null means all nodes.
+     * @param outDt Time between skims in seconds.
+     * @param num_threads Number of threads for the shortest path searches.
+     */
+    public void request_skims(String prefix,String output_folder,Collection<? extends Number> node_ids,Float outDt,int num_threads){
+        try {
+            this.myapi.scenario.outputs.add(new OutputSkims(myapi.scenario,prefix,output_folder,to_long(node_ids),outDt,num_threads));
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ----------------------------------------------
+    // aggregated
+    // ----------------------------------------------
+
+    /**
+     * Request link vehicles reduced over each output interval.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param commodity_id Id for the requested vehicle type. null means aggregate over commodities.
+     * @param link_ids Collection of requested link ids
+     * @param aggregation Comma separated reductions, e.g. "mean,max". Available: sum, mean, min, max.
+     * @param sampleDt Sampling time in seconds. null means use the time step of the fluid models.
+     * @param outDt Output time in seconds. Must be a multiple of sampleDt.
+     */
+    public void request_links_veh_aggregated(String prefix,String output_folder,Number commodity_id,Collection<? extends Number> link_ids,String aggregation,Float sampleDt,Float outDt){
+        try {
+            AbstractOutputTimed source = new OutputLinkVehicles(myapi.scenario,null,null,to_long(commodity_id),to_long(link_ids),outDt);
+            request_aggregated(prefix,output_folder,source,aggregation,sampleDt,outDt);
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Request lane group vehicles reduced over each output interval.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param commodity_id Id for the requested vehicle type. null means aggregate over commodities.
+     * @param link_ids Collection of requested link ids
+     * @param aggregation Comma separated reductions, e.g. "mean,max". Available: sum, mean, min, max.
+     * @param sampleDt Sampling time in seconds. null means use the time step of the fluid models.
+     * @param outDt Output time in seconds. Must be a multiple of sampleDt.
+     */
+    public void request_lanegroup_veh_aggregated(String prefix,String output_folder,Number commodity_id,Collection<? extends Number> link_ids,String aggregation,Float sampleDt,Float outDt){
+        try {
+            AbstractOutputTimed source = new OutputLaneGroupVehicles(myapi.scenario,null,null,to_long(commodity_id),to_long(link_ids),outDt);
+            request_aggregated(prefix,output_folder,source,aggregation,sampleDt,outDt);
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wrap a timed output in a temporal aggregation. The source is evaluated in memory every sampleDt and should
+     * not be requested separately. Flow sources are reduced as the flow in veh/hr between consecutive samples.
+     * @param prefix Prefix for the output files. null means do not write to file.
+     * @param output_folder Output folder. null means do not write to file.
+     * @param source A link or lane group output constructed with null prefix and output folder.
+     * @param aggregation Comma separated reductions, e.g. "mean,max". Available: sum, mean, min, max.
+     * @param sampleDt Sampling time in seconds. null means use the time step of the fluid models.
+     * @param outDt Output time in seconds. Must be a multiple of sampleDt.
+     * @return The aggregated output
+     * @throws OTMException Bad source or aggregation string.
+     */
+    public OutputAggregated request_aggregated(String prefix,String output_folder,AbstractOutputTimed source,String aggregation,Float sampleDt,Float outDt) throws OTMException {
+        OutputAggregated output = new OutputAggregated(myapi.scenario,prefix,output_folder,source,OutputAggregated.read_reductions(aggregation),sampleDt,outDt);
+        this.myapi.scenario.outputs.add(output);
+        return output;
+    }
+
+    // ----------------------------------------------
+    // sparse
+    // ----------------------------------------------
+
+    /**
+     * Request link vehicles written as sparse rows. Use output.SparseEncoder.read_dense to read the file.
+     * @param prefix Prefix for the output files.
+     * @param output_folder Output folder.
+     * @param commodity_id Id for the requested vehicle type. null means aggregate over commodities.
+     * @param link_ids Collection of requested link ids
+     * @param threshold Links are written only if their value changed by more than this since last written.
+     * @param keyframe_period Number of rows between full rows.
+     * @param outDt Output sampling time in seconds.
+     */
+    public void request_links_veh_sparse(String prefix,String output_folder,Number commodity_id,Collection<? extends Number> link_ids,float threshold,int keyframe_period,Float outDt){
+        try {
+            AbstractOutputTimed output = new OutputLinkVehicles(myapi.scenario,prefix,output_folder,to_long(commodity_id),to_long(link_ids),outDt);
+            output.set_sparse(threshold,keyframe_period);
+            this.myapi.scenario.outputs.add(output);
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Request lane group vehicles written as sparse rows. Use output.SparseEncoder.read_dense to read the file.
+     * @param prefix Prefix for the output files.
+     * @param output_folder Output folder.
+     * @param commodity_id Id for the requested vehicle type. null means aggregate over commodities.
+     * @param link_ids Collection of requested link ids
+     * @param threshold Lane groups are written only if their value changed by more than this since last written.
+     * @param keyframe_period Number of rows between full rows.
+     * @param outDt Output sampling time in seconds.
+     */
+    public void request_lanegroup_veh_sparse(String prefix,String output_folder,Number commodity_id,Collection<? extends Number> link_ids,float threshold,int keyframe_period,Float outDt){
+        try {
+            AbstractOutputTimed output = new OutputLaneGroupVehicles(myapi.scenario,prefix,output_folder,to_long(commodity_id),to_long(link_ids),outDt);
+            output.set_sparse(threshold,keyframe_period);
+            this.myapi.scenario.outputs.add(output);
+        } catch (OTMException e) {
+            e.printStackTrace();
+        }
+    }
+
     // ----------------------------------------------
     // vehicle events
     // ----------------------------------------------
@@ -0,0 +1,229 @@
+package core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Running totals of vehicle hours, vehicle kilometers and free flow hours for one link,
+// per commodity. Each vehicle entry or exit costs O(1). Vehicle hours use
+//     VHT(T) = sum_entries n*(T-t) - sum_exits n*(T-t) = count*T - weighted_time
+// so they are exact at any time T for both time-stepped and event based models.
+// Distances are credited when vehicles exit the link. The free flow time credited to an entry at time t is
+// min(T-t,ff_time): the vehicles that are still on the link get their share at any time T, so the delay
+// VHT - free flow time is zero for vehicles moving at free flow, also in the middle of a run. Entries of
+// the last ff_time seconds are kept, one cohort per entry time; older entries only count as ff_time each.
+public class PerformanceAccumulator {
+
+    public final long [] comm_ids;
+    public final double length_km;
+    public final double ffspeed_kph;
+    public final double ff_time_sec;
+
+    private double [] count;          // [veh] currently in the link
+    private double [] weighted_time;  // [veh.sec] sum of n*t_entry - sum of n*t_exit
+    private double [] vkt;            // [veh.km]
+    private double [] old_entries;    // [veh] entered at least ff_time before the last entry
+    private Cohorts [] recent;        // entries of the last ff_time seconds
+
+    public PerformanceAccumulator(long [] comm_ids,float length_meters,float ffspeed_kph){
+        this.comm_ids = comm_ids;
+        this.length_km = length_meters / 1000d;
+        this.ffspeed_kph = ffspeed_kph;
+        this.ff_time_sec = ffspeed_kph>0 ? 3600d*length_km/ffspeed_kph : 0d;
+        int n = comm_ids.length;
+        count = new double[n];
+        weighted_time = new double[n];
+        vkt = new double[n];
+        old_entries = new double[n];
+        recent = new Cohorts[n];
+        for(int i=0;i<n;i++)
+            recent[i] = new Cohorts();
+    }
+
+    public void reset(){
+        Arrays.fill(count,0d);
+        Arrays.fill(weighted_time,0d);
+        Arrays.fill(vkt,0d);
+        Arrays.fill(old_entries,0d);
+        for(Cohorts x : recent)
+            x.clear();
+    }
+
+    ////////////////////////////////////////////
+    // update
+    ////////////////////////////////////////////
+
+    public void enter(long comm_id,double num_vehicles,float timestamp){
+        int i = index(comm_id);
+        if(i<0 || num_vehicles==0d || Double.isNaN(num_vehicles))
+            return;
+        count[i] += num_vehicles;
+        weighted_time[i] += num_vehicles*timestamp;
+        old_entries[i] += recent[i].add(timestamp,num_vehicles,timestamp-ff_time_sec);
+    }
+
+    public void exit(long comm_id,double num_vehicles,float timestamp){
+        int i = index(comm_id);
+        if(i<0 || num_vehicles==0d || Double.isNaN(num_vehicles))
+            return;
+        count[i] -= num_vehicles;
+        weighted_time[i] -= num_vehicles*timestamp;
+        vkt[i] += num_vehicles*length_km;
+    }
+
+    ////////////////////////////////////////////
+    // get
+    ////////////////////////////////////////////
+
+    // comm_id==null means all commodities
+    public double get_vht(Long comm_id,float timestamp){
+        if(comm_id!=null){
+            int i = index(comm_id);
+            return i<0 ? 0d : (count[i]*timestamp - weighted_time[i])/3600d;
+        }
+        double x = 0d;
+        for(int i=0;i<comm_ids.length;i++)
+            x += count[i]*timestamp - weighted_time[i];
+        return x/3600d;
+    }
+
+    public double get_vkt(Long comm_id){
+        return sum(vkt,comm_id);
+    }
+
+    public double get_delay(Long comm_id,float timestamp){
+        return get_vht(comm_id,timestamp) - get_ff_vht(comm_id,timestamp);
+    }
+
+    // free flow hours credited up to time T: min(T-t,ff_time) per vehicle that entered at time t
+    public double get_ff_vht(Long comm_id,float timestamp){
+        double x = 0d;
+        for(int i=0;i<comm_ids.length;i++)
+            if(comm_id==null || comm_ids[i]==comm_id)
+                x += old_entries[i]*ff_time_sec + recent[i].get_ff_time(timestamp,ff_time_sec);
+        return x/3600d;
+    }
+
+    ////////////////////////////////////////////
+    // checkpoint
+    ////////////////////////////////////////////
+
+    public void write_checkpoint(DataOutputStream out) throws IOException {
+        out.writeInt(comm_ids.length);
+        for(int i=0;i<comm_ids.length;i++){
+            out.writeDouble(count[i]);
+            out.writeDouble(weighted_time[i]);
+            out.writeDouble(vkt[i]);
+            out.writeDouble(old_entries[i]);
+            recent[i].write(out);
+        }
+    }
+
+    public void read_checkpoint(DataInputStream in) throws IOException {
+        if(in.readInt()!=comm_ids.length)
+            throw new IOException("Checkpoint does not match the commodities of the scenario.");
+        for(int i=0;i<comm_ids.length;i++){
+            count[i] = in.readDouble();
+            weighted_time[i] = in.readDouble();
+            vkt[i] = in.readDouble();
+            old_entries[i] = in.readDouble();
+            recent[i].read(in);
+        }
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    private int index(long comm_id){
+        for(int i=0;i<comm_ids.length;i++)
+            if(comm_ids[i]==comm_id)
+                return i;
+        return -1;
+    }
+
+    // ring buffer of (entry time, vehicles), oldest first, with one entry per distinct time
+    private static class Cohorts {
+        float [] time = new float[8];
+        double [] num = new double[8];
+        int head = 0;
+        int size = 0;
+
+        void clear(){
+            head = 0;
+            size = 0;
+        }
+
+        // add an entry and drop the ones at or before the cutoff, returning their number of vehicles
+        double add(float t,double n,double cutoff){
+            int last = (head+size-1) % time.length;
+            if(size>0 && time[last]==t)
+                num[last] += n;
+            else {
+                if(size==time.length)
+                    grow();
+                int k = (head+size) % time.length;
+                time[k] = t;
+                num[k] = n;
+                size++;
+            }
+            double dropped = 0d;
+            while(size>0 && time[head]<=cutoff){
+                dropped += num[head];
+                head = (head+1) % time.length;
+                size--;
+            }
+            return dropped;
+        }
+
+        // [veh.sec]
+        double get_ff_time(float now,double ff_time){
+            double x = 0d;
+            for(int j=0;j<size;j++){
+                int k = (head+j) % time.length;
+                x += num[k]*Math.max(0d,Math.min(now-time[k],ff_time));
+            }
+            return x;
+        }
+
+        void grow(){
+            float [] new_time = new float[2*time.length];
+            double [] new_num = new double[2*time.length];
+            for(int j=0;j<size;j++){
+                new_time[j] = time[(head+j) % time.length];
+                new_num[j] = num[(head+j) % time.length];
+            }
+            time = new_time;
+            num = new_num;
+            head = 0;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for(int j=0;j<size;j++){
+                out.writeFloat(time[(head+j) % time.length]);
+                out.writeDouble(num[(head+j) % time.length]);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            clear();
+            int n = in.readInt();
+            for(int j=0;j<n;j++)
+                add(in.readFloat(),in.readDouble(),Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    private double sum(double [] x,Long comm_id){
+        if(comm_id!=null){
+            int i = index(comm_id);
+            return i<0 ? 0d : x[i];
+        }
+        double s = 0d;
+        for(double v : x)
+            s += v;
+        return s;
+    }
+
+}
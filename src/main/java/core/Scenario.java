@@ -4,6 +4,8 @@ import actuator.AbstractActuator;
 import commodity.Commodity;
 import commodity.Path;
 import commodity.Subnetwork;
+import demand.ODDemand;
+import demand.ODMatrix;
 import dispatch.EventInitializeController;
 import cmd.RunParameters;
 import events.AbstractScenarioEvent;
@@ -18,12 +20,21 @@ import jaxb.Model;
 import output.AbstractOutput;
 import output.OutputPathTravelTime;
 import profiles.*;
+import routing.EnrouteRouter;
+import routing.FreeFlowLinkCost;
+import routing.RoadGraph;
+import routing.ShortestPathEngine;
+import routing.TimerLinkCost;
 import sensor.AbstractSensor;
 import utils.OTMUtils;
+import utils.SplitMixRandom;
+import xml.BinaryScenario;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.*;
 
@@ -42,6 +53,12 @@ public class Scenario {
     public Dispatcher dispatcher;
     public Set<AbstractOutput> outputs = new HashSet<>();
 
+    // run parameters of the last initialization, used by reset
+    protected RunParameters run_params;
+
+    /** Id counters, random number generator and plugins of this scenario **/
+    public final ScenarioContext context;
+
     /** Container for the network **/
     public Network network;
 
@@ -72,6 +89,30 @@ public class Scenario {
     // travel time computation
     public LinkTravelTimeManager path_tt_manager;
 
+    // en-route routing of spatial queue vehicles, null if not used
+    public EnrouteRouter enroute_router;
+
+    // demands of pathfull commodities given as OD matrices
+    public List<ODDemand> od_demands = new ArrayList<>();
+
+    // road parameters and demand multipliers set through the API, carried into forks
+    protected Map<Long,jaxb.Roadparam> road_param_overrides = new HashMap<>();    // lane group id -> parameters
+    protected Map<Long,Double> demand_multipliers = new HashMap<>();              // commodity id -> multiplier
+
+    // configuration this scenario was built from, used by fork. Null unless the context has keep_source set,
+    // and for streamed scenarios.
+    protected jaxb.Scenario jaxb_source;
+    protected BinaryScenario binary_source;
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    // scenarios are built by ScenarioFactory, with the settings of the given context
+    protected Scenario(ScenarioContext context){
+        this.context = context;
+    }
+
     ///////////////////////////////////////////////////
     // validate / initialize
     ///////////////////////////////////////////////////
@@ -97,24 +138,7 @@ public class Scenario {
             events.values().stream().forEach(x->x.validate_pre_init(errorLog));
 
         // check if there are CFL violations, and if so report the max step time
-        if(errorLog.haserror()){
-
-            if( errorLog.getErrors().stream().anyMatch(e->e.description.contains("CFL")) ){
-                Map<String,Double> maxdt = new HashMap<>();
-                for(AbstractModel model : models.values())
-                    maxdt.put(model.name,Double.POSITIVE_INFINITY);
-                for(String str : errorLog.getErrors().stream().filter(e->e.description.contains("CFL")).map(e->e.description).collect(toSet())) {
-                    String[] tokens = str.split(" ");
-                    long linkid = Long.parseLong(tokens[3]);
-                    AbstractFluidModel model = (AbstractFluidModel) network.links.get(linkid).model;
-                    double cfl = Double.parseDouble(tokens[6]);
-                    maxdt.put(model.name,Math.min(maxdt.get(model.name),model.dt_sec /cfl));
-                }
-                for(Map.Entry<String,Double> e : maxdt.entrySet())
-                    errorLog.addError(String.format("The maximum step size for model `%s' is %f",e.getKey(),e.getValue()));
-            }
-
-        }
+        add_max_step_sizes(errorLog);
 
         return errorLog;
     }
@@ -137,9 +161,31 @@ public class Scenario {
         // check validation
         errorLog1.check();
 
+        this.run_params = runParams;
+        initialize_components(runParams);
+
+        // validate
+        if(validate_post_init) {
+            OTMErrorLog errorLog2 = validate_post_init();
+            errorLog2.check();
+        }
+
+    }
+
+    // Return to the start time of the last initialization. The dispatcher and the state containers are reused,
+    // and neither the run parameters nor the scenario are validated again.
+    protected void reset() throws OTMException {
+        if(dispatcher==null || run_params==null)
+            throw new OTMException("The scenario has not been initialized.");
+        context.set_vehicle_id_count(0);
+        initialize_components(run_params);
+    }
+
+    private void initialize_components(RunParameters runParams) throws OTMException {
+
         // initialize components ..................................
         if(dispatcher!=null)
-            dispatcher.initialize();
+            dispatcher.initialize(runParams.start_time);
 
         // initialize and register outputs
         for(AbstractOutput x : outputs)
@@ -149,11 +195,19 @@ public class Scenario {
         for(AbstractOutput output : outputs)
             output.register(runParams,dispatcher);
 
+        // one generator per model, split in name order from a single draw of the scenario generator
+        SplitMixRandom root = new SplitMixRandom(context.get_random().nextLong());
+        for(String name : new TreeSet<>(models.keySet()))
+            models.get(name).random = root.split();
+
         network.initialize(this,runParams.start_time);
 
         for(AbstractModel model : models.values())
             model.initialize(this,runParams.start_time);
 
+        for(ODDemand od : od_demands)
+            od.initialize(dispatcher);
+
         for(AbstractSensor x : sensors.values())
             x.initialize(this);
 
@@ -168,12 +222,8 @@ public class Scenario {
         if(path_tt_manager!=null)
             path_tt_manager.initialize(dispatcher);
 
-        // validate
-        if(validate_post_init) {
-            OTMErrorLog errorLog2 = validate_post_init();
-            errorLog2.check();
-        }
-
+        if(enroute_router!=null)
+            enroute_router.initialize(dispatcher);
     }
 
     private OTMErrorLog validate_post_init(){
@@ -197,26 +247,78 @@ public class Scenario {
             events.values().stream().forEach(x->x.validate_post_init(errorLog));
 
         // check if there are CFL violations, and if so report the max step time
-        if(errorLog.haserror()){
-
-            if( errorLog.getErrors().stream().anyMatch(e->e.description.contains("CFL")) ){
-                Map<String,Double> maxdt = new HashMap<>();
-                for(AbstractModel model : models.values())
-                    maxdt.put(model.name,Double.POSITIVE_INFINITY);
-                for(String str : errorLog.getErrors().stream().filter(e->e.description.contains("CFL")).map(e->e.description).collect(toSet())) {
-                    String[] tokens = str.split(" ");
-                    long linkid = Long.parseLong(tokens[3]);
-                    AbstractFluidModel model = (AbstractFluidModel) network.links.get(linkid).model;
-                    double cfl = Double.parseDouble(tokens[6]);
-                    maxdt.put(model.name,Math.min(maxdt.get(model.name),model.dt_sec /cfl));
-                }
-                for(Map.Entry<String,Double> e : maxdt.entrySet())
-                    errorLog.addError(String.format("The maximum step size for model `%s' is %f",e.getKey(),e.getValue()));
-            }
+        add_max_step_sizes(errorLog);
+
+        return errorLog;
+    }
+
+    private void add_max_step_sizes(OTMErrorLog errorLog){
 
+        if( !errorLog.haserror() || errorLog.getErrors().stream().noneMatch(e->e.description.contains("CFL")) )
+            return;
+
+        Map<String,Double> maxdt = new HashMap<>();
+        for(AbstractModel model : models.values())
+            maxdt.put(model.name,Double.POSITIVE_INFINITY);
+        for(String str : errorLog.getErrors().stream().filter(e->e.description.contains("CFL")).map(e->e.description).collect(toSet())) {
+            String[] tokens = str.split(" ");
+            long linkid = Long.parseLong(tokens[3]);
+            AbstractFluidModel model = (AbstractFluidModel) network.links.get(linkid).model;
+            double cfl = Double.parseDouble(tokens[6]);
+            maxdt.put(model.name,Math.min(maxdt.get(model.name),model.dt_sec /cfl));
         }
+        for(Map.Entry<String,Double> e : maxdt.entrySet())
+            errorLog.addError(String.format("The maximum step size for model `%s' is %f",e.getKey(),e.getValue()));
+    }
 
-        return errorLog;
+    ///////////////////////////////////////////////////
+    // fork
+    ///////////////////////////////////////////////////
+
+    /**
+     * Create an independent copy of this scenario at its current time. The copy is rebuilt from the parsed
+     * configuration that this scenario was loaded from (the xml is not read again), initialized at the
+     * current time, and given a copy of the simulation state. The copy has its own dispatcher and no outputs;
+     * use the performance measures (get_vht, get_vkt, get_delay) and the link states to evaluate it.
+     * The fork starts with a copy of this scenario's random generator and settings, and has the same OD demands,
+     * demand multipliers and road parameters set with set_road_params. Other changes made through the API after
+     * loading are not carried over.
+     * @return The forked scenario
+     * The scenario must be built with keep_source set in its context (ScenarioContext.keep_source), and not with
+     * the streaming loader.
+     * @throws OTMException If this scenario is not initialized or does not keep its configuration.
+     **/
+    public Scenario fork() throws OTMException {
+
+        if(dispatcher==null)
+            throw new OTMException("Only initialized scenarios can be forked.");
+        if(jaxb_source==null)
+            throw new OTMException("Only scenarios built with keep_source set in their context, and not with the streaming loader, can be forked.");
+
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        Checkpoint.save(this,state);
+
+        Scenario fork = ScenarioFactory.create_scenario(jaxb_source,binary_source,false,new ScenarioContext(context));
+        for(ODDemand od : od_demands)
+            od.copy_settings(fork.add_od_matrix(od.matrix));
+        for(Map.Entry<Long,Double> e : demand_multipliers.entrySet())
+            fork.set_demand_multipliers(new long[]{e.getKey()},new double[]{e.getValue()});
+        fork.initialize(new Dispatcher(),new RunParameters(dispatcher.current_time),true);
+
+        // lane group ids do not depend on the build, so the overrides are found by id
+        if(!road_param_overrides.isEmpty()) {
+            Map<Long,AbstractLaneGroup> lgs = new HashMap<>();
+            for(Link link : fork.network.links.values())
+                for(AbstractLaneGroup lg : link.lgs)
+                    lgs.put(lg.getId(),lg);
+            for(Map.Entry<Long,jaxb.Roadparam> e : road_param_overrides.entrySet()) {
+                lgs.get(e.getKey()).set_road_params(e.getValue());
+                fork.road_param_overrides.put(e.getKey(),e.getValue());
+            }
+        }
+
+        Checkpoint.restore(fork,new ByteArrayInputStream(state.toByteArray()));
+        return fork;
     }
 
     ///////////////////////////////////////////////////
@@ -384,6 +486,8 @@ public class Scenario {
         } catch (OTMException e) {
             e.printStackTrace();
         }
+        if(enroute_router!=null)
+            enroute_router.terminate();
     }
 
     ///////////////////////////////////////////////////
@@ -397,6 +501,70 @@ public class Scenario {
         path_tt_manager.add_path_travel_time_writer(path_tt_writer);
     }
 
+    /**
+     * Measure the travel times of a set of links. The measured values are in link.link_tt once the scenario
+     * is initialized.
+     * @param link_ids Ids of the links.
+     * @param dt Update period in seconds. Must equal the dt of any path travel time request.
+     * @throws OTMException Undocumented
+     */
+    public void add_link_travel_times(Collection<Long> link_ids,float dt) throws OTMException {
+        List<Link> links = new ArrayList<>();
+        for(Long link_id : link_ids){
+            if(!network.links.containsKey(link_id))
+                throw new OTMException("Bad link id: " + link_id);
+            links.add(network.links.get(link_id));
+        }
+        if(path_tt_manager==null)
+            path_tt_manager = new LinkTravelTimeManager(this);
+        path_tt_manager.add_links(links,dt);
+    }
+
+    /**
+     * Route a fraction of the vehicles of a pathless commodity en route, on links of the spatial queue model.
+     * Each routed vehicle gets a destination, sampled from the splits when it is created, and at every node
+     * takes the next link of the fastest path to it according to a next-hop table. The table is rebuilt
+     * periodically from the link travel times, which are measured on all links. See routing.EnrouteRouter.
+     * Call before "initialize".
+     * @param commodity_id Id of a pathless commodity.
+     * @param fraction Fraction of the vehicles of the commodity that are routed, between 0 and 1.
+     * @param refresh_dt Seconds between rebuilds of the next-hop table. Must be the same for all commodities.
+     * @param background Build the table on a separate thread, so that the simulation does not wait for it.
+     * @throws OTMException If the commodity is not pathless or the parameters are not valid.
+     */
+    public void set_enroute_routing(long commodity_id,double fraction,float refresh_dt,boolean background) throws OTMException {
+
+        Commodity commodity = commodities.get(commodity_id);
+        if(commodity==null)
+            throw new OTMException("Bad commodity id: " + commodity_id);
+        if(commodity.pathfull)
+            throw new OTMException("En-route routing only applies to pathless commodities.");
+        if(fraction<0 || fraction>1 || Double.isNaN(fraction))
+            throw new OTMException("The routed fraction must be between 0 and 1.");
+        if(refresh_dt<=0)
+            throw new OTMException("The refresh period must be positive.");
+        if(enroute_router!=null && (enroute_router.refresh_dt!=refresh_dt || enroute_router.background!=background))
+            throw new OTMException("All commodities must use the same refresh period and mode.");
+
+        if(enroute_router==null) {
+            float tt_dt = path_tt_manager==null || Float.isNaN(path_tt_manager.dt) ? refresh_dt : path_tt_manager.dt;
+            add_link_travel_times(network.links.keySet(),tt_dt);
+            enroute_router = new EnrouteRouter(this,refresh_dt,background);
+        }
+        enroute_router.set_fraction(commodity_id,fraction);
+    }
+
+    /**
+     * Shortest path engine over the road network. With use_timers, link costs are the travel times measured
+     * by the link travel timers (see add_link_travel_times), and free flow travel times for links without a
+     * timer. Otherwise all costs are free flow travel times. The graph is built on each call.
+     * @param use_timers Use measured link travel times.
+     * @return ShortestPathEngine
+     */
+    public ShortestPathEngine get_shortest_path_engine(boolean use_timers){
+        return new ShortestPathEngine(new RoadGraph(network),use_timers ? new TimerLinkCost() : new FreeFlowLinkCost());
+    }
+
     /** Get a scenario element by type and id
      * @param type Scenario element type
      * @param id Id of the scenario element
@@ -657,6 +825,107 @@ public class Scenario {
         return link.demandGenerators.stream().map(z->z.profile).collect(toSet());
     }
 
+    // batch parameters .................................
+
+    /**
+     * Override the road parameters of several links in one call, typically between runs (after "initialize"
+     * or "reset"). The arrays are indexed like link_ids. A NaN entry keeps the current value of that parameter.
+     * The parameters are applied to every lane group of the link. All of the links are checked, including the
+     * CFL condition of the fluid models, before any of them is changed, and a single exception reports every
+     * problem in the batch.
+     * @param link_ids Link ids.
+     * @param capacity_vphpl Capacity in vehicles per hour per lane.
+     * @param speed_kph Free flow speed in kilometers per hour.
+     * @param jam_density_vpkpl Jam density in vehicles per kilometer per lane.
+     * @throws OTMException If the arrays do not match, an id is unknown, or the parameters are not valid.
+     */
+    public void set_road_params(long [] link_ids, float [] capacity_vphpl, float [] speed_kph, float [] jam_density_vpkpl) throws OTMException {
+
+        int n = link_ids.length;
+        if(capacity_vphpl.length!=n || speed_kph.length!=n || jam_density_vpkpl.length!=n)
+            throw new OTMException("The parameter arrays must have the same length as link_ids.");
+
+        // compute and check the new parameters
+        OTMErrorLog errorLog = new OTMErrorLog();
+        Map<AbstractLaneGroup,jaxb.Roadparam> new_params = new HashMap<>();
+        for(int i=0;i<n;i++){
+            Link link = network.links.get(link_ids[i]);
+            if(link==null) {
+                errorLog.addError("Bad link id in set_road_params: " + link_ids[i]);
+                continue;
+            }
+            for(AbstractLaneGroup lg : link.lgs){
+                jaxb.Roadparam current = lg.get_road_params();
+                if(current==null)
+                    continue;
+                jaxb.Roadparam rp = new jaxb.Roadparam();
+                rp.setCapacity(Float.isNaN(capacity_vphpl[i]) ? current.getCapacity() : capacity_vphpl[i]);
+                rp.setSpeed(Float.isNaN(speed_kph[i]) ? current.getSpeed() : speed_kph[i]);
+                rp.setJamDensity(Float.isNaN(jam_density_vpkpl[i]) ? current.getJamDensity() : jam_density_vpkpl[i]);
+                lg.validate_road_params(rp,errorLog);
+                new_params.put(lg,rp);
+            }
+        }
+        add_max_step_sizes(errorLog);
+        errorLog.check();
+
+        // apply
+        for(Map.Entry<AbstractLaneGroup,jaxb.Roadparam> e : new_params.entrySet()) {
+            e.getKey().set_road_params(e.getValue());
+            road_param_overrides.put(e.getKey().getId(),e.getValue());
+        }
+    }
+
+    /**
+     * Scale the demands of several commodities. The multipliers are relative to the demand profiles of the
+     * scenario (not cumulative) and take effect at the next "initialize" or "reset", or at the next change
+     * of the demand profile if the simulation is running.
+     * @param commodity_ids Commodity ids.
+     * @param multipliers Non-negative demand multipliers, indexed like commodity_ids.
+     * @throws OTMException If the arrays do not match, an id is unknown, or a multiplier is negative.
+     */
+    public void set_demand_multipliers(long [] commodity_ids, double [] multipliers) throws OTMException {
+
+        if(multipliers.length!=commodity_ids.length)
+            throw new OTMException("The multipliers array must have the same length as commodity_ids.");
+
+        OTMErrorLog errorLog = new OTMErrorLog();
+        Map<Long,Double> comm2mult = new HashMap<>();
+        for(int i=0;i<commodity_ids.length;i++){
+            if(!commodities.containsKey(commodity_ids[i]))
+                errorLog.addError("Bad commodity id in set_demand_multipliers: " + commodity_ids[i]);
+            if(multipliers[i]<0 || Double.isNaN(multipliers[i]))
+                errorLog.addError("Negative demand multiplier for commodity " + commodity_ids[i]);
+            comm2mult.put(commodity_ids[i],multipliers[i]);
+        }
+        errorLog.check();
+
+        for(Link link : network.links.values())
+            if(link.demandGenerators!=null)
+                for(AbstractDemandGenerator gen : link.demandGenerators)
+                    if(comm2mult.containsKey(gen.commodity.getId()))
+                        gen.demand_multiplier = comm2mult.get(gen.commodity.getId());
+        for(ODDemand od : od_demands)
+            if(comm2mult.containsKey(od.commodity.getId()))
+                od.demand_multiplier = comm2mult.get(od.commodity.getId());
+        demand_multipliers.putAll(comm2mult);
+    }
+
+    /**
+     * Add the demand of a pathfull commodity as a time-sliced OD matrix. Each origin link gets a single
+     * departure stream, and each departure chooses its destination in proportion to the rates of the pairs
+     * and its path among the commodity's paths for that pair. See demand.ODDemand for the path choice.
+     * The matrix is compacted and cannot be changed after this call. Call before "initialize".
+     * @param matrix OD matrix. Origins and destinations are the first and last links of the commodity's paths.
+     * @return The OD demand, which holds the path choice settings.
+     * @throws OTMException If the commodity is not pathfull, an origin is not a source link, or a pair has no path.
+     */
+    public ODDemand add_od_matrix(ODMatrix matrix) throws OTMException {
+        ODDemand od = new ODDemand(this,matrix);
+        od_demands.add(od);
+        return od;
+    }
+
     // other .................................
 
     public long add_subnetwork(String name, Set<Long> linkids,Set<Long> comm_ids) throws OTMException {
@@ -686,6 +955,53 @@ public class Scenario {
 //        return new Queues(lg.waiting_queue.num_vehicles(),lg.transit_queue.num_vehicles());
 //    }
 
+    // performance .................................
+
+    /**
+     * Vehicle hours traveled up to the current simulation time.
+     * @param subnetwork_id Subnetwork id. null means the whole network.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @return VHT in veh.hr
+     * @throws OTMException Bad subnetwork id.
+     */
+    public double get_vht(Long subnetwork_id,Long commodity_id) throws OTMException {
+        float now = dispatcher==null ? 0f : dispatcher.current_time;
+        return get_links_for_subnetwork(subnetwork_id).stream()
+                .filter(link->link.perf!=null)
+                .mapToDouble(link->link.perf.get_vht(commodity_id,now))
+                .sum();
+    }
+
+    /**
+     * Vehicle kilometers traveled up to the current simulation time. Distance is credited when a vehicle exits a link.
+     * @param subnetwork_id Subnetwork id. null means the whole network.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @return VKT in veh.km
+     * @throws OTMException Bad subnetwork id.
+     */
+    public double get_vkt(Long subnetwork_id,Long commodity_id) throws OTMException {
+        return get_links_for_subnetwork(subnetwork_id).stream()
+                .filter(link->link.perf!=null)
+                .mapToDouble(link->link.perf.get_vkt(commodity_id))
+                .sum();
+    }
+
+    /**
+     * Delay up to the current simulation time, computed as VHT minus the free flow travel time. Each vehicle is
+     * credited its time on a link, up to the free flow travel time of the link, also while it is still on it.
+     * @param subnetwork_id Subnetwork id. null means the whole network.
+     * @param commodity_id Commodity id. null means all commodities.
+     * @return Delay in veh.hr
+     * @throws OTMException Bad subnetwork id.
+     */
+    public double get_delay(Long subnetwork_id,Long commodity_id) throws OTMException {
+        float now = dispatcher==null ? 0f : dispatcher.current_time;
+        return get_links_for_subnetwork(subnetwork_id).stream()
+                .filter(link->link.perf!=null)
+                .mapToDouble(link->link.perf.get_delay(commodity_id,now))
+                .sum();
+    }
+
     /**
      * Integrate the demands to obtain the total number of trips that will take place.
      * @return The number of trips.
@@ -695,7 +1011,8 @@ public class Scenario {
                 .filter(link->link.has_demands())
                 .flatMap(link->link.get_demandGenerators().stream())
                 .map(gen->gen.get_total_trips())
-                .reduce(0.0,Double::sum);
+                .reduce(0.0,Double::sum)
+                + od_demands.stream().mapToDouble(ODDemand::get_total_trips).sum();
     }
 
     ////////////////////////////////////////////////////////
@@ -721,4 +1038,18 @@ public class Scenario {
         return new AnimationInfo(this);
     }
 
+    ////////////////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////////////////
+
+    private Collection<Link> get_links_for_subnetwork(Long subnetwork_id) throws OTMException {
+        if(subnetwork_id==null)
+            return network.links.values();
+        if(!subnetworks.containsKey(subnetwork_id))
+            throw new OTMException("Bad subnetwork id: " + subnetwork_id);
+        return subnetworks.get(subnetwork_id).get_link_ids().stream()
+                .map(id->network.links.get(id))
+                .collect(toSet());
+    }
+
 }
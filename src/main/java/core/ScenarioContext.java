@@ -0,0 +1,151 @@
+package core;
+
+import control.AbstractController;
+import error.OTMException;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Mutable simulation state that is shared by the elements of one scenario: id counters, the random number
+ * generator, loaded plugins and node model settings. Each scenario owns its context, so several scenarios
+ * can be built and run in the same JVM, on different threads, without interfering with each other.
+ *
+ * The settings (construction threads, node model parameters and keep_source) are read while the scenario is built.
+ * To change them, create a context, set them, and pass it to the factory (ScenarioFactory.create_scenario,
+ * OTM.load_test, ...).
+ */
+public class ScenarioContext {
+
+    // threads used for the independent per-link and per-node construction steps, 1 builds sequentially
+    public int construction_threads = Runtime.getRuntime().availableProcessors();
+
+    // node model
+    public int node_model_max_iterations = 10;
+    public double node_model_eps = 1e-3;
+
+    // keep the configuration the scenario is built from, needed by fork, run_ensemble and path generation in the
+    // dynamic traffic assignment. Off by default, so the jaxb tree can be released once the scenario is built.
+    public boolean keep_source = false;
+
+    // plugins
+    public final Map<String,Class<AbstractModel>> model_plugins = new HashMap<>();
+    public final Map<String,Class<AbstractController>> controller_plugins = new HashMap<>();
+
+    private long lane_group_counter;
+    private long vehicle_id_count;
+    private Random random;
+
+    public ScenarioContext(){
+        lane_group_counter = 0;
+        vehicle_id_count = 0;
+        random = new Random();
+    }
+
+    // new context with the settings of another one, and fresh counters, generator and plugins
+    public ScenarioContext(ScenarioContext settings){
+        this();
+        this.construction_threads = settings.construction_threads;
+        this.node_model_max_iterations = settings.node_model_max_iterations;
+        this.node_model_eps = settings.node_model_eps;
+        this.keep_source = settings.keep_source;
+    }
+
+    ///////////////////////////////////////////////////
+    // counters
+    ///////////////////////////////////////////////////
+
+    public long next_lanegroup_id(){
+        return lane_group_counter++;
+    }
+
+    public long next_vehicle_id(){
+        return vehicle_id_count++;
+    }
+
+    public long get_vehicle_id_count(){
+        return vehicle_id_count;
+    }
+
+    public void set_vehicle_id_count(long x){
+        vehicle_id_count = x;
+    }
+
+    ///////////////////////////////////////////////////
+    // construction
+    ///////////////////////////////////////////////////
+
+    public interface Task<T> {
+        void run(T x) throws OTMException;
+    }
+
+    // Runs the task on every item using construction_threads threads. The items are split into contiguous
+    // chunks, so the task must only modify state owned by its item. If several items fail, the exception of
+    // the first of them in iteration order is thrown.
+    public <T> void parallel_for_each(Collection<T> items,Task<T> task) throws OTMException {
+
+        int num_threads = Math.min(construction_threads,items.size());
+        if(num_threads<=1){
+            for(T x : items)
+                task.run(x);
+            return;
+        }
+
+        List<T> list = new ArrayList<>(items);
+        int chunk = (list.size()+num_threads-1)/num_threads;
+        ExecutorService pool = Executors.newFixedThreadPool(num_threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for(int start=0;start<list.size();start+=chunk) {
+                List<T> sublist = list.subList(start,Math.min(start+chunk,list.size()));
+                futures.add(pool.submit(() -> {
+                    for(T x : sublist)
+                        task.run(x);
+                    return null;
+                }));
+            }
+            for(Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
+            throw new OTMException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // random
+    ///////////////////////////////////////////////////
+
+    public void set_random_seed(long seed){
+        random = new Random(seed);
+    }
+
+    public Random get_random(){
+        return random;
+    }
+
+    // serialized generator, used by checkpoints
+    public byte [] get_random_state() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+        }
+        return bytes.toByteArray();
+    }
+
+    public void set_random_state(byte [] state) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            random = (Random) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
@@ -26,6 +26,8 @@ import sensor.AbstractSensor;
 import sensor.FixedSensor;
 import utils.OTMUtils;
 import utils.StochasticProcess;
+import xml.BinaryScenario;
+import xml.StaxLoader;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -39,13 +41,33 @@ public class ScenarioFactory {
     ///////////////////////////////////////////
 
     public static Scenario create_scenario(jaxb.Scenario js, boolean validate_pre_init) throws OTMException {
+        return create_scenario(js,null,validate_pre_init,new ScenarioContext());
+    }
+
+    public static Scenario create_scenario(BinaryScenario bs, boolean validate_pre_init) throws OTMException {
+        return create_scenario(bs.js,bs,validate_pre_init,new ScenarioContext());
+    }
 
-        OTMUtils.reset_counters();
+    // the scenario is built with the settings of the given context, and owns it
+    public static Scenario create_scenario(jaxb.Scenario js, boolean validate_pre_init, ScenarioContext context) throws OTMException {
+        return create_scenario(js,null,validate_pre_init,context);
+    }
+
+    public static Scenario create_scenario(BinaryScenario bs, boolean validate_pre_init, ScenarioContext context) throws OTMException {
+        return create_scenario(bs.js,bs,validate_pre_init,context);
+    }
 
-        Scenario scenario = new Scenario();
+    // bs holds the demands and splits of compiled scenarios, null otherwise
+    static Scenario create_scenario(jaxb.Scenario js, BinaryScenario bs, boolean validate_pre_init, ScenarioContext context) throws OTMException {
+
+        Scenario scenario = new Scenario(context);
+        if(context.keep_source) {
+            scenario.jaxb_source = js;
+            scenario.binary_source = bs;
+        }
 
         // plugins
-        PluginLoader.load_plugins( js.getPlugins() );
+        PluginLoader.load_plugins( js.getPlugins() , scenario.context );
 
         // network and subnetworks
         ScenarioFactory.create_network_and_subnetworks_from_jaxb(scenario, js.getNetwork(), js.getSubnetworks());
@@ -59,6 +81,9 @@ public class ScenarioFactory {
         // demands
         ScenarioFactory.create_demands_from_jaxb(scenario, js.getDemands());
 
+        if(bs!=null)
+            ScenarioFactory.create_demands_and_splits_from_binary(scenario, bs);
+
         // control
         scenario.sensors = ScenarioFactory.create_sensors_from_jaxb(scenario, js.getSensors() );
         scenario.actuators = ScenarioFactory.create_actuators_from_jaxb(scenario, js.getActuators() );
@@ -79,6 +104,22 @@ public class ScenarioFactory {
         return scenario;
     }
 
+    public static Scenario create_scenario_streaming(String filename, boolean validate_schema, boolean validate_pre_init) throws OTMException {
+        return create_scenario_streaming(filename,validate_schema,validate_pre_init,new ScenarioContext());
+    }
+
+    public static Scenario create_scenario_streaming(String filename, boolean validate_schema, boolean validate_pre_init, ScenarioContext context) throws OTMException {
+        StreamingBuilder builder = new StreamingBuilder(context);
+        StaxLoader.load_scenario(filename,validate_schema,builder);
+        return builder.finish(validate_pre_init);
+    }
+
+    public static Scenario create_test_scenario_streaming(String testname, boolean validate_schema, boolean validate_pre_init) throws OTMException {
+        StreamingBuilder builder = new StreamingBuilder(new ScenarioContext());
+        StaxLoader.load_test_scenario(testname,validate_schema,builder);
+        return builder.finish(validate_pre_init);
+    }
+
     public static AbstractController create_controller_from_jaxb(Scenario scenario, jaxb.Controller jaxb_controller) throws OTMException {
         AbstractController controller;
         AbstractController.Algorithm type = AbstractController.Algorithm.valueOf(jaxb_controller.getType());
@@ -200,12 +241,20 @@ public class ScenarioFactory {
         if(defs.size()>1)
             throw new OTMException("Multiple defaults.");
 
+        // The default model is configured first, since the others take their links from it, and the rest in name
+        // order. Fluid models build their node models last, once every link has its lane groups.
+        List<jaxb.Model> ordered = new ArrayList<>(jmodels);
+        ordered.sort(Comparator.comparing((jaxb.Model x)->!x.isIsDefault()).thenComparing(jaxb.Model::getName));
         Set<Link> assigned_links = new HashSet<>();
-        for(jaxb.Model jmodel : jmodels ){
-            AbstractModel model = create_model(scenario,jmodel);
+        for(jaxb.Model jmodel : ordered ){
+            AbstractModel model = instantiate_model(scenario,jmodel);
+            model.configure(scenario,jmodel.getLanechanges() );
             models.put(jmodel.getName(),model);
             assigned_links.addAll(model.links);
         }
+        for(AbstractModel model : models.values())
+            if(model instanceof AbstractFluidModel)
+                ((AbstractFluidModel) model).build_cells_and_node_models();
 
         // assign 'none' model to remaining links
         if(assigned_links.size()<scenario.network.links.size()){
@@ -223,6 +272,14 @@ public class ScenarioFactory {
     }
 
     protected static AbstractModel create_model(Scenario scenario,jaxb.Model jmodel) throws OTMException {
+        AbstractModel model = instantiate_model(scenario,jmodel);
+        model.configure(scenario,jmodel.getLanechanges() );
+        if(model instanceof AbstractFluidModel)
+            ((AbstractFluidModel) model).build_cells_and_node_models();
+        return model;
+    }
+
+    private static AbstractModel instantiate_model(Scenario scenario,jaxb.Model jmodel) throws OTMException {
 
         StochasticProcess process;
         try {
@@ -270,7 +327,7 @@ public class ScenarioFactory {
             default:
 
                 // it might be a plugin
-                model = PluginLoader.get_model_instance(jmodel,process);
+                model = PluginLoader.get_model_instance(jmodel,process,scenario.context);
 
                 if(model==null)
                     throw new OTMException("Bad model type: " + jmodel.getType());
@@ -278,8 +335,6 @@ public class ScenarioFactory {
 
         }
 
-        model.configure(scenario,jmodel.getLanechanges() );
-
         return model;
     }
 
@@ -387,51 +442,58 @@ public class ScenarioFactory {
     private static void create_demands_from_jaxb(Scenario scenario, jaxb.Demands jaxb_demands) throws OTMException  {
         if (jaxb_demands == null || jaxb_demands.getDemand().isEmpty())
             return;
-        for (jaxb.Demand jd : jaxb_demands.getDemand()) {
-
-            if(!scenario.commodities.containsKey(jd.getCommodityId()))
-                throw new OTMException("Bad commodity in demands");
-
-            Commodity comm = scenario.commodities.get(jd.getCommodityId());
-            Path path = null;
-            Long linkid;
-            if(comm.pathfull){
-                Subnetwork subnetwork;
-                if(jd.getSubnetwork()==null){
-                    if(comm.subnetworks.size()!=1)
-                        throw new OTMException("Missing subnetwork id in demand for commodity " + comm.getId());
-                    subnetwork = comm.subnetworks.iterator().next();
-                }
-                else{
+        for (jaxb.Demand jd : jaxb_demands.getDemand())
+            create_demand_from_jaxb(scenario,jd);
+    }
 
-	                if(!scenario.subnetworks.containsKey(jd.getSubnetwork()))
-	                    throw new OTMException("Bad subnetwork id (" + jd.getSubnetwork() + ") in demand for commodity " + comm.getId());
+    private static void create_demand_from_jaxb(Scenario scenario, jaxb.Demand jd) throws OTMException  {
+        create_demand(scenario,jd.getCommodityId(),jd.getLinkId(),jd.getSubnetwork(),jd.getStartTime(),jd.getDt(),OTMUtils.csv2list(jd.getContent()));
+    }
 
-	                subnetwork = scenario.subnetworks.get(jd.getSubnetwork());
-                }
+    private static void create_demand(Scenario scenario, long commodity_id, Long link_id, Long subnetwork_id, Float start_time, Float dt, List<Double> values) throws OTMException  {
+
+        if(!scenario.commodities.containsKey(commodity_id))
+            throw new OTMException("Bad commodity in demands");
 
-                if(!(subnetwork instanceof Path))
-                    throw new OTMException("Subnetwork is not a path: id " + jd.getSubnetwork() + ", in demand for commodity " + comm.getId());
-                path = (Path)subnetwork;
-                linkid = path.get_origin().getId();
-            } else {
-                if(jd.getLinkId()==null || !scenario.network.links.containsKey(jd.getLinkId()))
-                    throw new OTMException("Bad link id (" + jd.getLinkId() + ") in demand for commodity " + comm.getId());
-                linkid = jd.getLinkId();
+        Commodity comm = scenario.commodities.get(commodity_id);
+        Path path = null;
+        Long linkid;
+        if(comm.pathfull){
+            Subnetwork subnetwork;
+            if(subnetwork_id==null){
+                if(comm.subnetworks.size()!=1)
+                    throw new OTMException("Missing subnetwork id in demand for commodity " + comm.getId());
+                subnetwork = comm.subnetworks.iterator().next();
             }
+            else{
 
-            Profile1D profile = new Profile1D(jd.getStartTime(), jd.getDt(),OTMUtils.csv2list(jd.getContent()));
-            profile.multiply(1.0/3600.0);
+	            if(!scenario.subnetworks.containsKey(subnetwork_id))
+	                throw new OTMException("Bad subnetwork id (" + subnetwork_id + ") in demand for commodity " + comm.getId());
 
-            Set<DemandInfo> demandinfos;
-            if(!scenario.demands.containsKey(linkid)) {
-                demandinfos = new HashSet<>();
-                scenario.demands.put(linkid,demandinfos);
+	            subnetwork = scenario.subnetworks.get(subnetwork_id);
             }
-            else
-                demandinfos = scenario.demands.get(linkid);
-            demandinfos.add(new DemandInfo(comm.getId(),path==null?null:path.getId(),profile));
+
+            if(!(subnetwork instanceof Path))
+                throw new OTMException("Subnetwork is not a path: id " + subnetwork_id + ", in demand for commodity " + comm.getId());
+            path = (Path)subnetwork;
+            linkid = path.get_origin().getId();
+        } else {
+            if(link_id==null || !scenario.network.links.containsKey(link_id))
+                throw new OTMException("Bad link id (" + link_id + ") in demand for commodity " + comm.getId());
+            linkid = link_id;
+        }
+
+        Profile1D profile = new Profile1D(start_time, dt, values);
+        profile.multiply(1.0/3600.0);
+
+        Set<DemandInfo> demandinfos;
+        if(!scenario.demands.containsKey(linkid)) {
+            demandinfos = new HashSet<>();
+            scenario.demands.put(linkid,demandinfos);
         }
+        else
+            demandinfos = scenario.demands.get(linkid);
+        demandinfos.add(new DemandInfo(comm.getId(),path==null?null:path.getId(),profile));
     }
 
     private static void  create_splits_from_jaxb(Network network, Map<Long,Commodity> commodities, jaxb.Splits jaxb_splits) throws OTMException {
@@ -439,7 +501,14 @@ public class ScenarioFactory {
         if (jaxb_splits == null || jaxb_splits.getSplitNode().isEmpty())
             return;
 
-        // allocate split matrix
+        allocate_splits(network,commodities);
+
+        for (jaxb.SplitNode jaxb_split_node : jaxb_splits.getSplitNode())
+            create_split_from_jaxb(network,jaxb_split_node);
+    }
+
+    private static void allocate_splits(Network network, Map<Long,Commodity> commodities){
+
         Set<Long> pathless_comms = commodities.values().stream()
                 .filter(c->!c.pathfull)
                 .map(c->c.getId())
@@ -448,32 +517,68 @@ public class ScenarioFactory {
         network.links.values().stream()
                 .filter(link -> !link.is_sink && link.end_node.out_links.size()>1)
                 .forEach(link -> link.allocate_splits(pathless_comms));
+    }
 
-        // split values from jaxb
-        for (jaxb.SplitNode jaxb_split_node : jaxb_splits.getSplitNode()) {
-            long commodity_id = jaxb_split_node.getCommodityId();
-            long link_in_id = jaxb_split_node.getLinkIn();
+    private static void create_split_from_jaxb(Network network, jaxb.SplitNode jaxb_split_node) throws OTMException {
 
-            if(!network.links.containsKey(link_in_id))
-                continue;
+        Profile2D splits = create_split_profile(network,jaxb_split_node.getCommodityId(),jaxb_split_node.getLinkIn(),jaxb_split_node.getStartTime(),jaxb_split_node.getDt());
+        if(splits==null)
+            return;
 
-            Link link_in = network.links.get(link_in_id);
+        for(jaxb.Split jaxb_split : jaxb_split_node.getSplit()) {
+            long linkout_id = jaxb_split.getLinkOut();
+            if(network.links.containsKey(linkout_id))
+                splits.add_entry(linkout_id,  jaxb_split.getContent() );
+        }
+    }
 
-            if(link_in.split_profile==null || !link_in.split_profile.containsKey(commodity_id))
-                continue;
+    // null if link_in has no split matrix for this commodity
+    private static Profile2D create_split_profile(Network network, long commodity_id, long link_in_id, float start_time, Float dt) {
 
-            SplitMatrixProfile smp = link_in.split_profile.get(commodity_id);
+        if(!network.links.containsKey(link_in_id))
+            return null;
 
-            float start_time = jaxb_split_node.getStartTime();
-            Float dt = jaxb_split_node.getDt();
-            smp.set_some_current_splits( new Profile2D(start_time,dt) );
+        Link link_in = network.links.get(link_in_id);
 
-            for(jaxb.Split jaxb_split : jaxb_split_node.getSplit()) {
-                long linkout_id = jaxb_split.getLinkOut();
-                if(network.links.containsKey(linkout_id))
-                    smp.get_splits().add_entry(linkout_id,  jaxb_split.getContent() );
-            }
+        if(link_in.split_profile==null || !link_in.split_profile.containsKey(commodity_id))
+            return null;
+
+        SplitMatrixProfile smp = link_in.split_profile.get(commodity_id);
+        smp.set_some_current_splits( new Profile2D(start_time,dt) );
+        return smp.get_splits();
+    }
+
+    private static void create_demands_and_splits_from_binary(Scenario scenario, BinaryScenario bs) throws OTMException {
+
+        BinaryScenario.Splits bsplits = bs.splits;
+        if(bsplits.size>0)
+            allocate_splits(scenario.network,scenario.commodities);
+        for(int i=0;i<bsplits.size;i++){
+            Profile2D splits = create_split_profile(scenario.network,bsplits.commodity_id[i],bsplits.link_in[i],bsplits.start_time[i],to_float(bsplits.dt[i]));
+            if(splits==null)
+                continue;
+            for(int j=bsplits.split_index[i];j<bsplits.split_index[i+1];j++)
+                if(scenario.network.links.containsKey(bsplits.link_out[j]))
+                    splits.add_entry(bsplits.link_out[j],bsplits.get_values(j));
         }
+
+        BinaryScenario.Demands bdemands = bs.demands;
+        for(int i=0;i<bdemands.size;i++)
+            create_demand(scenario,
+                    bdemands.commodity_id[i],
+                    to_long(bdemands.link_id[i]),
+                    to_long(bdemands.subnetwork[i]),
+                    bdemands.start_time[i],
+                    to_float(bdemands.dt[i]),
+                    bdemands.get_values(i));
+    }
+
+    private static Long to_long(long x){
+        return x==BinaryScenario.NULL_ID ? null : x;
+    }
+
+    private static Float to_float(float x){
+        return Float.isNaN(x) ? null : x;
     }
 
     private static Map<Long, AbstractScenarioEvent> create_events_from_jaxb(Scenario scenario, jaxb.Events jaxb_events) throws OTMException {
@@ -506,4 +611,120 @@ public class ScenarioFactory {
         }
         return event;
     }
+    ///////////////////////////////////////////
+    // streaming
+    ///////////////////////////////////////////
+
+    // Receives sections from StaxLoader. The network and commodities are built as soon as both have been
+    // read, and from then on each demand and split node is turned into profiles as it arrives. Demands and
+    // splits that precede the network in the file are held until it is built.
+    private static class StreamingBuilder implements StaxLoader.Handler {
+
+        final jaxb.Scenario js = new jaxb.Scenario();
+        Scenario scenario;
+        boolean splits_allocated = false;
+        final List<jaxb.Demand> pending_demands = new ArrayList<>();
+        final List<jaxb.SplitNode> pending_split_nodes = new ArrayList<>();
+        final ScenarioContext context;
+
+        StreamingBuilder(ScenarioContext context){
+            this.context = context;
+        }
+
+        @Override
+        public void on_section(Object x) throws OTMException {
+            if(x instanceof jaxb.Plugins)
+                js.setPlugins((jaxb.Plugins) x);
+            else if(x instanceof jaxb.Commodities)
+                js.setCommodities((jaxb.Commodities) x);
+            else if(x instanceof jaxb.Network)
+                js.setNetwork((jaxb.Network) x);
+            else if(x instanceof jaxb.Subnetworks) {
+                if(scenario!=null)
+                    throw new OTMException("Subnetworks must come before demands and splits in a streamed scenario.");
+                js.setSubnetworks((jaxb.Subnetworks) x);
+            }
+            else if(x instanceof jaxb.Models)
+                js.setModels((jaxb.Models) x);
+            else if(x instanceof jaxb.Controllers)
+                js.setControllers((jaxb.Controllers) x);
+            else if(x instanceof jaxb.Actuators)
+                js.setActuators((jaxb.Actuators) x);
+            else if(x instanceof jaxb.Sensors)
+                js.setSensors((jaxb.Sensors) x);
+            else if(x instanceof jaxb.Events)
+                js.setEvents((jaxb.Events) x);
+            else
+                throw new OTMException("Unknown scenario section: " + (x==null ? null : x.getClass().getSimpleName()));
+        }
+
+        @Override
+        public void on_demand(jaxb.Demand jd) throws OTMException {
+            if(ready())
+                create_demand_from_jaxb(scenario,jd);
+            else
+                pending_demands.add(jd);
+        }
+
+        @Override
+        public void on_split_node(jaxb.SplitNode jsn) throws OTMException {
+            if(ready())
+                add_split_node(jsn);
+            else
+                pending_split_nodes.add(jsn);
+        }
+
+        Scenario finish(boolean validate_pre_init) throws OTMException {
+
+            if(scenario==null && js.getNetwork()==null)
+                throw new OTMException("Scenario has no network.");
+
+            build_network();
+            for(jaxb.SplitNode jsn : pending_split_nodes)
+                add_split_node(jsn);
+            for(jaxb.Demand jd : pending_demands)
+                create_demand_from_jaxb(scenario,jd);
+            pending_split_nodes.clear();
+            pending_demands.clear();
+
+            PluginLoader.load_plugins( js.getPlugins() , scenario.context );
+            scenario.sensors = ScenarioFactory.create_sensors_from_jaxb(scenario, js.getSensors() );
+            scenario.actuators = ScenarioFactory.create_actuators_from_jaxb(scenario, js.getActuators() );
+            scenario.controllers = ScenarioFactory.create_controllers_from_jaxb(scenario,js.getControllers() );
+            scenario.events = ScenarioFactory.create_events_from_jaxb(scenario,js.getEvents());
+            scenario.models = create_models_from_jaxb(scenario,js.getModels());
+
+            if(validate_pre_init) {
+                OTMErrorLog errorLog = scenario.validate_pre_init();
+                errorLog.check();
+            }
+
+            return scenario;
+        }
+
+        private boolean ready() throws OTMException {
+            if(scenario==null && js.getNetwork()!=null && js.getCommodities()!=null)
+                build_network();
+            return scenario!=null;
+        }
+
+        private void build_network() throws OTMException {
+            if(scenario!=null)
+                return;
+            scenario = new Scenario(context);
+            create_network_and_subnetworks_from_jaxb(scenario, js.getNetwork(), js.getSubnetworks());
+            scenario.commodities = create_commodities_from_jaxb(scenario.subnetworks, js.getCommodities());
+            js.setNetwork(null);
+        }
+
+        private void add_split_node(jaxb.SplitNode jsn) throws OTMException {
+            if(!splits_allocated) {
+                allocate_splits(scenario.network, scenario.commodities);
+                splits_allocated = true;
+            }
+            create_split_from_jaxb(scenario.network,jsn);
+        }
+
+    }
+
 }
@@ -36,34 +36,42 @@ public class StateContainer {
     }
 
     public Set<AbstractVehicle> add_packet_and_extract_vehicles(StateContainer container, AbstractLaneGroup lg){
+        VehicleBatch batch = new VehicleBatch(4);
+        add_packet_and_extract_vehicles(container,lg,batch);
+        Set<AbstractVehicle> vehicles = new HashSet<>();
+        for(int i=0;i<batch.size;i++)
+            vehicles.add(batch.vehicles[i]);
+        return vehicles;
+    }
+
+    // Adds the packet and appends the whole vehicles it completes to the batch, keeping the remainders. The
+    // commodity and path of each state are looked up once, however many vehicles it yields.
+    public void add_packet_and_extract_vehicles(StateContainer container, AbstractLaneGroup lg, VehicleBatch batch){
 
         AbstractVehicleModel model = (AbstractVehicleModel) lg.get_link().get_model();
         Scenario scenario = lg.get_link().get_scenario();
 
-        Set<AbstractVehicle> vehicles = new HashSet<>();
-
         // iterate through all keys ion the core.packet
         for(Map.Entry<State,Double> e : container.amount.entrySet()){
             State key = e.getKey();
-            double value = amount.containsKey(key) ? amount.get(key) + e.getValue() : e.getValue();
+            double value = amount.getOrDefault(key,0d) + e.getValue();
 
             if(value>=1d){
                 int num_veh = (int) value;
                 amount.put(key,value - num_veh);
+                Commodity commodity = scenario.commodities.get(key.commodity_id);
+                Path path = key.isPath ? (Path) scenario.subnetworks.get(key.pathOrlink_id) : null;
                 for(int i=0;i<num_veh;i++) {
-                    Commodity commodity = scenario.commodities.get(key.commodity_id);
                     AbstractVehicle vehicle = model.create_vehicle(key.commodity_id, commodity.vehicle_event_listeners);
                     vehicle.set_state(key);
-                    if(key.isPath)
-                        vehicle.path = (Path) scenario.subnetworks.get(key.pathOrlink_id);
-                    vehicles.add(vehicle);
+                    if(path!=null)
+                        vehicle.path = path;
+                    batch.add(vehicle);
                 }
             }
             else
                 amount.put(key,value);
         }
-
-        return vehicles;
     }
 
     public void add_packet(PacketLaneGroup packet){
@@ -0,0 +1,37 @@
+package core.packet;
+
+import core.AbstractVehicle;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of the vehicles that enter a vehicle lane group with one packet. Lane groups keep one batch and
+ * reuse it for every packet, so converting a fluid packet into vehicles does not allocate a collection.
+ */
+public class VehicleBatch {
+
+    public AbstractVehicle [] vehicles;
+    public int size;
+
+    public VehicleBatch(int capacity){
+        this.vehicles = new AbstractVehicle[Math.max(1,capacity)];
+        this.size = 0;
+    }
+
+    public void add(AbstractVehicle vehicle){
+        if(size==vehicles.length)
+            vehicles = Arrays.copyOf(vehicles,2*size);
+        vehicles[size++] = vehicle;
+    }
+
+    // drop the references so that the vehicles are not kept alive by the batch
+    public void clear(){
+        Arrays.fill(vehicles,0,size,null);
+        size = 0;
+    }
+
+    public boolean isEmpty(){
+        return size==0;
+    }
+
+}
@@ -0,0 +1,250 @@
+package demand;
+
+import commodity.Commodity;
+import commodity.Path;
+import commodity.Subnetwork;
+import core.*;
+import dispatch.Dispatcher;
+import dispatch.EventODSliceChange;
+import error.OTMErrorLog;
+import error.OTMException;
+import utils.AliasTable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Demand of a pathfull commodity given by an OD matrix instead of one profile per path. Each origin link has a
+ * single departure stream whose rate is the sum of the rates of its pairs (see OriginStream), and each
+ * departure draws its pair and then its path from alias tables. The number of generators and pending events
+ * grows with the number of origins, not with the number of paths.
+ *
+ * Path choice: path p of a pair is taken with probability proportional to weight(p)*exp(-logit_theta*cost(p)),
+ * where cost(p) is the sum of the travel times of its links in seconds: the measured value for links with a
+ * travel timer, the free flow value otherwise. Weights default to 1, and the choice tables are rebuilt at
+ * every slice change.
+ */
+public class ODDemand {
+
+    public final Scenario scenario;
+    public final ODMatrix matrix;
+    public final Commodity commodity;
+
+    // scales the rates, set with Scenario.set_demand_multipliers
+    public double demand_multiplier = 1d;
+
+    // dispersion of the path choice in 1/sec, 0 uses the weights only
+    public double logit_theta = 0d;
+
+    final Path [][] pair_paths;           // pair -> candidate paths, in id order
+    final double [][] pair_weights;       // pair -> path weights
+    final double [][] pair_probs;         // pair -> current path probabilities
+    final AliasTable [] path_tables;      // pair -> current path choice table
+    final OriginStream [] origins;
+    private final Map<Long,Path> paths;   // path id -> path
+    private int slice;
+
+    ////////////////////////////////////////////
+    // construction
+    ////////////////////////////////////////////
+
+    public ODDemand(Scenario scenario,ODMatrix matrix) throws OTMException {
+
+        this.scenario = scenario;
+        this.matrix = matrix;
+        this.commodity = scenario.commodities.get(matrix.commodity_id);
+        if(commodity==null)
+            throw new OTMException("Bad commodity id in OD matrix: " + matrix.commodity_id);
+        if(!commodity.pathfull)
+            throw new OTMException("OD matrices only apply to pathfull commodities.");
+
+        matrix.compact();
+
+        // candidate paths of the commodity by origin and destination link
+        paths = new HashMap<>();
+        Map<Long,Map<Long,List<Path>>> od2paths = new HashMap<>();
+        for(Subnetwork subnetwork : commodity.subnetworks){
+            Path path = (Path) subnetwork;
+            List<Link> links = path.get_ordered_links();
+            paths.put(path.getId(),path);
+            od2paths.computeIfAbsent(links.get(0).getId(),o->new HashMap<>())
+                    .computeIfAbsent(links.get(links.size()-1).getId(),d->new ArrayList<>())
+                    .add(path);
+        }
+
+        OTMErrorLog errorLog = new OTMErrorLog();
+        int num_pairs = matrix.get_num_pairs();
+        pair_paths = new Path[num_pairs][];
+        pair_weights = new double[num_pairs][];
+        pair_probs = new double[num_pairs][];
+        path_tables = new AliasTable[num_pairs];
+        origins = new OriginStream[matrix.get_num_origins()];
+
+        for(int o=0;o<origins.length;o++){
+            long origin_id = matrix.origin_ids[o];
+            Link link = scenario.network.links.get(origin_id);
+            if(link==null || !link.is_source()) {
+                errorLog.addError(String.format("Origin link %d of the OD matrix is not a source link.",origin_id));
+                continue;
+            }
+            if(!(link.get_model() instanceof AbstractVehicleModel) && !(link.get_model() instanceof AbstractFluidModel))
+                errorLog.addError(String.format("Origin link %d of the OD matrix has no fluid or vehicle model.",origin_id));
+            origins[o] = new OriginStream(this,link,matrix.origin_offsets[o],matrix.origin_offsets[o+1]);
+            for(int p=matrix.origin_offsets[o];p<matrix.origin_offsets[o+1];p++){
+                long destination_id = matrix.destination_ids[p];
+                List<Path> x = od2paths.getOrDefault(origin_id,Collections.emptyMap()).get(destination_id);
+                if(x==null) {
+                    errorLog.addError(String.format("Commodity %d has no path from link %d to link %d.",commodity.getId(),origin_id,destination_id));
+                    continue;
+                }
+                x.sort(Comparator.comparing(Path::getId));
+                pair_paths[p] = x.toArray(new Path[0]);
+                pair_weights[p] = new double[x.size()];
+                Arrays.fill(pair_weights[p],1d);
+            }
+        }
+        errorLog.check();
+    }
+
+    // relative weights of the paths of a pair, by path id. Paths that are not listed keep their weight.
+    public void set_path_weights(long origin_link_id,long destination_link_id,Map<Long,Double> weights) throws OTMException {
+        int p = get_pair(origin_link_id,destination_link_id);
+        for(Map.Entry<Long,Double> e : weights.entrySet()){
+            if(e.getValue()<0 || Double.isNaN(e.getValue()))
+                throw new OTMException("Path weights must be non-negative.");
+            int i = Arrays.asList(pair_paths[p]).indexOf(paths.get(e.getKey()));
+            if(i<0)
+                throw new OTMException(String.format("Path %d does not go from link %d to link %d.",e.getKey(),origin_link_id,destination_link_id));
+            pair_weights[p][i] = e.getValue();
+        }
+    }
+
+    // copy the multiplier and the path choice settings to the demand of the same matrix in another scenario
+    public void copy_settings(ODDemand x){
+        x.demand_multiplier = demand_multiplier;
+        x.logit_theta = logit_theta;
+        for(int p=0;p<pair_weights.length;p++)
+            x.pair_weights[p] = pair_weights[p].clone();
+    }
+
+    public void initialize(Dispatcher dispatcher){
+        slice = -2;
+        for(OriginStream origin : origins)
+            origin.reset();
+        dispatcher.register_event(new EventODSliceChange(dispatcher,dispatcher.current_time,this,matrix.get_slice(dispatcher.current_time)));
+    }
+
+    ////////////////////////////////////////////
+    // used by EventODSliceChange
+    ////////////////////////////////////////////
+
+    public void set_slice(Dispatcher dispatcher,float time,int new_slice) throws OTMException {
+        slice = new_slice;
+
+        // path choice tables of the pairs with demand in this slice
+        Map<Path,Double> costs = new HashMap<>();
+        for(int p=0;p<pair_paths.length;p++)
+            if(get_rate_vps(p)>0d)
+                update_path_table(p,costs);
+
+        for(OriginStream origin : origins)
+            origin.update_rates(dispatcher,time);
+
+        if(new_slice+1<matrix.num_slices)
+            dispatcher.register_event(new EventODSliceChange(dispatcher,matrix.start_time+(new_slice+1)*matrix.dt,this,new_slice+1));
+    }
+
+    ////////////////////////////////////////////
+    // get
+    ////////////////////////////////////////////
+
+    public int get_slice(){
+        return slice;
+    }
+
+    // current rate of a pair in vehicles per second
+    public double get_rate_vps(int pair){
+        return matrix.get_vph(slice,pair)*demand_multiplier/3600d;
+    }
+
+    public Path get_path(long path_id){
+        return paths.get(path_id);
+    }
+
+    // current path probabilities of a pair, by path id
+    public Map<Long,Double> get_path_probabilities(long origin_link_id,long destination_link_id) throws OTMException {
+        int p = get_pair(origin_link_id,destination_link_id);
+        Map<Long,Double> x = new HashMap<>();
+        if(pair_probs[p]!=null)
+            for(int i=0;i<pair_paths[p].length;i++)
+                x.put(pair_paths[p][i].getId(),pair_probs[p][i]);
+        return x;
+    }
+
+    public double get_total_trips(){
+        return matrix.get_total_trips()*demand_multiplier;
+    }
+
+    ////////////////////////////////////////////
+    // checkpoint
+    ////////////////////////////////////////////
+
+    public void write_checkpoint(Checkpoint ckpt,DataOutputStream out) throws IOException {
+        for(OriginStream origin : origins)
+            origin.write_checkpoint(ckpt,out);
+    }
+
+    public void read_checkpoint(Checkpoint ckpt,DataInputStream in) throws IOException {
+        for(OriginStream origin : origins)
+            origin.read_checkpoint(ckpt,in);
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    private int get_pair(long origin_link_id,long destination_link_id) throws OTMException {
+        int o = Arrays.binarySearch(matrix.origin_ids,origin_link_id);
+        if(o>=0)
+            for(int p=matrix.origin_offsets[o];p<matrix.origin_offsets[o+1];p++)
+                if(matrix.destination_ids[p]==destination_link_id)
+                    return p;
+        throw new OTMException(String.format("No OD pair from link %d to link %d.",origin_link_id,destination_link_id));
+    }
+
+    private void update_path_table(int p,Map<Path,Double> costs){
+        Path [] x = pair_paths[p];
+        double [] w = new double[x.length];
+        if(logit_theta!=0d){
+            double min_cost = Double.POSITIVE_INFINITY;
+            for(int i=0;i<x.length;i++) {
+                w[i] = costs.computeIfAbsent(x[i],ODDemand::get_path_cost);
+                min_cost = Math.min(min_cost,w[i]);
+            }
+            for(int i=0;i<x.length;i++)
+                w[i] = pair_weights[p][i]*Math.exp(-logit_theta*(w[i]-min_cost));
+        } else
+            System.arraycopy(pair_weights[p],0,w,0,x.length);
+
+        double total = Arrays.stream(w).sum();
+        Map<Long,Double> weights = new HashMap<>();
+        for(int i=0;i<x.length;i++) {
+            w[i] = total>0d ? w[i]/total : 1d/x.length;
+            weights.put(x[i].getId(),w[i]);
+        }
+        pair_probs[p] = w;
+        path_tables[p] = new AliasTable(weights);
+    }
+
+    private static double get_path_cost(Path path){
+        double x = 0d;
+        for(Link link : path.get_ordered_links()){
+            double c = link.link_tt==null ? Double.NaN : link.link_tt.instantaneous_travel_time;
+            x += Double.isNaN(c) ? link.get_ff_travel_time() : c;
+        }
+        return x;
+    }
+
+}
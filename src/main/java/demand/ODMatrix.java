@@ -0,0 +1,129 @@
+package demand;
+
+import error.OTMException;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Time-sliced origin-destination demand of one pathfull commodity. Origins and destinations are the first
+ * and last links of the commodity's paths. Rates are in vehicles per hour, one value per slice of length dt
+ * starting at start_time. As with demand profiles, the demand is zero before start_time and keeps the value
+ * of the last slice after the end.
+ *
+ * Entries are collected with set_rates. When the matrix is added to a scenario it is compacted into sparse
+ * rows: pairs are grouped by origin, and the rates of all pairs are stored slice by slice in one float array.
+ */
+public class ODMatrix {
+
+    public final long commodity_id;
+    public final float start_time;
+    public final float dt;
+    public final int num_slices;
+
+    // origin link id -> destination link id -> rates, released by compact()
+    private TreeMap<Long,TreeMap<Long,float[]>> entries;
+
+    // compact form
+    long [] origin_ids;           // origin index -> origin link id
+    int [] origin_offsets;        // origin index -> first pair of the origin, num_origins+1 entries
+    long [] destination_ids;      // pair index -> destination link id
+    float [] vph;                 // slice*num_pairs + pair -> rate
+
+    ////////////////////////////////////////////
+    // construction
+    ////////////////////////////////////////////
+
+    public ODMatrix(long commodity_id,float start_time,float dt,int num_slices) throws OTMException {
+        if(dt<=0f || Float.isNaN(dt))
+            throw new OTMException("The slice length of an OD matrix must be positive.");
+        if(num_slices<1)
+            throw new OTMException("An OD matrix needs at least one slice.");
+        this.commodity_id = commodity_id;
+        this.start_time = start_time;
+        this.dt = dt;
+        this.num_slices = num_slices;
+        this.entries = new TreeMap<>();
+    }
+
+    // rates of one origin-destination pair in vph, one per slice. Setting a pair again replaces its rates.
+    public void set_rates(long origin_link_id,long destination_link_id,double [] vph) throws OTMException {
+        if(entries==null)
+            throw new OTMException("The OD matrix has already been added to a scenario.");
+        if(vph.length!=num_slices)
+            throw new OTMException(String.format("Expected %d rates for pair %d-%d, got %d.",num_slices,origin_link_id,destination_link_id,vph.length));
+        float [] x = new float[num_slices];
+        for(int k=0;k<num_slices;k++){
+            if(vph[k]<0 || Double.isNaN(vph[k]))
+                throw new OTMException(String.format("Negative rate for pair %d-%d.",origin_link_id,destination_link_id));
+            x[k] = (float) vph[k];
+        }
+        entries.computeIfAbsent(origin_link_id,o->new TreeMap<>()).put(destination_link_id,x);
+    }
+
+    // build the sparse rows and drop the construction maps
+    void compact(){
+        if(entries==null)
+            return;
+        int num_pairs = entries.values().stream().mapToInt(Map::size).sum();
+        origin_ids = new long[entries.size()];
+        origin_offsets = new int[entries.size()+1];
+        destination_ids = new long[num_pairs];
+        vph = new float[num_slices*num_pairs];
+        int o = 0;
+        int p = 0;
+        for(Map.Entry<Long,TreeMap<Long,float[]>> e : entries.entrySet()){
+            origin_ids[o] = e.getKey();
+            origin_offsets[o] = p;
+            for(Map.Entry<Long,float[]> e2 : e.getValue().entrySet()){
+                destination_ids[p] = e2.getKey();
+                for(int k=0;k<num_slices;k++)
+                    vph[k*num_pairs+p] = e2.getValue()[k];
+                p++;
+            }
+            o++;
+        }
+        origin_offsets[o] = p;
+        entries = null;
+    }
+
+    ////////////////////////////////////////////
+    // get
+    ////////////////////////////////////////////
+
+    public int get_num_origins(){
+        return entries==null ? origin_ids.length : entries.size();
+    }
+
+    public int get_num_pairs(){
+        return entries==null ? destination_ids.length : entries.values().stream().mapToInt(Map::size).sum();
+    }
+
+    // slice in effect at the given time, -1 before start_time
+    public int get_slice(float time){
+        if(time<start_time)
+            return -1;
+        return Math.min((int) ((time-start_time)/dt),num_slices-1);
+    }
+
+    // rate of a pair in a slice, after compaction
+    public double get_vph(int slice,int pair){
+        return slice<0 ? 0d : vph[slice*destination_ids.length+pair];
+    }
+
+    // Number of trips in the matrix. As for demand profiles, the last slice is counted once.
+    public double get_total_trips(){
+        double x = 0d;
+        if(entries==null) {
+            for (float v : vph)
+                x += v;
+        } else {
+            for (TreeMap<Long, float[]> row : entries.values())
+                for (float[] rates : row.values())
+                    for (float v : rates)
+                        x += v;
+        }
+        return x*dt/3600d;
+    }
+
+}
@@ -0,0 +1,164 @@
+package demand;
+
+import commodity.Path;
+import core.*;
+import core.packet.PacketLaneGroup;
+import dispatch.Dispatcher;
+import dispatch.EventODDeparture;
+import error.OTMException;
+import models.fluid.FluidLaneGroup;
+import utils.AliasTable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Departures of an OD matrix from one origin link. On vehicle models the departures of all pairs of the
+ * origin are merged into one stream with the total rate, so there is a single pending vehicle event per
+ * origin; each vehicle then draws its pair in proportion to the pair rates, and its path from the path
+ * choice table of the pair. On fluid models the flow of each path is added to the source flow of the link.
+ */
+public class OriginStream {
+
+    public final ODDemand od;
+    public final Link link;
+    final int first_pair;
+    final int end_pair;
+
+    private double rate_vps;
+    private AliasTable pair_table;           // pair index -> current rate
+    private boolean vehicle_scheduled;
+    private final Set<State> fluid_states;   // source flow entries written by this stream
+
+    OriginStream(ODDemand od,Link link,int first_pair,int end_pair){
+        this.od = od;
+        this.link = link;
+        this.first_pair = first_pair;
+        this.end_pair = end_pair;
+        this.fluid_states = new HashSet<>();
+    }
+
+    void reset(){
+        rate_vps = 0d;
+        pair_table = null;
+        vehicle_scheduled = false;
+    }
+
+    // called by ODDemand at every slice change, after the path tables are updated
+    void update_rates(Dispatcher dispatcher,float time) throws OTMException {
+        Map<Long,Double> rates = new HashMap<>();
+        rate_vps = 0d;
+        for(int p=first_pair;p<end_pair;p++){
+            double x = od.get_rate_vps(p);
+            if(x>0d) {
+                rates.put((long) p, x);
+                rate_vps += x;
+            }
+        }
+        pair_table = new AliasTable(rates);
+
+        if(link.get_model() instanceof AbstractFluidModel)
+            set_fluid_source_flow();
+        else if(rate_vps>0d)
+            schedule_next_vehicle(dispatcher,time);
+    }
+
+    public double get_rate_vps(){
+        return rate_vps;
+    }
+
+    ////////////////////////////////////////////
+    // vehicle models, used by EventODDeparture
+    ////////////////////////////////////////////
+
+    public void schedule_next_vehicle(Dispatcher dispatcher,float timestamp){
+        if(vehicle_scheduled)
+            return;
+        Float wait_time = ((AbstractVehicleModel) link.get_model()).get_waiting_time_sec(rate_vps);
+        if(wait_time!=null) {
+            dispatcher.register_event(new EventODDeparture(dispatcher,timestamp+wait_time,this));
+            vehicle_scheduled = true;
+        }
+    }
+
+    public void insert_vehicle(float timestamp) throws OTMException {
+
+        // this scheduled vehicle is being created
+        vehicle_scheduled = false;
+        if(pair_table==null || pair_table.is_empty())
+            return;
+
+        AbstractVehicleModel model = (AbstractVehicleModel) link.get_model();
+        Random random = model.get_random();
+        int pair = pair_table.sample(random).intValue();
+        Path path = od.get_path(od.path_tables[pair].sample(random));
+        long comm_id = od.commodity.getId();
+
+        AbstractVehicle vehicle = model.create_vehicle(comm_id,od.commodity.vehicle_event_listeners);
+        vehicle.set_state(new State(comm_id,path.getId(),true));
+        vehicle.path = path;
+
+        Long next_link = link.get_next_link_in_path(path.getId()).getId();
+        vehicle.set_next_link_id(next_link);
+
+        // pick from among the eligible lane groups
+        Set<AbstractLaneGroup> candidate_lane_groups = link.get_lanegroups_for_outlink(next_link);
+        AbstractLaneGroup join_lanegroup = model.lanegroup_proportions(candidate_lane_groups).keySet().iterator().next();
+
+        join_lanegroup.add_vehicle_packet(timestamp,new PacketLaneGroup(vehicle),next_link);
+        if(link.perf!=null)
+            link.perf.enter(comm_id,1d,timestamp);
+    }
+
+    ////////////////////////////////////////////
+    // checkpoint
+    ////////////////////////////////////////////
+
+    void write_checkpoint(Checkpoint ckpt,DataOutputStream out) throws IOException {
+        out.writeFloat(ckpt.get_pending_time(EventODDeparture.class,this));
+    }
+
+    void read_checkpoint(Checkpoint ckpt,DataInputStream in) throws IOException {
+        Dispatcher dispatcher = link.get_scenario().dispatcher;
+        dispatcher.remove_events_for_recipient(EventODDeparture.class,this);
+        Float timestamp = Checkpoint.read_timestamp(in);
+        vehicle_scheduled = timestamp!=null;
+        if(vehicle_scheduled)
+            dispatcher.register_event(new EventODDeparture(dispatcher,timestamp,this));
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    // Flow per step of each path, split among the lane groups in proportion to their capacity, as for the
+    // pathfull fluid sources. Entries written at the previous slice are cleared first.
+    private void set_fluid_source_flow(){
+
+        double dt_sec = ((AbstractFluidModel) link.get_model()).dt_sec;
+        long comm_id = od.commodity.getId();
+        Map<State,Double> flows = new HashMap<>();
+        for(int p=first_pair;p<end_pair;p++){
+            double x = od.get_rate_vps(p)*dt_sec;
+            if(x<=0d)
+                continue;
+            for(int i=0;i<od.pair_paths[p].length;i++)
+                flows.merge(new State(comm_id,od.pair_paths[p][i].getId(),true),x*od.pair_probs[p][i],Double::sum);
+        }
+
+        double sum = link.get_lgs().stream()
+                .mapToDouble(lg->((FluidLaneGroup)lg).capacity_veh_per_dt)
+                .sum();
+        for(AbstractLaneGroup alg : link.get_lgs()){
+            FluidLaneGroup lg = (FluidLaneGroup) alg;
+            for(State state : fluid_states)
+                lg.source_flow.put(state,0d);
+            for(Map.Entry<State,Double> e : flows.entrySet())
+                lg.source_flow.put(e.getKey(),e.getValue()*lg.capacity_veh_per_dt/sum);
+        }
+        fluid_states.addAll(flows.keySet());
+    }
+
+}
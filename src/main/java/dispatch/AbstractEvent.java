@@ -5,6 +5,7 @@ import error.OTMException;
 // Existing events and their dispatch order.
 //    0	    dispatch.EventDemandChange
 //    0	    dispatch.EventSplitChange
+//    0	    dispatch.EventODSliceChange
 //    5     AbstractLaneSelector.poke
 //    10	AbstractSensor.poke
 //    20	AbstractController.poke
@@ -12,7 +13,9 @@ import error.OTMException;
 //    30 	AbstractActuator.poke
 //    35    EventInitializeController -- calls AbstractController.initialize
 //    40	dispatch.EventCreateVehicle
+//    40	dispatch.EventODDeparture
 //    44 	models.vehicle.spatialq.EventTransitToWaiting
+//    44 	models.vehicle.spatialq.EventTransitBlockToWaiting
 //    45	models.vehicle.spatialq.EventReleaseVehicleFromLaneGroup
 //    50	core.EventFluidModelUpdate
 //    55	core.EventFluidStateUpdate
@@ -20,6 +23,7 @@ import error.OTMException;
 //    65	dispatch.EventComputeTravelTime
 //    69    models.fluid.EventUpdateTotalLanegroupVehicles
 //    69    models.fluid.EventUpdateTotalCellVehicles
+//    69    dispatch.EventAggregationSample
 //    70	dispatch.EventTimedWrite
 //    100	dispatch.EventStopSimulation
 
@@ -36,8 +36,8 @@ public  class Dispatcher {
         this.scenario = scenario;
     }
 
-    public void initialize() throws OTMException {
-        this.current_time = 0f;
+    public void initialize(float start_time) throws OTMException {
+        this.current_time = start_time;
         this.events.clear();
         this.continue_simulation = true;
     }
@@ -0,0 +1,18 @@
+package dispatch;
+
+import error.OTMException;
+import output.OutputAggregated;
+
+public class EventAggregationSample extends AbstractEvent {
+
+    public EventAggregationSample(Dispatcher dispatcher, float timestamp, Object recipient){
+        super(dispatcher,69,timestamp,recipient);
+    }
+
+    @Override
+    public void action() throws OTMException {
+        OutputAggregated obj = (OutputAggregated)recipient;
+        obj.sample(timestamp);
+        dispatcher.register_event(new EventAggregationSample(dispatcher,timestamp + obj.sampleDt,recipient));
+    }
+}
@@ -0,0 +1,19 @@
+package dispatch;
+
+import demand.OriginStream;
+import error.OTMException;
+
+public class EventODDeparture extends AbstractEvent {
+
+    public EventODDeparture(Dispatcher dispatcher, float timestamp, OriginStream origin) {
+        super(dispatcher,40, timestamp,origin);
+    }
+
+    @Override
+    public void action() throws OTMException {
+        OriginStream origin = (OriginStream)recipient;
+        origin.insert_vehicle(timestamp);
+        origin.schedule_next_vehicle(dispatcher,timestamp);
+    }
+
+}
@@ -0,0 +1,20 @@
+package dispatch;
+
+import demand.ODDemand;
+import error.OTMException;
+
+public class EventODSliceChange extends AbstractEvent {
+
+    private int slice;
+
+    public EventODSliceChange(Dispatcher dispatcher, float timestamp, ODDemand od, int slice){
+        super(dispatcher,0,timestamp,od);
+        this.slice = slice;
+    }
+
+    @Override
+    public void action() throws OTMException {
+        ((ODDemand) recipient).set_slice(dispatcher,timestamp,slice);
+    }
+
+}
@@ -0,0 +1,19 @@
+package dispatch;
+
+import error.OTMException;
+import routing.EnrouteRouter;
+
+public class EventRefreshRoutes extends AbstractEvent {
+
+    public EventRefreshRoutes(Dispatcher dispatcher, float timestamp, Object recipient) {
+
+        // after EventComputeTravelTime (65), so that the latest link travel times are used
+        super(dispatcher, 66, timestamp, recipient);
+    }
+
+    @Override
+    public void action() throws OTMException {
+        ((EnrouteRouter) recipient).refresh(timestamp);
+    }
+
+}
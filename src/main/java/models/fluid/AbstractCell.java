@@ -1,9 +1,13 @@
 package models.fluid;
 
+import core.Checkpoint;
 import core.FlowAccumulatorState;
 import core.State;
 import models.Maneuver;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Map;
 
 public abstract class AbstractCell {
@@ -22,6 +26,7 @@ public abstract class AbstractCell {
 
     public abstract void set_state();
     public abstract void allocate_state();
+    public abstract void clear_state();
     public abstract Map<State,Double> get_demand();
     public abstract void update_supply();
     public abstract void update_demand();
@@ -35,6 +40,9 @@ public abstract class AbstractCell {
     public abstract double get_veh_out_for_commodity(Long comm_id);
     public abstract double get_veh_for_commodity(Long comm_id);
 
+    public abstract void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException;
+    public abstract void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException;
+
     public AbstractCell(FluidLaneGroup laneGroup) {
         this.am_upstrm = false;
         this.am_dnstrm = false;
@@ -9,6 +9,9 @@ import jaxb.Roadparam;
 import models.Maneuver;
 import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 public class FluidLaneGroup extends AbstractLaneGroup {
@@ -81,6 +84,20 @@ public class FluidLaneGroup extends AbstractLaneGroup {
 
     }
 
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        super.write_checkpoint(ckpt,out);
+        for(AbstractCell cell : cells)
+            cell.write_checkpoint(ckpt,out);
+    }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException, OTMException {
+        super.read_checkpoint(ckpt,in);
+        for(AbstractCell cell : cells)
+            cell.read_checkpoint(ckpt,in);
+    }
+
     @Override
     public double get_lat_supply(){
         return cells.stream().mapToDouble(cell->cell.supply).sum();
@@ -115,10 +132,43 @@ public class FluidLaneGroup extends AbstractLaneGroup {
         wspeed_cell_per_dt = capacity_vehperlane / (jam_density_vehperkmperlane - critical_vehperlane);// /cell_length in build
         compute_lcw();
         capacity_veh_per_dt = capacity_vehperlane * num_lanes;
+        nom_capacity_veh_per_dt = capacity_veh_per_dt;
+        nom_ffspeed_cell_per_dt = ffspeed_cell_per_dt;
 
         ((AbstractFluidModel) link.get_model()).set_road_param_apply_cell_length(this);
     }
 
+    // Check the parameters against the current cells without applying them. The CFL messages have the same
+    // format as in validate_post_init.
+    @Override
+    public void validate_road_params(jaxb.Roadparam r, OTMErrorLog errorLog) {
+        super.validate_road_params(r,errorLog);
+
+        float dt_sec = ((AbstractFluidModel)link.get_model()).dt_sec;
+        if(Float.isNaN(dt_sec) || cells==null || link.is_source())
+            return;
+        if(r.getCapacity()<=0 || r.getSpeed()<=0 || r.getJamDensity()<=0)
+            return;
+
+        double dt_hr = dt_sec/3600d;
+        double cell_length = length / cells.size() / 1000d;    // [km]
+        double capacity_vehperlane = r.getCapacity()*dt_hr;
+        double critical_vehperlane = capacity_vehperlane / (r.getSpeed()*dt_hr);
+        double ffspeed = r.getSpeed()*dt_hr / cell_length;
+        double wspeed = capacity_vehperlane / (r.getJamDensity() - critical_vehperlane) / cell_length;
+
+        if (wspeed < 0)
+            errorLog.addError("wspeed_cell_per_dt < 0 (link " + link.getId() + ")");
+        if (wspeed > 1)
+            errorLog.addError("CFL violated: link " + link.getId() + " wspeed_cell_per_dt = " + wspeed);
+        if (ffspeed > 1)
+            errorLog.addError("CFL violated: link " + link.getId() + " ffspeed_cell_per_dt = " + ffspeed);
+
+        double jam_veh_per_cell = r.getJamDensity() * num_lanes * cell_length;
+        if(cells.stream().anyMatch(cell -> cell.get_vehicles()>jam_veh_per_cell))
+            errorLog.addError("Jam density exceeded (link " + link.getId() + ")");
+    }
+
     @Override
     public Roadparam get_road_params() {
         jaxb.Roadparam rp = new jaxb.Roadparam();
@@ -172,6 +222,11 @@ public class FluidLaneGroup extends AbstractLaneGroup {
         cells.forEach(c -> c.allocate_state());
     }
 
+    @Override
+    public void clear_state() {
+        cells.forEach(c -> c.clear_state());
+    }
+
     @Override
     public double get_max_vehicles() {
         return jam_density_veh_per_cell *cells.size();
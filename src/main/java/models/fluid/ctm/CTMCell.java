@@ -1,11 +1,15 @@
 package models.fluid.ctm;
 
+import core.Checkpoint;
 import core.State;
 import models.Maneuver;
 import models.fluid.AbstractCell;
 import models.fluid.FluidLaneGroup;
 import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -74,6 +78,24 @@ public class CTMCell extends AbstractCell {
 
     }
 
+    @Override
+    public void clear_state() {
+        veh_dwn.replaceAll((k,v)->0d);
+        demand_dwn.replaceAll((k,v)->0d);
+        total_vehs_dwn = 0d;
+        if(veh_out!=null) {
+            veh_out.replaceAll((k,v)->0d);
+            demand_out.replaceAll((k,v)->0d);
+            total_vehs_out = 0d;
+        }
+        if(veh_in!=null) {
+            veh_in.replaceAll((k,v)->0d);
+            demand_in.replaceAll((k,v)->0d);
+            total_vehs_in = 0d;
+        }
+        supply = 0d;
+    }
+
     @Override
     public void set_state() {
 
@@ -363,4 +385,24 @@ public class CTMCell extends AbstractCell {
         return total_vehs_dwn + total_vehs_in + total_vehs_out;
     }
 
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        Checkpoint.write_state_map(out,veh_dwn);
+        out.writeDouble(total_vehs_dwn);
+        Checkpoint.write_state_map(out,veh_out);
+        out.writeDouble(total_vehs_out);
+        Checkpoint.write_state_map(out,veh_in);
+        out.writeDouble(total_vehs_in);
+    }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException {
+        Checkpoint.read_state_map(in,veh_dwn);
+        total_vehs_dwn = in.readDouble();
+        Checkpoint.read_state_map(in,veh_out);
+        total_vehs_out = in.readDouble();
+        Checkpoint.read_state_map(in,veh_in);
+        total_vehs_in = in.readDouble();
+    }
+
 }
@@ -139,6 +139,10 @@ public class ModelCTM extends AbstractFluidModel {
                     upcell.subtract_vehicles(flow_dwn,flow_in,flow_out);
                 }
 
+                // empty cells are crossed at free flow speed
+                else if(lg.travel_timer!=null)
+                    total_travel_time += link.is_source() ? dt_sec : dt_sec / lg.ffspeed_cell_per_dt;
+
             }
 
             // travel time computation
@@ -61,9 +61,9 @@ public class DnLaneGroup {
         state_infos.values().forEach(x->x.reset());
     }
 
-    public void update_is_blocked(){
+    public void update_is_blocked(double eps){
         if(!is_blocked)
-            is_blocked = s_h < NodeModel.eps;
+            is_blocked = s_h < eps;
     }
 
 }
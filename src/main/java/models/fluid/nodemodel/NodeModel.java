@@ -13,17 +13,19 @@ import static java.util.stream.Collectors.toSet;
 
 public class NodeModel {
 
-    private static boolean debug = false;
-    private static int MAX_ITERATIONS = 10;
-    public static double eps = 1e-3;
+    private static final boolean debug = false;
+    private final int max_iterations;
+    public final double eps;
     public Node node;
 
     public Map<Long, UpLaneGroup> ulgs;  // upstrm lane groups.
     public Map<Long, RoadConnection> rcs;  // road connections.
     public Map<Long, DnLaneGroup> dlgs; /// dnstrm lane groups.
 
-    public NodeModel(Node node) {
+    public NodeModel(Node node, ScenarioContext context) {
         this.node = node;
+        this.max_iterations = context.node_model_max_iterations;
+        this.eps = context.node_model_eps;
     }
 
     public void build() throws OTMException {
@@ -137,8 +139,12 @@ public class NodeModel {
     }
 
     public void initialize(Scenario scenario) {
-        // allocate states in ulgs
-        ulgs.values().forEach( ulg -> ulg.lg.get_link().states.forEach( state -> ulg.add_state(state)));
+        // allocate states in ulgs, unless they are already allocated from a previous initialization
+        for(UpLaneGroup ulg : ulgs.values()){
+            Set<State> states = ulg.lg.get_link().states;
+            if(!ulg.state_infos.keySet().equals(states))
+                states.forEach(state -> ulg.add_state(state));
+        }
     }
 
     public Set<State> get_states_for_road_connection(long rc_id){
@@ -177,7 +183,7 @@ public class NodeModel {
 
         // iteration
         int it = 0;
-        while (it++ <= MAX_ITERATIONS) {
+        while (it++ <= max_iterations) {
 
             step0();
 
@@ -209,7 +215,7 @@ public class NodeModel {
 
     private boolean eval_stop(int iteration){
 
-        if(iteration>MAX_ITERATIONS){
+        if(iteration>max_iterations){
             System.out.println("Reached iteration limit for node " + node.getId());
             return true;
         }
@@ -226,14 +232,14 @@ public class NodeModel {
          */
 
         // block downstream lanegroups with zero supply
-        dlgs.values().forEach(dlg -> dlg.update_is_blocked());
+        dlgs.values().forEach(dlg -> dlg.update_is_blocked(eps));
 
         // block road connections connecting to blocked links or with control rate = 0
         rcs.values().forEach(rc->rc.update_is_blocked());
 
         // upstream lanegroup is empty if sum of demands is zero
         // and blocked if any of it connectors is blocked
-        ulgs.values().forEach(ulg->ulg.update_is_empty_or_blocked());
+        ulgs.values().forEach(ulg->ulg.update_is_empty_or_blocked(eps));
 
     }
 
@@ -248,7 +254,7 @@ public class NodeModel {
                     .mapToDouble(ulg -> ulg.rc_infos.get(rc.id).d_gr)
                     .sum();
 
-            if(rc.d_r< NodeModel.eps)
+            if(rc.d_r< eps)
                 continue;
 
             boolean any_is_infinite = rc.dnlg_infos.values().stream().anyMatch(x-> Double.isInfinite(x.dlg.s_h));
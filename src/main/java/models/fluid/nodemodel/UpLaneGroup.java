@@ -91,9 +91,9 @@ public class UpLaneGroup {
 
     }
 
-    public void update_is_empty_or_blocked(){
+    public void update_is_empty_or_blocked(double eps){
         if(!is_empty_or_blocked) {
-            is_empty_or_blocked = total_demand() < NodeModel.eps ||
+            is_empty_or_blocked = total_demand() < eps ||
                     rc_infos.values().stream().filter(rc->rc.d_gr>0d).anyMatch(x->x.rc.is_blocked);
         }
     }
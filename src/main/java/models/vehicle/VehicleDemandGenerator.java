@@ -8,8 +8,12 @@ import dispatch.EventCreateVehicle;
 import error.OTMException;
 import core.packet.PacketLaneGroup;
 import profiles.Profile1D;
+import routing.EnrouteRouter;
 import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Set;
 
 public class VehicleDemandGenerator extends AbstractDemandGenerator {
@@ -21,6 +25,12 @@ public class VehicleDemandGenerator extends AbstractDemandGenerator {
         vehicle_scheduled = false;
     }
 
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        vehicle_scheduled = false;
+        super.initialize(scenario);
+    }
+
     @Override
     public void set_demand_vps(Dispatcher dispatcher,float time,double value) throws OTMException {
         super.set_demand_vps(dispatcher,time,value);
@@ -32,7 +42,7 @@ public class VehicleDemandGenerator extends AbstractDemandGenerator {
         if(vehicle_scheduled)
             return;
 
-        Float wait_time = OTMUtils.get_waiting_time(source_demand_vps,link.get_model().stochastic_process);
+        Float wait_time = ((AbstractVehicleModel) link.get_model()).get_waiting_time_sec(source_demand_vps);
         if(wait_time!=null) {             ;
             dispatcher.register_event(new EventCreateVehicle(dispatcher, timestamp + wait_time, this));
             vehicle_scheduled = true;
@@ -55,6 +65,15 @@ public class VehicleDemandGenerator extends AbstractDemandGenerator {
 
         // extract next link
         Long next_link = commodity.pathfull ? link.get_next_link_in_path(path.getId()).getId() : state.pathOrlink_id;
+
+        // vehicles routed en route take the first link toward their destination
+        EnrouteRouter router = link.get_scenario().enroute_router;
+        if(!commodity.pathfull && router!=null) {
+            vehicle.destination_link_id = router.sample_destination(link,commodity.getId());
+            Long routed_link = vehicle.destination_link_id==null ? null : router.get_next_link(link,vehicle.destination_link_id);
+            if(routed_link!=null)
+                next_link = routed_link;
+        }
         vehicle.set_next_link_id(next_link);
 
         // candidate lane groups
@@ -65,9 +84,26 @@ public class VehicleDemandGenerator extends AbstractDemandGenerator {
 
         // package and add to joinlanegroup
         join_lanegroup.add_vehicle_packet(timestamp,new PacketLaneGroup(vehicle),next_link);
+        if(link.perf!=null)
+            link.perf.enter(commodity.getId(),1d,timestamp);
 
         // this scheduled vehicle has been created
         vehicle_scheduled = false;
     }
 
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        out.writeFloat(ckpt.get_pending_time(EventCreateVehicle.class,this));
+    }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException {
+        Dispatcher dispatcher = link.get_scenario().dispatcher;
+        dispatcher.remove_events_for_recipient(EventCreateVehicle.class,this);
+        Float timestamp = Checkpoint.read_timestamp(in);
+        vehicle_scheduled = timestamp!=null;
+        if(vehicle_scheduled)
+            dispatcher.register_event(new EventCreateVehicle(dispatcher,timestamp,this));
+    }
+
 }
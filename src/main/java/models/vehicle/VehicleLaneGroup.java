@@ -1,6 +1,7 @@
 package models.vehicle;
 
 import core.*;
+import error.OTMErrorLog;
 import error.OTMException;
 import jaxb.Roadparam;
 import core.packet.*;
@@ -12,6 +13,9 @@ public abstract class VehicleLaneGroup extends AbstractLaneGroup {
 
     public double max_vehicles;
 
+    // vehicles of the packet being added, reused for every packet
+    protected final VehicleBatch batch = new VehicleBatch(16);
+
     ////////////////////////////////////////
     // construction
     ////////////////////////////////////////
@@ -35,6 +39,14 @@ public abstract class VehicleLaneGroup extends AbstractLaneGroup {
         this.max_vehicles =  temp_max_vehicles;
     }
 
+    // the new jam density must leave room for the vehicles that are on the lane group
+    @Override
+    public void validate_road_params(Roadparam r, OTMErrorLog errorLog) {
+        super.validate_road_params(r,errorLog);
+        if(get_total_vehicles() > r.getJamDensity() * (length/1000.0) * num_lanes)
+            errorLog.addError("In set_road_params, maximum vehicles was exceeded (link " + link.getId() + ")");
+    }
+
     @Override
     public float vehs_out_for_comm(Long comm_id) {
         return 0f;
@@ -66,6 +78,16 @@ public abstract class VehicleLaneGroup extends AbstractLaneGroup {
     ////////////////////////////////////////
 
     protected Set<AbstractVehicle> create_vehicles_from_packet(PacketLaneGroup vp,Long next_link_id) {
+        Set<AbstractVehicle> vehs = new HashSet<>();
+        create_vehicle_batch_from_packet(vp,next_link_id);
+        for(int i=0;i<batch.size;i++)
+            vehs.add(batch.vehicles[i]);
+        batch.clear();
+        return vehs;
+    }
+
+    // Same as create_vehicles_from_packet, but the vehicles are put in this.batch, which the caller must clear.
+    protected VehicleBatch create_vehicle_batch_from_packet(PacketLaneGroup vp,Long next_link_id) {
         // + The core.packet received here can be fluid or vehicle based. It will not be both
         // because LaneGroupPackets are already model specific, in the sense of either
         // fluid or vehicle based
@@ -74,23 +96,24 @@ public abstract class VehicleLaneGroup extends AbstractLaneGroup {
         assert(vp.vehicles.size()<2);
         assert(vp.vehicles.isEmpty() || vp.container.isEmpty());
 
-        Set<AbstractVehicle> vehs = new HashSet<>();
+        batch.clear();
 
         AbstractVehicleModel model = (AbstractVehicleModel) link.get_model();
 
         // process 'vehicle' part
         if(!vp.vehicles.isEmpty())
             for(AbstractVehicle abs_veh : vp.vehicles)
-                vehs.add(model.translate_vehicle(abs_veh));
+                batch.add(model.translate_vehicle(abs_veh));
 
         // process 'fluid' part
         if(buffer!=null && !vp.container.isEmpty())
-            vehs.addAll( buffer.add_packet_and_extract_vehicles(vp.container,this) );
+            buffer.add_packet_and_extract_vehicles(vp.container,this,batch);
 
         // set next link id
-        vehs.forEach(v->v.set_next_link_id(next_link_id));
+        for(int i=0;i<batch.size;i++)
+            batch.vehicles[i].set_next_link_id(next_link_id);
 
-        return vehs;
+        return batch;
     }
 
 }
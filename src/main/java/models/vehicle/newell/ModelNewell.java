@@ -69,7 +69,7 @@ public class ModelNewell extends AbstractVehicleModel implements Pokable {
 
     @Override
     public AbstractVehicle create_vehicle(Long comm_id,Set<InterfaceVehicleListener> event_listeners) {
-        return new NewellVehicle(comm_id,event_listeners);
+        return new NewellVehicle(scenario.context.next_vehicle_id(),comm_id,event_listeners);
     }
 
     //////////////////////////////////////////////////
@@ -1,6 +1,7 @@
 package models.vehicle.newell;
 
 import core.AbstractVehicle;
+import core.Checkpoint;
 import core.Link;
 import core.RoadConnection;
 import error.OTMErrorLog;
@@ -16,6 +17,9 @@ import core.Scenario;
 import traveltime.VehicleLaneGroupTimer;
 import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 public class NewellLaneGroup extends VehicleLaneGroup {
@@ -47,7 +51,7 @@ public class NewellLaneGroup extends VehicleLaneGroup {
 
     public void initialize(Scenario scenario, float start_time) throws OTMException {
         super.initialize(scenario, start_time);
-
+        vehicles.clear();
         update_long_supply();
     }
 
@@ -164,8 +168,27 @@ public class NewellLaneGroup extends VehicleLaneGroup {
 
     }
 
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        super.write_checkpoint(ckpt,out);
+        out.writeInt(vehicles.size());
+        for(NewellVehicle vehicle : vehicles)
+            vehicle.write_checkpoint(ckpt,out);
+    }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException, OTMException {
+        super.read_checkpoint(ckpt,in);
+        vehicles.clear();
+        int n = in.readInt();
+        for(int i=0;i<n;i++)
+            vehicles.add((NewellVehicle) ckpt.read_vehicle(this,in));
+    }
+
     @Override
     public float vehs_dwn_for_comm(Long comm_id) {
+        if(vehicles==null)
+            return 0f;
         return comm_id==null ?
                 vehicles.size() :
                 vehicles.stream().filter(v->v.get_commodity_id()==comm_id).count();
@@ -1,8 +1,12 @@
 package models.vehicle.newell;
 
 import core.AbstractVehicle;
+import core.Checkpoint;
 import output.InterfaceVehicleListener;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Set;
 
 public class NewellVehicle extends AbstractVehicle {
@@ -27,8 +31,8 @@ public class NewellVehicle extends AbstractVehicle {
         this.follower = null;
     }
 
-    public NewellVehicle(Long comm_id, Set<InterfaceVehicleListener> event_listeners){
-        super(comm_id,event_listeners);
+    public NewellVehicle(long id, Long comm_id, Set<InterfaceVehicleListener> event_listeners){
+        super(id,comm_id,event_listeners);
         this.pos = 0d;
         this.new_pos = 0d;
         this.headway = Double.NaN;
@@ -36,6 +40,35 @@ public class NewellVehicle extends AbstractVehicle {
         this.follower = null;
     }
 
+    ///////////////////////////////////////////////////
+    // checkpoint
+    ///////////////////////////////////////////////////
+
+    // leader and follower are written as ids and relinked once all lane groups are read
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        super.write_checkpoint(ckpt,out);
+        out.writeDouble(pos);
+        out.writeDouble(new_pos);
+        out.writeDouble(headway);
+        out.writeLong(leader==null ? -1L : leader.getId());
+        out.writeLong(follower==null ? -1L : follower.getId());
+    }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException {
+        super.read_checkpoint(ckpt,in);
+        pos = in.readDouble();
+        new_pos = in.readDouble();
+        headway = in.readDouble();
+        long leader_id = in.readLong();
+        long follower_id = in.readLong();
+        ckpt.defer(() -> {
+            leader = leader_id<0 ? null : (NewellVehicle) ckpt.get_vehicle(leader_id);
+            follower = follower_id<0 ? null : (NewellVehicle) ckpt.get_vehicle(follower_id);
+        });
+    }
+
 //    public static double initialize_headway(Vehicle leader,Vehicle follower){
 //
 //        if(leader==null)
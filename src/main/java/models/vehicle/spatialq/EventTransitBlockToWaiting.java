@@ -0,0 +1,19 @@
+package models.vehicle.spatialq;
+
+import dispatch.AbstractEvent;
+import dispatch.Dispatcher;
+import error.OTMException;
+
+public class EventTransitBlockToWaiting extends AbstractEvent {
+
+    public EventTransitBlockToWaiting(Dispatcher dispatcher, float timestamp, TransitBlock block) {
+        super(dispatcher,44,timestamp,block);
+    }
+
+    @Override
+    public void action() throws OTMException {
+        TransitBlock block = (TransitBlock) recipient;
+        block.lanegroup.move_block_to_waiting(timestamp,block);
+    }
+
+}
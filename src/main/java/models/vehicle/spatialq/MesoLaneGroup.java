@@ -15,7 +15,11 @@ import core.Scenario;
 import traveltime.VehicleLaneGroupTimer;
 import utils.OTMUtils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class MesoLaneGroup extends VehicleLaneGroup {
 
@@ -125,7 +129,7 @@ public class MesoLaneGroup extends VehicleLaneGroup {
 
         // reschedule for all vehicles in waiting queue
         float next_release = scenario.dispatcher.current_time +
-                OTMUtils.get_waiting_time(saturation_flow_rate_vps,link.get_model().stochastic_process);
+                ((AbstractVehicleModel) link.get_model()).get_waiting_time_sec(saturation_flow_rate_vps);
         scenario.dispatcher.register_event(
                 new EventReleaseVehicleFromLaneGroup(scenario.dispatcher,next_release,this));
 
@@ -163,42 +167,95 @@ public class MesoLaneGroup extends VehicleLaneGroup {
      * 1. convert the core.packet to models.fluid.ctm.micro, models.fluid.ctm.pq, or models.fluid.ctm. This involves memory kept in the lanegroup.
      * 2. tag it with next_link and target lanegroups.
      * 3. add the core.packet to this lanegroup.
+     * Several vehicles arrive together only from a fluid packet. They are added to the transit queue as a block
+     * and moved to the waiting queue by a single event, since they all finish their transit at the same time.
      */
     @Override
     public void add_vehicle_packet(float timestamp, PacketLaneGroup vp, Long next_link_id) throws OTMException {
 
         RoadConnection next_rc = this.outlink2roadconnection.get(next_link_id);
         boolean next_link_not_accessible = next_rc==null;
-
-        // for each vehicle
         Dispatcher dispatcher = link.get_scenario().dispatcher;
-        for(AbstractVehicle absveh : create_vehicles_from_packet(vp,next_link_id)){
-
-            MesoVehicle veh = (MesoVehicle) absveh;
 
-            veh.waiting_for_lane_change = next_link_not_accessible;
+        create_vehicle_batch_from_packet(vp,next_link_id);
 
-            // tell the event listeners
-            if(veh.get_event_listeners()!=null)
-                for(InterfaceVehicleListener ev : veh.get_event_listeners())
-                    ev.move_from_to_queue(timestamp,veh,veh.my_queue,transit_queue);
+        // single vehicle
+        if(batch.size==1){
+            MesoVehicle veh = (MesoVehicle) batch.vehicles[0];
+            batch.clear();
+            enter_transit(timestamp,veh,next_link_not_accessible);
 
             // tell the vehicle it has moved
             veh.move_to_queue(timestamp,transit_queue);
 
-            // tell the travel timers
-            if (travel_timer != null)
-                ((VehicleLaneGroupTimer)travel_timer).vehicle_enter(timestamp,veh);
-
             // register_with_dispatcher dispatch to go to waiting queue
             dispatcher.register_event(new EventTransitToWaiting(dispatcher,timestamp + transit_time_sec,veh));
+        }
 
+        // block of new vehicles
+        else if(batch.size>1){
+            MesoVehicle [] vehicles = new MesoVehicle[batch.size];
+            TransitBlock block = new TransitBlock(this,vehicles);
+            for(int i=0;i<batch.size;i++){
+                MesoVehicle veh = (MesoVehicle) batch.vehicles[i];
+                enter_transit(timestamp,veh,next_link_not_accessible);
+                veh.set_queue(transit_queue);
+                veh.transit_block = block;
+                vehicles[i] = veh;
+            }
+            batch.clear();
+            transit_queue.add_vehicles(vehicles);
+            dispatcher.register_event(new EventTransitBlockToWaiting(dispatcher,timestamp + transit_time_sec,block));
         }
 
         update_long_supply();
 
     }
 
+    // used by EventTransitToWaiting and EventTransitBlockToWaiting. Lane group whose waiting queue the vehicle
+    // joins: this one, or the one with most supply among those that reach its next link if it must change lanes.
+    MesoLaneGroup get_waiting_lanegroup(MesoVehicle vehicle){
+
+        Long next_link = vehicle.get_next_link_id();
+
+        if(next_link==null)
+            vehicle.waiting_for_lane_change=false;
+
+        if(!vehicle.waiting_for_lane_change)
+            return this;
+
+        // do lane changing
+        List<AbstractLaneGroup>  lgs = link.get_lgs();
+        Map<Long,Double> sdf = lgs.stream()
+                .filter(lg -> lg.connects_to_outlink(next_link) )
+                .map(lg -> (MesoLaneGroup) lg)
+                .collect(Collectors.toMap(MesoLaneGroup::getId,
+                        MesoLaneGroup::get_waiting_supply) );
+        long lgid = Collections.max(sdf.entrySet(), Comparator.comparingDouble(Map.Entry::getValue)).getKey();
+
+        vehicle.waiting_for_lane_change = false;
+        return (MesoLaneGroup) lgs.stream().filter(lg->lg.getId()==lgid).findFirst().orElse(null);
+    }
+
+    // used by EventTransitBlockToWaiting
+    void move_block_to_waiting(float timestamp, TransitBlock block) throws OTMException {
+
+        transit_queue.remove_vehicles(block.vehicles);
+
+        for(MesoVehicle vehicle : block.vehicles){
+            vehicle.transit_block = null;
+            MesoLaneGroup lanegroup = get_waiting_lanegroup(vehicle);
+
+            // inform listeners
+            if(vehicle.get_event_listeners()!=null)
+                for(InterfaceVehicleListener ev : vehicle.get_event_listeners())
+                    ev.move_from_to_queue(timestamp,vehicle,transit_queue,lanegroup.waiting_queue);
+
+            lanegroup.waiting_queue.add_vehicle(vehicle);
+            vehicle.set_queue(lanegroup.waiting_queue);
+        }
+    }
+
 //    @Override
 //    public void exiting_roadconnection_capacity_has_been_modified(float timestamp) {
 //
@@ -316,13 +373,77 @@ public class MesoLaneGroup extends VehicleLaneGroup {
         return (float) (transit_queue.num_vehicles_for_commodity(c) + waiting_queue.num_vehicles_for_commodity(c));
     }
 
+    ///////////////////////////////////////////////////
+    // checkpoint
+    ///////////////////////////////////////////////////
+
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        super.write_checkpoint(ckpt,out);
+        out.writeInt(transit_queue.vehicles.size());
+        for(MesoVehicle vehicle : transit_queue.vehicles){
+            vehicle.write_checkpoint(ckpt,out);
+            out.writeFloat(vehicle.transit_block==null ?
+                    ckpt.get_pending_time(EventTransitToWaiting.class,vehicle) :
+                    ckpt.get_pending_time(EventTransitBlockToWaiting.class,vehicle.transit_block));
+        }
+        out.writeInt(waiting_queue.vehicles.size());
+        for(MesoVehicle vehicle : waiting_queue.vehicles)
+            vehicle.write_checkpoint(ckpt,out);
+        out.writeFloat(ckpt.get_pending_time(EventReleaseVehicleFromLaneGroup.class,this));
+    }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException, OTMException {
+        super.read_checkpoint(ckpt,in);
+        Dispatcher dispatcher = link.get_scenario().dispatcher;
+
+        transit_queue.clear();
+        int n = in.readInt();
+        for(int i=0;i<n;i++){
+            MesoVehicle vehicle = (MesoVehicle) ckpt.read_vehicle(this,in);
+            vehicle.move_to_queue(dispatcher.current_time,transit_queue);
+            Float transit_time = Checkpoint.read_timestamp(in);
+            if(transit_time!=null)
+                dispatcher.register_event(new EventTransitToWaiting(dispatcher,transit_time,vehicle));
+        }
+
+        waiting_queue.clear();
+        n = in.readInt();
+        for(int i=0;i<n;i++){
+            MesoVehicle vehicle = (MesoVehicle) ckpt.read_vehicle(this,in);
+            vehicle.move_to_queue(dispatcher.current_time,waiting_queue);
+        }
+
+        // replace the release scheduled by initialize
+        dispatcher.remove_events_for_recipient(EventReleaseVehicleFromLaneGroup.class,this);
+        Float release_time = Checkpoint.read_timestamp(in);
+        if(release_time!=null)
+            dispatcher.register_event(new EventReleaseVehicleFromLaneGroup(dispatcher,release_time,this));
+    }
+
     ///////////////////////////////////////////////////
     // private
     ///////////////////////////////////////////////////
 
+    // a vehicle enters the transit queue: everything but the queue insertion and the transit event
+    private void enter_transit(float timestamp, MesoVehicle veh, boolean next_link_not_accessible) throws OTMException {
+
+        veh.waiting_for_lane_change = next_link_not_accessible;
+
+        // tell the event listeners
+        if(veh.get_event_listeners()!=null)
+            for(InterfaceVehicleListener ev : veh.get_event_listeners())
+                ev.move_from_to_queue(timestamp,veh,veh.my_queue,transit_queue);
+
+        // tell the travel timers
+        if (travel_timer != null)
+            ((VehicleLaneGroupTimer)travel_timer).vehicle_enter(timestamp,veh);
+    }
+
     private void schedule_release_vehicle(float nowtime){
 
-        Float wait_time = OTMUtils.get_waiting_time(saturation_flow_rate_vps,link.get_model().stochastic_process);
+        Float wait_time = ((AbstractVehicleModel) link.get_model()).get_waiting_time_sec(saturation_flow_rate_vps);
 
         if(wait_time!=null){
             Scenario scenario = link.get_scenario();
@@ -1,15 +1,20 @@
 package models.vehicle.spatialq;
 
+import core.Checkpoint;
 import error.OTMException;
 import core.AbstractVehicle;
 import output.InterfaceVehicleListener;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Set;
 
 public class MesoVehicle extends AbstractVehicle {
 
     public Queue my_queue;
     public boolean waiting_for_lane_change;
+    public TransitBlock transit_block;     // block this vehicle is in transit with, null if it has its own event
 
     ///////////////////////////////////////////////////
     // construction
@@ -20,8 +25,8 @@ public class MesoVehicle extends AbstractVehicle {
         this.waiting_for_lane_change = false;
     }
 
-    public MesoVehicle(Long comm_id, Set<InterfaceVehicleListener> event_listeners){
-        super(comm_id,event_listeners);
+    public MesoVehicle(long id, Long comm_id, Set<InterfaceVehicleListener> event_listeners){
+        super(id,comm_id,event_listeners);
         this.waiting_for_lane_change = false;
     }
 
@@ -84,8 +89,30 @@ public class MesoVehicle extends AbstractVehicle {
         to_queue.add_vehicle(this);
 
         // update vehicle queue reference
+        set_queue(to_queue);
+
+    }
+
+    // update the queue reference of a vehicle that its queues have already moved, see Queue.add_vehicles
+    public void set_queue(Queue to_queue) {
         my_queue = to_queue;
         lg = to_queue.lanegroup;
+    }
+
+    ////////////////////////////////////////////////
+    // checkpoint
+    ////////////////////////////////////////////////
 
+    @Override
+    public void write_checkpoint(Checkpoint ckpt, DataOutputStream out) throws IOException {
+        super.write_checkpoint(ckpt,out);
+        out.writeBoolean(waiting_for_lane_change);
     }
+
+    @Override
+    public void read_checkpoint(Checkpoint ckpt, DataInputStream in) throws IOException {
+        super.read_checkpoint(ckpt,in);
+        waiting_for_lane_change = in.readBoolean();
+    }
+
 }
@@ -85,7 +85,7 @@ public class ModelSpatialQ extends AbstractVehicleModel {
 
     @Override
     public AbstractVehicle create_vehicle(Long comm_id,Set<InterfaceVehicleListener> event_listeners) {
-        return new MesoVehicle(comm_id,event_listeners);
+        return new MesoVehicle(scenario.context.next_vehicle_id(),comm_id,event_listeners);
     }
 
     //////////////////////////////////////////////////////////////
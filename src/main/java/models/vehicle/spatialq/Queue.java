@@ -3,9 +3,7 @@ package models.vehicle.spatialq;
 import error.OTMErrorLog;
 import error.OTMException;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 public class Queue {
 
@@ -71,6 +69,22 @@ public class Queue {
         this.vehicles.addAll(v);
     }
 
+    // append a block of vehicles, in order
+    public void add_vehicles(MesoVehicle [] v) {
+        this.vehicles.addAll(Arrays.asList(v));
+    }
+
+    // remove a block of vehicles in one pass over the queue
+    public void remove_vehicles(MesoVehicle [] v) {
+        if(v.length==1) {
+            this.vehicles.remove(v[0]);
+            return;
+        }
+        Set<MesoVehicle> x = Collections.newSetFromMap(new IdentityHashMap<>());
+        x.addAll(Arrays.asList(v));
+        this.vehicles.removeIf(x::contains);
+    }
+
     public void clear() {
         this.vehicles.clear();
     }
@@ -0,0 +1,17 @@
+package models.vehicle.spatialq;
+
+/**
+ * Vehicles that entered the transit queue of a lane group together, from one fluid packet. They all finish
+ * their transit at the same time, so a single EventTransitBlockToWaiting moves them to the waiting queue.
+ */
+public class TransitBlock {
+
+    public final MesoLaneGroup lanegroup;
+    public final MesoVehicle [] vehicles;
+
+    public TransitBlock(MesoLaneGroup lanegroup,MesoVehicle [] vehicles){
+        this.lanegroup = lanegroup;
+        this.vehicles = vehicles;
+    }
+
+}
@@ -23,6 +23,8 @@ public abstract class AbstractOutput implements InterfaceOutput {
         link_flw,
         link_veh,
         link_sumveh,
+        link_state,
+        live_state,
         vht,
         lanegroup_flw,
         lanegroup_veh,
@@ -34,6 +36,8 @@ public abstract class AbstractOutput implements InterfaceOutput {
         cell_sumvehdwn,
         cell_lanechange,
         path_travel_time,
+        link_tt_quantile,
+        skims,
         vehicle_events,
         vehicle_class,
         vehicle_travel_time,
@@ -17,6 +17,7 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
     public Commodity commodity;
     public Writer time_writer;
     public static String delim = ",";
+    public SparseEncoder sparse;  // null means dense rows
 
     //////////////////////////////////////////////////////
     // construction
@@ -84,6 +85,8 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
     public void validate_post_init(OTMErrorLog errorLog) {
         if(outDt==null || Float.isNaN(outDt) || outDt<=0f)
             errorLog.addError("outDt is not defined");
+        if(sparse!=null && !(this instanceof InterfaceAggregable))
+            errorLog.addError("sparse encoding is only available for link and lane group outputs");
     }
 
     @Override
@@ -114,4 +117,8 @@ public abstract class AbstractOutputTimed extends AbstractOutput implements Inte
         return this.outDt;
     }
 
+    public final void set_sparse(float threshold,int keyframe_period) throws OTMException {
+        this.sparse = new SparseEncoder(threshold,keyframe_period);
+    }
+
 }
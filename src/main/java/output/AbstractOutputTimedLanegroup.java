@@ -13,7 +13,7 @@ import java.io.*;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
+public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed implements InterfaceAggregable {
 
     public Collection<Long> link_ids;
     public ArrayList<AbstractLaneGroup> ordered_lgs;
@@ -52,7 +52,14 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
     @Override
     public final void write(float timestamp) throws OTMException {
         super.write(timestamp);
-        if(write_to_file){
+        if(write_to_file && sparse!=null){
+            try {
+                get_element_values(sparse.values);
+                sparse.write(writer);
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else if(write_to_file){
             try {
                 boolean isfirst=true;
                 for(AbstractLaneGroup lg : ordered_lgs){
@@ -73,6 +80,21 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
         }
     }
 
+    //////////////////////////////////////////////////////
+    // InterfaceAggregable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public long [] get_element_ids() {
+        return ordered_lgs.stream().mapToLong(lg->lg.getId()).toArray();
+    }
+
+    @Override
+    public void get_element_values(double [] values) {
+        for(int i=0;i<ordered_lgs.size();i++)
+            values[i] = get_value_for_lanegroup(ordered_lgs.get(i));
+    }
+
     //////////////////////////////////////////////////////
     // AbstractOutput
     //////////////////////////////////////////////////////
@@ -91,6 +113,9 @@ public abstract class AbstractOutputTimedLanegroup extends AbstractOutputTimed {
             }
         }
 
+        if(sparse!=null)
+            sparse.initialize(ordered_lgs.size());
+
         if(write_to_file){
             try {
                 String filename = get_output_file();
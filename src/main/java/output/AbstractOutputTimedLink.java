@@ -14,7 +14,7 @@ import java.util.*;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
+public abstract class AbstractOutputTimedLink extends AbstractOutputTimed implements InterfaceAggregable {
 
     public long [] ordered_ids;
     public Map<Long,LinkProfile> linkprofiles;
@@ -84,7 +84,14 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
     @Override
     public final void write(float timestamp) throws OTMException {
         super.write(timestamp);
-        if(write_to_file){
+        if(write_to_file && sparse!=null){
+            try {
+                get_element_values(sparse.values);
+                sparse.write(writer);
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else if(write_to_file){
             try {
                 boolean isfirst=true;
                 for(Long link_id : ordered_ids){
@@ -105,6 +112,21 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
         }
     }
 
+    //////////////////////////////////////////////////////
+    // InterfaceAggregable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public long [] get_element_ids() {
+        return ordered_ids;
+    }
+
+    @Override
+    public void get_element_values(double [] values) {
+        for(int i=0;i<ordered_ids.length;i++)
+            values[i] = get_value_for_link(ordered_ids[i]);
+    }
+
     //////////////////////////////////////////////////////
     // InterfacePlottable
     //////////////////////////////////////////////////////
@@ -129,6 +151,8 @@ public abstract class AbstractOutputTimedLink extends AbstractOutputTimed {
     @Override
     public void initialize(Scenario scenario) throws OTMException {
         super.initialize(scenario);
+        if(sparse!=null)
+            sparse.initialize(ordered_ids.length);
         // write links
         if(write_to_file) {
             try {
@@ -0,0 +1,180 @@
+package output;
+
+import error.OTMException;
+import profiles.Profile1D;
+import utils.QuantileSketch;
+import utils.RunningStats;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistics of one output request over the replications of an ensemble. For every output time and
+ * element (link or lane group) it holds the running mean and variance and a quantile sketch of the values
+ * reported by the replications. Replications add their values as they are produced, from several threads,
+ * so memory does not grow with the number of replications.
+ */
+public class EnsembleStatistics {
+
+    public final float start_time;
+    public final int sketch_k;
+
+    private AbstractOutput.Type type;
+    private Long commodity_id;
+    private Float outDt;
+    private long [] element_ids;
+    private final List<RunningStats[]> stats;          // time index -> element index -> stats
+    private final List<QuantileSketch[]> sketches;     // time index -> element index -> sketch
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public EnsembleStatistics(float start_time,int sketch_k){
+        this.start_time = start_time;
+        this.sketch_k = sketch_k;
+        this.stats = new ArrayList<>();
+        this.sketches = new ArrayList<>();
+    }
+
+    // called by each replication when its output is initialized
+    synchronized void attach(AbstractOutputTimed output,long [] ids) throws OTMException {
+        if(element_ids==null){
+            type = output.type;
+            commodity_id = output.get_commodity_id();
+            outDt = output.outDt;
+            element_ids = ids.clone();
+            return;
+        }
+        if(!Arrays.equals(element_ids,ids) || !outDt.equals(output.outDt))
+            throw new OTMException("Replications of an ensemble produced different output layouts.");
+    }
+
+    synchronized void add(float timestamp,double [] values){
+        int k = Math.round((timestamp-start_time)/outDt);
+        while(stats.size()<=k){
+            RunningStats [] s = new RunningStats[element_ids.length];
+            QuantileSketch [] q = new QuantileSketch[element_ids.length];
+            for(int i=0;i<element_ids.length;i++){
+                s[i] = new RunningStats();
+                q[i] = new QuantileSketch(sketch_k);
+            }
+            stats.add(s);
+            sketches.add(q);
+        }
+        RunningStats [] s = stats.get(k);
+        QuantileSketch [] q = sketches.get(k);
+        for(int i=0;i<values.length;i++){
+            s[i].add(values[i]);
+            q[i].add(values[i]);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // get
+    //////////////////////////////////////////////////////
+
+    public AbstractOutput.Type get_type(){
+        return type;
+    }
+
+    public Long get_commodity_id(){
+        return commodity_id;
+    }
+
+    public Float get_outdt(){
+        return outDt;
+    }
+
+    public long [] get_element_ids(){
+        return element_ids==null ? new long[0] : element_ids.clone();
+    }
+
+    public synchronized int get_num_times(){
+        return stats.size();
+    }
+
+    // number of replications that reported the first output time
+    public synchronized long get_num_replications(){
+        return stats.isEmpty() || element_ids.length==0 ? 0 : stats.get(0)[0].get_count();
+    }
+
+    public synchronized RunningStats get_stats(int time_index,long element_id) throws OTMException {
+        return stats.get(check_time(time_index))[element_index(element_id)];
+    }
+
+    public synchronized QuantileSketch get_sketch(int time_index,long element_id) throws OTMException {
+        return sketches.get(check_time(time_index))[element_index(element_id)];
+    }
+
+    public synchronized Profile1D get_mean(long element_id) throws OTMException {
+        int i = element_index(element_id);
+        Profile1D profile = new Profile1D(start_time,outDt);
+        for(RunningStats[] s : stats)
+            profile.add_entry(s[i].get_mean());
+        return profile;
+    }
+
+    public synchronized Profile1D get_variance(long element_id) throws OTMException {
+        int i = element_index(element_id);
+        Profile1D profile = new Profile1D(start_time,outDt);
+        for(RunningStats[] s : stats)
+            profile.add_entry(s[i].get_variance());
+        return profile;
+    }
+
+    public synchronized Profile1D get_quantile(long element_id,double q) throws OTMException {
+        int i = element_index(element_id);
+        Profile1D profile = new Profile1D(start_time,outDt);
+        for(QuantileSketch[] s : sketches)
+            profile.add_entry(s[i].get_quantile(q));
+        return profile;
+    }
+
+    //////////////////////////////////////////////////////
+    // write
+    //////////////////////////////////////////////////////
+
+    /** Write one row per time and element: time,id,count,mean,variance, then the requested quantiles. **/
+    public synchronized void write(String filename,double [] quantiles) throws OTMException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename)))) {
+            writer.write("time,id,count,mean,variance");
+            for(double q : quantiles)
+                writer.write(String.format(",q%s",Double.toString(q)));
+            writer.write("\n");
+            for(int k=0;k<stats.size();k++){
+                float time = start_time + k*outDt;
+                for(int i=0;i<element_ids.length;i++){
+                    RunningStats s = stats.get(k)[i];
+                    writer.write(String.format("%f,%d,%d,%f,%f",time,element_ids[i],s.get_count(),s.get_mean(),s.get_variance()));
+                    for(double q : quantiles)
+                        writer.write(String.format(",%f",sketches.get(k)[i].get_quantile(q)));
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // private
+    //////////////////////////////////////////////////////
+
+    private int element_index(long element_id) throws OTMException {
+        if(element_ids!=null)
+            for(int i=0;i<element_ids.length;i++)
+                if(element_ids[i]==element_id)
+                    return i;
+        throw new OTMException("Bad element id: " + element_id);
+    }
+
+    private int check_time(int time_index) throws OTMException {
+        if(time_index<0 || time_index>=stats.size())
+            throw new OTMException("Bad time index: " + time_index);
+        return time_index;
+    }
+
+}
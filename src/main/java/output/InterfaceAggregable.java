@@ -0,0 +1,6 @@
+package output;
+
+public interface InterfaceAggregable {
+    long [] get_element_ids();
+    void get_element_values(double [] values);
+}
@@ -0,0 +1,318 @@
+package output;
+
+import cmd.RunParameters;
+import core.AbstractFluidModel;
+import core.Scenario;
+import dispatch.Dispatcher;
+import dispatch.EventAggregationSample;
+import error.OTMErrorLog;
+import error.OTMException;
+import org.jfree.data.xy.XYSeriesCollection;
+import profiles.Profile1D;
+
+import java.io.*;
+import java.util.*;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Temporal reduction of a timed output. The source output is sampled every sampleDt seconds and
+ * the requested reductions (sum, time-weighted mean, min, max) over each outDt window are written.
+ * Memory is constant per element. The source output is evaluated in memory and never writes on its own.
+ * Flow sources (link_flw, lanegroup_flw) hold vehicle counts accumulated since the start of the run; for them
+ * each sample is the flow in veh/hr since the previous sample, and the first sample only sets the baseline.
+ */
+public class OutputAggregated extends AbstractOutputTimed {
+
+    public enum Reduction {sum,mean,min,max}
+
+    public final AbstractOutputTimed source;
+    public final List<Reduction> reductions;
+    public Float sampleDt;
+
+    private InterfaceAggregable aggregable;
+    private boolean cumulative;     // source values are counts accumulated since the start of the run
+    private long [] element_ids;
+    private double [] values;
+    private double [] previous;     // source values at the previous sample, for cumulative sources
+    private double [] sum;
+    private double [] integral;
+    private double [] min;
+    private double [] max;
+    private int num_samples;
+    private float window_duration;
+    private Float last_sample_time;
+
+    public Map<Reduction,List<Profile1D>> profiles;  // reduction -> profile per element
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputAggregated(Scenario scenario,String prefix,String output_folder,AbstractOutputTimed source,List<Reduction> reductions,Float sampleDt,Float outDt) throws OTMException {
+        super(scenario,prefix,output_folder,source==null ? null : source.get_commodity_id(),outDt);
+
+        if(source==null)
+            throw new OTMException("Null source in aggregated output request.");
+        if(!(source instanceof InterfaceAggregable))
+            throw new OTMException(String.format("Output of type %s cannot be aggregated.",source.type));
+        if(source.write_to_file)
+            throw new OTMException("The source of an aggregated output must not write to file.");
+        if(reductions==null || reductions.isEmpty())
+            throw new OTMException("No reductions in aggregated output request.");
+
+        this.source = source;
+        this.aggregable = (InterfaceAggregable) source;
+        this.reductions = new ArrayList<>(new LinkedHashSet<>(reductions));
+        this.sampleDt = sampleDt;
+        this.type = source.type;
+        this.cumulative = source.type==Type.link_flw || source.type==Type.lanegroup_flw;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return write_to_file ? super.get_output_file() + "_" + type.name() + "_agg.txt" : null;
+    }
+
+    @Override
+    public void register(RunParameters props, Dispatcher dispatcher) {
+        super.register(props,dispatcher);
+        dispatcher.register_event(new EventAggregationSample(dispatcher,props.start_time,this));
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfacePlottable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return source.get_yaxis_label();
+    }
+
+    @Override
+    public void plot(String filename) throws OTMException {
+        if(write_to_file)
+            throw new OTMException("Plot not available for outputs written to file.");
+        XYSeriesCollection dataset = new XYSeriesCollection();
+        for(Reduction reduction : reductions) {
+            List<Profile1D> profs = profiles.get(reduction);
+            for (int i = 0; i < element_ids.length; i++)
+                dataset.addSeries(profs.get(i).get_series(String.format("%s %d", reduction, element_ids[i])));
+        }
+        String title = String.format("%s, comm: %s", type.name(), commodity==null ? "all" : commodity.name);
+        make_time_chart(dataset,title,get_yaxis_label(),filename);
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        super.initialize(scenario);
+        source.initialize(scenario);
+
+        // default sample dt is the time step of the fluid models
+        if(sampleDt==null){
+            Set<Float> dts = scenario.models.values().stream()
+                    .filter(m->m instanceof AbstractFluidModel)
+                    .map(m->((AbstractFluidModel)m).dt_sec)
+                    .collect(toSet());
+            if(dts.size()==1)
+                sampleDt = dts.iterator().next();
+        }
+
+        element_ids = aggregable.get_element_ids();
+        int n = element_ids.length;
+        values = new double[n];
+        previous = new double[n];
+        sum = new double[n];
+        integral = new double[n];
+        min = new double[n];
+        max = new double[n];
+        last_sample_time = null;
+        reset_window();
+
+        if(write_to_file){
+            try {
+                String filename = get_output_file();
+                if(filename!=null) {
+                    String subfilename = filename.substring(0,filename.length()-4);
+                    Writer cols_writer = new OutputStreamWriter(new FileOutputStream(subfilename + "_cols.txt"));
+                    for(Reduction reduction : reductions)
+                        for(long id : element_ids)
+                            cols_writer.write(reduction + "," + id + "\n");
+                    cols_writer.close();
+                }
+            } catch (FileNotFoundException exc) {
+                throw new OTMException(exc);
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else {
+            profiles = new HashMap<>();
+            for(Reduction reduction : reductions){
+                List<Profile1D> profs = new ArrayList<>();
+                for(int i=0;i<n;i++)
+                    profs.add(new Profile1D(null,outDt));
+                profiles.put(reduction,profs);
+            }
+        }
+    }
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        source.validate_post_init(errorLog);
+        if(sampleDt==null || sampleDt<=0f) {
+            errorLog.addError("sample_dt is not defined for aggregated output");
+            return;
+        }
+        if(outDt!=null && outDt>0f){
+            double ratio = outDt / sampleDt;
+            if(Math.abs(ratio-Math.round(ratio))>1e-4)
+                errorLog.addError("outDt of an aggregated output must be a multiple of sample_dt");
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void write(float timestamp) throws OTMException {
+        super.write(timestamp);
+        if(write_to_file){
+            try {
+                boolean isfirst=true;
+                for(Reduction reduction : reductions)
+                    for(int i=0;i<element_ids.length;i++){
+                        if(!isfirst)
+                            writer.write(AbstractOutputTimed.delim);
+                        isfirst = false;
+                        writer.write(String.format("%f",reduce(reduction,i)));
+                    }
+                writer.write("\n");
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else {
+            for(Reduction reduction : reductions){
+                List<Profile1D> profs = profiles.get(reduction);
+                for(int i=0;i<element_ids.length;i++)
+                    profs.get(i).add_entry(reduce(reduction,i));
+            }
+        }
+        reset_window();
+    }
+
+    //////////////////////////////////////////////////////
+    // API
+    //////////////////////////////////////////////////////
+
+    public void sample(float timestamp){
+        aggregable.get_element_values(values);
+
+        // each sample holds since the previous sample
+        float w = last_sample_time==null ? 0f : timestamp - last_sample_time;
+        last_sample_time = timestamp;
+
+        // counts become the flow since the previous sample
+        if(cumulative){
+            if(w<=0f){
+                System.arraycopy(values,0,previous,0,values.length);
+                return;
+            }
+            for(int i=0;i<values.length;i++){
+                double count = values[i];
+                values[i] = (count-previous[i])*3600d/w;
+                previous[i] = count;
+            }
+        }
+
+        window_duration += w;
+
+        for(int i=0;i<values.length;i++){
+            double v = values[i];
+            sum[i] += v;
+            integral[i] += v*w;
+            if(v<min[i])
+                min[i] = v;
+            if(v>max[i])
+                max[i] = v;
+        }
+        num_samples++;
+    }
+
+    public final long [] get_element_ids(){
+        return element_ids;
+    }
+
+    public final Profile1D get_profile(Reduction reduction,long element_id){
+        if(profiles==null || !profiles.containsKey(reduction))
+            return null;
+        for(int i=0;i<element_ids.length;i++)
+            if(element_ids[i]==element_id)
+                return profiles.get(reduction).get(i);
+        return null;
+    }
+
+    //////////////////////////////////////////////////////
+    // static
+    //////////////////////////////////////////////////////
+
+    /** Read a string of the form "mean,max" or "aggregation=mean,max". **/
+    public static List<Reduction> read_reductions(String str) throws OTMException {
+        if(str==null)
+            return null;
+        str = str.trim();
+        if(str.startsWith("aggregation="))
+            str = str.substring("aggregation=".length());
+        List<Reduction> reductions = new ArrayList<>();
+        for(String x : str.split(",")){
+            x = x.trim();
+            if(x.isEmpty())
+                continue;
+            try {
+                reductions.add(Reduction.valueOf(x));
+            } catch (IllegalArgumentException e){
+                throw new OTMException("Bad aggregation: " + x);
+            }
+        }
+        return reductions;
+    }
+
+    //////////////////////////////////////////////////////
+    // private
+    //////////////////////////////////////////////////////
+
+    private double reduce(Reduction reduction,int i){
+        if(num_samples==0)
+            return Double.NaN;
+        switch(reduction){
+            case sum:
+                return sum[i];
+            case mean:
+                return window_duration>0f ? integral[i]/window_duration : sum[i]/num_samples;
+            case min:
+                return min[i];
+            case max:
+                return max[i];
+        }
+        return Double.NaN;
+    }
+
+    private void reset_window(){
+        Arrays.fill(sum,0d);
+        Arrays.fill(integral,0d);
+        Arrays.fill(min,Double.POSITIVE_INFINITY);
+        Arrays.fill(max,Double.NEGATIVE_INFINITY);
+        num_samples = 0;
+        window_duration = 0f;
+    }
+
+}
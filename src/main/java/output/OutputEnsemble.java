@@ -0,0 +1,91 @@
+package output;
+
+import core.Scenario;
+import error.OTMErrorLog;
+import error.OTMException;
+
+/**
+ * Output of one replication of an ensemble. At every output time it reads the values of its source (a link
+ * or lane group output evaluated in memory) and adds them to the statistics shared by all replications.
+ * Nothing is written or kept per replication.
+ */
+public class OutputEnsemble extends AbstractOutputTimed {
+
+    public final AbstractOutputTimed source;
+    public final EnsembleStatistics statistics;
+
+    private InterfaceAggregable aggregable;
+    private double [] values;
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputEnsemble(Scenario scenario,AbstractOutput source,EnsembleStatistics statistics) throws OTMException {
+        super(scenario,null,null,source instanceof AbstractOutputTimed ? ((AbstractOutputTimed) source).get_commodity_id() : null,
+                source instanceof AbstractOutputTimed ? ((AbstractOutputTimed) source).outDt : null);
+
+        if(!(source instanceof AbstractOutputTimed) || !(source instanceof InterfaceAggregable))
+            throw new OTMException(String.format("Output of type %s cannot be aggregated over an ensemble.",source.type));
+        if(source.write_to_file)
+            throw new OTMException("The source of an ensemble output must not write to file.");
+
+        this.source = (AbstractOutputTimed) source;
+        this.aggregable = (InterfaceAggregable) source;
+        this.statistics = statistics;
+        this.type = source.type;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return null;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfacePlottable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return source.get_yaxis_label();
+    }
+
+    @Override
+    public void plot(String filename) throws OTMException {
+        throw new OTMException("Plot not available for ensemble outputs.");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        super.initialize(scenario);
+        source.initialize(scenario);
+        long [] element_ids = aggregable.get_element_ids();
+        values = new double[element_ids.length];
+        statistics.attach(this,element_ids);
+    }
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        source.validate_post_init(errorLog);
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void write(float timestamp) throws OTMException {
+        aggregable.get_element_values(values);
+        statistics.add(timestamp,values);
+    }
+
+}
@@ -0,0 +1,262 @@
+package output;
+
+import core.AbstractLaneGroup;
+import core.FlowAccumulatorState;
+import core.Link;
+import core.Scenario;
+import error.OTMErrorLog;
+import error.OTMException;
+import org.jfree.data.xy.XYSeriesCollection;
+import profiles.Profile1D;
+import utils.OTMUtils;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Flow, vehicles, density, speed and travel time for a set of links, computed together in a single pass
+ * over the lane groups at each output time. Each row of the output file holds one record per link with
+ * the channels in the order of the Channel enum. The travel time of a stopped link is not finite, and is
+ * written as NaN.
+ */
+public class OutputLinkState extends AbstractOutputTimed {
+
+    public enum Channel {
+        flw,        // [veh/hr] over the last output interval
+        veh,        // [veh]
+        density,    // [veh/km]
+        speed,      // [km/hr]
+        tt          // [sec] instantaneous, NaN if the link has vehicles but nothing leaves it
+    }
+
+    public static final int num_channels = Channel.values().length;
+
+    public Link [] links;
+    private double [] length_km;
+    private double [] ffspeed_kph;
+
+    // lane groups of link i are lgs[lg_index[i]] ... lgs[lg_index[i+1]-1]
+    private AbstractLaneGroup [] lgs;
+    private FlowAccumulatorState [] flw_accs;
+    private int [] lg_index;
+
+    private double [] prev_count;
+    private double [] record;       // link-major, num_channels per link
+    private Float prev_time;
+
+    public Profile1D [][] profiles;  // [link][channel]
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputLinkState(Scenario scenario, String prefix, String output_folder, Long commodity_id, Collection<Long> link_ids, Float outDt) throws OTMException {
+        super(scenario,prefix,output_folder,commodity_id,outDt);
+        this.type = Type.link_state;
+
+        if(link_ids==null)
+            link_ids = scenario.network.links.keySet().stream().sorted().collect(Collectors.toList());
+
+        List<Link> linklist = new ArrayList<>();
+        for(Long link_id : new LinkedHashSet<>(link_ids)){
+            if(!scenario.network.links.containsKey(link_id))
+                throw new OTMException("Bad link id in output request");
+            linklist.add(scenario.network.links.get(link_id));
+        }
+        links = linklist.toArray(new Link[0]);
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return write_to_file ? super.get_output_file() + "_link_state.txt" : null;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfacePlottable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return "speed [km/hr]";
+    }
+
+    @Override
+    public void plot(String filename) throws OTMException {
+        plot_channel(Channel.speed,filename);
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        super.initialize(scenario);
+
+        Set<Long> commids = commodity==null ? null : OTMUtils.hashset(commodity.getId());
+
+        int n = links.length;
+        length_km = new double[n];
+        ffspeed_kph = new double[n];
+        lg_index = new int[n+1];
+        List<AbstractLaneGroup> lglist = new ArrayList<>();
+        for(int i=0;i<n;i++){
+            Link link = links[i];
+            length_km[i] = link.get_full_length() / 1000d;
+            lg_index[i] = lglist.size();
+            double ffspeed = Double.NaN;
+            for(AbstractLaneGroup lg : link.get_lgs()){
+                lglist.add(lg);
+                jaxb.Roadparam rp = lg.get_road_params();
+                if(rp!=null && (Double.isNaN(ffspeed) || rp.getSpeed()>ffspeed))
+                    ffspeed = rp.getSpeed();
+            }
+            ffspeed_kph[i] = ffspeed;
+        }
+        lg_index[n] = lglist.size();
+
+        lgs = lglist.toArray(new AbstractLaneGroup[0]);
+        flw_accs = new FlowAccumulatorState[lgs.length];
+        for(int j=0;j<lgs.length;j++)
+            flw_accs[j] = lgs[j].request_flow_accumulator(commids);
+
+        prev_count = new double[n];
+        record = new double[n*num_channels];
+        prev_time = null;
+
+        if(write_to_file){
+            try {
+                String filename = get_output_file();
+                if(filename!=null) {
+                    String subfilename = filename.substring(0,filename.length()-4);
+                    Writer cols_writer = new OutputStreamWriter(new FileOutputStream(subfilename + "_cols.txt"));
+                    for(Link link : links)
+                        for(Channel channel : Channel.values())
+                            cols_writer.write(link.getId() + "," + channel + "\n");
+                    cols_writer.close();
+                }
+            } catch (FileNotFoundException exc) {
+                throw new OTMException(exc);
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else {
+            profiles = new Profile1D[n][num_channels];
+            for(int i=0;i<n;i++)
+                for(int c=0;c<num_channels;c++)
+                    profiles[i][c] = new Profile1D(null,outDt);
+        }
+    }
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        if(links.length==0)
+            errorLog.addError("no links in output request");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void write(float timestamp) throws OTMException {
+        super.write(timestamp);
+
+        compute_record(timestamp);
+
+        if(write_to_file){
+            try {
+                for(int k=0;k<record.length;k++){
+                    if(k>0)
+                        writer.write(AbstractOutputTimed.delim);
+                    writer.write(String.format("%f",record[k]));
+                }
+                writer.write("\n");
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else {
+            for(int i=0;i<links.length;i++)
+                for(int c=0;c<num_channels;c++)
+                    profiles[i][c].add_entry(record[i*num_channels+c]);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // final
+    //////////////////////////////////////////////////////
+
+    public final Profile1D get_profile(long link_id,Channel channel){
+        if(profiles==null)
+            return null;
+        for(int i=0;i<links.length;i++)
+            if(links[i].getId()==link_id)
+                return profiles[i][channel.ordinal()];
+        return null;
+    }
+
+    public final void plot_channel(Channel channel,String filename) throws OTMException {
+        if(profiles==null)
+            throw new OTMException("Plot not available for outputs written to file.");
+        XYSeriesCollection dataset = new XYSeriesCollection();
+        for(int i=0;i<links.length;i++)
+            dataset.addSeries(profiles[i][channel.ordinal()].get_series(String.format("%d",links[i].getId())));
+        String title = String.format("%s %s, comm: %s", type.name(), channel, commodity==null ? "all" : commodity.name);
+        make_time_chart(dataset,title,channel.name(),filename);
+    }
+
+    //////////////////////////////////////////////////////
+    // static
+    //////////////////////////////////////////////////////
+
+    // [km/hr] flow over density, at most the free flow speed, which is also the speed of an empty link
+    static double speed(double flw,double veh,double length_km,double ffspeed_kph){
+        double density = length_km>0 ? veh/length_km : 0d;
+        double speed = density>OTMUtils.epsilon ? flw/density : ffspeed_kph;
+        if(!Double.isNaN(ffspeed_kph) && speed>ffspeed_kph)
+            speed = ffspeed_kph;
+        return speed;
+    }
+
+    //////////////////////////////////////////////////////
+    // private
+    //////////////////////////////////////////////////////
+
+    private void compute_record(float timestamp){
+
+        Long commid = commodity==null ? null : commodity.getId();
+        double dt_hr = prev_time==null ? 0d : (timestamp-prev_time)/3600d;
+        prev_time = timestamp;
+
+        for(int i=0;i<links.length;i++){
+
+            double veh = 0d;
+            double count = 0d;
+            for(int j=lg_index[i];j<lg_index[i+1];j++){
+                veh += lgs[j].get_total_vehicles_for_commodity(commid);
+                count += commid==null ? flw_accs[j].get_total_count() : flw_accs[j].get_count_for_commodity(commid);
+            }
+
+            double flw = dt_hr>0 ? (count-prev_count[i])/dt_hr : 0d;
+            prev_count[i] = count;
+
+            double density = veh / length_km[i];
+            double speed = speed(flw,veh,length_km[i],ffspeed_kph[i]);
+            double tt = speed>OTMUtils.epsilon ? 3600d*length_km[i]/speed : Double.NaN;
+
+            int k = i*num_channels;
+            record[k+Channel.flw.ordinal()] = flw;
+            record[k+Channel.veh.ordinal()] = veh;
+            record[k+Channel.density.ordinal()] = density;
+            record[k+Channel.speed.ordinal()] = speed;
+            record[k+Channel.tt.ordinal()] = tt;
+        }
+    }
+
+}
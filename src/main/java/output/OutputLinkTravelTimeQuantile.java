@@ -0,0 +1,67 @@
+package output;
+
+import core.Link;
+import error.OTMErrorLog;
+import error.OTMException;
+import core.Scenario;
+
+import java.util.Collection;
+
+/**
+ * A quantile of the travel times through each link, over all trips completed since the initialization. The
+ * values come from the quantile sketches of the link travel timers, so the links are added to the travel time
+ * manager with the output time step, which must equal that of the path travel time requests.
+ */
+public class OutputLinkTravelTimeQuantile extends AbstractOutputTimedLink {
+
+    public final double quantile;
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputLinkTravelTimeQuantile(Scenario scenario, String prefix, String output_folder, Collection<Long> link_ids, Float outDt, double quantile) throws OTMException {
+        super(scenario,prefix,output_folder,null,link_ids,outDt);
+        this.type = Type.link_tt_quantile;
+        this.quantile = quantile;
+        scenario.add_link_travel_times(linkprofiles.keySet(),outDt);
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return write_to_file ? super.get_output_file() + String.format("_tt_q%s.txt",Double.toString(quantile)) : null;
+    }
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        if(Double.isNaN(quantile) || quantile<0d || quantile>1d)
+            errorLog.addError("quantile must be between 0 and 1");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return "travel time [sec]";
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimedLink
+    //////////////////////////////////////////////////////
+
+    @Override
+    public double get_value_for_link(Long link_id) {
+        if(!linkprofiles.containsKey(link_id))
+            return Double.NaN;
+        Link link = linkprofiles.get(link_id).link;
+        return link.link_tt==null ? Double.NaN : link.link_tt.get_quantile(quantile);
+    }
+
+}
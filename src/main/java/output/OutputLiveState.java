@@ -0,0 +1,368 @@
+package output;
+
+import core.AbstractLaneGroup;
+import core.FlowAccumulatorState;
+import core.Link;
+import core.Scenario;
+import error.OTMErrorLog;
+import error.OTMException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Live state export to a memory-mapped file, for local readers such as dashboards.
+ * Every outDt seconds a snapshot of link and lane group vehicles, flows and speeds is written into the
+ * next slot of a fixed size ring. The writer never waits for readers. A reader copies the snapshot it wants
+ * and retries if the sequence number of the slot changed meanwhile (seqlock).
+ *
+ * Layout (little endian):
+ * <pre>
+ * header   [0,64)      int magic, int version, int num_links, int num_lgs, int num_slots, int slot_bytes,
+ *                      int ids_offset, int slots_offset, long seq, long num_snapshots, 16 bytes reserved
+ * ids      ids_offset  long link_id[num_links], long lg_id[num_lgs], int lg_link_index[num_lgs]
+ * slot k   slots_offset + k*slot_bytes
+ *                      long seq, float timestamp, int reserved,
+ *                      float link_veh[num_links], float link_flw[num_links], float link_speed[num_links],
+ *                      float lg_veh[num_lgs], float lg_flw[num_lgs], float lg_speed[num_lgs]
+ * </pre>
+ * seq is odd while the slot (or header) is being written. Snapshot n (counting from 1) is in slot (n-1)%num_slots.
+ * Vehicles are in [veh], flows in [veh/hr] over the last interval, speeds in [km/hr].
+ */
+public class OutputLiveState extends AbstractOutputTimed {
+
+    public static final int MAGIC = 0x4C4D544F;   // "OTML"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+    public static final int SLOT_HEADER_BYTES = 16;
+    public static final int DEFAULT_NUM_SLOTS = 64;
+
+    // header offsets
+    public static final int OFF_NUM_LINKS = 8;
+    public static final int OFF_NUM_LGS = 12;
+    public static final int OFF_NUM_SLOTS = 16;
+    public static final int OFF_SLOT_BYTES = 20;
+    public static final int OFF_IDS = 24;
+    public static final int OFF_SLOTS = 28;
+    public static final int OFF_SEQ = 32;
+    public static final int OFF_NUM_SNAPSHOTS = 40;
+
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public final int num_slots;
+    public final Link [] links;
+
+    private AbstractLaneGroup [] lgs;
+    private int [] lg_link_index;
+    private FlowAccumulatorState [] flw_accs;
+    private double [] lg_length_km;
+    private double [] lg_ffspeed_kph;
+    private double [] link_length_km;
+    private double [] link_ffspeed_kph;
+    private double [] prev_count;
+    private double [] link_veh;
+    private double [] link_flw;
+    private Float prev_time;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int slot_bytes;
+    private int slots_offset;
+    private long num_snapshots;
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputLiveState(Scenario scenario, String prefix, String output_folder, Collection<Long> link_ids, Float outDt, int num_slots) throws OTMException {
+        super(scenario,prefix,output_folder,null,outDt);
+        this.type = Type.live_state;
+
+        if(!write_to_file)
+            throw new OTMException("Live state output requires a prefix and an output folder.");
+        if(num_slots<1)
+            throw new OTMException("Live state output requires at least one slot.");
+        this.num_slots = num_slots;
+
+        if(link_ids==null)
+            link_ids = scenario.network.links.keySet().stream().sorted().collect(Collectors.toList());
+
+        List<Link> linklist = new ArrayList<>();
+        for(Long link_id : new LinkedHashSet<>(link_ids)){
+            if(!scenario.network.links.containsKey(link_id))
+                throw new OTMException("Bad link id in output request");
+            linklist.add(scenario.network.links.get(link_id));
+        }
+        links = linklist.toArray(new Link[0]);
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return output_folder + File.separator + prefix + "_live.bin";
+    }
+
+    @Override
+    public void open() throws OTMException {
+        // the mapping is created in initialize, once the lane groups are known
+    }
+
+    @Override
+    public void close() throws OTMException {
+        buffer = null;
+        try {
+            if(channel!=null)
+                channel.close();
+            if(file!=null)
+                file.close();
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+        channel = null;
+        file = null;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfacePlottable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return null;
+    }
+
+    @Override
+    public void plot(String filename) throws OTMException {
+        throw new OTMException("Plot not implemented for this output.");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        close();
+
+        int n = links.length;
+        link_length_km = new double[n];
+        link_ffspeed_kph = new double[n];
+        List<AbstractLaneGroup> lglist = new ArrayList<>();
+        List<Integer> lglinks = new ArrayList<>();
+        for(int i=0;i<n;i++){
+            Link link = links[i];
+            link_length_km[i] = link.get_full_length()/1000d;
+            link_ffspeed_kph[i] = Double.NaN;
+            for(AbstractLaneGroup lg : link.get_lgs()){
+                lglist.add(lg);
+                lglinks.add(i);
+            }
+        }
+        lgs = lglist.toArray(new AbstractLaneGroup[0]);
+        int m = lgs.length;
+        lg_link_index = lglinks.stream().mapToInt(x->x).toArray();
+        flw_accs = new FlowAccumulatorState[m];
+        lg_length_km = new double[m];
+        lg_ffspeed_kph = new double[m];
+        for(int j=0;j<m;j++){
+            AbstractLaneGroup lg = lgs[j];
+            flw_accs[j] = lg.request_flow_accumulator(null);
+            lg_length_km[j] = lg.get_length()/1000d;
+            jaxb.Roadparam rp = lg.get_road_params();
+            lg_ffspeed_kph[j] = rp==null ? Double.NaN : rp.getSpeed();
+            int i = lg_link_index[j];
+            if(!Double.isNaN(lg_ffspeed_kph[j]) && (Double.isNaN(link_ffspeed_kph[i]) || lg_ffspeed_kph[j]>link_ffspeed_kph[i]))
+                link_ffspeed_kph[i] = lg_ffspeed_kph[j];
+        }
+        prev_count = new double[m];
+        link_veh = new double[n];
+        link_flw = new double[n];
+        prev_time = null;
+        num_snapshots = 0;
+
+        // layout
+        int ids_offset = HEADER_BYTES;
+        int ids_bytes = 8*n + 8*m + 4*m;
+        slots_offset = align8(ids_offset + ids_bytes);
+        slot_bytes = align8(SLOT_HEADER_BYTES + 4*(3*n + 3*m));
+        long total_bytes = (long) slots_offset + (long) slot_bytes*num_slots;
+        if(total_bytes>Integer.MAX_VALUE)
+            throw new OTMException("Live state file is too large. Reduce the number of slots or links.");
+
+        try {
+            File f = new File(get_output_file());
+            f.delete();
+            file = new RandomAccessFile(f,"rw");
+            channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE,0,total_bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+
+        // header
+        buffer.putInt(0,MAGIC);
+        buffer.putInt(4,VERSION);
+        buffer.putInt(OFF_NUM_LINKS,n);
+        buffer.putInt(OFF_NUM_LGS,m);
+        buffer.putInt(OFF_NUM_SLOTS,num_slots);
+        buffer.putInt(OFF_SLOT_BYTES,slot_bytes);
+        buffer.putInt(OFF_IDS,ids_offset);
+        buffer.putInt(OFF_SLOTS,slots_offset);
+        LONG_HANDLE.setVolatile(buffer,OFF_NUM_SNAPSHOTS,0L);
+        LONG_HANDLE.setVolatile(buffer,OFF_SEQ,0L);
+
+        // ids
+        int pos = ids_offset;
+        for(Link link : links) {
+            buffer.putLong(pos, link.getId());
+            pos += 8;
+        }
+        for(AbstractLaneGroup lg : lgs) {
+            buffer.putLong(pos, lg.getId());
+            pos += 8;
+        }
+        for(int i : lg_link_index) {
+            buffer.putInt(pos, i);
+            pos += 4;
+        }
+    }
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        if(links.length==0)
+            errorLog.addError("no links in output request");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void write(float timestamp) throws OTMException {
+
+        if(buffer==null)
+            return;
+
+        int n = links.length;
+        int m = lgs.length;
+        int slot = (int) (num_snapshots % num_slots);
+        int base = slots_offset + slot*slot_bytes;
+        int off_link_veh = base + SLOT_HEADER_BYTES;
+        int off_link_flw = off_link_veh + 4*n;
+        int off_link_spd = off_link_flw + 4*n;
+        int off_lg_veh = off_link_spd + 4*n;
+        int off_lg_flw = off_lg_veh + 4*m;
+        int off_lg_spd = off_lg_flw + 4*m;
+
+        // begin write
+        long header_seq = (long) LONG_HANDLE.getVolatile(buffer,OFF_SEQ);
+        LONG_HANDLE.setVolatile(buffer,OFF_SEQ,header_seq+1);
+        long slot_seq = (long) LONG_HANDLE.getVolatile(buffer,base);
+        LONG_HANDLE.setVolatile(buffer,base,slot_seq | 1L);
+
+        // the plain payload writes below must not become visible before the odd marks
+        VarHandle.storeStoreFence();
+
+        buffer.putFloat(base+8,timestamp);
+
+        double dt_hr = prev_time==null ? 0d : (timestamp-prev_time)/3600d;
+        prev_time = timestamp;
+
+        Arrays.fill(link_veh,0d);
+        Arrays.fill(link_flw,0d);
+
+        for(int j=0;j<m;j++){
+            double veh = lgs[j].get_total_vehicles();
+            double count = flw_accs[j].get_total_count();
+            double flw = dt_hr>0 ? (count-prev_count[j])/dt_hr : 0d;
+            prev_count[j] = count;
+
+            int i = lg_link_index[j];
+            link_veh[i] += veh;
+            link_flw[i] += flw;
+
+            buffer.putFloat(off_lg_veh+4*j,(float) veh);
+            buffer.putFloat(off_lg_flw+4*j,(float) flw);
+            buffer.putFloat(off_lg_spd+4*j,(float) OutputLinkState.speed(flw,veh,lg_length_km[j],lg_ffspeed_kph[j]));
+        }
+
+        for(int i=0;i<n;i++){
+            buffer.putFloat(off_link_veh+4*i,(float) link_veh[i]);
+            buffer.putFloat(off_link_flw+4*i,(float) link_flw[i]);
+            buffer.putFloat(off_link_spd+4*i,(float) OutputLinkState.speed(link_flw[i],link_veh[i],link_length_km[i],link_ffspeed_kph[i]));
+        }
+
+        // end write
+        num_snapshots++;
+        LONG_HANDLE.setVolatile(buffer,base,(slot_seq | 1L) + 1L);
+        LONG_HANDLE.setVolatile(buffer,OFF_NUM_SNAPSHOTS,num_snapshots);
+        LONG_HANDLE.setVolatile(buffer,OFF_SEQ,header_seq+2);
+    }
+
+    //////////////////////////////////////////////////////
+    // final
+    //////////////////////////////////////////////////////
+
+    public final long get_num_snapshots(){
+        return num_snapshots;
+    }
+
+    //////////////////////////////////////////////////////
+    // static
+    //////////////////////////////////////////////////////
+
+    /** Read the latest snapshot from a live state buffer. Retries while the writer is busy.
+     * @param buffer A little endian view of the live state file.
+     * @return Array {timestamp, link_veh..., link_flw..., link_speed..., lg_veh..., lg_flw..., lg_speed...},
+     * or null if no snapshot has been written.
+     */
+    public static float [] read_latest(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int n = buffer.getInt(OFF_NUM_LINKS);
+        int m = buffer.getInt(OFF_NUM_LGS);
+        int num_slots = buffer.getInt(OFF_NUM_SLOTS);
+        int slot_bytes = buffer.getInt(OFF_SLOT_BYTES);
+        int slots_offset = buffer.getInt(OFF_SLOTS);
+        float [] x = new float[1 + 3*n + 3*m];
+        while(true){
+            long num = (long) LONG_HANDLE.getVolatile(buffer,OFF_NUM_SNAPSHOTS);
+            if(num==0)
+                return null;
+            int base = slots_offset + (int) ((num-1) % num_slots)*slot_bytes;
+            long seq0 = (long) LONG_HANDLE.getVolatile(buffer,base);
+            if((seq0 & 1L)!=0)
+                continue;
+            x[0] = buffer.getFloat(base+8);
+            for(int k=1;k<x.length;k++)
+                x[k] = buffer.getFloat(base + SLOT_HEADER_BYTES + 4*(k-1));
+            VarHandle.acquireFence();
+            long seq1 = (long) LONG_HANDLE.getVolatile(buffer,base);
+            if(seq0==seq1)
+                return x;
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // private
+    //////////////////////////////////////////////////////
+
+    private static int align8(int x){
+        return (x+7) & ~7;
+    }
+
+}
@@ -4,13 +4,25 @@ import commodity.Path;
 import error.OTMException;
 import profiles.Profile1D;
 import core.Scenario;
+import traveltime.LinkTravelTimeManager;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
 
 public class OutputPathTravelTime extends AbstractOutputTimedPath {
 
-    public boolean instantaneous = true;
+    // instantaneous: sum of the current link travel times.
+    // predictive: walk the path departing at the output time. Links entered after the last update use the
+    //             travel times of the previous run (before the last reset) at the entry time, if any.
+    // experienced: walk the path departing at each output time, written once the trip would have ended.
+    //              Values are indexed by departure time. Trips still open at the end are closed with the
+    //              last link travel times when the output is closed.
+    public enum Mode {instantaneous,predictive,experienced}
+
+    public Mode mode = Mode.instantaneous;
+
+    private ArrayDeque<Float> pending_departures;
 
     //////////////////////////////////////////////////////
     // construction
@@ -19,6 +31,12 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     public OutputPathTravelTime(Scenario scenario, String prefix, String output_folder, Long subnetwork_id, Float outDt) throws OTMException {
         super(scenario, prefix, output_folder, null, subnetwork_id, outDt);
         this.type = Type.path_travel_time;
+        this.pending_departures = new ArrayDeque<>();
+    }
+
+    public OutputPathTravelTime(Scenario scenario, String prefix, String output_folder, Long subnetwork_id, Float outDt, Mode mode) throws OTMException {
+        this(scenario, prefix, output_folder, subnetwork_id, outDt);
+        this.mode = mode;
     }
 
     //////////////////////////////////////////////////////
@@ -28,10 +46,18 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     @Override
     public void initialize(Scenario scenario) throws OTMException {
         super.initialize(scenario);
+        pending_departures.clear();
         if(!write_to_file)
             profile = new Profile1D(0f,outDt);
     }
 
+    @Override
+    public void close() throws OTMException {
+        while(!pending_departures.isEmpty())
+            add_value(LinkTravelTimeManager.get_path_travel_time(path.get_ordered_links(),pending_departures.poll()));
+        super.close();
+    }
+
     @Override
     public String get_output_file() {
         return write_to_file ? super.get_output_file() + "_path_tt.txt" : null;
@@ -44,19 +70,23 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     @Override
     public void write(float timestamp) throws OTMException {
         super.write(timestamp);
-
-        double travel_time = instantaneous ?
-                compute_instantaneous_travel_time() :
-                compute_predictive_travel_time(0f);
-
-        if(write_to_file){
-            try {
-                writer.write(String.format("%f\n",travel_time));
-            } catch (IOException e) {
-                throw new OTMException(e);
-            }
-        } else {
-            profile.add_entry(travel_time);
+        switch(mode){
+            case instantaneous:
+                add_value(compute_instantaneous_travel_time());
+                break;
+            case predictive:
+                add_value(compute_predictive_travel_time(timestamp));
+                break;
+            case experienced:
+                pending_departures.add(timestamp);
+                while(!pending_departures.isEmpty()){
+                    double travel_time = LinkTravelTimeManager.get_path_travel_time(path.get_ordered_links(),pending_departures.peek());
+                    if(pending_departures.peek()+travel_time>timestamp)
+                        break;
+                    pending_departures.poll();
+                    add_value(travel_time);
+                }
+                break;
         }
     }
 
@@ -73,12 +103,8 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     // final
     //////////////////////////////////////////////////////
 
-    public final double compute_predictive_travel_time(float start_time){
-//        float curr_time = start_time;
-//        for(Link link:path.ordered_links)
-//            curr_time += link.link_tt.get_value_for_time(curr_time);
-//        return (double) (curr_time-start_time);
-        return 0d;
+    public final double compute_predictive_travel_time(float start_time) throws OTMException {
+        return LinkTravelTimeManager.get_path_predicted_travel_time(path.get_ordered_links(),start_time);
     }
 
     public final List<Double> get_travel_times_sec(){
@@ -125,6 +151,18 @@ public class OutputPathTravelTime extends AbstractOutputTimedPath {
     // private
     //////////////////////////////////////////////////////
 
+    private void add_value(double travel_time) throws OTMException {
+        if(write_to_file){
+            try {
+                writer.write(String.format("%f\n",travel_time));
+            } catch (IOException e) {
+                throw new OTMException(e);
+            }
+        } else {
+            profile.add_entry(travel_time);
+        }
+    }
+
     private double compute_instantaneous_travel_time(){
         return path.get_ordered_links().stream().
                 mapToDouble(link->link.link_tt.instantaneous_travel_time)
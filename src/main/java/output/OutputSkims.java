@@ -0,0 +1,276 @@
+package output;
+
+import core.Scenario;
+import error.OTMErrorLog;
+import error.OTMException;
+import routing.RoadGraph;
+import routing.ShortestPathEngine;
+import routing.TimerLinkCost;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Travel time and distance skims between a set of zone centroid nodes, computed inside the simulation every
+ * outDt seconds from the current link travel times (see ShortestPathEngine.node_skims). All links are added to
+ * the travel time manager; links are costed with their latest measured travel time, or the free flow travel
+ * time before the first measurement. One-to-all searches from the origins run on num_threads threads.
+ *
+ * The latest matrices are kept in memory. With a prefix and an output folder, every interval is also appended
+ * to [output_folder]/[prefix]_skims.bin. Layout (little endian):
+ * <pre>
+ * header   [0,16)      int magic, int version, int num_nodes, int reserved
+ * ids      16          long node_id[num_nodes]
+ * record k 16 + 8*num_nodes + k*(4 + 8*num_nodes^2)
+ *                      float timestamp, float time[num_nodes^2], float distance[num_nodes^2]
+ * </pre>
+ * Matrices are row major (origin*num_nodes + destination), times in seconds and distances in meters. NaN means
+ * that there is no path.
+ */
+public class OutputSkims extends AbstractOutputTimed {
+
+    public static final int MAGIC = 0x4B4D544F;   // "OTMK"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+
+    public final long [] node_ids;
+    public final int num_threads;
+
+    private ShortestPathEngine engine;
+    private final float [] time;
+    private final float [] distance;
+    private final Map<Long,Integer> node_index;
+    private float timestamp;
+
+    private FileChannel channel;
+    private ByteBuffer record;
+
+    //////////////////////////////////////////////////////
+    // construction
+    //////////////////////////////////////////////////////
+
+    public OutputSkims(Scenario scenario, String prefix, String output_folder, Collection<Long> node_ids, Float outDt, int num_threads) throws OTMException {
+        super(scenario,prefix,output_folder,null,outDt);
+        this.type = Type.skims;
+        this.num_threads = num_threads;
+
+        if(node_ids==null)
+            node_ids = new TreeSet<>(scenario.network.nodes.keySet());
+
+        node_index = new HashMap<>();
+        for(Long node_id : node_ids){
+            if(!scenario.network.nodes.containsKey(node_id))
+                throw new OTMException("Bad node id in skim request: " + node_id);
+            node_index.putIfAbsent(node_id,node_index.size());
+        }
+        this.node_ids = new long[node_index.size()];
+        for(Map.Entry<Long,Integer> e : node_index.entrySet())
+            this.node_ids[e.getValue()] = e.getKey();
+
+        int n = this.node_ids.length;
+        time = new float[n*n];
+        distance = new float[n*n];
+        Arrays.fill(time,Float.NaN);
+        Arrays.fill(distance,Float.NaN);
+        timestamp = Float.NaN;
+
+        if(outDt!=null && outDt>0f) {
+            float tt_dt = scenario.path_tt_manager==null || Float.isNaN(scenario.path_tt_manager.dt) ? outDt : scenario.path_tt_manager.dt;
+            scenario.add_link_travel_times(scenario.network.links.keySet(),tt_dt);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfaceOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_output_file() {
+        return write_to_file ? output_folder + File.separator + prefix + "_skims.bin" : null;
+    }
+
+    @Override
+    public void open() throws OTMException {
+        if(!write_to_file)
+            return;
+        int n = node_ids.length;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8*n).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(n);
+        header.putInt(0);
+        for(long id : node_ids)
+            header.putLong(id);
+        header.flip();
+        record = ByteBuffer.allocate(4 + 8*n*n).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            channel = new FileOutputStream(get_output_file()).getChannel();
+            while(header.hasRemaining())
+                channel.write(header);
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    @Override
+    public void close() throws OTMException {
+        try {
+            if(channel!=null)
+                channel.close();
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+        channel = null;
+    }
+
+    //////////////////////////////////////////////////////
+    // InterfacePlottable
+    //////////////////////////////////////////////////////
+
+    @Override
+    public String get_yaxis_label() {
+        return null;
+    }
+
+    @Override
+    public void plot(String filename) throws OTMException {
+        throw new OTMException("Plot not implemented for this output.");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutput
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void initialize(Scenario scenario) throws OTMException {
+        super.initialize(scenario);
+        if(engine==null)
+            engine = new ShortestPathEngine(new RoadGraph(scenario.network),new TimerLinkCost());
+        Arrays.fill(time,Float.NaN);
+        Arrays.fill(distance,Float.NaN);
+        timestamp = Float.NaN;
+    }
+
+    @Override
+    public void validate_post_init(OTMErrorLog errorLog) {
+        super.validate_post_init(errorLog);
+        if(node_ids.length==0)
+            errorLog.addError("no nodes in skim request");
+        if(num_threads<1)
+            errorLog.addError("skims need at least one thread");
+    }
+
+    //////////////////////////////////////////////////////
+    // AbstractOutputTimed
+    //////////////////////////////////////////////////////
+
+    @Override
+    public void write(float timestamp) throws OTMException {
+
+        engine.node_skims(node_ids,timestamp,num_threads,time,distance);
+        this.timestamp = timestamp;
+
+        if(channel==null)
+            return;
+        record.clear();
+        record.putFloat(timestamp);
+        for(float x : time)
+            record.putFloat(x);
+        for(float x : distance)
+            record.putFloat(x);
+        record.flip();
+        try {
+            while(record.hasRemaining())
+                channel.write(record);
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // get
+    //////////////////////////////////////////////////////
+
+    // time of the latest skims, NaN before the first interval
+    public float get_timestamp(){
+        return timestamp;
+    }
+
+    // latest travel time in seconds between two centroids
+    public float get_travel_time(long origin_node_id,long destination_node_id) throws OTMException {
+        return time[get_entry(origin_node_id,destination_node_id)];
+    }
+
+    // latest length in meters of the fastest path between two centroids
+    public float get_distance(long origin_node_id,long destination_node_id) throws OTMException {
+        return distance[get_entry(origin_node_id,destination_node_id)];
+    }
+
+    //////////////////////////////////////////////////////
+    // static
+    //////////////////////////////////////////////////////
+
+    /** Contents of a skim file. */
+    public static class SkimFile {
+        public long [] node_ids;
+        public float [] timestamps;
+        public float [][] time;         // record -> row major matrix
+        public float [][] distance;     // record -> row major matrix
+    }
+
+    /** Read all records of a skim file.
+     * @param filename Path to a file written by this output.
+     * @return SkimFile
+     * @throws OTMException If the file cannot be read or is not a skim file.
+     */
+    public static SkimFile read(String filename) throws OTMException {
+        try (FileChannel in = new FileInputStream(filename).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) in.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining() && in.read(buffer)>=0);
+            buffer.flip();
+            if(buffer.remaining()<HEADER_BYTES || buffer.getInt()!=MAGIC)
+                throw new OTMException("Not a skim file: " + filename);
+            if(buffer.getInt()!=VERSION)
+                throw new OTMException("Unsupported skim file version: " + filename);
+            int n = buffer.getInt();
+            buffer.getInt();
+            SkimFile x = new SkimFile();
+            x.node_ids = new long[n];
+            for(int i=0;i<n;i++)
+                x.node_ids[i] = buffer.getLong();
+            int num_records = buffer.remaining()/(4 + 8*n*n);
+            x.timestamps = new float[num_records];
+            x.time = new float[num_records][n*n];
+            x.distance = new float[num_records][n*n];
+            for(int k=0;k<num_records;k++){
+                x.timestamps[k] = buffer.getFloat();
+                buffer.asFloatBuffer().get(x.time[k]);
+                buffer.position(buffer.position()+4*n*n);
+                buffer.asFloatBuffer().get(x.distance[k]);
+                buffer.position(buffer.position()+4*n*n);
+            }
+            return x;
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+    // private
+    //////////////////////////////////////////////////////
+
+    private int get_entry(long origin_node_id,long destination_node_id) throws OTMException {
+        Integer i = node_index.get(origin_node_id);
+        Integer j = node_index.get(destination_node_id);
+        if(i==null || j==null)
+            throw new OTMException(String.format("No skims from node %d to node %d.",origin_node_id,destination_node_id));
+        return i*node_ids.length + j;
+    }
+
+}
@@ -0,0 +1,122 @@
+package output;
+
+import error.OTMException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Row encoder for link and lane group outputs that writes only the elements that changed. A row is either
+ * a keyframe with all values,
+ *     d,v0,v1,...,vn-1
+ * or a delta with (index,value) pairs for the elements that moved more than the threshold since they were
+ * last written,
+ *     s,i,vi,j,vj,...
+ * The first row and every keyframe_period-th row after it are keyframes. Values are compared against the
+ * last written value, not the last sample, so the reconstructed matrix is always within the threshold of
+ * the dense one.
+ */
+public class SparseEncoder {
+
+    public static final char KEYFRAME = 'd';
+    public static final char DELTA = 's';
+    public static final int DEFAULT_KEYFRAME_PERIOD = 10;
+
+    public final double threshold;
+    public final int keyframe_period;
+
+    public double [] values;        // filled by the output before each write
+    private double [] last;
+    private int row;
+
+    public SparseEncoder(double threshold,int keyframe_period) throws OTMException {
+        if(threshold<0 || Double.isNaN(threshold))
+            throw new OTMException("Sparse threshold must be non-negative.");
+        if(keyframe_period<1)
+            throw new OTMException("Keyframe period must be positive.");
+        this.threshold = threshold;
+        this.keyframe_period = keyframe_period;
+    }
+
+    public void initialize(int num_elements){
+        values = new double[num_elements];
+        last = new double[num_elements];
+        row = 0;
+    }
+
+    public void write(Writer writer) throws IOException {
+        boolean keyframe = row % keyframe_period == 0;
+        row++;
+        if(keyframe){
+            writer.write(KEYFRAME);
+            for(int i=0;i<values.length;i++){
+                writer.write(AbstractOutputTimed.delim);
+                writer.write(String.format("%f",values[i]));
+                last[i] = values[i];
+            }
+        } else {
+            writer.write(DELTA);
+            for(int i=0;i<values.length;i++){
+                if(!changed(last[i],values[i]))
+                    continue;
+                writer.write(AbstractOutputTimed.delim);
+                writer.write(String.format("%d%s%f",i,AbstractOutputTimed.delim,values[i]));
+                last[i] = values[i];
+            }
+        }
+        writer.write("\n");
+    }
+
+    ////////////////////////////////////////////
+    // reader
+    ////////////////////////////////////////////
+
+    /**
+     * Reconstruct the dense [time][element] matrix from a sparse output file.
+     */
+    public static double [][] read_dense(String filename) throws OTMException {
+        List<double[]> rows = new ArrayList<>();
+        double [] current = null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while((line=reader.readLine())!=null){
+                if(line.isEmpty())
+                    continue;
+                String [] tokens = line.split(AbstractOutputTimed.delim);
+                switch(tokens[0].charAt(0)){
+                    case KEYFRAME:
+                        current = new double[tokens.length-1];
+                        for(int i=1;i<tokens.length;i++)
+                            current[i-1] = Double.parseDouble(tokens[i]);
+                        break;
+                    case DELTA:
+                        if(current==null)
+                            throw new OTMException("Sparse row before first keyframe in " + filename);
+                        current = Arrays.copyOf(current,current.length);
+                        for(int k=1;k+1<tokens.length;k+=2)
+                            current[Integer.parseInt(tokens[k])] = Double.parseDouble(tokens[k+1]);
+                        break;
+                    default:
+                        throw new OTMException("Bad row marker in " + filename);
+                }
+                rows.add(current);
+            }
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+        return rows.toArray(new double[0][]);
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    private boolean changed(double a,double b){
+        if(Double.isNaN(a) || Double.isNaN(b))
+            return Double.isNaN(a)!=Double.isNaN(b);
+        return Math.abs(b-a)>threshold;
+    }
+
+}
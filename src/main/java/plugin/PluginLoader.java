@@ -4,6 +4,7 @@ import control.AbstractController;
 import error.OTMException;
 import core.AbstractModel;
 import core.Scenario;
+import core.ScenarioContext;
 import utils.StochasticProcess;
 
 import java.io.File;
@@ -12,15 +13,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
-import java.util.Map;
 
 public class PluginLoader {
 
-    public static Map<String,Class<AbstractModel>> model_plugins = new HashMap<>();
-    public static Map<String,Class<AbstractController>> controller_plugins = new HashMap<>();
-
-    public static void load_plugins( jaxb.Plugins plugins ) throws OTMException {
+    // loaded classes are registered in the context of the scenario being built
+    public static void load_plugins( jaxb.Plugins plugins, ScenarioContext context ) throws OTMException {
 
         if(plugins==null)
             return;
@@ -34,9 +31,9 @@ public class PluginLoader {
                 Class clazz = cl.loadClass(clazz_name);
 
                 if(AbstractModel.class.isAssignableFrom(clazz)){
-                    model_plugins.put(plugin.getName(), clazz);
+                    context.model_plugins.put(plugin.getName(), clazz);
                 } else if(AbstractController.class.isAssignableFrom(clazz)){
-                    controller_plugins.put(plugin.getName(), clazz);
+                    context.controller_plugins.put(plugin.getName(), clazz);
                 } else {
                     throw new OTMException(String.format("Plugin %s does not extend either AbstractModel or AbstractController.",plugin.getName()));
                 }
@@ -52,7 +49,7 @@ public class PluginLoader {
     public static AbstractController get_controller_instance(String plugin_name, Scenario scenario, jaxb.Controller jaxb_controller) throws OTMException {
 
         try {
-            Class<AbstractModel> xxx = model_plugins.get("ctmplugin");
+            Class<AbstractModel> xxx = scenario.context.model_plugins.get("ctmplugin");
             Class[] cArg = new Class[4];
             cArg[0] = AbstractModel.Type.class;
             cArg[1] = String.class;
@@ -109,13 +106,13 @@ public class PluginLoader {
 //    }
     }
 
-    public static AbstractModel get_model_instance(jaxb.Model jaxb_model,StochasticProcess process) throws OTMException {
+    public static AbstractModel get_model_instance(jaxb.Model jaxb_model,StochasticProcess process,ScenarioContext context) throws OTMException {
 
         String plugin_name = jaxb_model.getType();
 
         try {
 
-            Class<AbstractModel> xxx = model_plugins.get(plugin_name);
+            Class<AbstractModel> xxx = context.model_plugins.get(plugin_name);
             Class[] cArg = new Class[4];
             cArg[0] = String.class;                // String name
             cArg[1] = boolean.class;               // boolean is_default
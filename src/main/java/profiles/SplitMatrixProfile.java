@@ -9,6 +9,7 @@ import dispatch.Dispatcher;
 import dispatch.EventSplitChange;
 import core.Node;
 import core.Scenario;
+import utils.AliasTable;
 import utils.OTMUtils;
 
 import java.util.*;
@@ -24,7 +25,7 @@ public class SplitMatrixProfile {
     public Map<Long,Double> outlink2split;         // output link id -> split
     public Set<Long> outlinks_without_splits;
     public double total_split;
-    private List<LinkCumSplit> link_cumsplit;      // output link id -> cummulative split
+    private AliasTable alias_table;                // rebuilt on every split change
 
     ////////////////////////////////////////////
     // construction
@@ -91,16 +92,10 @@ public class SplitMatrixProfile {
     // get current values
     ////////////////////////
 
-    // return an output link id according to split ratios for this commodity and line
+    // return an output link id according to split ratios for this commodity and line, with one draw from the
+    // generator of the link's model
     public Long sample_output_link(){
-
-        double r = OTMUtils.random_zero_to_one();
-
-        Optional<LinkCumSplit> z = link_cumsplit.stream()
-                .filter(x->x.cumsplit<r)  // get all cumsplit < out
-                .reduce((a,b)->b);        // get last such vauue
-
-        return z.isPresent() ? z.get().link_id : null;
+        return alias_table.sample(link_in.get_model().get_random());
     }
 
     ///////////////////////////////////////////
@@ -138,14 +133,19 @@ public class SplitMatrixProfile {
             }
         }
 
-        if(outlink2split.size()<=1)
-            return;
-
-        float s = 0f;
-        link_cumsplit = new ArrayList<>();
-        for(Map.Entry<Long,Double> e : outlink2split.entrySet()){
-            link_cumsplit.add(new LinkCumSplit(e.getKey(),s));
-            s += e.getValue();
+        // the remainder is shared evenly by the links without splits, as in the fluid split of packets
+        Map<Long,Double> weights = new HashMap<>(outlink2split);
+        if(total_split<1d && !outlinks_without_splits.isEmpty())
+            for(Long link_id : outlinks_without_splits)
+                weights.put(link_id,(1d-total_split)/outlinks_without_splits.size());
+        alias_table = new AliasTable(weights);
+
+        // all splits are zero: choose uniformly
+        if(alias_table.is_empty()){
+            weights.clear();
+            for(Long link_id : link_in.get_outlink_ids())
+                weights.put(link_id,1d);
+            alias_table = new AliasTable(weights);
         }
 
     }
@@ -223,17 +223,4 @@ public class SplitMatrixProfile {
     public Link get_link_in(){
         return link_in;
     }
-
-    ///////////////////////////////////////////
-    // class
-    ///////////////////////////////////////////
-
-    private class LinkCumSplit{
-        public Long link_id;
-        public Float cumsplit;
-        public LinkCumSplit(Long link_id, Float cumsplit) {
-            this.link_id = link_id;
-            this.cumsplit = cumsplit;
-        }
-    }
 }
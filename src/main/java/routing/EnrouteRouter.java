@@ -0,0 +1,175 @@
+package routing;
+
+import core.Link;
+import core.Scenario;
+import dispatch.Dispatcher;
+import dispatch.EventRefreshRoutes;
+import models.vehicle.spatialq.ModelSpatialQ;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * En-route routing of vehicles of the spatial queue model. A fraction of the vehicles of each configured
+ * (pathless) commodity is given a destination when it is created, sampled by following the splits from its
+ * origin to a sink. At each node these vehicles take the next link of the fastest path to their destination,
+ * read from a next-hop table instead of the splits. The other vehicles follow the splits.
+ *
+ * The table is rebuilt every refresh_dt seconds from the current link travel times (the free flow travel
+ * time for links without a measurement). With background refresh, the costs are copied on the simulation
+ * thread and the table is built on a separate thread and published when it is ready; until then the
+ * previous table is used. The simulation thread only reads the published table, without locks. Runs with
+ * background refresh are not exactly reproducible, since the time at which a new table is published
+ * depends on the machine.
+ */
+public class EnrouteRouter {
+
+    public final Scenario scenario;
+    public final float refresh_dt;
+    public final boolean background;
+
+    private final Map<Long,Double> comm2fraction = new HashMap<>();
+    private RoadGraph graph;
+    private int [] destinations;                // graph indices of the sinks
+
+    private volatile NextHopTable table;
+    private ExecutorService executor;
+    private Future<?> pending;
+    private long generation;                    // incremented at initialization, discards stale tables
+
+    public EnrouteRouter(Scenario scenario,float refresh_dt,boolean background){
+        this.scenario = scenario;
+        this.refresh_dt = refresh_dt;
+        this.background = background;
+    }
+
+    public void set_fraction(long commodity_id,double fraction){
+        comm2fraction.put(commodity_id,fraction);
+    }
+
+    public double get_fraction(long commodity_id){
+        return comm2fraction.getOrDefault(commodity_id,0d);
+    }
+
+    ////////////////////////////////////////////
+    // refresh
+    ////////////////////////////////////////////
+
+    public void initialize(Dispatcher dispatcher){
+        if(graph==null){
+            graph = new RoadGraph(scenario.network);
+            destinations = Arrays.stream(graph.links)
+                    .filter(Link::is_sink)
+                    .mapToInt(link->graph.find_index(link.getId()))
+                    .toArray();
+        }
+        synchronized (this) {
+            generation++;
+            table = new NextHopTable(graph,destinations,get_costs());
+        }
+        dispatcher.register_event(new EventRefreshRoutes(dispatcher,dispatcher.current_time+refresh_dt,this));
+    }
+
+    // called by EventRefreshRoutes
+    public void refresh(float now){
+        double [] costs = get_costs();
+        if(!background)
+            table = new NextHopTable(graph,destinations,costs);
+        else if(pending==null || pending.isDone()){
+            if(executor==null)
+                executor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r,"otm-routing");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            long gen = generation;
+            pending = executor.submit(() -> publish(gen,new NextHopTable(graph,destinations,costs)));
+        }
+        scenario.dispatcher.register_event(new EventRefreshRoutes(scenario.dispatcher,now+refresh_dt,this));
+    }
+
+    public void terminate(){
+        if(executor!=null)
+            executor.shutdownNow();
+        executor = null;
+        pending = null;
+    }
+
+    public NextHopTable get_table(){
+        return table;
+    }
+
+    ////////////////////////////////////////////
+    // vehicles
+    ////////////////////////////////////////////
+
+    // Destination link of a vehicle created on the origin link, or null if the vehicle follows the splits.
+    public Long sample_destination(Link origin,long commodity_id){
+        double fraction = get_fraction(commodity_id);
+        if(fraction<=0d || !(origin.get_model() instanceof ModelSpatialQ))
+            return null;
+        Random random = origin.get_model().get_random();
+        if(random.nextDouble()>=fraction)
+            return null;
+        Link link = origin;
+        for(int i=0;i<=graph.num_links() && link!=null;i++){
+            if(link.is_sink())
+                return link.getId();
+            Long next_link_id = sample_split(link,commodity_id,random);
+            link = next_link_id==null ? null : scenario.network.links.get(next_link_id);
+        }
+        return null;
+    }
+
+    // Link to take after the given one toward the destination, or null if there is no table entry and the
+    // splits should be used.
+    public Long get_next_link(Link link,long destination_link_id){
+        if(!(link.get_model() instanceof ModelSpatialQ))
+            return null;
+        NextHopTable t = table;
+        int i = graph.find_index(link.getId());
+        int d = graph.find_index(destination_link_id);
+        if(t==null || i<0 || d<0)
+            return null;
+        int j = t.get_next(i,d);
+        if(j<0)
+            return null;
+        long next_link_id = graph.links[j].getId();
+        return link.get_lanegroups_for_outlink(next_link_id)==null ? null : next_link_id;
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    private double [] get_costs(){
+        double [] costs = new double[graph.num_links()];
+        for(int i=0;i<costs.length;i++){
+            Link link = graph.links[i];
+            double c = link.link_tt==null ? Double.NaN : link.link_tt.instantaneous_travel_time;
+            costs[i] = Math.max(0d,Double.isNaN(c) ? link.get_ff_travel_time() : c);
+        }
+        return costs;
+    }
+
+    private synchronized void publish(long gen,NextHopTable new_table){
+        if(gen==generation)
+            table = new_table;
+    }
+
+    // next link from the splits of the commodity, or uniformly among the next links if it has none
+    private static Long sample_split(Link link,long commodity_id,Random random){
+        List<Long> next_link_ids = new ArrayList<>(link.get_outlink_ids());
+        if(next_link_ids.isEmpty())
+            return null;
+        if(next_link_ids.size()==1)
+            return next_link_ids.get(0);
+        if(link.get_splits_for_commodity(commodity_id)!=null)
+            return link.sample_next_link(commodity_id);
+        Collections.sort(next_link_ids);
+        return next_link_ids.get(random.nextInt(next_link_ids.size()));
+    }
+
+}
@@ -0,0 +1,20 @@
+package routing;
+
+import core.Link;
+
+/**
+ * Free flow travel times. Time independent.
+ */
+public class FreeFlowLinkCost implements LinkCost {
+
+    @Override
+    public double get_travel_time(Link link,double entry_time) {
+        return link.get_ff_travel_time();
+    }
+
+    @Override
+    public double get_min_travel_time(Link link) {
+        return link.get_ff_travel_time();
+    }
+
+}
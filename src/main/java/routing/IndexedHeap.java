@@ -0,0 +1,92 @@
+package routing;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the integers 0..n-1 with decrease-key. Keys are doubles.
+ */
+public class IndexedHeap {
+
+    private final int [] heap;      // heap position -> item
+    private final int [] position;  // item -> heap position, -1 if not in the heap
+    private final double [] key;
+    private int size;
+
+    public IndexedHeap(int n){
+        heap = new int[n];
+        position = new int[n];
+        key = new double[n];
+        clear();
+    }
+
+    public void clear(){
+        Arrays.fill(position,-1);
+        size = 0;
+    }
+
+    public boolean is_empty(){
+        return size==0;
+    }
+
+    public boolean contains(int item){
+        return position[item]>=0;
+    }
+
+    // insert the item, or lower its key if it is already in the heap with a larger key
+    public void push_or_decrease(int item,double k){
+        if(position[item]<0){
+            heap[size] = item;
+            position[item] = size;
+            key[item] = k;
+            sift_up(size++);
+        } else if(k<key[item]){
+            key[item] = k;
+            sift_up(position[item]);
+        }
+    }
+
+    public int pop(){
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if(size>0){
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            sift_down(0);
+        }
+        return top;
+    }
+
+    private void sift_up(int i){
+        int item = heap[i];
+        while(i>0){
+            int parent = (i-1)/2;
+            if(key[heap[parent]]<=key[item])
+                break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+
+    private void sift_down(int i){
+        int item = heap[i];
+        while(true){
+            int child = 2*i+1;
+            if(child>=size)
+                break;
+            if(child+1<size && key[heap[child+1]]<key[heap[child]])
+                child++;
+            if(key[item]<=key[heap[child]])
+                break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+
+}
@@ -0,0 +1,17 @@
+package routing;
+
+import core.Link;
+
+/**
+ * Time-dependent link cost used by the shortest path engine. Costs are travel times in seconds, and must
+ * satisfy the first-in-first-out property: entering later never means leaving earlier.
+ */
+public interface LinkCost {
+
+    // travel time of a vehicle that enters the link at the given time
+    double get_travel_time(Link link,double entry_time);
+
+    // a lower bound of get_travel_time over all entry times, used by the A* heuristic
+    double get_min_travel_time(Link link);
+
+}
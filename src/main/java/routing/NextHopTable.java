@@ -0,0 +1,61 @@
+package routing;
+
+import java.util.Arrays;
+
+/**
+ * For each destination link, the successor to take when leaving each link, on the fastest path for a fixed
+ * set of link costs. Built by one backward Dijkstra search per destination. Instances are not modified
+ * after construction, so they can be shared with other threads once published.
+ */
+public class NextHopTable {
+
+    public final RoadGraph graph;
+    private final int [] dest_row;      // graph index -> row in next, -1 if not a destination
+    private final int [][] next;        // row -> graph index -> graph index of the next link, -1 if none
+
+    // costs[i] is the time to traverse graph.links[i]
+    public NextHopTable(RoadGraph graph,int [] destinations,double [] costs){
+        this.graph = graph;
+        int n = graph.num_links();
+        dest_row = new int[n];
+        Arrays.fill(dest_row,-1);
+        next = new int[destinations.length][];
+
+        double [] time_to_go = new double[n];   // from leaving a link to leaving the destination
+        IndexedHeap heap = new IndexedHeap(n);
+        for(int r=0;r<destinations.length;r++){
+            int d = destinations[r];
+            dest_row[d] = r;
+            int [] row = new int[n];
+            Arrays.fill(row,-1);
+            Arrays.fill(time_to_go,Double.POSITIVE_INFINITY);
+            heap.clear();
+            time_to_go[d] = 0d;
+            heap.push_or_decrease(d,0d);
+            while(!heap.is_empty()){
+                int u = heap.pop();
+                double t = time_to_go[u] + costs[u];
+                for(int e=graph.in_offsets[u];e<graph.in_offsets[u+1];e++){
+                    int w = graph.sources[e];
+                    if(t<time_to_go[w]){
+                        time_to_go[w] = t;
+                        row[w] = u;
+                        heap.push_or_decrease(w,t);
+                    }
+                }
+            }
+            next[r] = row;
+        }
+    }
+
+    public boolean is_destination(int link_index){
+        return dest_row[link_index]>=0;
+    }
+
+    // graph index of the link to take after the given one toward the destination, -1 if there is none
+    public int get_next(int link_index,int destination_index){
+        int r = dest_row[destination_index];
+        return r<0 ? -1 : next[r][link_index];
+    }
+
+}
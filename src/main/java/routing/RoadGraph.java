@@ -0,0 +1,82 @@
+package routing;
+
+import core.Link;
+import core.Network;
+import core.RoadConnection;
+import error.OTMException;
+
+import java.util.*;
+
+/**
+ * Link-to-link connectivity of a network in compressed sparse row form. Graph vertices are links, and there is
+ * an edge from link a to link b if a road connection goes from a to b. Links are numbered in increasing id
+ * order; the successors of link i are targets[offsets[i]] ... targets[offsets[i+1]-1], and its predecessors
+ * are sources[in_offsets[i]] ... sources[in_offsets[i+1]-1].
+ */
+public class RoadGraph {
+
+    public final Link [] links;
+    public final int [] offsets;
+    public final int [] targets;
+    public final int [] in_offsets;
+    public final int [] sources;
+    private final Map<Long,Integer> index;
+
+    public RoadGraph(Network network){
+
+        List<Link> ordered = new ArrayList<>(network.links.values());
+        ordered.sort(Comparator.comparing(Link::getId));
+        links = ordered.toArray(new Link[0]);
+        index = new HashMap<>();
+        for(int i=0;i<links.length;i++)
+            index.put(links[i].getId(),i);
+
+        // distinct successors of each link, sorted
+        List<SortedSet<Integer>> successors = new ArrayList<>();
+        for(int i=0;i<links.length;i++)
+            successors.add(new TreeSet<>());
+        for(RoadConnection rc : network.road_connections.values())
+            if(rc.get_start_link()!=null && rc.get_end_link()!=null)
+                successors.get(index.get(rc.get_start_link().getId())).add(index.get(rc.get_end_link().getId()));
+
+        offsets = new int[links.length+1];
+        for(int i=0;i<links.length;i++)
+            offsets[i+1] = offsets[i] + successors.get(i).size();
+        targets = new int[offsets[links.length]];
+        for(int i=0;i<links.length;i++) {
+            int j = offsets[i];
+            for(int x : successors.get(i))
+                targets[j++] = x;
+        }
+
+        // transpose
+        in_offsets = new int[links.length+1];
+        for(int x : targets)
+            in_offsets[x+1]++;
+        for(int i=0;i<links.length;i++)
+            in_offsets[i+1] += in_offsets[i];
+        sources = new int[targets.length];
+        int [] next = Arrays.copyOf(in_offsets,links.length);
+        for(int i=0;i<links.length;i++)
+            for(int e=offsets[i];e<offsets[i+1];e++)
+                sources[next[targets[e]]++] = i;
+    }
+
+    public int num_links(){
+        return links.length;
+    }
+
+    public int get_index(long link_id) throws OTMException {
+        int i = find_index(link_id);
+        if(i<0)
+            throw new OTMException("Bad link id: " + link_id);
+        return i;
+    }
+
+    // -1 if the link is not in the graph
+    public int find_index(long link_id){
+        Integer i = index.get(link_id);
+        return i==null ? -1 : i;
+    }
+
+}
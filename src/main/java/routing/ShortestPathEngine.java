@@ -0,0 +1,294 @@
+package routing;
+
+import core.Link;
+import core.Node;
+import error.OTMException;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Time-dependent shortest paths over a RoadGraph. The label of a link is the earliest time at which a vehicle
+ * entering the origin link at the departure time can leave it. Leaving link a at time t, a vehicle enters its
+ * successor b at t and leaves it at t + cost(b,t). This is exact when the costs are FIFO (entering later never
+ * means leaving earlier); with piecewise constant timer costs it is a close approximation.
+ *
+ * Point-to-point queries use A* with a lower bound built from the node coordinates and the minimum link costs.
+ * The bound is computed again for every such query, so it stays admissible when the costs change over the
+ * life of the engine (link travel timers, road parameters). The engine holds no per-query state and may be
+ * used from several threads.
+ */
+public class ShortestPathEngine {
+
+    public final RoadGraph graph;
+    public final LinkCost cost;
+
+    public ShortestPathEngine(RoadGraph graph,LinkCost cost){
+        this.graph = graph;
+        this.cost = cost;
+    }
+
+    ////////////////////////////////////////////
+    // queries
+    ////////////////////////////////////////////
+
+    // earliest exit time and predecessor of every link reachable from the origin
+    public ShortestPathTree one_to_all(long origin_link_id,float departure_time) throws OTMException {
+        Search search = new Search();
+        search.run(graph.get_index(origin_link_id),departure_time,-1);
+        return new ShortestPathTree(graph,origin_link_id,departure_time,search.exit_time.clone(),search.predecessor.clone());
+    }
+
+    // link ids of the fastest path from the origin to the destination, both included. Empty if there is none.
+    public List<Long> shortest_path(long origin_link_id,long destination_link_id,float departure_time) throws OTMException {
+        int dest = graph.get_index(destination_link_id);
+        Search search = new Search();
+        search.run(graph.get_index(origin_link_id),departure_time,dest);
+        List<Long> path = new ArrayList<>();
+        if(Double.isNaN(search.exit_time[dest]))
+            return path;
+        for(int i=dest;i>=0;i=search.predecessor[i])
+            path.add(graph.links[i].getId());
+        Collections.reverse(path);
+        return path;
+    }
+
+    // travel time from entering the origin to leaving the destination, NaN if there is no path
+    public double get_travel_time(long origin_link_id,long destination_link_id,float departure_time) throws OTMException {
+        int dest = graph.get_index(destination_link_id);
+        Search search = new Search();
+        search.run(graph.get_index(origin_link_id),departure_time,dest);
+        return search.exit_time[dest] - departure_time;
+    }
+
+    // Travel times for every origin/destination pair, NaN where there is no path. One tree is built per
+    // origin; origins are split among the threads.
+    public double [][] many_to_many(long [] origin_link_ids,long [] destination_link_ids,float departure_time,int num_threads) throws OTMException {
+
+        int [] origins = new int[origin_link_ids.length];
+        for(int i=0;i<origins.length;i++)
+            origins[i] = graph.get_index(origin_link_ids[i]);
+        int [] dests = new int[destination_link_ids.length];
+        for(int j=0;j<dests.length;j++)
+            dests[j] = graph.get_index(destination_link_ids[j]);
+
+        double [][] X = new double[origins.length][dests.length];
+        for_each_row(origins.length,num_threads,(search,i) -> {
+            search.run(origins[i],departure_time,-1);
+            for(int j=0;j<dests.length;j++)
+                X[i][j] = search.exit_time[dests[j]] - departure_time;
+        });
+        return X;
+    }
+
+    // Node to node skims, row major (origin*num_nodes + destination), NaN where there is no path. A trip from
+    // node o enters one of the links leaving o at the departure time and ends when it leaves one of the links
+    // entering node d. time gets the travel time of the fastest trip in seconds, and distance its length in
+    // meters. The diagonal is 0. One tree is built per origin node, from all of its outgoing links at once;
+    // origins are split among the threads.
+    public void node_skims(long [] node_ids,float departure_time,int num_threads,float [] time,float [] distance) throws OTMException {
+
+        int n = node_ids.length;
+        if(time.length!=n*n || distance.length!=n*n)
+            throw new OTMException("Skim arrays must have num_nodes^2 entries.");
+
+        Map<Long,Integer> node_index = new HashMap<>();
+        for(int i=0;i<n;i++)
+            if(node_index.put(node_ids[i],i)!=null)
+                throw new OTMException("Repeated node id in skim request: " + node_ids[i]);
+
+        // links leaving and entering each node
+        List<List<Integer>> out_links = new ArrayList<>();
+        List<List<Integer>> in_links = new ArrayList<>();
+        for(int i=0;i<n;i++){
+            out_links.add(new ArrayList<>());
+            in_links.add(new ArrayList<>());
+        }
+        for(int k=0;k<graph.num_links();k++){
+            Link link = graph.links[k];
+            Integer a = link.get_start_node()==null ? null : node_index.get(link.get_start_node().getId());
+            Integer b = link.get_end_node()==null ? null : node_index.get(link.get_end_node().getId());
+            if(a!=null)
+                out_links.get(a).add(k);
+            if(b!=null)
+                in_links.get(b).add(k);
+        }
+        int [][] sources = out_links.stream().map(x->x.stream().mapToInt(k->k).toArray()).toArray(int[][]::new);
+        int [][] sinks = in_links.stream().map(x->x.stream().mapToInt(k->k).toArray()).toArray(int[][]::new);
+
+        for_each_row(n,num_threads,(search,i) -> {
+            search.run(sources[i],departure_time);
+            for(int j=0;j<n;j++){
+                double t = i==j ? departure_time : Double.NaN;
+                double d = i==j ? 0d : Double.NaN;
+                if(i!=j)
+                    for(int k : sinks[j]){
+                        double tk = search.exit_time[k];
+                        if(!Double.isNaN(tk) && (Double.isNaN(t) || tk<t)){
+                            t = tk;
+                            d = search.distance[k];
+                        }
+                    }
+                time[i*n+j] = (float) (t - departure_time);
+                distance[i*n+j] = (float) d;
+            }
+        });
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    private interface RowTask {
+        void run(Search search,int row) throws OTMException;
+    }
+
+    // Runs the task on rows 0 ... num_rows-1. Rows are interleaved among the threads, and each thread reuses
+    // one search for all of its rows.
+    private void for_each_row(int num_rows,int num_threads,RowTask task) throws OTMException {
+
+        int threads = Math.max(1,Math.min(num_threads,num_rows));
+
+        if(threads==1){
+            Search search = new Search();
+            for(int i=0;i<num_rows;i++)
+                task.run(search,i);
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for(int k=0;k<threads;k++) {
+                int first = k;
+                futures.add(pool.submit(() -> {
+                    Search search = new Search();
+                    for(int i=first;i<num_rows;i+=threads)
+                        task.run(search,i);
+                    return null;
+                }));
+            }
+            for(Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OTMException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OTMException)
+                throw (OTMException) e.getCause();
+            throw new OTMException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Largest pace (cost per meter of straight line between the link end nodes) that no link beats with the
+    // current costs, 0 if the coordinates are not usable. The distance between two end nodes times this pace
+    // never exceeds the time to travel between them.
+    private static double compute_min_pace(RoadGraph graph,LinkCost cost){
+        double pace = Double.POSITIVE_INFINITY;
+        for(Link link : graph.links){
+            double d = distance(link.get_start_node(),link.get_end_node());
+            if(Double.isNaN(d))
+                return 0d;
+            if(d<=0)
+                continue;
+            double c = cost.get_min_travel_time(link);
+            if(Double.isNaN(c) || c<=0)
+                return 0d;
+            pace = Math.min(pace,c/d);
+        }
+        return Double.isInfinite(pace) ? 0d : pace;
+    }
+
+    private static double distance(Node a,Node b){
+        if(a==null || b==null || a.get_x()==null || a.get_y()==null || b.get_x()==null || b.get_y()==null)
+            return Double.NaN;
+        return Math.hypot(a.get_x()-b.get_x(),a.get_y()-b.get_y());
+    }
+
+    // work arrays of one query
+    private class Search {
+
+        final double [] exit_time = new double[graph.num_links()];
+        final double [] distance = new double[graph.num_links()];     // meters along the current path
+        final int [] predecessor = new int[graph.num_links()];
+        final boolean [] settled = new boolean[graph.num_links()];
+        final IndexedHeap heap = new IndexedHeap(graph.num_links());
+        double min_pace;
+
+        // Dijkstra from the origin. With a destination (>=0), stops when it is settled and orders the
+        // queue by exit time plus the A* lower bound to the end of the destination.
+        void run(int origin,float departure_time,int dest){
+            reset();
+            min_pace = dest>=0 ? compute_min_pace(graph,cost) : 0d;
+            Node target = min_pace>0 ? graph.links[dest].get_end_node() : null;
+            seed(origin,departure_time,target);
+            expand(dest,target);
+        }
+
+        // Dijkstra from several origins entered at the same time, to all links
+        void run(int [] origins,float departure_time){
+            reset();
+            for(int origin : origins)
+                seed(origin,departure_time,null);
+            expand(-1,null);
+        }
+
+        private void reset(){
+            Arrays.fill(exit_time,Double.NaN);
+            Arrays.fill(distance,Double.NaN);
+            Arrays.fill(predecessor,-1);
+            Arrays.fill(settled,false);
+            heap.clear();
+        }
+
+        private void seed(int origin,float departure_time,Node target){
+            double t0 = departure_time + link_cost(origin,departure_time);
+            if(Double.isNaN(t0) || (!Double.isNaN(exit_time[origin]) && t0>=exit_time[origin]))
+                return;
+            exit_time[origin] = t0;
+            distance[origin] = graph.links[origin].get_full_length();
+            heap.push_or_decrease(origin,t0 + bound(origin,target));
+        }
+
+        private void expand(int dest,Node target){
+            while(!heap.is_empty()){
+                int u = heap.pop();
+                settled[u] = true;
+                if(u==dest)
+                    return;
+                double tu = exit_time[u];
+                for(int e=graph.offsets[u];e<graph.offsets[u+1];e++){
+                    int v = graph.targets[e];
+                    if(settled[v])
+                        continue;
+                    double tv = tu + link_cost(v,tu);
+                    if(Double.isNaN(tv) || (!Double.isNaN(exit_time[v]) && tv>=exit_time[v]))
+                        continue;
+                    exit_time[v] = tv;
+                    distance[v] = distance[u] + graph.links[v].get_full_length();
+                    predecessor[v] = u;
+                    heap.push_or_decrease(v,tv + bound(v,target));
+                }
+            }
+        }
+
+        private double link_cost(int i,double entry_time){
+            double c = cost.get_travel_time(graph.links[i],entry_time);
+            return c<0 ? 0d : c;
+        }
+
+        private double bound(int i,Node target){
+            if(target==null)
+                return 0d;
+            double d = distance(graph.links[i].get_end_node(),target);
+            return Double.isNaN(d) ? 0d : d*min_pace;
+        }
+
+    }
+
+}
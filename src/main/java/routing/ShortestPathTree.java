@@ -0,0 +1,50 @@
+package routing;
+
+import error.OTMException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a one-to-all query: for every link reachable from the origin link, the earliest time at which
+ * the end of the link can be reached and the previous link on the way.
+ */
+public class ShortestPathTree {
+
+    public final RoadGraph graph;
+    public final long origin_link_id;
+    public final float departure_time;
+    final double [] exit_time;      // NaN for unreachable links
+    final int [] predecessor;       // -1 for the origin and unreachable links
+
+    ShortestPathTree(RoadGraph graph,long origin_link_id,float departure_time,double [] exit_time,int [] predecessor){
+        this.graph = graph;
+        this.origin_link_id = origin_link_id;
+        this.departure_time = departure_time;
+        this.exit_time = exit_time;
+        this.predecessor = predecessor;
+    }
+
+    public boolean is_reachable(long link_id) throws OTMException {
+        return !Double.isNaN(exit_time[graph.get_index(link_id)]);
+    }
+
+    // time from entering the origin link to leaving the given link, NaN if it cannot be reached
+    public double get_travel_time(long link_id) throws OTMException {
+        return exit_time[graph.get_index(link_id)] - departure_time;
+    }
+
+    // link ids from the origin to the given link, both included. Empty if the link cannot be reached.
+    public List<Long> get_path(long link_id) throws OTMException {
+        List<Long> path = new ArrayList<>();
+        int i = graph.get_index(link_id);
+        if(Double.isNaN(exit_time[i]))
+            return path;
+        for(;i>=0;i=predecessor[i])
+            path.add(graph.links[i].getId());
+        Collections.reverse(path);
+        return path;
+    }
+
+}
@@ -0,0 +1,26 @@
+package routing;
+
+import core.Link;
+
+/**
+ * Travel times measured by the link travel timers of the running simulation (see
+ * Scenario.add_link_travel_times). Past entry times use the stored interval values and future entry times
+ * use the last value. Links without a timer use the free flow travel time.
+ */
+public class TimerLinkCost implements LinkCost {
+
+    @Override
+    public double get_travel_time(Link link,double entry_time) {
+        return link.link_tt==null ?
+                link.get_ff_travel_time() :
+                link.link_tt.get_travel_time((float) entry_time);
+    }
+
+    @Override
+    public double get_min_travel_time(Link link) {
+        double ff = link.get_ff_travel_time();
+        double x = link.link_tt==null ? Double.NaN : link.link_tt.get_min_travel_time();
+        return Double.isNaN(x) ? ff : Math.min(ff,x);
+    }
+
+}
@@ -68,7 +68,12 @@ public class FixedSensor extends AbstractSensor {
         if(link.get_model().type!= AbstractModel.Type.Fluid && position!=0f)
             throw new OTMException("Currently only downstream fixed sensors are allowed for non-fluid models.");
 
-        // create subsensors
+        // create subsensors, unless they exist and still point to the lane groups of the link
+        if(subsensors!=null && subsensors.values().stream().allMatch(x->link.get_lgs().contains(x.lg))){
+            measurements.values().forEach(m->m.initialize());
+            return;
+        }
+
         subsensors = new HashMap<>();
         for(int lane=start_lane;lane<=end_lane;lane++){
             AbstractLaneGroup lg = link.get_lanegroup_for_dn_lane(lane);
@@ -2,6 +2,7 @@ package traveltime;
 
 import core.AbstractLaneGroup;
 import profiles.Profile1D;
+import utils.QuantileSketch;
 
 public abstract class AbstractLaneGroupTimer {
 
@@ -9,10 +10,21 @@ public abstract class AbstractLaneGroupTimer {
     public Profile1D travel_time;
     public abstract double get_mean_and_clear();
 
+    // distribution of the travel time samples since the last reset, with memory bounded by its k
+    public final QuantileSketch sketch;
+
     public AbstractLaneGroupTimer(AbstractLaneGroup lg, float outDt){
+        this(lg,outDt,QuantileSketch.DEFAULT_K);
+    }
+
+    public AbstractLaneGroupTimer(AbstractLaneGroup lg, float outDt, int sketch_k){
         this.lg = lg;
         travel_time = new Profile1D(null, outDt);
+        sketch = new QuantileSketch(sketch_k);
     }
 
+    public void reset(){
+        sketch.reset();
+    }
 
 }
@@ -1,17 +1,31 @@
 package traveltime;
 
 import core.AbstractLaneGroup;
+import utils.QuantileSketch;
 
 public class FluidLaneGroupTimer extends AbstractLaneGroupTimer {
 
-    private double travel_time_sec;
+    private double travel_time_sec;     // NaN until the model has computed a value
 
     public FluidLaneGroupTimer(AbstractLaneGroup lg, float outDt) {
-        super(lg,outDt);
+        this(lg,outDt,QuantileSketch.DEFAULT_K);
     }
 
+    public FluidLaneGroupTimer(AbstractLaneGroup lg, float outDt, int sketch_k) {
+        super(lg,outDt,sketch_k);
+        travel_time_sec = Double.NaN;
+    }
+
+    // called by the model at every step, so the sketch holds one sample per step
     public void add_sample(double travel_time_sec){
         this.travel_time_sec = travel_time_sec;
+        sketch.add(travel_time_sec);
+    }
+
+    @Override
+    public void reset(){
+        super.reset();
+        travel_time_sec = Double.NaN;
     }
 
     @Override
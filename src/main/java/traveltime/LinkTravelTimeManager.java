@@ -1,43 +1,72 @@
 package traveltime;
 
+import commodity.Path;
+import core.AbstractLaneGroup;
 import core.Link;
 import dispatch.Dispatcher;
 import dispatch.EventComputeTravelTime;
 import error.OTMException;
 import output.OutputPathTravelTime;
 import core.Scenario;
+import utils.QuantileSketch;
 
 import java.util.*;
 
 public class LinkTravelTimeManager {
 
+    public static final int DEFAULT_HISTORY_SIZE = 1440;
+
     public Scenario scenario;
     public float dt;
     public Set<Link> links;
+    public int history_size = DEFAULT_HISTORY_SIZE;     // number of intervals stored per link
+    public int sketch_k = QuantileSketch.DEFAULT_K;     // size of the travel time sketches
+
+    // Experienced travel times of the tracked paths: a departure is taken at every update and added to the
+    // sketch of its path once the walk through the link travel times ends before the current time.
+    private final Map<Long,PathSketch> path_sketches;
 
     public LinkTravelTimeManager(Scenario scenario){
         this.scenario = scenario;
         this.dt = Float.NaN;
         this.links = new HashSet<>();
+        this.path_sketches = new HashMap<>();
     }
 
     public void add_path_travel_time_writer(OutputPathTravelTime path_tt_writer) throws OTMException {
+        add_path(path_tt_writer.path,path_tt_writer.outDt);
+    }
+
+    // time the links of the path and keep a sketch of its experienced travel times
+    public void add_path(Path path,float dt) throws OTMException {
+        add_links(path.get_ordered_links(),dt);
+        path_sketches.putIfAbsent(path.getId(),new PathSketch(path));
+    }
+
+    // time these links with the given time step, which must be the same for all timed links
+    public void add_links(Collection<Link> links,float dt) throws OTMException {
 
         // check dt
-        if (Float.isNaN(dt))
-            this.dt = path_tt_writer.outDt;
-        else if (this.dt!=path_tt_writer.outDt)
+        if (Float.isNaN(this.dt))
+            this.dt = dt;
+        else if (this.dt!=dt)
                 throw new OTMException("All path travel time requests must have the same dt.");
 
         // add all links to set
-        links.addAll(path_tt_writer.path.get_ordered_links());
+        this.links.addAll(links);
     }
 
     public void initialize(Dispatcher dispatcher){
 
-        // create link travel timers
-        for(Link link : links)
-            link.link_tt = new LinkTravelTimer(link,dt);
+        // create link travel timers, or clear the ones left by a previous initialization
+        for(Link link : links) {
+            if (link.link_tt!=null && link.link_tt.is_valid(dt,history_size,sketch_k))
+                link.link_tt.reset();
+            else
+                link.link_tt = new LinkTravelTimer(link, dt, history_size, sketch_k);
+        }
+        for(PathSketch x : path_sketches.values())
+            x.reset();
 
         dispatcher.register_event(new EventComputeTravelTime(dispatcher,dispatcher.current_time,this));
     }
@@ -46,10 +75,108 @@ public class LinkTravelTimeManager {
     public void run(float now){
 
         // update link travel times
-        links.forEach(link->link.link_tt.update_travel_time());
+        links.forEach(link->link.link_tt.update_travel_time(now));
+
+        // close the path trips that have ended
+        for(PathSketch x : path_sketches.values())
+            x.update(now);
 
         // set new event
         scenario.dispatcher.register_event(new EventComputeTravelTime(scenario.dispatcher,now+dt,this));
     }
 
+    ////////////////////////////////////////////
+    // distributions
+    ////////////////////////////////////////////
+
+    // sketch of the travel times through the lane group since the initialization
+    public QuantileSketch get_lanegroup_sketch(AbstractLaneGroup lg) throws OTMException {
+        if(lg.travel_timer==null || !links.contains(lg.get_link()))
+            throw new OTMException("Lane group " + lg.getId() + " is not timed.");
+        return lg.travel_timer.sketch;
+    }
+
+    // sketch of the travel times through the link since the initialization, merged over its lane groups
+    public QuantileSketch get_link_sketch(long link_id) throws OTMException {
+        Link link = scenario.network.links.get(link_id);
+        if(link==null || link.link_tt==null || !links.contains(link))
+            throw new OTMException("Link " + link_id + " is not timed.");
+        return link.link_tt.get_sketch();
+    }
+
+    // sketch of the experienced travel times of the path, by departure time, since the initialization
+    public QuantileSketch get_path_sketch(long path_id) throws OTMException {
+        PathSketch x = path_sketches.get(path_id);
+        if(x==null)
+            throw new OTMException("Path " + path_id + " is not timed.");
+        return x.sketch;
+    }
+
+    ////////////////////////////////////////////
+    // static
+    ////////////////////////////////////////////
+
+    // Time to traverse the links in order, departing at start_time. Each link is entered when the previous
+    // one is left, with the travel time stored for that entry time, so departures in the past give
+    // experienced travel times and departures at the current time give predictions from the last values.
+    public static double get_path_travel_time(List<Link> links,float start_time) throws OTMException {
+        double time = start_time;
+        for(Link link : links){
+            if(link.link_tt==null)
+                throw new OTMException("Link " + link.getId() + " is not timed.");
+            time += link.link_tt.get_travel_time((float) time);
+        }
+        return time - start_time;
+    }
+
+    // Same walk with LinkTravelTimer.get_predicted_travel_time: link entries after the last update use the
+    // link travel times of the previous run at those times.
+    public static double get_path_predicted_travel_time(List<Link> links,float start_time) throws OTMException {
+        double time = start_time;
+        for(Link link : links){
+            if(link.link_tt==null)
+                throw new OTMException("Link " + link.getId() + " is not timed.");
+            time += link.link_tt.get_predicted_travel_time((float) time);
+        }
+        return time - start_time;
+    }
+
+    ////////////////////////////////////////////
+    // class
+    ////////////////////////////////////////////
+
+    private class PathSketch {
+        final List<Link> path_links;
+        final ArrayDeque<Float> pending_departures;
+        final QuantileSketch sketch;
+
+        PathSketch(Path path){
+            this.path_links = path.get_ordered_links();
+            this.pending_departures = new ArrayDeque<>();
+            this.sketch = new QuantileSketch(sketch_k);
+        }
+
+        void reset(){
+            pending_departures.clear();
+            sketch.reset();
+        }
+
+        void update(float now){
+            pending_departures.add(now);
+            while(!pending_departures.isEmpty()){
+                float departure = pending_departures.peek();
+                double travel_time;
+                try {
+                    travel_time = get_path_travel_time(path_links,departure);
+                } catch (OTMException e) {
+                    return;     // the links are timed when the path is added
+                }
+                if(departure+travel_time>now)
+                    break;
+                pending_departures.poll();
+                sketch.add(travel_time);
+            }
+        }
+    }
+
 }
@@ -5,30 +5,172 @@ import core.AbstractLaneGroup;
 import core.AbstractFluidModel;
 import core.AbstractVehicleModel;
 
+import utils.QuantileSketch;
+
+import java.util.Arrays;
+
 public class LinkTravelTimer {
 
     public double instantaneous_travel_time;
     public Link link;
 
+    // Ring buffer with the travel time of each update interval. Entry k holds the value computed at
+    // history_start + k*dt, and is used for times in [history_start+k*dt, history_start+(k+1)*dt).
+    // Only the last history.length intervals are kept.
+    private final float dt;
+    private double [] history;
+    private float history_start;
+    private long num_updates;
+
+    // History of the previous run, kept by reset and used as the forecast for times after the last update
+    private double [] previous;
+    private float previous_start;
+    private long previous_num_updates;
+
     public LinkTravelTimer(Link link,float outDt){
+        this(link,outDt,LinkTravelTimeManager.DEFAULT_HISTORY_SIZE);
+    }
+
+    public LinkTravelTimer(Link link,float outDt,int history_size){
+        this(link,outDt,history_size,QuantileSketch.DEFAULT_K);
+    }
+
+    public LinkTravelTimer(Link link,float outDt,int history_size,int sketch_k){
         this.link = link;
+        this.dt = outDt;
+        this.history = new double[Math.max(1,history_size)];
+        this.previous = new double[history.length];
+        this.previous_num_updates = 0;
 
         // create FluidLaneGroupTimer
         if( link.get_model() instanceof AbstractFluidModel)
             for(AbstractLaneGroup lg : link.get_lgs())
-                lg.travel_timer = new FluidLaneGroupTimer(lg,outDt);
+                lg.travel_timer = new FluidLaneGroupTimer(lg,outDt,sketch_k);
 
         // create VehicleLaneGroupTimer
         if( link.get_model() instanceof AbstractVehicleModel)
             for(AbstractLaneGroup lg : link.get_lgs())
-                lg.travel_timer = new VehicleLaneGroupTimer(lg,outDt);
+                lg.travel_timer = new VehicleLaneGroupTimer(lg,outDt,sketch_k);
 
+        reset();
     }
 
-    public void update_travel_time(){
-        instantaneous_travel_time = link.get_lgs().stream()
+    // true if the timers were built for the current lane groups and model of the link, with these parameters
+    public boolean is_valid(float outDt,int history_size,int sketch_k){
+        Class<? extends AbstractLaneGroupTimer> clazz = link.get_model() instanceof AbstractFluidModel ?
+                FluidLaneGroupTimer.class :
+                VehicleLaneGroupTimer.class;
+        return dt==outDt && history.length==Math.max(1,history_size) &&
+                link.get_lgs().stream().allMatch(lg -> lg.travel_timer!=null
+                && lg.travel_timer.getClass()==clazz
+                && lg.travel_timer.sketch.get_k()==Math.max(sketch_k,8)
+                && lg.travel_timer.travel_time.get_dt()==outDt);
+    }
+
+    public void reset(){
+        if(num_updates>0){
+            double [] x = previous;
+            previous = history;
+            history = x;
+            previous_start = history_start;
+            previous_num_updates = num_updates;
+        }
+        instantaneous_travel_time = Double.NaN;
+        Arrays.fill(history,Double.NaN);
+        history_start = Float.NaN;
+        num_updates = 0;
+        link.get_lgs().forEach(lg->lg.travel_timer.reset());
+    }
+
+    // Average over the lane groups that have a value. If none has (no vehicle left the link during the
+    // interval), the previous value is kept, or the free flow travel time if there is none.
+    public void update_travel_time(float now){
+        double x = link.get_lgs().stream()
                 .mapToDouble(lg->lg.travel_timer.get_mean_and_clear())
-                .average().getAsDouble();
+                .filter(v->!Double.isNaN(v))
+                .average().orElse(Double.NaN);
+        if(Double.isNaN(x))
+            x = Double.isNaN(instantaneous_travel_time) ? get_ff_travel_time() : instantaneous_travel_time;
+        instantaneous_travel_time = x;
+
+        if(num_updates==0)
+            history_start = now;
+        history[(int) (num_updates % history.length)] = x;
+        num_updates++;
+    }
+
+    ////////////////////////////////////////////
+    // history
+    ////////////////////////////////////////////
+
+    // Travel time for a vehicle entering the link at the given time. Times before the oldest stored
+    // interval use the oldest value; times after the last update use the last value.
+    public double get_travel_time(float time){
+        if(num_updates==0)
+            return get_ff_travel_time();
+        long k = (long) Math.floor((time-history_start)/dt);
+        long oldest = Math.max(0,num_updates-history.length);
+        if(k<oldest)
+            k = oldest;
+        if(k>=num_updates)
+            k = num_updates-1;
+        return history[(int) (k % history.length)];
+    }
+
+    // Forecast for a vehicle entering the link at the given time. Times up to the end of the last update
+    // interval use the measured values, as get_travel_time. Later times use the value stored for that time
+    // in the previous run (before the last reset), if it is still in its history, and otherwise the last value.
+    public double get_predicted_travel_time(float time){
+        if(num_updates==0 || time < history_start + num_updates*dt)
+            return get_travel_time(time);
+        if(previous_num_updates==0)
+            return get_travel_time(time);
+        long k = (long) Math.floor((time-previous_start)/dt);
+        if(k<Math.max(0,previous_num_updates-previous.length) || k>=previous_num_updates)
+            return get_travel_time(time);
+        return previous[(int) (k % previous.length)];
+    }
+
+    // time of the last update, NaN if there is none
+    public float get_last_update_time(){
+        return num_updates==0 ? Float.NaN : history_start + (num_updates-1)*dt;
+    }
+
+    public float get_dt(){
+        return dt;
+    }
+
+    public double get_ff_travel_time(){
+        return link.get_ff_travel_time();
+    }
+
+    // smallest stored interval value, NaN if there is none
+    public double get_min_travel_time(){
+        double x = Double.NaN;
+        for(int k=0;k<Math.min(num_updates,history.length);k++)
+            if(Double.isNaN(x) || history[k]<x)
+                x = history[k];
+        return x;
+    }
+
+    ////////////////////////////////////////////
+    // distribution
+    ////////////////////////////////////////////
+
+    // Travel times of all lane groups since the last reset. Lane groups are parallel, so their sketches are
+    // merged into a new one.
+    public QuantileSketch get_sketch(){
+        QuantileSketch x = null;
+        for(AbstractLaneGroup lg : link.get_lgs()) {
+            if(x==null)
+                x = new QuantileSketch(lg.travel_timer.sketch.get_k());
+            x.merge(lg.travel_timer.sketch);
+        }
+        return x==null ? new QuantileSketch() : x;
+    }
+
+    public double get_quantile(double q){
+        return get_sketch().get_quantile(q);
     }
 
 }
@@ -3,47 +3,60 @@ package traveltime;
 import core.AbstractVehicle;
 import core.Link;
 import core.AbstractLaneGroup;
+import utils.QuantileSketch;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Travel time of vehicles through a lane group. The entry time is stored on the vehicle, so the timer only
+ * holds the running sum and count of the travel times completed since the last call to get_mean_and_clear,
+ * and a sketch of all the travel times completed since the last reset.
+ */
 public class VehicleLaneGroupTimer extends AbstractLaneGroupTimer {
 
     public int num_samples;
     public double sum_time;
 
-    public Map<Long,Float> entry_time = new HashMap<>();
-
     public VehicleLaneGroupTimer(AbstractLaneGroup lg, float outDt) {
-        super(lg,outDt);
+        this(lg,outDt,QuantileSketch.DEFAULT_K);
+    }
+
+    public VehicleLaneGroupTimer(AbstractLaneGroup lg, float outDt, int sketch_k) {
+        super(lg,outDt,sketch_k);
         num_samples = 0;
         sum_time = 0d;
     }
 
     public void vehicle_enter(float timestamp, AbstractVehicle vehicle){
-        entry_time.put(vehicle.getId(),timestamp);
+        vehicle.lg_entry_time = timestamp;
     }
 
     public void vehicle_exit(float timestamp, AbstractVehicle vehicle, Long link_id, Link next_link){
 
         // I dont know about this vehicle
-        if(!entry_time.containsKey(vehicle.getId()))
+        if(Float.isNaN(vehicle.lg_entry_time))
             return;
 
-        add_sample(timestamp-entry_time.get(vehicle.getId()));
+        add_sample(timestamp-vehicle.lg_entry_time);
 
-        entry_time.remove(vehicle);
+        vehicle.lg_entry_time = Float.NaN;
     }
 
     private void add_sample(double travel_time_sample){
         num_samples++;
         sum_time += travel_time_sample;
+        sketch.add(travel_time_sample);
     }
 
     public boolean has_samples(){
         return num_samples>0;
     }
 
+    @Override
+    public void reset(){
+        super.reset();
+        num_samples = 0;
+        sum_time = 0d;
+    }
+
     @Override
     public double get_mean_and_clear(){
         double mean = sum_time / ((double) num_samples);
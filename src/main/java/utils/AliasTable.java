@@ -0,0 +1,94 @@
+package utils;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Walker's alias table over a set of ids with non-negative weights (Vose's construction). Building it takes
+ * O(n); each sample takes a single uniform draw and O(1) work, regardless of the number of ids.
+ */
+public class AliasTable {
+
+    private final long [] ids;
+    private final double [] prob;
+    private final int [] alias;
+
+    // Weights need not sum to one. Entries with zero weight are never sampled. If all weights are zero the
+    // table is empty and sample returns null.
+    public AliasTable(Map<Long,Double> weights){
+
+        int n = 0;
+        double total = 0d;
+        for(Double w : weights.values())
+            if(w!=null && w>0d){
+                n++;
+                total += w;
+            }
+
+        ids = new long[n];
+        prob = new double[n];
+        alias = new int[n];
+        if(n==0)
+            return;
+
+        int i = 0;
+        for(Map.Entry<Long,Double> e : weights.entrySet())
+            if(e.getValue()!=null && e.getValue()>0d){
+                ids[i] = e.getKey();
+                prob[i] = e.getValue()*n/total;
+                i++;
+            }
+
+        // small and large are stacks of indices with scaled probability below and above 1
+        int [] small = new int[n];
+        int [] large = new int[n];
+        int ns = 0, nl = 0;
+        for(i=0;i<n;i++) {
+            if(prob[i]<1d)
+                small[ns++] = i;
+            else
+                large[nl++] = i;
+        }
+        while(ns>0 && nl>0){
+            int s = small[--ns];
+            int l = large[--nl];
+            alias[s] = l;
+            prob[l] -= 1d-prob[s];
+            if(prob[l]<1d)
+                small[ns++] = l;
+            else
+                large[nl++] = l;
+        }
+
+        // what is left is 1 up to rounding
+        while(nl>0) {
+            int l = large[--nl];
+            prob[l] = 1d;
+            alias[l] = l;
+        }
+        while(ns>0) {
+            int s = small[--ns];
+            prob[s] = 1d;
+            alias[s] = s;
+        }
+    }
+
+    public int size(){
+        return ids.length;
+    }
+
+    public boolean is_empty(){
+        return ids.length==0;
+    }
+
+    public Long sample(Random random){
+        if(ids.length==0)
+            return null;
+        if(ids.length==1)
+            return ids[0];
+        double u = random.nextDouble()*ids.length;
+        int i = Math.min((int) u,ids.length-1);
+        return u-i<prob[i] ? ids[i] : ids[alias[i]];
+    }
+
+}
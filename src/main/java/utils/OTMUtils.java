@@ -16,25 +16,6 @@ import java.util.*;
 public class OTMUtils {
 
     public static double epsilon = 1e-6;
-    public static long lane_group_counter;
-    public static long vehicle_id_count;
-
-    private static Random random;
-
-    static{
-        lane_group_counter = 0;
-        vehicle_id_count = 0;
-        random = new Random();
-    }
-
-    public static void reset_counters(){
-        lane_group_counter = 0;
-        vehicle_id_count = 0;
-    }
-
-    public static void set_random_seed(long seed){
-        random = new Random(seed);
-    }
 
     ///////////////////////////////////////////////////
     // type conversion
@@ -131,7 +112,7 @@ public class OTMUtils {
         return Y;
     }
 
-    public static Float get_waiting_time(double rate,StochasticProcess process){
+    public static Float get_waiting_time(double rate,StochasticProcess process,Random random){
 
         if(rate<=0d)
             return null;
@@ -147,16 +128,12 @@ public class OTMUtils {
         return (float) wait;
     }
 
-    public static int random_int(int min, int max){
+    public static int random_int(Random random,int min, int max){
         return min + random.nextInt(max);
     }
 
-    public static double random_double(double min,double max){
-        return min + random_zero_to_one()*(max-min);
-    }
-
-    public static double random_zero_to_one(){
-        return random.nextDouble();
+    public static double random_double(Random random,double min,double max){
+        return min + random.nextDouble()*(max-min);
     }
 
     public static double snap_to_grid(double x,double gridsize){
@@ -167,7 +144,7 @@ public class OTMUtils {
     // sets
     ///////////////////////////////////////////////////
 
-    public static <T> T sample_from_set(Set<T> set){
+    public static <T> T sample_from_set(Random random,Set<T> set){
         int size = set.size();
         if(size==1)
             return (T) set.toArray()[0];
@@ -339,18 +316,6 @@ public class OTMUtils {
         return str;
     }
 
-    ///////////////////////////////////////////////////
-    // counter
-    ///////////////////////////////////////////////////
-
-    public static long get_lanegroup_id(){
-        return lane_group_counter++;
-    }
-
-    public static long get_vehicle_id(){
-        return vehicle_id_count++;
-    }
-
     ///////////////////////////////////////////////////
     // file
     ///////////////////////////////////////////////////
@@ -0,0 +1,222 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile sketch with bounded memory (KLL: Karnin, Lang and Liberty, "Optimal quantile
+ * approximation in streams", 2016). Values are kept in a stack of compactors; a full compactor sorts its
+ * values and passes every other one to the level above, where each value stands for twice as many
+ * inputs. The number of retained values is about 3k regardless of the length of the stream, and the
+ * rank error is roughly 1.7/k. Streams of fewer than k values are kept exactly. Sketches can be merged.
+ *
+ * Compaction offsets alternate instead of being drawn at random, so a given input order always produces
+ * the same sketch.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private final int k;
+    private double [][] levels;
+    private int [] sizes;
+    private boolean [] offsets;
+    private int num_levels;
+    private int retained;
+    private long count;
+    private double min;
+    private double max;
+
+    public QuantileSketch(){
+        this(DEFAULT_K);
+    }
+
+    public QuantileSketch(int k){
+        this.k = Math.max(k,8);
+        reset();
+    }
+
+    public void reset(){
+        levels = new double[1][8];
+        sizes = new int[1];
+        offsets = new boolean[1];
+        num_levels = 1;
+        retained = 0;
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    // NaN values are ignored
+    public void add(double x){
+        if(Double.isNaN(x))
+            return;
+        count++;
+        if(x<min)
+            min = x;
+        if(x>max)
+            max = x;
+        append(0,x);
+        compress();
+    }
+
+    public void merge(QuantileSketch x){
+        if(x.count==0)
+            return;
+        for(int h=0;h<x.num_levels;h++){
+            while(num_levels<=h)
+                add_level();
+            for(int i=0;i<x.sizes[h];i++)
+                append(h,x.levels[h][i]);
+        }
+        count += x.count;
+        min = Math.min(min,x.min);
+        max = Math.max(max,x.max);
+        compress();
+    }
+
+    ////////////////////////////////
+    // get
+    ////////////////////////////////
+
+    public int get_k(){
+        return k;
+    }
+
+    public long get_count(){
+        return count;
+    }
+
+    public double get_min(){
+        return count==0 ? Double.NaN : min;
+    }
+
+    public double get_max(){
+        return count==0 ? Double.NaN : max;
+    }
+
+    // number of values held by the sketch
+    public int get_retained(){
+        return retained;
+    }
+
+    // approximate q-quantile, q in [0,1]. NaN if the sketch is empty.
+    public double get_quantile(double q){
+        if(count==0)
+            return Double.NaN;
+        if(q<=0d)
+            return min;
+        if(q>=1d)
+            return max;
+
+        double [] values = new double[retained];
+        long [] weights = new long[retained];
+        sorted_items(values,weights);
+
+        double target = q*count;
+        long cum = 0;
+        for(int i=0;i<values.length;i++){
+            cum += weights[i];
+            if(cum>=target)
+                return values[i];
+        }
+        return max;
+    }
+
+    public double [] get_quantiles(double [] qs){
+        double [] x = new double[qs.length];
+        for(int i=0;i<qs.length;i++)
+            x[i] = get_quantile(qs[i]);
+        return x;
+    }
+
+    // approximate fraction of values less than or equal to x
+    public double get_cdf(double x){
+        if(count==0)
+            return Double.NaN;
+        long below = 0;
+        for(int h=0;h<num_levels;h++)
+            for(int i=0;i<sizes[h];i++)
+                if(levels[h][i]<=x)
+                    below += 1L<<h;
+        return ((double) below)/count;
+    }
+
+    ////////////////////////////////
+    // private
+    ////////////////////////////////
+
+    private int capacity(int h){
+        int depth = num_levels - 1 - h;
+        return Math.max(2,(int) Math.ceil(k*Math.pow(2d/3d,depth)));
+    }
+
+    private int total_capacity(){
+        int x = 0;
+        for(int h=0;h<num_levels;h++)
+            x += capacity(h);
+        return x;
+    }
+
+    private void append(int h,double x){
+        if(sizes[h]==levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h],2*levels[h].length);
+        levels[h][sizes[h]++] = x;
+        retained++;
+    }
+
+    private void add_level(){
+        levels = Arrays.copyOf(levels,num_levels+1);
+        levels[num_levels] = new double[8];
+        sizes = Arrays.copyOf(sizes,num_levels+1);
+        offsets = Arrays.copyOf(offsets,num_levels+1);
+        num_levels++;
+    }
+
+    private void compress(){
+        while(retained>total_capacity()){
+            int h = 0;
+            while(sizes[h]<capacity(h))
+                h++;
+            compact(h);
+        }
+    }
+
+    // passes every other value of level h to level h+1. With an odd number of values the largest stays.
+    private void compact(int h){
+        if(h==num_levels-1)
+            add_level();
+        double [] buf = levels[h];
+        int n = sizes[h];
+        Arrays.sort(buf,0,n);
+        int odd = n%2;
+        int m = n - odd;
+        int offset = offsets[h] ? 1 : 0;
+        offsets[h] = !offsets[h];
+        for(int i=offset;i<m;i+=2)
+            append(h+1,buf[i]);
+        if(odd==1)
+            buf[0] = buf[n-1];
+        sizes[h] = odd;
+        retained -= m;
+    }
+
+    private void sorted_items(double [] values,long [] weights){
+        Integer [] order = new Integer[retained];
+        double [] v = new double[retained];
+        long [] w = new long[retained];
+        int j = 0;
+        for(int h=0;h<num_levels;h++)
+            for(int i=0;i<sizes[h];i++){
+                v[j] = levels[h][i];
+                w[j] = 1L<<h;
+                order[j] = j;
+                j++;
+            }
+        Arrays.sort(order,(a,b)->Double.compare(v[a],v[b]));
+        for(int i=0;i<retained;i++){
+            values[i] = v[order[i]];
+            weights[i] = w[order[i]];
+        }
+    }
+
+}
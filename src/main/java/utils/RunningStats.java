@@ -0,0 +1,91 @@
+package utils;
+
+/**
+ * Count, mean, variance, minimum and maximum of a stream of values, updated one value at a time
+ * (Welford's method). Two instances can be merged, so partial statistics can be computed separately
+ * and combined.
+ */
+public class RunningStats {
+
+    private long count;
+    private double mean;
+    private double m2;      // sum of squared deviations from the mean
+    private double min;
+    private double max;
+
+    public RunningStats(){
+        reset();
+    }
+
+    public void reset(){
+        count = 0;
+        mean = 0d;
+        m2 = 0d;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    // NaN values are ignored
+    public void add(double x){
+        if(Double.isNaN(x))
+            return;
+        count++;
+        double delta = x - mean;
+        mean += delta/count;
+        m2 += delta*(x - mean);
+        if(x<min)
+            min = x;
+        if(x>max)
+            max = x;
+    }
+
+    public void merge(RunningStats x){
+        if(x.count==0)
+            return;
+        if(count==0){
+            count = x.count;
+            mean = x.mean;
+            m2 = x.m2;
+            min = x.min;
+            max = x.max;
+            return;
+        }
+        long n = count + x.count;
+        double delta = x.mean - mean;
+        mean += delta*x.count/n;
+        m2 += x.m2 + delta*delta*count*x.count/n;
+        count = n;
+        min = Math.min(min,x.min);
+        max = Math.max(max,x.max);
+    }
+
+    ////////////////////////////////
+    // get
+    ////////////////////////////////
+
+    public long get_count(){
+        return count;
+    }
+
+    public double get_mean(){
+        return count==0 ? Double.NaN : mean;
+    }
+
+    // sample variance, NaN with fewer than two values
+    public double get_variance(){
+        return count<2 ? Double.NaN : m2/(count-1);
+    }
+
+    public double get_std(){
+        return Math.sqrt(get_variance());
+    }
+
+    public double get_min(){
+        return count==0 ? Double.NaN : min;
+    }
+
+    public double get_max(){
+        return count==0 ? Double.NaN : max;
+    }
+
+}
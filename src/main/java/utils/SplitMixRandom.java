@@ -0,0 +1,70 @@
+package utils;
+
+import java.util.Random;
+
+/**
+ * SplitMix64 generator. It is a java.util.Random, so it can be passed to the existing sampling helpers, but it
+ * keeps no lock and its state is a single long, which is cheap to save. split() returns a generator whose
+ * stream is statistically independent of this one, so each model can draw from its own stream and the results
+ * do not depend on the order in which the models use their generators.
+ */
+public class SplitMixRandom extends Random {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public SplitMixRandom(long seed){
+        super(0L);
+        state = seed;
+    }
+
+    // independent generator seeded from the next two outputs of this one
+    public SplitMixRandom split(){
+        return new SplitMixRandom(nextLong() ^ mix64(nextLong()));
+    }
+
+    ////////////////////////////////////////////
+    // state
+    ////////////////////////////////////////////
+
+    public long get_state(){
+        return state;
+    }
+
+    public void set_state(long x){
+        state = x;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = seed;
+    }
+
+    ////////////////////////////////////////////
+    // draws
+    ////////////////////////////////////////////
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix64(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
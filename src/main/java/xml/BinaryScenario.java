@@ -0,0 +1,444 @@
+package xml;
+
+import error.OTMException;
+import utils.OTMUtils;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled scenario file. Nodes, links, demands and splits are stored as flat arrays that are read in bulk from
+ * a memory mapped file, with no text parsing or schema validation. The remaining sections (commodities,
+ * subnetworks, models, road parameters, geometries and connections, control, events) are small and are kept as
+ * an embedded xml block. A compiled file records the otm.xsd version it was written against and is rejected by
+ * builds with a different schema version.
+ *
+ * Layout (big endian):
+ *     magic, format version, schema version
+ *     xml block
+ *     nodes:   id[], x[], y[], flags[]
+ *     links:   id[], length[], full_lanes[], start_node[], end_node[], roadparam[], roadgeom[], alt_next_link[],
+ *              road_type[], point_index[n+1], point_x[], point_y[]
+ *     demands: commodity[], link[], subnetwork[], start_time[], dt[], value_index[n+1], values[]
+ *     splits:  node[], commodity[], link_in[], start_time[], dt[], split_index[n+1],
+ *              link_out[], value_index[m+1], values[]
+ * Missing Long values are stored as NULL_ID and missing Float values as NaN.
+ */
+public class BinaryScenario {
+
+    public static final int MAGIC = 0x4F544D42;   // "OTMB"
+    public static final int FORMAT_VERSION = 1;
+    public static final long NULL_ID = Long.MIN_VALUE;
+
+    private static final byte VSINK = 1, VSOURCE = 2;
+    private static String schema_version;
+
+    public jaxb.Scenario js;        // without demands and splits
+    public Demands demands = new Demands();
+    public Splits splits = new Splits();
+
+    public static class Demands {
+        public int size;
+        public long [] commodity_id;
+        public long [] link_id;
+        public long [] subnetwork;
+        public float [] start_time;
+        public float [] dt;
+        public int [] value_index;
+        public double [] values;
+
+        public List<Double> get_values(int i){
+            return to_list(values,value_index[i],value_index[i+1]);
+        }
+    }
+
+    public static class Splits {
+        public int size;
+        public long [] node_id;
+        public long [] commodity_id;
+        public long [] link_in;
+        public float [] start_time;
+        public float [] dt;
+        public int [] split_index;      // splits of node i are split_index[i] ... split_index[i+1]-1
+        public long [] link_out;
+        public int [] value_index;
+        public double [] values;
+
+        public List<Double> get_values(int j){
+            return to_list(values,value_index[j],value_index[j+1]);
+        }
+    }
+
+    ////////////////////////////////////////////
+    // compile
+    ////////////////////////////////////////////
+
+    public static void compile(String configfile,String filename) throws OTMException {
+        save(JaxbLoader.load_scenario(configfile),filename);
+    }
+
+    public static void save(jaxb.Scenario js,String filename) throws OTMException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            write_string(out,get_schema_version());
+
+            // xml block
+            byte [] xml = marshal(strip(js));
+            out.writeInt(xml.length);
+            out.write(xml);
+
+            // nodes
+            List<jaxb.Node> nodes = js.getNetwork().getNodes()==null ? new ArrayList<>() : js.getNetwork().getNodes().getNode();
+            out.writeInt(nodes.size());
+            for(jaxb.Node n : nodes) out.writeLong(n.getId());
+            for(jaxb.Node n : nodes) out.writeFloat(n.getX()==null ? Float.NaN : n.getX());
+            for(jaxb.Node n : nodes) out.writeFloat(n.getY()==null ? Float.NaN : n.getY());
+            for(jaxb.Node n : nodes){
+                byte flags = 0;
+                if(n.isVsink()) flags |= VSINK;
+                if(n.isVsource()) flags |= VSOURCE;
+                out.writeByte(flags);
+            }
+
+            // links
+            List<jaxb.Link> links = js.getNetwork().getLinks()==null ? new ArrayList<>() : js.getNetwork().getLinks().getLink();
+            out.writeInt(links.size());
+            for(jaxb.Link l : links) out.writeLong(l.getId());
+            for(jaxb.Link l : links) out.writeFloat(l.getLength());
+            for(jaxb.Link l : links) out.writeInt(l.getFullLanes());
+            for(jaxb.Link l : links) out.writeLong(l.getStartNodeId());
+            for(jaxb.Link l : links) out.writeLong(l.getEndNodeId());
+            for(jaxb.Link l : links) out.writeLong(l.getRoadparam());
+            for(jaxb.Link l : links) out.writeLong(l.getRoadgeom()==null ? NULL_ID : l.getRoadgeom());
+            for(jaxb.Link l : links) out.writeLong(l.getAltNextLink()==null ? NULL_ID : l.getAltNextLink());
+            for(jaxb.Link l : links) write_string(out,l.getRoadType());
+            List<jaxb.Point> points = new ArrayList<>();
+            out.writeInt(0);
+            for(jaxb.Link l : links){
+                if(l.getPoints()!=null)
+                    points.addAll(l.getPoints().getPoint());
+                out.writeInt(points.size());
+            }
+            for(jaxb.Point p : points) out.writeFloat(p.getX());
+            for(jaxb.Point p : points) out.writeFloat(p.getY());
+
+            // demands
+            List<jaxb.Demand> jdemands = js.getDemands()==null ? new ArrayList<>() : js.getDemands().getDemand();
+            List<List<Double>> dvalues = new ArrayList<>();
+            for(jaxb.Demand d : jdemands)
+                dvalues.add(OTMUtils.csv2list(d.getContent()));
+            out.writeInt(jdemands.size());
+            for(jaxb.Demand d : jdemands) out.writeLong(d.getCommodityId());
+            for(jaxb.Demand d : jdemands) out.writeLong(d.getLinkId()==null ? NULL_ID : d.getLinkId());
+            for(jaxb.Demand d : jdemands) out.writeLong(d.getSubnetwork()==null ? NULL_ID : d.getSubnetwork());
+            for(jaxb.Demand d : jdemands) out.writeFloat(d.getStartTime());
+            for(jaxb.Demand d : jdemands) out.writeFloat(d.getDt()==null ? Float.NaN : d.getDt());
+            write_csr(out,dvalues);
+
+            // splits
+            List<jaxb.SplitNode> jsplits = js.getSplits()==null ? new ArrayList<>() : js.getSplits().getSplitNode();
+            List<jaxb.Split> all_splits = new ArrayList<>();
+            out.writeInt(jsplits.size());
+            for(jaxb.SplitNode s : jsplits) out.writeLong(s.getNodeId());
+            for(jaxb.SplitNode s : jsplits) out.writeLong(s.getCommodityId());
+            for(jaxb.SplitNode s : jsplits) out.writeLong(s.getLinkIn());
+            for(jaxb.SplitNode s : jsplits) out.writeFloat(s.getStartTime());
+            for(jaxb.SplitNode s : jsplits) out.writeFloat(s.getDt()==null ? Float.NaN : s.getDt());
+            out.writeInt(0);
+            for(jaxb.SplitNode s : jsplits){
+                all_splits.addAll(s.getSplit());
+                out.writeInt(all_splits.size());
+            }
+            out.writeInt(all_splits.size());
+            List<List<Double>> svalues = new ArrayList<>();
+            for(jaxb.Split s : all_splits){
+                out.writeLong(s.getLinkOut());
+                svalues.add(OTMUtils.csv2list(s.getContent()));
+            }
+            write_csr(out,svalues);
+
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    ////////////////////////////////////////////
+    // load
+    ////////////////////////////////////////////
+
+    public static boolean is_binary(String filename){
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt()==MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static BinaryScenario load(String filename) throws OTMException {
+
+        BinaryScenario bs = new BinaryScenario();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+
+            if(buf.getInt()!=MAGIC)
+                throw new OTMException("Not a compiled scenario file: " + filename);
+            int format = buf.getInt();
+            if(format!=FORMAT_VERSION)
+                throw new OTMException(String.format("Compiled scenario format %d is not supported (expected %d).",format,FORMAT_VERSION));
+            String schema = read_string(buf);
+            if(!schema.equals(get_schema_version()))
+                throw new OTMException(String.format("Compiled scenario was written for schema %s, this build uses %s. Recompile it.",schema,get_schema_version()));
+
+            // xml block
+            byte [] xml = new byte[buf.getInt()];
+            buf.get(xml);
+            bs.js = unmarshal(xml);
+            jaxb.Network jnet = bs.js.getNetwork();
+
+            // nodes
+            int n = buf.getInt();
+            long [] node_id = read_longs(buf,n);
+            float [] node_x = read_floats(buf,n);
+            float [] node_y = read_floats(buf,n);
+            byte [] flags = new byte[n];
+            buf.get(flags);
+            jaxb.Nodes jnodes = new jaxb.Nodes();
+            for(int i=0;i<n;i++){
+                jaxb.Node jn = new jaxb.Node();
+                jn.setId(node_id[i]);
+                if(!Float.isNaN(node_x[i])) jn.setX(node_x[i]);
+                if(!Float.isNaN(node_y[i])) jn.setY(node_y[i]);
+                jn.setVsink((flags[i] & VSINK)!=0);
+                jn.setVsource((flags[i] & VSOURCE)!=0);
+                jnodes.getNode().add(jn);
+            }
+            jnet.setNodes(jnodes);
+
+            // links
+            n = buf.getInt();
+            long [] link_id = read_longs(buf,n);
+            float [] length = read_floats(buf,n);
+            int [] full_lanes = read_ints(buf,n);
+            long [] start_node = read_longs(buf,n);
+            long [] end_node = read_longs(buf,n);
+            long [] roadparam = read_longs(buf,n);
+            long [] roadgeom = read_longs(buf,n);
+            long [] alt_next_link = read_longs(buf,n);
+            String [] road_type = new String[n];
+            for(int i=0;i<n;i++)
+                road_type[i] = read_string(buf);
+            int [] point_index = read_ints(buf,n+1);
+            float [] point_x = read_floats(buf,point_index[n]);
+            float [] point_y = read_floats(buf,point_index[n]);
+            jaxb.Links jlinks = new jaxb.Links();
+            for(int i=0;i<n;i++){
+                jaxb.Link jl = new jaxb.Link();
+                jl.setId(link_id[i]);
+                jl.setLength(length[i]);
+                jl.setFullLanes(full_lanes[i]);
+                jl.setStartNodeId(start_node[i]);
+                jl.setEndNodeId(end_node[i]);
+                jl.setRoadparam(roadparam[i]);
+                if(roadgeom[i]!=NULL_ID) jl.setRoadgeom(roadgeom[i]);
+                if(alt_next_link[i]!=NULL_ID) jl.setAltNextLink(alt_next_link[i]);
+                jl.setRoadType(road_type[i]);
+                if(point_index[i+1]>point_index[i]){
+                    jaxb.Points jpoints = new jaxb.Points();
+                    for(int k=point_index[i];k<point_index[i+1];k++){
+                        jaxb.Point jp = new jaxb.Point();
+                        jp.setX(point_x[k]);
+                        jp.setY(point_y[k]);
+                        jpoints.getPoint().add(jp);
+                    }
+                    jl.setPoints(jpoints);
+                }
+                jlinks.getLink().add(jl);
+            }
+            jnet.setLinks(jlinks);
+
+            // demands
+            Demands d = bs.demands;
+            d.size = buf.getInt();
+            d.commodity_id = read_longs(buf,d.size);
+            d.link_id = read_longs(buf,d.size);
+            d.subnetwork = read_longs(buf,d.size);
+            d.start_time = read_floats(buf,d.size);
+            d.dt = read_floats(buf,d.size);
+            d.value_index = read_ints(buf,d.size+1);
+            d.values = read_doubles(buf,d.value_index[d.size]);
+
+            // splits
+            Splits s = bs.splits;
+            s.size = buf.getInt();
+            s.node_id = read_longs(buf,s.size);
+            s.commodity_id = read_longs(buf,s.size);
+            s.link_in = read_longs(buf,s.size);
+            s.start_time = read_floats(buf,s.size);
+            s.dt = read_floats(buf,s.size);
+            s.split_index = read_ints(buf,s.size+1);
+            int m = buf.getInt();
+            s.link_out = read_longs(buf,m);
+            s.value_index = read_ints(buf,m+1);
+            s.values = read_doubles(buf,s.value_index[m]);
+
+        } catch (IOException | BufferUnderflowException e) {
+            throw new OTMException(e);
+        }
+
+        return bs;
+    }
+
+    public static String get_schema_version() throws OTMException {
+        if(schema_version!=null)
+            return schema_version;
+        try (InputStream stream = BinaryScenario.class.getResourceAsStream("/otm.xsd")) {
+            if(stream==null)
+                throw new OTMException("otm.xsd not found.");
+            String xsd = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            Matcher m = Pattern.compile("<xs:schema[^>]*\\sversion=\"([^\"]*)\"").matcher(xsd);
+            if(!m.find())
+                throw new OTMException("Could not read the schema version.");
+            schema_version = m.group(1);
+            return schema_version;
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    // shallow copy without the sections that are stored as arrays
+    private static jaxb.Scenario strip(jaxb.Scenario js){
+        jaxb.Scenario x = new jaxb.Scenario();
+        x.setPlugins(js.getPlugins());
+        x.setCommodities(js.getCommodities());
+        x.setSubnetworks(js.getSubnetworks());
+        x.setModels(js.getModels());
+        x.setControllers(js.getControllers());
+        x.setActuators(js.getActuators());
+        x.setSensors(js.getSensors());
+        x.setEvents(js.getEvents());
+        jaxb.Network net = new jaxb.Network();
+        net.setRoadgeoms(js.getNetwork().getRoadgeoms());
+        net.setRoadconnections(js.getNetwork().getRoadconnections());
+        net.setRoadparams(js.getNetwork().getRoadparams());
+        x.setNetwork(net);
+        return x;
+    }
+
+    // JAXBContext is thread safe and slow to create, so one is shared by all marshal and unmarshal calls. It is
+    // created when first used, not when is_binary is called.
+    private static class ContextHolder {
+        static final JAXBContext INSTANCE;
+        static {
+            try {
+                INSTANCE = JAXBContext.newInstance(jaxb.Scenario.class);
+            } catch (JAXBException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    private static byte [] marshal(jaxb.Scenario js) throws OTMException {
+        try {
+            Marshaller marshaller = ContextHolder.INSTANCE.createMarshaller();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            marshaller.marshal(js,out);
+            return out.toByteArray();
+        } catch (JAXBException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    private static jaxb.Scenario unmarshal(byte [] xml) throws OTMException {
+        try {
+            return (jaxb.Scenario) ContextHolder.INSTANCE.createUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+        } catch (JAXBException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    private static void write_string(DataOutputStream out,String str) throws IOException {
+        if(str==null){
+            out.writeInt(-1);
+            return;
+        }
+        byte [] b = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String read_string(ByteBuffer buf){
+        int n = buf.getInt();
+        if(n<0)
+            return null;
+        byte [] b = new byte[n];
+        buf.get(b);
+        return new String(b,StandardCharsets.UTF_8);
+    }
+
+    private static void write_csr(DataOutputStream out,List<List<Double>> rows) throws IOException {
+        int k = 0;
+        out.writeInt(k);
+        for(List<Double> row : rows){
+            k += row.size();
+            out.writeInt(k);
+        }
+        for(List<Double> row : rows)
+            for(Double v : row)
+                out.writeDouble(v);
+    }
+
+    private static long [] read_longs(ByteBuffer buf,int n){
+        long [] x = new long[n];
+        buf.asLongBuffer().get(x);
+        buf.position(buf.position()+8*n);
+        return x;
+    }
+
+    private static int [] read_ints(ByteBuffer buf,int n){
+        int [] x = new int[n];
+        buf.asIntBuffer().get(x);
+        buf.position(buf.position()+4*n);
+        return x;
+    }
+
+    private static float [] read_floats(ByteBuffer buf,int n){
+        float [] x = new float[n];
+        buf.asFloatBuffer().get(x);
+        buf.position(buf.position()+4*n);
+        return x;
+    }
+
+    private static double [] read_doubles(ByteBuffer buf,int n){
+        double [] x = new double[n];
+        buf.asDoubleBuffer().get(x);
+        buf.position(buf.position()+8*n);
+        return x;
+    }
+
+    private static List<Double> to_list(double [] values,int from,int to){
+        List<Double> x = new ArrayList<>(to-from);
+        for(int k=from;k<to;k++)
+            x.add(values[k]);
+        return x;
+    }
+
+}
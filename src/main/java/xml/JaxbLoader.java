@@ -32,11 +32,15 @@ public class JaxbLoader {
         test_configs.put("line_ctm","line_ctm.xml");
         test_configs.put("line_newell","line_newell.xml");
         test_configs.put("line_spaceq","line_spaceq.xml");
+        test_configs.put("line_hybrid","line_hybrid.xml");
         test_configs.put("mixing","mixing.xml");
         test_configs.put("onramp_hov","onramp_nohov.xml");
         test_configs.put("onramp_nohov","onramp_nohov.xml");
         test_configs.put("onramp_offramp","onramp_offramp.xml");
         test_configs.put("output_test","output_test.xml");
+        test_configs.put("route_choice","route_choice.xml");
+        test_configs.put("route_choice_spaceq","route_choice_spaceq.xml");
+        test_configs.put("od_paths","od_paths.xml");
     }
 
     public static jaxb.Scenario load_scenario(String filename) throws OTMException {
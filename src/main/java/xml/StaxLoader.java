@@ -0,0 +1,149 @@
+package xml;
+
+import error.OTMException;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader for scenario files. The top level sections are unmarshalled one at a time and handed to a
+ * Handler. Demands and split nodes, which dominate the size of large scenarios, are unmarshalled and handed
+ * over one element at a time, so the full jaxb.Scenario tree is never held in memory. With validation on,
+ * each unmarshalled element is validated against otm.xsd.
+ */
+public class StaxLoader {
+
+    public interface Handler {
+        // jaxb.Plugins, jaxb.Commodities, jaxb.Network, jaxb.Subnetworks, jaxb.Models, jaxb.Controllers,
+        // jaxb.Actuators, jaxb.Sensors, jaxb.Events
+        void on_section(Object jaxb_section) throws OTMException;
+        void on_demand(jaxb.Demand jaxb_demand) throws OTMException;
+        void on_split_node(jaxb.SplitNode jaxb_split_node) throws OTMException;
+    }
+
+    public static void load_scenario(String filename,boolean validate,Handler handler) throws OTMException {
+        try (InputStream stream = new FileInputStream(filename)) {
+            load_scenario(stream,validate,handler);
+        } catch (FileNotFoundException e) {
+            throw new OTMException(e);
+        } catch (IOException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    public static void load_scenario(InputStream stream,boolean validate,Handler handler) throws OTMException {
+        try {
+            Unmarshaller unmarshaller = create_unmarshaller(validate);
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD,false);
+            XMLStreamReader reader = factory.createXMLStreamReader(stream);
+
+            // root
+            if(!to_next_child(reader) || !reader.getLocalName().equals("scenario"))
+                throw new OTMException("Scenario file must have a scenario root element.");
+            reader.next();
+
+            // sections
+            while(to_next_child(reader)){
+                switch(reader.getLocalName()){
+                    case "demands":
+                        reader.next();
+                        while(to_next_child(reader)){
+                            Object x = unmarshaller.unmarshal(reader);
+                            if(!(x instanceof jaxb.Demand))
+                                throw new OTMException("Unexpected element in demands.");
+                            handler.on_demand((jaxb.Demand) x);
+                        }
+                        break;
+                    case "splits":
+                        reader.next();
+                        while(to_next_child(reader)){
+                            Object x = unmarshaller.unmarshal(reader);
+                            if(!(x instanceof jaxb.SplitNode))
+                                throw new OTMException("Unexpected element in splits.");
+                            handler.on_split_node((jaxb.SplitNode) x);
+                        }
+                        break;
+                    default:
+                        handler.on_section(unmarshaller.unmarshal(reader));
+                }
+            }
+            reader.close();
+
+        } catch (XMLStreamException e) {
+            throw new OTMException(e);
+        } catch (SAXException e) {
+            throw new OTMException(e);
+        } catch (JAXBException e) {
+            throw new OTMException(e);
+        }
+    }
+
+    public static void load_test_scenario(String testname,boolean validate,Handler handler) throws OTMException {
+        InputStream stream = StaxLoader.class.getClassLoader().getResourceAsStream("test_configs/" + JaxbLoader.test_configs.get(testname) );
+        if(stream==null)
+            throw new OTMException("Test configuration not found: " + testname);
+        load_scenario(stream,validate,handler);
+    }
+
+    ////////////////////////////////////////////
+    // private
+    ////////////////////////////////////////////
+
+    // one thread safe JAXBContext for all loads, created on first use by the class initialization
+    private static class ContextHolder {
+        static final JAXBContext INSTANCE;
+        static {
+            try {
+                INSTANCE = JAXBContext.newInstance(jaxb.Scenario.class);
+            } catch (JAXBException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    private static Unmarshaller create_unmarshaller(boolean validate) throws JAXBException, SAXException {
+        Unmarshaller unmarshaller = ContextHolder.INSTANCE.createUnmarshaller();
+        if(validate){
+            SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            InputStream resourceAsStream = StaxLoader.class.getResourceAsStream("/otm.xsd");
+            Schema schema = sf.newSchema(new StreamSource(resourceAsStream));
+            unmarshaller.setSchema(schema);
+        }
+        return unmarshaller;
+    }
+
+    // Advance to the start of the next child element and return true, or consume the end of the
+    // current element and return false. Unmarshalling leaves the reader just past the end of the
+    // element, so the current event is checked before moving.
+    private static boolean to_next_child(XMLStreamReader reader) throws XMLStreamException {
+        while(true){
+            switch(reader.getEventType()){
+                case XMLStreamReader.START_ELEMENT:
+                    return true;
+                case XMLStreamReader.END_ELEMENT:
+                    if(reader.hasNext())
+                        reader.next();
+                    return false;
+                case XMLStreamReader.END_DOCUMENT:
+                    return false;
+                default:
+                    reader.next();
+            }
+        }
+    }
+
+}
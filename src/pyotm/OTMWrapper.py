@@ -254,6 +254,24 @@ class OTMWrapper:
                           'as_str': "link {0}, cell {1} ({2}-{3})".format(linkid, cind, startlane, endlane)})
         return x
 
+    def read_sparse_file(self,filename):
+        # reconstruct the dense matrix from a sparse output file (see output.SparseEncoder)
+        rows = []
+        current = None
+        with open(filename) as fp:
+            for line in fp:
+                tokens = line.strip().split(",")
+                if tokens[0] == 'd':
+                    current = np.array(tokens[1:], dtype=float)
+                elif tokens[0] == 's':
+                    current = current.copy()
+                    for k in range(1, len(tokens) - 1, 2):
+                        current[int(tokens[k])] = float(tokens[k + 1])
+                else:
+                    continue
+                rows.append(current)
+        return np.squeeze(np.array(rows))
+
     def load_data(self,prefix, output_folder, comm, granularity, quantity):
 
         if granularity not in ('link', 'lg', 'cell'):
@@ -275,7 +293,9 @@ class OTMWrapper:
             print("Error: File not found: " + datafile)
             return (None, None, None)
 
-        data = np.loadtxt(datafile, delimiter=',')
+        with open(datafile) as fp:
+            is_sparse = fp.read(1) in ('d', 's')
+        data = self.read_sparse_file(datafile) if is_sparse else np.loadtxt(datafile, delimiter=',')
 
         cols = []
 
@@ -1,6 +1,7 @@
 package tests;
 
 import core.OTM;
+import core.ScenarioContext;
 import error.OTMException;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -297,4 +298,37 @@ public class DebugRuns extends AbstractTest {
 
     }
 
+    @Ignore
+    @Test
+    public void benchmark_ensemble() {
+        try {
+            int num_replications = 32;
+            float duration = 3600f;
+
+            jaxb.Scenario jscenario = xml.JaxbLoader.load_test_scenario("line_spaceq");
+            jscenario.getModels().getModel().forEach(m->m.setProcess("poisson"));
+
+            jaxb.OutputRequests jaxb_ors = new jaxb.OutputRequests();
+            jaxb.OutputRequest jaxb_or = new jaxb.OutputRequest();
+            jaxb_or.setQuantity("link_veh");
+            jaxb_or.setDt(60f);
+            jaxb_ors.getOutputRequest().add(jaxb_or);
+
+            ScenarioContext context = new ScenarioContext();
+            context.keep_source = true;
+            OTM otm = new OTM(jscenario,true,context);
+            int max_threads = Runtime.getRuntime().availableProcessors();
+            for(int num_threads=1;num_threads<=max_threads;num_threads*=2){
+                long start = System.nanoTime();
+                otm.run_ensemble(jaxb_ors,num_replications,0L,0f,duration,num_threads);
+                double minutes = (System.nanoTime()-start)/6e10;
+                System.out.println(String.format("%d threads: %.1f replications per minute",num_threads,num_replications/minutes));
+            }
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
 }
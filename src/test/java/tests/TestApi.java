@@ -3,17 +3,46 @@ package tests;
 import control.AbstractController;
 import control.sigint.ControllerSignalFollower;
 import core.OTM;
+import core.Output;
+import core.ScenarioContext;
+import core.ScenarioFactory;
 import error.OTMException;
+import core.AbstractLaneGroup;
+import core.FlowAccumulatorState;
 import core.AbstractModel;
 import core.AbstractFluidModel;
+import core.DynamicTrafficAssignment;
+import core.Link;
+import demand.ODDemand;
+import demand.ODMatrix;
+import dispatch.AbstractEvent;
+import dispatch.EventODDeparture;
+import models.vehicle.spatialq.EventTransitBlockToWaiting;
+import models.vehicle.spatialq.MesoVehicle;
+import models.vehicle.spatialq.TransitBlock;
 import org.junit.Ignore;
 import org.junit.Test;
+import output.AbstractOutput;
+import output.EnsembleStatistics;
+import output.OutputLinkTravelTimeQuantile;
+import output.OutputLinkVehicles;
+import output.OutputPathTravelTime;
 import output.animation.AbstractLinkInfo;
 import output.animation.AnimationInfo;
 import output.animation.macro.LaneGroupInfo;
+import profiles.Profile1D;
+import routing.ShortestPathEngine;
+import routing.ShortestPathTree;
+import utils.AliasTable;
+import utils.QuantileSketch;
+import utils.SplitMixRandom;
+import xml.BinaryScenario;
+import xml.JaxbLoader;
 
+import java.io.File;
 import java.util.*;
 
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static org.junit.Assert.*;
 
@@ -154,6 +183,1227 @@ public class TestApi extends AbstractTest {
         }
     }
 
+    @Test
+    public void test_performance_measures(){
+        try {
+            float duration = 1800f;
+            OTM otm = OTM.load_test("line_ctm");
+            Set<Long> link_ids = otm.scenario.network.links.keySet();
+            otm.output.request_links_veh(null,null,null,link_ids,1f);
+
+            otm.initialize(0f);
+            otm.advance(duration/2);
+            double vht_half = otm.scenario.get_vht(null,null);
+            otm.advance(duration/2);
+            otm.terminate();
+
+            double vht = otm.scenario.get_vht(null,null);
+            double vkt = otm.scenario.get_vkt(null,null);
+            double delay = otm.scenario.get_delay(null,null);
+
+            // compare to the integral of the sampled vehicles
+            output.OutputLinkVehicles veh = (output.OutputLinkVehicles) otm.output.get_data().iterator().next();
+            double sampled = 0d;
+            double last = 0d;
+            for(Long link_id : link_ids) {
+                List<Double> values = veh.get_profile_for_linkid(link_id).get_values();
+                sampled += values.stream().mapToDouble(x->x).sum()/3600d;
+                last += values.get(values.size()-1)/3600d;
+            }
+
+            assertTrue(vht>0);
+            assertTrue(vht_half>0 && vht_half<vht);
+            assertEquals(sampled,vht,last+1e-6);
+            assertTrue(vkt>0);
+            assertTrue(delay>-1e-6 && delay<vht);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_performance_measures_mid_run(){
+        try {
+            // light demand: vehicles move at free flow
+            OTM otm = OTM.load_test("line_ctm");
+            long [] comm_ids = otm.scenario.commodities.keySet().stream().mapToLong(x->x).toArray();
+            double [] multipliers = new double[comm_ids.length];
+            Arrays.fill(multipliers,0.1d);
+            otm.scenario.set_demand_multipliers(comm_ids,multipliers);
+
+            otm.initialize(0f);
+            otm.advance(450f);
+            double vht_mid = otm.scenario.get_vht(null,null);
+            double delay_mid = otm.scenario.get_delay(null,null);
+            assertTrue(otm.scenario.network.links.values().stream().mapToDouble(Link::get_veh).sum()>1d);
+            otm.advance(1350f);
+            double vht_end = otm.scenario.get_vht(null,null);
+            double delay_end = otm.scenario.get_delay(null,null);
+            assertTrue(otm.scenario.network.links.values().stream().mapToDouble(Link::get_veh).sum()<0.1d);
+
+            // the vehicles still on the links are credited their free flow time, so the delay per hour
+            // traveled in the middle of the run is no larger than once every vehicle has left
+            assertTrue(delay_mid>-1e-6);
+            assertTrue(delay_end>-1e-6);
+            assertTrue(delay_mid/vht_mid < delay_end/vht_end + 1e-3);
+            assertTrue(delay_end < 0.05*vht_end);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_performance_measures_spaceq(){
+        try {
+            OTM otm = OTM.load_test("line_spaceq");
+            otm.run(0f,1800f);
+            double vht = otm.scenario.get_vht(null,null);
+            double vkt = otm.scenario.get_vkt(null,null);
+            assertTrue(vht>0);
+            assertTrue(vkt>0);
+            assertEquals(vht,otm.scenario.commodity_ids().stream().mapToDouble(c->{
+                try {
+                    return otm.scenario.get_vht(null,c);
+                } catch (OTMException e) {
+                    return Double.NaN;
+                }
+            }).sum(),1e-6);
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_streaming_loader(){
+        try {
+            for(String testname : new String[]{"line_ctm","onramp_offramp","intersection"}) {
+
+                OTM otm_jaxb = OTM.load_test(testname);
+                OTM otm_stax = new OTM(ScenarioFactory.create_test_scenario_streaming(testname,true,true),new Output());
+
+                assertEquals(otm_jaxb.scenario.network.links.keySet(),otm_stax.scenario.network.links.keySet());
+                assertEquals(otm_jaxb.scenario.commodities.keySet(),otm_stax.scenario.commodities.keySet());
+                assertEquals(otm_jaxb.scenario.demands.keySet(),otm_stax.scenario.demands.keySet());
+
+                otm_jaxb.output.request_links_veh(null,null,null,null,10f);
+                otm_stax.output.request_links_veh(null,null,null,null,10f);
+                otm_jaxb.run(0f,600f);
+                otm_stax.run(0f,600f);
+
+                OutputLinkVehicles out_jaxb = (OutputLinkVehicles) otm_jaxb.output.get_data().iterator().next();
+                OutputLinkVehicles out_stax = (OutputLinkVehicles) otm_stax.output.get_data().iterator().next();
+                for(long link_id : out_jaxb.ordered_ids)
+                    assertEquals(out_jaxb.get_profile_for_linkid(link_id).values,out_stax.get_profile_for_linkid(link_id).values);
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_binary_scenario(){
+        try {
+            for(String testname : new String[]{"line_ctm","onramp_offramp","intersection"}) {
+
+                String binfile = output_folder + File.separator + testname + ".otmb";
+                BinaryScenario.save(JaxbLoader.load_test_scenario(testname),binfile);
+                assertTrue(BinaryScenario.is_binary(binfile));
+
+                OTM otm_xml = OTM.load_test(testname);
+                OTM otm_bin = new OTM(binfile,true);
+
+                assertEquals(otm_xml.scenario.network.links.keySet(),otm_bin.scenario.network.links.keySet());
+                assertEquals(otm_xml.scenario.demands.keySet(),otm_bin.scenario.demands.keySet());
+
+                otm_xml.output.request_links_veh(null,null,null,null,10f);
+                otm_bin.output.request_links_veh(null,null,null,null,10f);
+                otm_xml.run(0f,600f);
+                otm_bin.run(0f,600f);
+
+                OutputLinkVehicles out_xml = (OutputLinkVehicles) otm_xml.output.get_data().iterator().next();
+                OutputLinkVehicles out_bin = (OutputLinkVehicles) otm_bin.output.get_data().iterator().next();
+                for(long link_id : out_xml.ordered_ids)
+                    assertEquals(out_xml.get_profile_for_linkid(link_id).values,out_bin.get_profile_for_linkid(link_id).values);
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_checkpoint_restore(){
+        try {
+            for(String testname : new String[]{"line_ctm","line_spaceq","line_newell","line_hybrid"}) {
+
+                String ckptfile = output_folder + File.separator + testname + ".ckpt";
+
+                // continuous run with a checkpoint in the middle
+                OTM otm_a = OTM.load_test(testname);
+                otm_a.set_random_seed(1);
+                otm_a.initialize(0f);
+                otm_a.advance(300f);
+                otm_a.checkpoint(ckptfile);
+                otm_a.advance(300f);
+
+                // restored run
+                OTM otm_b = OTM.load_test(testname);
+                otm_b.restore(ckptfile);
+                assertEquals(300f,otm_b.get_current_time(),0f);
+                otm_b.advance(300f);
+
+                assertEquals(otm_a.get_current_time(),otm_b.get_current_time(),0f);
+                double total = 0d;
+                for(Long link_id : otm_a.scenario.network.links.keySet()) {
+                    double veh = otm_a.scenario.network.links.get(link_id).get_veh();
+                    assertEquals(veh,otm_b.scenario.network.links.get(link_id).get_veh(),1e-6);
+                    total += veh;
+                }
+                assertTrue(total>0);
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_fork(){
+        try {
+            OTM otm = OTM.load_test("line_ctm",keep_source());
+            otm.initialize(0f);
+            otm.advance(300f);
+
+            List<OTM> forks = new ArrayList<>();
+            for(int i=0;i<4;i++)
+                forks.add(otm.fork());
+            assertNotSame(otm.scenario.network,forks.get(0).scenario.network);
+
+            otm.advance(300f);
+            OTM.advance_concurrent(forks,300f,2);
+
+            for(OTM fork : forks){
+                assertEquals(otm.get_current_time(),fork.get_current_time(),0f);
+                for(Long link_id : otm.scenario.network.links.keySet())
+                    assertEquals(otm.scenario.network.links.get(link_id).get_veh(),
+                                 fork.scenario.network.links.get(link_id).get_veh(),1e-6);
+                assertEquals(otm.scenario.get_vht(null,null),fork.scenario.get_vht(null,null),1e-6);
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_fork_overrides(){
+        try {
+            OTM otm = OTM.load_test("line_ctm",keep_source());
+            long [] comm_ids = otm.scenario.commodities.keySet().stream().mapToLong(x->x).toArray();
+            double [] half = new double[comm_ids.length];
+            Arrays.fill(half,0.5d);
+            otm.scenario.set_demand_multipliers(comm_ids,half);
+            otm.initialize(0f);
+
+            // a bottleneck on the last links
+            long [] link_ids = {3L,4L,5L};
+            float capacity = otm.scenario.network.links.get(3L).get_lgs().get(0).get_road_params().getCapacity();
+            float [] low = new float[link_ids.length];
+            float [] nan = new float[link_ids.length];
+            Arrays.fill(low,capacity/4f);
+            Arrays.fill(nan,Float.NaN);
+            otm.scenario.set_road_params(link_ids,low,nan,nan);
+            otm.advance(600f);
+
+            // the fork has the same parameters and multipliers, so it stays on the same trajectory
+            OTM fork = otm.fork();
+            for(long link_id : link_ids)
+                assertEquals(capacity/4f,fork.scenario.network.links.get(link_id).get_lgs().get(0).get_road_params().getCapacity(),1e-3);
+            assertEquals(capacity,fork.scenario.network.links.get(1L).get_lgs().get(0).get_road_params().getCapacity(),1e-3);
+
+            otm.advance(900f);
+            fork.advance(900f);
+            for(Long link_id : otm.scenario.network.links.keySet())
+                assertEquals(otm.scenario.network.links.get(link_id).get_veh(),
+                             fork.scenario.network.links.get(link_id).get_veh(),1e-6);
+            assertEquals(otm.scenario.get_vht(null,null),fork.scenario.get_vht(null,null),1e-6);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_keep_source(){
+        try {
+            // by default the configuration is released, so the scenario cannot be forked
+            OTM otm = OTM.load_test("line_ctm");
+            otm.initialize(0f);
+            try {
+                otm.fork();
+                fail();
+            } catch (OTMException e) {
+                assertTrue(e.getMessage().contains("keep_source"));
+            }
+
+            // forks keep the configuration, so they can be forked again
+            otm = OTM.load_test("line_ctm",keep_source());
+            otm.initialize(0f);
+            otm.advance(300f);
+            OTM fork = otm.fork();
+            assertTrue(fork.scenario.context.keep_source);
+            fork.fork();
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_context_settings(){
+        try {
+            // a node model tolerance above any supply blocks every node, so nothing leaves the source link
+            ScenarioContext context = keep_source();
+            context.node_model_eps = 1e9;
+            OTM otm = OTM.load_test("line_ctm",context);
+            assertSame(context,otm.scenario.context);
+            otm.initialize(0f);
+            otm.advance(600f);
+            assertTrue(otm.scenario.network.links.get(0L).get_veh()>0d);
+            for(Link link : otm.scenario.network.links.values())
+                if(link.getId()!=0L)
+                    assertEquals(0d,link.get_veh(),0d);
+
+            // forks keep the settings
+            OTM fork = otm.fork();
+            assertEquals(1e9,fork.scenario.context.node_model_eps,0d);
+            fork.advance(600f);
+            for(Link link : fork.scenario.network.links.values())
+                if(link.getId()!=0L)
+                    assertEquals(0d,link.get_veh(),0d);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_concurrent_scenarios(){
+        try {
+            List<OTM> otms = new ArrayList<>();
+            for(int i=0;i<4;i++) {
+                OTM otm = OTM.load_test("line_spaceq");
+                otm.set_random_seed(7);
+                otm.initialize(0f);
+                otms.add(otm);
+            }
+            OTM.advance_concurrent(otms,1800f,4);
+
+            OTM first = otms.get(0);
+            assertTrue(first.scenario.context.get_vehicle_id_count()>0);
+            for(OTM otm : otms) {
+                assertEquals(first.scenario.context.get_vehicle_id_count(),otm.scenario.context.get_vehicle_id_count());
+                for(Long link_id : first.scenario.network.links.keySet())
+                    assertEquals(first.scenario.network.links.get(link_id).get_veh(),
+                                 otm.scenario.network.links.get(link_id).get_veh(),0d);
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_concurrent_construction(){
+        // the links have no road connections in the file, so they are generated with new ids
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(8);
+        try {
+            Set<List<Long>> expected = road_connections(new OTM(long_line(1000),false));
+            assertEquals(999,expected.size());
+
+            List<java.util.concurrent.Future<Set<List<Long>>>> futures = new ArrayList<>();
+            for(int i=0;i<16;i++)
+                futures.add(pool.submit(() -> road_connections(new OTM(long_line(1000),false))));
+            for(java.util.concurrent.Future<Set<List<Long>>> future : futures)
+                assertEquals(expected,future.get());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // context that keeps the configuration, needed by fork, run_ensemble and the dynamic traffic assignment
+    private static ScenarioContext keep_source(){
+        ScenarioContext context = new ScenarioContext();
+        context.keep_source = true;
+        return context;
+    }
+
+    // line_ctm with num_links links
+    private static jaxb.Scenario long_line(int num_links) throws OTMException {
+        jaxb.Scenario js = JaxbLoader.load_test_scenario("line_ctm");
+        List<jaxb.Node> nodes = js.getNetwork().getNodes().getNode();
+        List<jaxb.Link> links = js.getNetwork().getLinks().getLink();
+        nodes.clear();
+        links.clear();
+        for(int i=0;i<=num_links;i++){
+            jaxb.Node node = new jaxb.Node();
+            node.setId(i);
+            node.setX(500f*i);
+            node.setY(0f);
+            nodes.add(node);
+        }
+        for(int i=0;i<num_links;i++){
+            jaxb.Link link = new jaxb.Link();
+            link.setId(i);
+            link.setLength(500f);
+            link.setFullLanes(1);
+            link.setStartNodeId(i);
+            link.setEndNodeId(i+1);
+            link.setRoadparam(1L);
+            links.add(link);
+        }
+        return js;
+    }
+
+    // id, start link and end link of every road connection
+    private static Set<List<Long>> road_connections(OTM otm){
+        Set<List<Long>> X = new HashSet<>();
+        for(core.RoadConnection rc : otm.scenario.network.road_connections.values())
+            X.add(List.of(rc.getId(),
+                    rc.get_start_link()==null ? -1L : rc.get_start_link().getId(),
+                    rc.get_end_link()==null ? -1L : rc.get_end_link().getId()));
+        return X;
+    }
+
+    @Test
+    public void test_parallel_construction(){
+        try {
+            ScenarioContext sequential = new ScenarioContext();
+            sequential.construction_threads = 1;
+            ScenarioContext parallel = new ScenarioContext();
+            parallel.construction_threads = 4;
+            OTM otm_a = OTM.load_test("onramp_offramp",sequential);
+            OTM otm_b = OTM.load_test("onramp_offramp",parallel);
+            assertEquals(1,otm_a.scenario.context.construction_threads);
+            assertEquals(4,otm_b.scenario.context.construction_threads);
+
+            // lane group ids are assigned in link id order, independently of the construction threads
+            for(Long link_id : otm_a.scenario.network.links.keySet()){
+                List<AbstractLaneGroup> lgs_a = new ArrayList<>(otm_a.scenario.network.links.get(link_id).get_lgs());
+                List<AbstractLaneGroup> lgs_b = new ArrayList<>(otm_b.scenario.network.links.get(link_id).get_lgs());
+                assertEquals(lgs_a.size(),lgs_b.size());
+                for(int i=0;i<lgs_a.size();i++){
+                    assertEquals(lgs_a.get(i).getId(),lgs_b.get(i).getId());
+                    assertEquals(lgs_a.get(i).get_start_lane_dn(),lgs_b.get(i).get_start_lane_dn());
+                    assertEquals(lgs_a.get(i).get_num_lanes(),lgs_b.get(i).get_num_lanes());
+                }
+            }
+
+            otm_a.initialize(0f);
+            otm_b.initialize(0f);
+            otm_a.advance(1800f);
+            otm_b.advance(1800f);
+            for(Long link_id : otm_a.scenario.network.links.keySet())
+                assertEquals(otm_a.scenario.network.links.get(link_id).get_veh(),
+                             otm_b.scenario.network.links.get(link_id).get_veh(),0d);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_reinitialize(){
+        try {
+            for(String testname : new String[]{"line_ctm","line_spaceq","line_newell"}) {
+                OTM otm = OTM.load_test(testname);
+                Set<Long> link_ids = otm.scenario.network.links.keySet();
+                otm.output.request_links_veh(null,null,null,link_ids,10f);
+
+                otm.set_random_seed(3);
+                otm.initialize(0f);
+                otm.advance(900f);
+                double vht = otm.scenario.get_vht(null,null);
+                List<Double> veh = ((OutputLinkVehicles) otm.output.get_data().iterator().next()).get_profile_for_linkid(2L).get_values();
+                Object perf = otm.scenario.network.links.get(2L).perf;
+
+                // the second initialization reuses the state containers
+                otm.set_random_seed(3);
+                otm.initialize(0f);
+                assertSame(perf,otm.scenario.network.links.get(2L).perf);
+                assertEquals(0d,otm.scenario.get_vht(null,null),0d);
+                otm.advance(900f);
+
+                assertEquals(vht,otm.scenario.get_vht(null,null),1e-9);
+                assertEquals(veh,((OutputLinkVehicles) otm.output.get_data().iterator().next()).get_profile_for_linkid(2L).get_values());
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_reset(){
+        try {
+            for(String testname : new String[]{"intersection","onramp_hov","line_spaceq"}) {
+
+                OTM otm_fresh = OTM.load_test(testname);
+                otm_fresh.set_random_seed(5);
+                otm_fresh.initialize(0f);
+                otm_fresh.advance(600f);
+
+                OTM otm = OTM.load_test(testname);
+                otm.initialize(0f);
+                otm.advance(300f);
+                otm.set_random_seed(5);
+                otm.reset();
+                assertEquals(0f,otm.get_current_time(),0f);
+                otm.advance(600f);
+
+                assertEquals(otm_fresh.scenario.get_vht(null,null),otm.scenario.get_vht(null,null),1e-9);
+                for(Long link_id : otm.scenario.network.links.keySet())
+                    assertEquals(otm_fresh.scenario.network.links.get(link_id).get_veh(),
+                                 otm.scenario.network.links.get(link_id).get_veh(),1e-9);
+            }
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_batch_parameters_vehicles(){
+        try {
+            OTM otm = OTM.load_test("line_spaceq");
+            otm.initialize(0f);
+            otm.advance(900f);
+
+            long [] link_ids = otm.scenario.network.links.keySet().stream().mapToLong(x->x).toArray();
+            int n = link_ids.length;
+            float [] nan = new float[n];
+            Arrays.fill(nan,Float.NaN);
+            Map<Long,jaxb.Roadparam> before = new HashMap<>();
+            for(long link_id : link_ids)
+                before.put(link_id,otm.scenario.network.links.get(link_id).get_lgs().get(0).get_road_params());
+            assertTrue(otm.scenario.network.links.values().stream().anyMatch(link->link.get_veh()>0d));
+
+            // a jam density below the current vehicles of a loaded link rejects the whole batch
+            float [] half = new float[n];
+            float [] jam = new float[n];
+            for(int i=0;i<n;i++) {
+                half[i] = before.get(link_ids[i]).getCapacity()/2f;
+                jam[i] = 1e-3f;
+            }
+            try {
+                otm.scenario.set_road_params(link_ids,half,nan,jam);
+                fail();
+            } catch (OTMException e) {
+                assertTrue(e.errorLog.format_errors().contains("maximum vehicles"));
+            }
+            for(long link_id : link_ids){
+                jaxb.Roadparam rp = otm.scenario.network.links.get(link_id).get_lgs().get(0).get_road_params();
+                assertEquals(before.get(link_id).getCapacity(),rp.getCapacity(),1e-3);
+                assertEquals(before.get(link_id).getJamDensity(),rp.getJamDensity(),1e-3);
+            }
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_batch_parameters(){
+        try {
+            OTM otm = OTM.load_test("line_ctm");
+            otm.initialize(0f);
+            otm.advance(900f);
+            double vht = otm.scenario.get_vht(null,null);
+
+            long [] link_ids = otm.scenario.network.links.keySet().stream().mapToLong(x->x).toArray();
+            int n = link_ids.length;
+            float [] nan = new float[n];
+            Arrays.fill(nan,Float.NaN);
+
+            // a CFL violation rejects the whole batch
+            float [] fast = new float[n];
+            Arrays.fill(fast,10000f);
+            float capacity = otm.scenario.network.links.get(1L).get_lgs().get(0).get_road_params().getCapacity();
+            try {
+                otm.scenario.set_road_params(link_ids,nan,fast,nan);
+                fail();
+            } catch (OTMException e) {
+                assertTrue(e.errorLog.format_errors().contains("maximum step size"));
+            }
+            assertEquals(capacity,otm.scenario.network.links.get(1L).get_lgs().get(0).get_road_params().getCapacity(),1e-3);
+
+            // lower capacity and demand
+            float [] low = new float[n];
+            Arrays.fill(low,capacity/4f);
+            otm.scenario.set_road_params(link_ids,low,nan,nan);
+            assertEquals(capacity/4f,otm.scenario.network.links.get(1L).get_lgs().get(0).get_road_params().getCapacity(),1e-3);
+
+            long [] comm_ids = otm.scenario.commodities.keySet().stream().mapToLong(x->x).toArray();
+            double [] zero = new double[comm_ids.length];
+            otm.scenario.set_demand_multipliers(comm_ids,zero);
+            otm.reset();
+            otm.advance(900f);
+            assertEquals(0d,otm.scenario.get_vht(null,null),1e-9);
+
+            double [] one = new double[comm_ids.length];
+            Arrays.fill(one,1d);
+            otm.scenario.set_demand_multipliers(comm_ids,one);
+            otm.reset();
+            otm.advance(900f);
+            assertTrue(otm.scenario.get_vht(null,null)>vht);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_ensemble(){
+        try {
+            jaxb.Scenario jscenario = JaxbLoader.load_test_scenario("line_spaceq");
+            jscenario.getModels().getModel().forEach(m->m.setProcess("poisson"));
+
+            jaxb.OutputRequests jaxb_ors = new jaxb.OutputRequests();
+            jaxb.OutputRequest jaxb_or = new jaxb.OutputRequest();
+            jaxb_or.setQuantity("link_veh");
+            jaxb_or.setDt(60f);
+            jaxb_ors.getOutputRequest().add(jaxb_or);
+
+            int num_replications = 4;
+            OTM otm = new OTM(jscenario,true,keep_source());
+            List<EnsembleStatistics> statistics = otm.run_ensemble(jaxb_ors,num_replications,10L,0f,600f,2);
+            assertEquals(1,statistics.size());
+            EnsembleStatistics stats = statistics.get(0);
+            assertEquals(num_replications,stats.get_num_replications());
+
+            // same values as separate runs with the same seeds
+            Map<Long,List<List<Double>>> runs = new HashMap<>();
+            for(int i=0;i<num_replications;i++){
+                OTM run = new OTM(jscenario,true);
+                run.set_random_seed(10L+i);
+                run.output.request_links_veh(null,null,null,null,60f);
+                run.run(0f,600f);
+                OutputLinkVehicles out = (OutputLinkVehicles) run.output.get_data().iterator().next();
+                for(long link_id : stats.get_element_ids())
+                    runs.computeIfAbsent(link_id,x->new ArrayList<>()).add(out.get_profile_for_linkid(link_id).values);
+            }
+
+            boolean stochastic = false;
+            for(long link_id : stats.get_element_ids()){
+                List<Double> mean = stats.get_mean(link_id).values;
+                List<Double> variance = stats.get_variance(link_id).values;
+                for(int k=0;k<mean.size();k++){
+                    double sum = 0d;
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    for(List<Double> run : runs.get(link_id)) {
+                        double x = run.get(k);
+                        sum += x;
+                        min = Math.min(min,x);
+                        max = Math.max(max,x);
+                    }
+                    double m = sum/num_replications;
+                    double ss = 0d;
+                    for(List<Double> run : runs.get(link_id))
+                        ss += (run.get(k)-m)*(run.get(k)-m);
+                    assertEquals(m,mean.get(k),1e-9);
+                    assertEquals(ss/(num_replications-1),variance.get(k),1e-9);
+                    assertEquals(min,stats.get_quantile(link_id,0d).values.get(k),1e-9);
+                    assertEquals(max,stats.get_quantile(link_id,1d).values.get(k),1e-9);
+                    stochastic |= variance.get(k)>0d;
+                }
+            }
+            assertTrue(stochastic);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_ensemble_context(){
+        try {
+            jaxb.OutputRequests jaxb_ors = new jaxb.OutputRequests();
+            jaxb.OutputRequest jaxb_or = new jaxb.OutputRequest();
+            jaxb_or.setQuantity("link_veh");
+            jaxb_or.setDt(60f);
+            jaxb_ors.getOutputRequest().add(jaxb_or);
+
+            // replications use the node model settings of the parent: this tolerance blocks every node
+            ScenarioContext context = keep_source();
+            context.node_model_eps = 1e9;
+            OTM otm = OTM.load_test("line_ctm",context);
+            EnsembleStatistics stats = otm.run_ensemble(jaxb_ors,2,0L,0f,600f,2).get(0);
+            for(long link_id : stats.get_element_ids())
+                if(link_id!=0L)
+                    for(double x : stats.get_mean(link_id).values)
+                        assertEquals(0d,x,0d);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_vehicle_timer_memory(){
+        try {
+            // constant demand below capacity, so the number of vehicles in the network stays bounded
+            jaxb.Scenario jscenario = JaxbLoader.load_test_scenario("line_spaceq");
+            jscenario.getDemands().getDemand().get(0).setContent("900");
+
+            OTM otm = new OTM(jscenario,true);
+            otm.scenario.add_link_travel_times(otm.scenario.network.links.keySet(),60f);
+            otm.initialize(0f);
+            otm.advance(3600f);
+            long used_start = get_used_memory();
+
+            // 40 hours, about 36000 vehicles through every lane group
+            otm.advance(144000f);
+            long used_end = get_used_memory();
+
+            assertTrue(String.format("memory grew by %d bytes",used_end-used_start),used_end-used_start < 4000000L);
+            for(core.Link link : otm.scenario.network.links.values())
+                assertEquals(20d,link.link_tt.instantaneous_travel_time,2d);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    private static long get_used_memory(){
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0;i<5;i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void test_path_travel_time_modes(){
+        try {
+            float dt = 60f;
+            OTM otm = OTM.load_test("onramp_offramp");
+            otm.output.request_path_travel_time(null,null,1L,dt,"instantaneous");
+            otm.output.request_path_travel_time(null,null,1L,dt,"predictive");
+            otm.output.request_path_travel_time(null,null,1L,dt,"experienced");
+            commodity.Path path = (commodity.Path) otm.scenario.subnetworks.get(1L);
+
+            // record the link travel times of every interval
+            Map<Long,Map<Float,Double>> link_tt = new HashMap<>();
+            otm.initialize(0f);
+            for(int k=0;k<60;k++){
+                otm.advance(dt);
+                for(core.Link link : path.get_ordered_links())
+                    link_tt.computeIfAbsent(link.getId(),x->new HashMap<>())
+                            .put(link.link_tt.get_last_update_time(),link.link_tt.instantaneous_travel_time);
+            }
+            otm.terminate();
+
+            Map<OutputPathTravelTime.Mode,List<Double>> values = new HashMap<>();
+            for(AbstractOutput output : otm.output.get_data())
+                values.put(((OutputPathTravelTime) output).mode,((OutputPathTravelTime) output).get_travel_times_sec());
+            int n = values.get(OutputPathTravelTime.Mode.instantaneous).size();
+            assertEquals(n,values.get(OutputPathTravelTime.Mode.predictive).size());
+            assertEquals(n,values.get(OutputPathTravelTime.Mode.experienced).size());
+
+            float last_update = path.get_ordered_links().get(0).link_tt.get_last_update_time();
+            for(int k=0;k<n;k++){
+
+                // walk the path through the recorded travel times
+                double time = k*dt;
+                for(core.Link link : path.get_ordered_links()) {
+                    float interval = Math.min(last_update, (float) (Math.floor(time/dt)*dt));
+                    time += interval==0f ? link.link_tt.get_travel_time(0f) : link_tt.get(link.getId()).get(interval);
+                }
+                assertEquals(time-k*dt,values.get(OutputPathTravelTime.Mode.experienced).get(k),1e-3);
+
+                assertTrue(values.get(OutputPathTravelTime.Mode.instantaneous).get(k)>0d);
+                assertTrue(values.get(OutputPathTravelTime.Mode.predictive).get(k)>0d);
+            }
+
+            // the first prediction only knows the first link travel times
+            assertEquals(values.get(OutputPathTravelTime.Mode.predictive).get(0),
+                         values.get(OutputPathTravelTime.Mode.instantaneous).get(0),1e-6);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_path_travel_time_prediction(){
+        try {
+            float dt = 60f;
+            OTM otm = OTM.load_test("onramp_offramp");
+            otm.output.request_path_travel_time(null,null,1L,dt,"instantaneous");
+            otm.output.request_path_travel_time(null,null,1L,dt,"predictive");
+            otm.output.request_path_travel_time(null,null,1L,dt,"experienced");
+
+            // first run: no previous run, so the links reached later are predicted with their last values
+            otm.initialize(0f);
+            otm.advance(3600f);
+            Map<OutputPathTravelTime.Mode,List<Double>> first = new HashMap<>();
+            for(AbstractOutput output : otm.output.get_data())
+                first.put(((OutputPathTravelTime) output).mode,new ArrayList<>(((OutputPathTravelTime) output).get_travel_times_sec()));
+
+            // second run of the same deterministic scenario: the predictions use the first run
+            otm.reset();
+            otm.advance(3600f);
+            Map<OutputPathTravelTime.Mode,List<Double>> second = new HashMap<>();
+            for(AbstractOutput output : otm.output.get_data())
+                second.put(((OutputPathTravelTime) output).mode,((OutputPathTravelTime) output).get_travel_times_sec());
+
+            List<Double> experienced = first.get(OutputPathTravelTime.Mode.experienced);
+            List<Double> predictive = second.get(OutputPathTravelTime.Mode.predictive);
+            List<Double> instantaneous = second.get(OutputPathTravelTime.Mode.instantaneous);
+            assertEquals(experienced,second.get(OutputPathTravelTime.Mode.experienced));
+            assertTrue(experienced.size()>10);
+            boolean differs = false;
+            for(int k=0;k<experienced.size();k++) {
+                assertEquals(experienced.get(k),predictive.get(k),1e-6);
+                differs |= Math.abs(predictive.get(k)-instantaneous.get(k))>1d;
+            }
+            assertTrue(differs);
+            assertNotEquals(first.get(OutputPathTravelTime.Mode.predictive),predictive);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_shortest_paths(){
+        try {
+
+            // free flow costs: the trees match an exhaustive search over simple paths
+            OTM otm = OTM.load_test("intersection");
+            ShortestPathEngine engine = otm.scenario.get_shortest_path_engine(false);
+            for(core.Link origin : engine.graph.links){
+                ShortestPathTree tree = engine.one_to_all(origin.getId(),0f);
+                Map<Long,Double> best = new HashMap<>();
+                enumerate_paths(engine,new ArrayList<>(List.of(engine.graph.get_index(origin.getId()))),origin.get_ff_travel_time(),best);
+                for(core.Link dest : engine.graph.links){
+                    if(!best.containsKey(dest.getId())){
+                        assertFalse(tree.is_reachable(dest.getId()));
+                        assertTrue(engine.shortest_path(origin.getId(),dest.getId(),0f).isEmpty());
+                        continue;
+                    }
+                    assertEquals(best.get(dest.getId()),tree.get_travel_time(dest.getId()),1e-6);
+                    assertEquals(tree.get_path(dest.getId()),engine.shortest_path(origin.getId(),dest.getId(),0f));
+                }
+            }
+
+            // measured costs on a network with coordinates: A* and the batched queries agree with the trees
+            otm = OTM.load_test("mixing");
+            otm.scenario.add_link_travel_times(otm.scenario.network.links.keySet(),60f);
+            otm.initialize(0f);
+            otm.advance(1800f);
+            engine = otm.scenario.get_shortest_path_engine(true);
+            long [] ids = Arrays.stream(engine.graph.links).mapToLong(core.Link::getId).toArray();
+            double [][] X = engine.many_to_many(ids,ids,1800f,3);
+            for(int i=0;i<ids.length;i++){
+                ShortestPathTree tree = engine.one_to_all(ids[i],1800f);
+                for(int j=0;j<ids.length;j++){
+                    double tt = tree.get_travel_time(ids[j]);
+                    assertEquals(tt,X[i][j],0d);
+                    if(Double.isNaN(tt))
+                        continue;
+                    assertEquals(tt,engine.get_travel_time(ids[i],ids[j],1800f),1e-6);
+
+                    // walking the path through the link costs gives its travel time
+                    double time = 1800d;
+                    for(Long link_id : tree.get_path(ids[j]))
+                        time += engine.cost.get_travel_time(otm.scenario.network.links.get(link_id),time);
+                    assertEquals(tt,time-1800d,1e-6);
+                }
+            }
+            otm.terminate();
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_shortest_paths_changing_costs(){
+        try {
+            // the costs of the alternative route (links 3 and 4) drop after the engine is built, as measured
+            // travel times may do, and make it the fastest route from link 1 to link 5
+            OTM otm = OTM.load_test("route_choice");
+            double [] scale = {1d};
+            routing.LinkCost cost = new routing.LinkCost() {
+                @Override
+                public double get_travel_time(core.Link link, double entry_time) {
+                    return link.getId()==3L || link.getId()==4L ? scale[0]*link.get_ff_travel_time() : link.get_ff_travel_time();
+                }
+                @Override
+                public double get_min_travel_time(core.Link link) {
+                    return get_travel_time(link,0d);
+                }
+            };
+            ShortestPathEngine engine = new ShortestPathEngine(new routing.RoadGraph(otm.scenario.network),cost);
+            scale[0] = 0.3d;
+            assertEquals(List.of(1L,3L,4L,5L),engine.shortest_path(1L,5L,0f));
+
+            // A* still returns the fastest paths of the trees
+            long [] ids = Arrays.stream(engine.graph.links).mapToLong(core.Link::getId).toArray();
+            for(long origin : ids){
+                ShortestPathTree tree = engine.one_to_all(origin,0f);
+                for(long dest : ids)
+                    if(tree.is_reachable(dest))
+                        assertEquals(tree.get_travel_time(dest),engine.get_travel_time(origin,dest,0f),1e-6);
+            }
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    // fastest free flow time to every link over the simple paths that extend the given one
+    private static void enumerate_paths(ShortestPathEngine engine,List<Integer> path,double time,Map<Long,Double> best){
+        int u = path.get(path.size()-1);
+        best.merge(engine.graph.links[u].getId(),time,Math::min);
+        for(int e=engine.graph.offsets[u];e<engine.graph.offsets[u+1];e++){
+            int v = engine.graph.targets[e];
+            if(path.contains(v))
+                continue;
+            path.add(v);
+            enumerate_paths(engine,path,time+engine.graph.links[v].get_ff_travel_time(),best);
+            path.remove(path.size()-1);
+        }
+    }
+
+    @Test
+    public void test_dynamic_traffic_assignment(){
+        try {
+            ScenarioContext context = keep_source();
+            context.construction_threads = 1;
+            context.node_model_max_iterations = 20;
+            OTM otm = OTM.load_test("route_choice",context);
+            float dt = 300f;
+            DynamicTrafficAssignment dta = otm.run_dta(0f,3600f,dt,5,1e-3);
+
+            // the rebuilt scenario was constructed with the settings of the original one
+            assertNotSame(context,otm.scenario.context);
+            assertEquals(1,otm.scenario.context.construction_threads);
+            assertEquals(20,otm.scenario.context.node_model_max_iterations);
+
+            // the alternative route is found and takes demand from the congested one
+            List<Double> gaps = dta.get_relative_gaps();
+            assertEquals(5,gaps.size());
+            assertEquals(1,dta.get_num_paths_added());
+            assertEquals(2,dta.get_path_ids().size());
+            assertTrue(gaps.get(gaps.size()-1) < gaps.get(0)/2);
+
+            // demand is conserved in every interval, and the demand profiles hold the path flows
+            Profile1D flow1 = dta.get_path_flow(1L);
+            Profile1D flow2 = dta.get_path_flow(dta.get_path_ids().get(1));
+            for(int k=0;k<dta.num_intervals;k++)
+                assertEquals(k*dt<1800f ? 2400d : 0d,flow1.get_ith_value(k)+flow2.get_ith_value(k),1e-6);
+            assertTrue(flow2.get_ith_value(1)>0d);
+            double vps = otm.scenario.get_demands_for_commodity(1L).stream()
+                    .mapToDouble(p->p.get_value_for_time(dt)).sum();
+            assertEquals(2400d/3600d,vps,1e-9);
+
+            // further iterations reset the scenario without rebuilding it
+            core.Scenario scenario = otm.scenario;
+            dta.run(2,0d);
+            assertSame(scenario,otm.scenario);
+            assertEquals(7,dta.get_relative_gaps().size());
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_enroute_routing(){
+        try {
+            // the splits send all vehicles to link 2, which is a bottleneck. Link 3 is the longer alternative.
+            double [] max_alt_vehicles = new double[3];
+            double [] delay = new double[3];
+            for(int i=0;i<3;i++){
+                OTM otm = OTM.load_test("route_choice_spaceq");
+                if(i>0)
+                    otm.scenario.set_enroute_routing(1L,1d,60f,i==2);
+                otm.initialize(0f);
+                for(int k=0;k<12;k++){
+                    otm.advance(300f);
+                    max_alt_vehicles[i] = Math.max(max_alt_vehicles[i],otm.scenario.network.links.get(3L).get_veh());
+                }
+                delay[i] = otm.scenario.get_delay(null,null);
+                otm.terminate();
+            }
+
+            assertEquals(0d,max_alt_vehicles[0],0d);
+            assertTrue(max_alt_vehicles[1]>0d);
+            assertTrue(max_alt_vehicles[2]>0d);
+            assertTrue(delay[1]<delay[0]);
+            assertTrue(delay[2]<delay[0]);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_alias_split_sampling(){
+        try {
+            // frequencies of an alias table match the weights
+            Map<Long,Double> weights = new HashMap<>();
+            weights.put(1L,0.5);
+            weights.put(2L,0.3);
+            weights.put(3L,0.2);
+            weights.put(4L,0d);
+            AliasTable table = new AliasTable(weights);
+            Random random = new SplitMixRandom(3L);
+            Map<Long,Integer> counts = new HashMap<>();
+            int n = 200000;
+            for(int i=0;i<n;i++)
+                counts.merge(table.sample(random),1,Integer::sum);
+            assertEquals(3,table.size());
+            assertFalse(counts.containsKey(4L));
+            for(long id=1;id<=3;id++)
+                assertEquals(weights.get(id),counts.get(id)/(double)n,0.01);
+
+            // link samples follow the current splits and repeat with the seed, regardless of other draws
+            List<List<Long>> samples = new ArrayList<>();
+            for(int k=0;k<2;k++) {
+                OTM otm = OTM.load_test("route_choice_spaceq");
+                otm.set_random_seed(5L);
+                otm.initialize(0f);
+                if(k==1)
+                    otm.scenario.context.get_random().nextDouble();
+                Link link = otm.scenario.network.links.get(1L);
+                Map<Long,Double> splits = new HashMap<>();
+                splits.put(2L,0.25);
+                splits.put(3L,0.75);
+                link.get_split_profile(1L).set_all_current_splits(splits);
+                List<Long> x = new ArrayList<>();
+                for(int i=0;i<10000;i++)
+                    x.add(link.sample_next_link(1L));
+                samples.add(x);
+                otm.terminate();
+            }
+            assertEquals(samples.get(0),samples.get(1));
+            assertEquals(0.75,samples.get(0).stream().filter(id->id==3L).count()/10000d,0.02);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_travel_time_sketches(){
+        try {
+            // fluid model: path sketch of experienced travel times and link quantile output
+            float dt = 60f;
+            OTM otm = OTM.load_test("onramp_offramp");
+            otm.output.request_path_travel_time(null,null,1L,dt,"experienced");
+            commodity.Path path = (commodity.Path) otm.scenario.subnetworks.get(1L);
+            List<Long> path_link_ids = path.get_ordered_links().stream().map(x->x.getId()).collect(toList());
+            otm.output.request_links_travel_time_quantile(null,null,path_link_ids,dt,0.95);
+            otm.initialize(0f);
+            otm.advance(3600f);
+
+            QuantileSketch path_sketch = otm.scenario.path_tt_manager.get_path_sketch(1L);
+            OutputPathTravelTime path_output = null;
+            OutputLinkTravelTimeQuantile quantile_output = null;
+            for(AbstractOutput output : otm.output.get_data()) {
+                if (output instanceof OutputPathTravelTime)
+                    path_output = (OutputPathTravelTime) output;
+                if (output instanceof OutputLinkTravelTimeQuantile)
+                    quantile_output = (OutputLinkTravelTimeQuantile) output;
+            }
+            otm.terminate();
+
+            // short streams are exact, and trips are closed in departure order
+            List<Double> experienced = path_output.get_travel_times_sec();
+            assertTrue(path_sketch.get_count()>0 && path_sketch.get_count()<=experienced.size());
+            QuantileSketch exact = new QuantileSketch();
+            for(int i=0;i<path_sketch.get_count();i++)
+                exact.add(experienced.get(i));
+            for(double q : new double[]{0d,0.5,0.85,0.95,1d})
+                assertEquals(exact.get_quantile(q),path_sketch.get_quantile(q),1e-9);
+
+            for(core.Link link : path.get_ordered_links()){
+                List<Double> values = quantile_output.get_profile_for_linkid(link.getId()).get_values();
+                double last = values.get(values.size()-1);
+                assertEquals(otm.scenario.path_tt_manager.get_link_sketch(link.getId()).get_quantile(0.95),last,1e-9);
+                assertTrue(link.link_tt.get_quantile(0.5)<=last);
+            }
+
+            // vehicle model: memory of the lane group sketches does not grow with the number of vehicles
+            otm = OTM.load_test("route_choice_spaceq");
+            otm.scenario.add_link_travel_times(Collections.singleton(2L),dt);
+            otm.scenario.path_tt_manager.sketch_k = 20;
+            otm.initialize(0f);
+            otm.advance(3600f);
+            core.Link link = otm.scenario.network.links.get(2L);
+            QuantileSketch link_sketch = otm.scenario.path_tt_manager.get_link_sketch(2L);
+            assertTrue(link_sketch.get_count()>500);
+            assertTrue(link_sketch.get_retained()<=60);
+            assertTrue(link_sketch.get_quantile(0.05)>=link.get_ff_travel_time()-1d);
+            assertTrue(link_sketch.get_quantile(0.5)<=link_sketch.get_quantile(0.95));
+            for(AbstractLaneGroup lg : link.get_lgs())
+                assertTrue(otm.scenario.path_tt_manager.get_lanegroup_sketch(lg).get_retained()<=60);
+            otm.terminate();
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_od_matrix_demand(){
+        try {
+            long [] link_ids = {1L,3L,7L,8L};
+            List<Map<Long,Double>> vehicles = new ArrayList<>();
+            for(int k=0;k<2;k++) {
+
+                // two pairs from link 1, for half an hour. Pair 1-5 has two paths, weighted 3:1.
+                OTM otm = OTM.load_test("od_paths",keep_source());
+                ODMatrix matrix = new ODMatrix(1L, 0f, 1800f, 2);
+                matrix.set_rates(1L, 5L, new double[]{1200d, 0d});
+                matrix.set_rates(1L, 8L, new double[]{600d, 0d});
+                ODDemand od = otm.scenario.add_od_matrix(matrix);
+                Map<Long, Double> weights = new HashMap<>();
+                weights.put(1L, 3d);
+                weights.put(2L, 1d);
+                od.set_path_weights(1L, 5L, weights);
+                assertEquals(900d, otm.scenario.get_total_trips(), 1e-6);
+
+                otm.set_random_seed(2L);
+                otm.initialize(0f);
+                otm.advance(600f);
+
+                // a single pending departure for the origin
+                assertEquals(1, otm.scenario.dispatcher.events.stream().filter(e -> e instanceof EventODDeparture).count());
+                assertEquals(0.75, od.get_path_probabilities(1L, 5L).get(1L), 1e-9);
+
+                // the fork carries the OD demand and its pending departure
+                OTM fork = otm.fork();
+                assertEquals(1, fork.scenario.dispatcher.events.stream().filter(e -> e instanceof EventODDeparture).count());
+                fork.advance(6600f);
+                double fork_vehicles = fork.scenario.network.links.get(1L).perf.get_vkt(null);
+                fork.terminate();
+
+                // vehicles through each link, from the distance they covered
+                otm.advance(6600f);
+                Map<Long,Double> x = new HashMap<>();
+                for (long link_id : link_ids) {
+                    core.Link link = otm.scenario.network.links.get(link_id);
+                    x.put(link_id, link.perf.get_vkt(null) / link.perf.length_km);
+                }
+                vehicles.add(x);
+                otm.terminate();
+                assertEquals(x.get(1L),fork_vehicles,0.05*x.get(1L));
+            }
+
+            // the same seed gives the same departures
+            assertEquals(vehicles.get(0),vehicles.get(1));
+
+            Map<Long,Double> x = vehicles.get(0);
+            assertEquals(900d,x.get(1L),120d);
+            assertEquals(450d,x.get(7L),90d);
+            assertEquals(150d,x.get(3L),50d);
+            assertEquals(300d,x.get(8L),70d);
+            assertEquals(x.get(1L),x.get(3L)+x.get(7L)+x.get(8L),1e-6);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_hybrid_packet_blocks(){
+        try {
+
+            // ctm links 0-2 feed spatial queue links 3-5
+            OTM otm = OTM.load_test("line_hybrid");
+            otm.initialize(0f);
+            List<FlowAccumulatorState> into_meso = otm.scenario.network.links.get(2L).get_lgs().stream()
+                    .map(lg->lg.request_flow_accumulator(null)).collect(toList());
+            List<FlowAccumulatorState> out_of_meso = otm.scenario.network.links.get(5L).get_lgs().stream()
+                    .map(lg->lg.request_flow_accumulator(null)).collect(toList());
+
+            int num_blocks = 0;
+            for(int k=0;k<20;k++){
+                otm.advance(60f);
+
+                // each pending block is in the transit queue of its lane group, with a single event
+                for(AbstractEvent e : otm.scenario.dispatcher.events)
+                    if(e instanceof EventTransitBlockToWaiting){
+                        TransitBlock block = (TransitBlock) e.recipient;
+                        assertTrue(block.vehicles.length>1);
+                        for(MesoVehicle vehicle : block.vehicles){
+                            assertSame(block,vehicle.transit_block);
+                            assertSame(block.lanegroup.transit_queue,vehicle.my_queue);
+                        }
+                        float remaining = e.timestamp-otm.get_current_time();
+                        assertTrue(remaining>=0f && remaining<=block.lanegroup.transit_time_sec);
+                        num_blocks++;
+                    }
+
+                // vehicles are conserved across the boundary, up to the fractions kept in the buffers
+                double in = into_meso.stream().mapToDouble(FlowAccumulatorState::get_total_count).sum();
+                double out = out_of_meso.stream().mapToDouble(FlowAccumulatorState::get_total_count).sum();
+                double meso = 0d;
+                double buffered = 0d;
+                for(long link_id=3;link_id<=5;link_id++)
+                    for(AbstractLaneGroup lg : otm.scenario.network.links.get(link_id).get_lgs()) {
+                        meso += lg.get_total_vehicles();
+                        if(lg.buffer!=null)
+                            buffered += lg.buffer.get_total_veh();
+                    }
+                assertEquals(in,meso+out+buffered,1e-6);
+            }
+            assertTrue(num_blocks>0);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
     @Test
     public void test_get_version(){
         assertTrue(!OTM.get_version().isEmpty());
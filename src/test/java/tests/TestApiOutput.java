@@ -1,14 +1,38 @@
 package tests;
 
+import core.Link;
 import core.OTM;
+import core.ScenarioContext;
 import error.OTMException;
 import org.junit.Test;
+import output.OutputAggregated;
+import output.OutputLinkFlow;
+import output.OutputLinkState;
+import output.OutputLinkVehicles;
+import output.OutputLiveState;
+import output.OutputSkims;
+import output.SparseEncoder;
+import routing.ShortestPathEngine;
+import routing.ShortestPathTree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestApiOutput extends AbstractTest {
 
@@ -98,4 +122,265 @@ public class TestApiOutput extends AbstractTest {
         }
     }
 
+    @Test
+    public void test_aggregated_output() {
+
+        try {
+
+            float duration = 600f;
+            float outDt = 60f;
+
+            OTM otm = OTM.load_test("line_ctm");
+            Set<Long> link_ids = otm.scenario.network.links.keySet();
+
+            otm.output.request_links_veh(null, null, null, link_ids, 1f);
+            otm.output.request_links_veh_aggregated(null, null, null, link_ids, "aggregation=mean,max", null, outDt);
+
+            otm.run(0f,duration);
+
+            OutputLinkVehicles inst = (OutputLinkVehicles) otm.output.get_data().stream().filter(x->x instanceof OutputLinkVehicles).findFirst().get();
+            OutputAggregated agg = (OutputAggregated) otm.output.get_data().stream().filter(x->x instanceof OutputAggregated).findFirst().get();
+
+            for(Long link_id : link_ids){
+                List<Double> x = inst.get_profile_for_linkid(link_id).get_values();
+                List<Double> mean = agg.get_profile(OutputAggregated.Reduction.mean,link_id).get_values();
+                List<Double> max = agg.get_profile(OutputAggregated.Reduction.max,link_id).get_values();
+                assertEquals((int)(duration/outDt)+1,mean.size());
+                for(int k=1;k<mean.size();k++){
+                    List<Double> window = x.subList((k-1)*60+1,k*60+1);
+                    double m = window.stream().mapToDouble(v->v).average().getAsDouble();
+                    assertEquals(m,mean.get(k),1e-6);
+                    assertEquals(Collections.max(window),max.get(k),1e-6);
+                }
+            }
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_aggregated_flow_output() {
+
+        try {
+
+            float duration = 600f;
+            float outDt = 60f;
+
+            OTM otm = OTM.load_test("line_ctm");
+            Set<Long> link_ids = otm.scenario.network.links.keySet();
+
+            otm.output.request_links_flow(null, null, null, link_ids, outDt);
+            OutputLinkFlow source = new OutputLinkFlow(otm.scenario, null, null, null, link_ids, outDt);
+            OutputAggregated agg = otm.output.request_aggregated(null, null, source, "mean,max", null, outDt);
+
+            otm.run(0f,duration);
+
+            // each sample is the flow since the previous one, so the mean over a window is the flow of the window
+            OutputLinkFlow flw = (OutputLinkFlow) otm.output.get_data().stream().filter(x->x instanceof OutputLinkFlow).findFirst().get();
+            boolean positive = false;
+            for(Long link_id : link_ids){
+                List<Double> x = flw.get_flow_for_link_in_vph(link_id);
+                List<Double> mean = agg.get_profile(OutputAggregated.Reduction.mean,link_id).get_values();
+                List<Double> max = agg.get_profile(OutputAggregated.Reduction.max,link_id).get_values();
+                assertEquals(x.size()+1,mean.size());
+                for(int k=1;k<mean.size();k++){
+                    assertEquals(x.get(k-1),mean.get(k),1e-3);
+                    assertTrue(max.get(k)>=mean.get(k)-1e-3);
+                    positive |= mean.get(k)>0d;
+                }
+            }
+            assertTrue(positive);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_link_state_output() {
+
+        try {
+
+            float duration = 600f;
+            float outDt = 60f;
+
+            OTM otm = OTM.load_test("line_ctm");
+            Set<Long> link_ids = otm.scenario.network.links.keySet();
+
+            otm.output.request_links_flow(null, null, null, link_ids, outDt);
+            otm.output.request_links_veh(null, null, null, link_ids, outDt);
+            otm.output.request_links_state(null, null, null, link_ids, outDt);
+
+            otm.run(0f,duration);
+
+            OutputLinkFlow flw = (OutputLinkFlow) otm.output.get_data().stream().filter(x->x instanceof OutputLinkFlow).findFirst().get();
+            OutputLinkVehicles veh = (OutputLinkVehicles) otm.output.get_data().stream().filter(x->x instanceof OutputLinkVehicles).findFirst().get();
+            OutputLinkState state = (OutputLinkState) otm.output.get_data().stream().filter(x->x instanceof OutputLinkState).findFirst().get();
+
+            for(Long link_id : link_ids){
+                List<Double> flw_vph = flw.get_flow_for_link_in_vph(link_id);
+                List<Double> veh_exp = veh.get_profile_for_linkid(link_id).get_values();
+                List<Double> flw_state = state.get_profile(link_id, OutputLinkState.Channel.flw).get_values();
+                List<Double> veh_state = state.get_profile(link_id, OutputLinkState.Channel.veh).get_values();
+                List<Double> spd_state = state.get_profile(link_id, OutputLinkState.Channel.speed).get_values();
+                assertEquals(veh_exp.size(),veh_state.size());
+                for(int k=0;k<veh_exp.size();k++)
+                    assertEquals(veh_exp.get(k),veh_state.get(k),1e-3);
+                for(int k=0;k<flw_vph.size();k++)
+                    assertEquals(flw_vph.get(k),flw_state.get(k+1),1e-3);
+                assertTrue(spd_state.stream().allMatch(x->x>=0));
+            }
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_link_state_stopped_link() {
+
+        try {
+
+            // a node model tolerance above any supply blocks every node, so the source link fills and stops
+            ScenarioContext context = new ScenarioContext();
+            context.node_model_eps = 1e9;
+            OTM otm = OTM.load_test("line_ctm",context);
+            otm.output.request_links_state(null, null, null, List.of(0L), 60f);
+            otm.run(0f,600f);
+
+            OutputLinkState state = (OutputLinkState) otm.output.get_data().stream().filter(x->x instanceof OutputLinkState).findFirst().get();
+            List<Double> veh = state.get_profile(0L, OutputLinkState.Channel.veh).get_values();
+            List<Double> spd = state.get_profile(0L, OutputLinkState.Channel.speed).get_values();
+            List<Double> tt = state.get_profile(0L, OutputLinkState.Channel.tt).get_values();
+            int last = tt.size()-1;
+            assertTrue(veh.get(last)>0d);
+            assertEquals(0d,spd.get(last),1e-6);
+            assertTrue(Double.isNaN(tt.get(last)));
+            assertTrue(tt.stream().noneMatch(x->Double.isInfinite(x)));
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_live_state_output() {
+
+        try {
+
+            OTM otm = OTM.load_test("line_ctm");
+            List<Long> link_ids = new ArrayList<>(otm.scenario.network.links.keySet());
+            otm.output.request_live_state("live", output_folder, link_ids, 10f, 4);
+            otm.run(0f,300f);
+
+            try (FileChannel channel = FileChannel.open(Paths.get(output_folder,"live_live.bin"), StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+                assertEquals(OutputLiveState.MAGIC,buffer.getInt(0));
+                assertEquals(link_ids.size(),buffer.getInt(OutputLiveState.OFF_NUM_LINKS));
+                assertEquals(31L,buffer.getLong(OutputLiveState.OFF_NUM_SNAPSHOTS));
+                assertEquals(0L,buffer.getLong(OutputLiveState.OFF_SEQ) % 2);
+
+                float [] x = OutputLiveState.read_latest(buffer);
+                assertEquals(300f,x[0],1e-6);
+                for(int i=0;i<link_ids.size();i++)
+                    assertEquals(otm.scenario.network.links.get(link_ids.get(i)).get_veh(),x[1+i],1e-3);
+            }
+
+        } catch (OTMException | IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_skims_output() {
+
+        try {
+
+            OTM otm = OTM.load_test("mixing");
+            otm.output.request_skims("skims", output_folder, null, 300f, 2);
+            otm.run(0f,1800f);
+
+            OutputSkims output = (OutputSkims) otm.scenario.outputs.iterator().next();
+            OutputSkims.SkimFile file = OutputSkims.read(Paths.get(output_folder,"skims_skims.bin").toString());
+            int n = file.node_ids.length;
+            assertArrayEquals(output.node_ids,file.node_ids);
+            assertEquals(7,file.timestamps.length);
+            assertEquals(1800f,file.timestamps[6],0f);
+            assertEquals(1800f,output.get_timestamp(),0f);
+
+            // the last record is the fastest trip over the link trees of the outgoing links of each origin
+            ShortestPathEngine engine = otm.scenario.get_shortest_path_engine(true);
+            int num_paths = 0;
+            for(int i=0;i<n;i++)
+                for(int j=0;j<n;j++){
+                    double best_tt = i==j ? 0d : Double.NaN;
+                    double best_length = i==j ? 0d : Double.NaN;
+                    if(i!=j)
+                        for(Link origin : otm.scenario.network.nodes.get(file.node_ids[i]).get_out_links()){
+                            ShortestPathTree tree = engine.one_to_all(origin.getId(),1800f);
+                            for(Link dest : otm.scenario.network.nodes.get(file.node_ids[j]).get_in_links()){
+                                double tt = tree.get_travel_time(dest.getId());
+                                if(!Double.isNaN(tt) && (Double.isNaN(best_tt) || tt<best_tt)){
+                                    best_tt = tt;
+                                    best_length = tree.get_path(dest.getId()).stream()
+                                            .mapToDouble(id->otm.scenario.network.links.get(id).get_full_length())
+                                            .sum();
+                                }
+                            }
+                        }
+                    assertEquals((float) best_tt,file.time[6][i*n+j],1e-2);
+                    assertEquals((float) best_length,file.distance[6][i*n+j],1e-2);
+                    assertEquals(file.time[6][i*n+j],output.get_travel_time(file.node_ids[i],file.node_ids[j]),0f);
+                    assertEquals(file.distance[6][i*n+j],output.get_distance(file.node_ids[i],file.node_ids[j]),0f);
+                    if(i!=j && !Double.isNaN(best_tt))
+                        num_paths++;
+                }
+            assertTrue(num_paths>0);
+
+        } catch (OTMException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void test_sparse_output() {
+
+        try {
+
+            OTM otm = OTM.load_test("line_ctm");
+            otm.output.request_links_veh("dense", output_folder, null, null, 10f);
+            otm.output.request_links_veh_sparse("sparse0", output_folder, null, null, 0f, 5, 10f);
+            otm.output.request_links_veh_sparse("sparse1", output_folder, null, null, 1f, 5, 10f);
+            otm.run(0f,600f);
+
+            double [][] dense = read_matrix(Paths.get(output_folder,"dense_allcomms_link_veh.txt").toString());
+            double [][] sparse0 = SparseEncoder.read_dense(Paths.get(output_folder,"sparse0_allcomms_link_veh.txt").toString());
+            double [][] sparse1 = SparseEncoder.read_dense(Paths.get(output_folder,"sparse1_allcomms_link_veh.txt").toString());
+
+            assertEquals(dense.length,sparse0.length);
+            assertEquals(dense.length,sparse1.length);
+            for(int k=0;k<dense.length;k++) {
+                assertArrayEquals(dense[k], sparse0[k], 1e-6);
+                assertArrayEquals(dense[k], sparse1[k], 1d+1e-6);
+            }
+
+        } catch (OTMException | IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    private static double [][] read_matrix(String filename) throws IOException {
+        return Files.readAllLines(Paths.get(filename)).stream()
+                .map(line->Arrays.stream(line.split(",")).mapToDouble(Double::parseDouble).toArray())
+                .toArray(double[][]::new);
+    }
+
 }